@@ -0,0 +1,95 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the JMH JSON results of two labels written by {@link BenchmarkRunner}. A change is reported as a
+ * regression or an improvement only if it is larger than the sum of the score errors of the two runs.
+ */
+class BenchmarkComparison {
+    private final Map<String, Score> baseline;
+    private final Map<String, Score> candidate;
+
+    BenchmarkComparison(final Path resultDirectory, final String baselineLabel, final String candidateLabel) throws IOException {
+        this.baseline = readScores(resultDirectory, baselineLabel);
+        this.candidate = readScores(resultDirectory, candidateLabel);
+    }
+
+    void print(final PrintStream out) {
+        out.printf("%-100s %16s %16s %9s%n", "Benchmark", "Baseline", "Candidate", "Change");
+        for (final Map.Entry<String, Score> entry : candidate.entrySet()) {
+            final Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+
+            final Score after = entry.getValue();
+            final double change = (after.value - before.value) / before.value * 100;
+            out.printf("%-100s %16.3f %16.3f %+8.1f%% %s%n", entry.getKey(), before.value, after.value, change,
+                    verdict(before, after));
+        }
+    }
+
+    private static String verdict(final Score before, final Score after) {
+        if (Math.abs(after.value - before.value) <= before.error + after.error) {
+            return "";
+        }
+        //Lower is better only for the time based modes.
+        final boolean better = after.lowerIsBetter ? after.value < before.value : after.value > before.value;
+        return better ? "improvement" : "REGRESSION";
+    }
+
+    private static Map<String, Score> readScores(final Path resultDirectory, final String label) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Map<String, Score> scores = new TreeMap<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(resultDirectory, label + "-*.json")) {
+            for (final Path file : files) {
+                for (final JsonNode result : mapper.readTree(file.toFile())) {
+                    final JsonNode metric = result.get("primaryMetric");
+                    final String mode = result.get("mode").asText();
+                    final Score score = new Score(metric.get("score").asDouble(),
+                            metric.get("scoreError").asDouble(), !mode.equals("thrpt"));
+                    scores.put(key(result), score);
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static String key(final JsonNode result) {
+        final StringBuilder key = new StringBuilder(result.get("benchmark").asText());
+        final JsonNode params = result.get("params");
+        if (params != null) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> param = fields.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+        }
+        return key.append(" threads=").append(result.get("threads").asInt()).toString();
+    }
+
+    private static final class Score {
+        private final double value;
+        private final double error;
+        private final boolean lowerIsBetter;
+
+        private Score(final double value, final double error, final boolean lowerIsBetter) {
+            this.value = value;
+            //Error is NaN when there were too few iterations to compute it.
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.lowerIsBetter = lowerIsBetter;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks and writes the results as JMH JSON files into the results directory, named by a label, e.g. the
+ * commit being measured:
+ * <ul>
+ * <li>{@code <label>-single.json}: benchmarks run by a single thread</li>
+ * <li>{@code <label>-threads-<n>.json}: {@link TransferBenchmark} run by n threads, for n = 1, 2, 4, ... up to the
+ * maximum</li>
+ * </ul>
+ *
+ * Arguments:
+ * <ul>
+ * <li>{@code --include=<regex>}: benchmarks to run (default: all)</li>
+ * <li>{@code --param=<name>=<value>[,<value>...]}: values of a benchmark parameter, can be repeated</li>
+ * <li>{@code --threads=<n>}: maximum number of threads (default: number of processors)</li>
+ * <li>{@code --results=<dir>}: results directory (default: target/benchmark-results)</li>
+ * <li>{@code --label=<label>}: label of the result files (default: current)</li>
+ * <li>{@code --compare=<label>}: after running, compares the results with the ones of the given label, see
+ * {@link BenchmarkComparison}</li>
+ * <li>{@code --quick}: fewer and shorter iterations, for checking the benchmarks rather than measuring</li>
+ * <li>{@code --gc}: also measures the allocations with the JMH GC profiler, reported as the bytes allocated per
+ * operation in gc.alloc.rate.norm</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+    private static final String SCALING_BENCHMARKS = TransferBenchmark.class.getSimpleName();
+
+    public static void main(final String[] args) throws RunnerException, IOException {
+        String include = ".*";
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        Path resultDirectory = Paths.get("target", "benchmark-results");
+        String label = "current";
+        String baseline = null;
+        boolean quick = false;
+        boolean gc = false;
+        final Map<String, String[]> params = new LinkedHashMap<>();
+
+        for (final String arg : args) {
+            if (arg.startsWith("--include=")) {
+                include = value(arg);
+            } else if (arg.startsWith("--param=")) {
+                final String param = value(arg);
+                final int separator = param.indexOf('=');
+                if (separator < 1) {
+                    throw new IllegalArgumentException("Parameter must be given as <name>=<values>: " + arg);
+                }
+                params.put(param.substring(0, separator), param.substring(separator + 1).split(","));
+            } else if (arg.startsWith("--threads=")) {
+                maxThreads = Integer.parseInt(value(arg));
+            } else if (arg.startsWith("--results=")) {
+                resultDirectory = Paths.get(value(arg));
+            } else if (arg.startsWith("--label=")) {
+                label = value(arg);
+            } else if (arg.startsWith("--compare=")) {
+                baseline = value(arg);
+            } else if (arg.equals("--quick")) {
+                quick = true;
+            } else if (arg.equals("--gc")) {
+                gc = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        Files.createDirectories(resultDirectory);
+
+        final Path single = resultDirectory.resolve(label + "-single.json");
+        run(options(quick, gc, params, single, 1).include(include).exclude(SCALING_BENCHMARKS), single);
+
+        //Both the given pattern and the scaling benchmarks must match.
+        final String scaling = "^(?=.*(" + include + "))(?=.*" + SCALING_BENCHMARKS + ").*";
+        for (final int threads : threadCounts(maxThreads)) {
+            final Path result = resultDirectory.resolve(label + "-threads-" + threads + ".json");
+            run(options(quick, gc, params, result, threads).include(scaling), result);
+        }
+
+        if (baseline != null) {
+            new BenchmarkComparison(resultDirectory, baseline, label).print(System.out);
+        }
+    }
+
+    private static String value(final String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static List<Integer> threadCounts(final int maxThreads) {
+        final List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    private static ChainedOptionsBuilder options(final boolean quick, final boolean gc, final Map<String, String[]> params,
+                                                 final Path result, final int threads) {
+        final ChainedOptionsBuilder options = new OptionsBuilder();
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            //Guice generates classes through reflection on the class loader, which is closed since Java 9.
+            options.jvmArgsAppend("--add-opens", "java.base/java.lang=ALL-UNNAMED");
+        }
+        for (final Map.Entry<String, String[]> param : params.entrySet()) {
+            options.param(param.getKey(), param.getValue());
+        }
+        if (gc) {
+            options.addProfiler(GCProfiler.class);
+        }
+        return options
+                .threads(threads)
+                .forks(1)
+                .warmupIterations(quick ? 1 : 3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(quick ? 1 : 5)
+                .measurementTime(TimeValue.seconds(quick ? 1 : 2))
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.toString());
+    }
+
+    /**
+     * Writes no results if no benchmark matches.
+     */
+    private static void run(final ChainedOptionsBuilder options, final Path result) throws RunnerException, IOException {
+        try {
+            new Runner(options.build()).run();
+        } catch (NoBenchmarksException e) {
+            //JMH creates the result file before finding out that there is nothing to run.
+            Files.deleteIfExists(result);
+        }
+    }
+}
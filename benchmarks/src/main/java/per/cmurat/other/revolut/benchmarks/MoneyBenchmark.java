@@ -0,0 +1,50 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.MathUtils;
+import per.cmurat.other.revolut.core.rest.MoneyConverter;
+
+import java.math.BigDecimal;
+
+/**
+ * Arithmetic of the ledger on minor units by {@link MathUtils}, against the same operations on {@link BigDecimal}
+ * amounts, and the conversions between the two done by {@link MoneyConverter} for every request.
+ */
+@State(Scope.Thread)
+public class MoneyBenchmark {
+    private long balance = 1_234_567_890L;
+    private long amount = 12_345L;
+    private BigDecimal decimalBalance = new BigDecimal("123456.789");
+    private BigDecimal decimalAmount = new BigDecimal("1.2345");
+
+    private MoneyConverter converter;
+
+    @Setup
+    public void setUp() {
+        converter = new MoneyConverter(AppConfig.defaults());
+    }
+
+    @Benchmark
+    public long addAndSubtractMinorUnits() {
+        return MathUtils.sub(MathUtils.add(balance, amount), amount);
+    }
+
+    @Benchmark
+    public BigDecimal addAndSubtractBigDecimals() {
+        return decimalBalance.add(decimalAmount).subtract(decimalAmount);
+    }
+
+    @Benchmark
+    public long toMinorUnits() {
+        return converter.toMinorUnits(decimalAmount);
+    }
+
+    @Benchmark
+    public BigDecimal toDecimal() {
+        return converter.toDecimal(amount);
+    }
+}
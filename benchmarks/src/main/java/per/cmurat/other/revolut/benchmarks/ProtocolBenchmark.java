@@ -0,0 +1,139 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.SimpleModule;
+import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.binary.BinaryClient;
+import per.cmurat.other.revolut.core.binary.BinaryServer;
+import per.cmurat.other.revolut.core.rest.RestMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Throughput of transfers submitted over the REST API and over the binary protocol, to the same
+ * {@link AccountingService} on the local host. The binary protocol is measured both with a request at a time and
+ * with {@link #PIPELINE_DEPTH} requests in flight over the connection.
+ */
+public class ProtocolBenchmark {
+    private static final int PIPELINE_DEPTH = 64;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+        private static final int ACCOUNT_COUNT = 1000;
+
+        Injector injector;
+        long[] accountIds;
+        int binaryPort;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            final Properties properties = new Properties();
+            properties.setProperty(AppConfig.BINARY_PORT, "0");
+            injector = Guice.createInjector(new SimpleModule(new AppConfig(properties)));
+
+            final AccountingService service = injector.getInstance(AccountingService.class);
+            accountIds = new long[ACCOUNT_COUNT];
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                accountIds[i] = service.createAccount(INITIAL_BALANCE).getId();
+            }
+
+            injector.getInstance(RestMapper.class).createMappings();
+            final BinaryServer binaryServer = injector.getInstance(BinaryServer.class);
+            binaryServer.start();
+            binaryPort = binaryServer.getPort();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            injector.getInstance(BinaryServer.class).close();
+            injector.getInstance(RestMapper.class).stopServer();
+            injector.getInstance(AccountingService.class).close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        final SplittableRandom random = new SplittableRandom();
+        final CompletableFuture<?>[] inFlight = new CompletableFuture<?>[PIPELINE_DEPTH];
+        URL transferUrl;
+        BinaryClient binaryClient;
+
+        @Setup(Level.Trial)
+        public void setUp(final Server server) throws IOException {
+            transferUrl = new URL("http://localhost:4567/accounting/processTransfer");
+            binaryClient = new BinaryClient("localhost", server.binaryPort);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            binaryClient.close();
+        }
+    }
+
+    @Benchmark
+    public int restTransfer(final Server server, final Client client) throws IOException {
+        final long sender = server.accountIds[client.random.nextInt(server.accountIds.length)];
+        final long receiver = server.accountIds[client.random.nextInt(server.accountIds.length)];
+        final byte[] body = ("{\"sendingAccountId\":" + sender + ",\"receivingAccountId\":" + receiver + ",\"amount\":0.0001}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        final HttpURLConnection connection = (HttpURLConnection) client.transferUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("Transfer failed with status " + connection.getResponseCode());
+        }
+
+        //The connection is kept alive only if the response is read to the end.
+        int length = 0;
+        final byte[] buffer = new byte[512];
+        try (InputStream in = connection.getInputStream()) {
+            for (int read; (read = in.read(buffer)) >= 0; ) {
+                length += read;
+            }
+        }
+        return length;
+    }
+
+    @Benchmark
+    public BinaryClient.Transfer binaryTransfer(final Server server, final Client client) throws Exception {
+        final long sender = server.accountIds[client.random.nextInt(server.accountIds.length)];
+        final long receiver = server.accountIds[client.random.nextInt(server.accountIds.length)];
+        return client.binaryClient.transfer(sender, receiver, 1L).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public void binaryPipelinedTransfers(final Server server, final Client client) throws Exception {
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            final long sender = server.accountIds[client.random.nextInt(server.accountIds.length)];
+            final long receiver = server.accountIds[client.random.nextInt(server.accountIds.length)];
+            client.inFlight[i] = client.binaryClient.transfer(sender, receiver, 1L);
+        }
+        for (final CompletableFuture<?> transfer : client.inFlight) {
+            transfer.get();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.db.EntityStore;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Storing and finding accounts with each of the storage engines of the repositories.
+ */
+public class RepositoryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+        @Param({"MAP", "HASH", "ARRAY"})
+        AppConfig.StorageEngine storageEngine;
+
+        @Param({"1000000"})
+        int accountCount;
+
+        AssetAccountRepository repository;
+        AssetAccount[] accounts;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            final Properties properties = new Properties();
+            properties.setProperty(AppConfig.STORAGE_ENGINE, storageEngine.name());
+            repository = new AssetAccountRepository(new AppConfig(properties));
+
+            accounts = new AssetAccount[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                final AssetAccount account = new AssetAccount();
+                repository.assignId(account);
+                repository.store(account);
+                accounts[i] = account;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public AssetAccount findById(final Accounts accounts, final Client client) {
+        return accounts.repository.findById(1 + client.random.nextInt(accounts.accountCount));
+    }
+
+    /**
+     * Stores an existing account again, as every transfer does.
+     */
+    @Benchmark
+    public AssetAccount store(final Accounts accounts, final Client client) {
+        return accounts.repository.store(accounts.accounts[client.random.nextInt(accounts.accountCount)]);
+    }
+
+    /**
+     * Puts all of the accounts into a new store of the storage engine. With the GC profiler, gc.alloc.rate.norm
+     * divided by the number of accounts is the heap taken by an entry of the store, excluding the account itself,
+     * plus the garbage left by growing the store.
+     */
+    @Benchmark
+    public EntityStore<AssetAccount> fill(final Accounts accounts) {
+        final EntityStore<AssetAccount> store = EntityStore.create(accounts.storageEngine);
+        for (final AssetAccount account : accounts.accounts) {
+            store.put(account.getId(), account);
+        }
+        return store;
+    }
+}
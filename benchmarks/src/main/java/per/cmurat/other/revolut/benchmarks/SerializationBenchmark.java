@@ -0,0 +1,128 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.rest.JsonCodec;
+import per.cmurat.other.revolut.core.rest.MoneyConverter;
+import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Reading and writing the DTOs of the REST API with a plain {@link ObjectMapper}, and the request and response bodies
+ * of a transfer both the way {@link per.cmurat.other.revolut.core.rest.RestMapper} used to with an
+ * {@link ObjectMapper} and the way it does with the {@link JsonCodec}. Run with {@code --gc} to see the bytes
+ * allocated per transfer, gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MoneyConverter moneyConverter = new MoneyConverter(AppConfig.defaults());
+    private final JsonCodec codec = new JsonCodec(moneyConverter);
+    private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream(256);
+
+    private TransactionDto transaction;
+    private AssetAccountDto account;
+    private String transferRequest;
+    private byte[] transferRequestBody;
+    private Transaction processedTransfer;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        transaction = new TransactionDto();
+        transaction.setId(123_456L);
+        transaction.setSendingAccountId(1L);
+        transaction.setReceivingAccountId(2L);
+        transaction.setAmount(new BigDecimal("10.25"));
+        transaction.setDateTime(LocalDateTime.of(2019, 1, 1, 12, 30, 15));
+
+        account = new AssetAccountDto();
+        account.setId(1L);
+        account.setBalance(new BigDecimal("1234.5600"));
+
+        final TransactionDto request = new TransactionDto();
+        request.setSendingAccountId(1L);
+        request.setReceivingAccountId(2L);
+        request.setAmount(new BigDecimal("10.25"));
+        transferRequest = mapper.writeValueAsString(request);
+        transferRequestBody = transferRequest.getBytes(StandardCharsets.UTF_8);
+
+        final AssetAccount sendingAccount = new AssetAccount();
+        sendingAccount.setId(1L);
+        final AssetAccount receivingAccount = new AssetAccount();
+        receivingAccount.setId(2L);
+        processedTransfer = new Transaction();
+        processedTransfer.setId(123_456L);
+        processedTransfer.setCreditAccount(sendingAccount);
+        processedTransfer.setDebitAccount(receivingAccount);
+        processedTransfer.setAmount(moneyConverter.toMinorUnits(new BigDecimal("10.25")));
+        processedTransfer.setTimestamp(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String writeTransaction() throws JsonProcessingException {
+        return mapper.writeValueAsString(transaction);
+    }
+
+    @Benchmark
+    public String writeAccount() throws JsonProcessingException {
+        return mapper.writeValueAsString(account);
+    }
+
+    @Benchmark
+    public TransactionDto readTransferRequest() throws IOException {
+        return mapper.readValue(transferRequest, TransactionDto.class);
+    }
+
+    /**
+     * A transfer request read from a string of the body and the transaction written into a string, which was then
+     * written to the response.
+     */
+    @Benchmark
+    public int transferWithObjectMapper() throws IOException {
+        final TransactionDto request = mapper.readValue(new String(transferRequestBody, StandardCharsets.UTF_8), TransactionDto.class);
+        if (request.getSendingAccountId() != processedTransfer.getCreditAccount().getId()) {
+            throw new IllegalStateException();
+        }
+
+        final TransactionDto response = new TransactionDto();
+        response.setId(processedTransfer.getId());
+        response.setSendingAccountId(processedTransfer.getCreditAccount().getId());
+        response.setReceivingAccountId(processedTransfer.getDebitAccount().getId());
+        response.setAmount(moneyConverter.toDecimal(processedTransfer.getAmount()));
+        response.setDateTime(Instant.ofEpochMilli(processedTransfer.getTimestamp()).atZone(ZoneId.systemDefault()).toLocalDateTime());
+
+        responseBody.reset();
+        responseBody.write(mapper.writeValueAsString(response).getBytes(StandardCharsets.UTF_8));
+        return responseBody.size();
+    }
+
+    /**
+     * A transfer request parsed from the bytes of the body and the transaction written straight to the response.
+     */
+    @Benchmark
+    public int transferWithCodec() throws IOException {
+        final TransactionDto request = codec.readTransfer(transferRequestBody);
+        if (request.getSendingAccountId() != processedTransfer.getCreditAccount().getId()) {
+            throw new IllegalStateException();
+        }
+
+        responseBody.reset();
+        codec.writeTransaction(processedTransfer, responseBody);
+        return responseBody.size();
+    }
+}
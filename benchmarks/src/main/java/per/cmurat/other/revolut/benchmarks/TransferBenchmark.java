@@ -0,0 +1,96 @@
+package per.cmurat.other.revolut.benchmarks;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.SimpleModule;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Throughput of {@link AccountingService#transfer(long, long, long)} wired as in the application. The number of
+ * threads is set by the runner, see {@link BenchmarkRunner}.
+ */
+public class TransferBenchmark {
+
+    public enum Selection {
+        /**
+         * Every account is equally likely to take part in a transfer.
+         */
+        UNIFORM,
+        /**
+         * A few hot accounts take part in most of the transfers, which makes them contended.
+         */
+        ZIPF
+    }
+
+    @State(Scope.Benchmark)
+    public static class Ledger {
+        //Large enough that no account runs out of money during a run.
+        private static final long INITIAL_BALANCE = Long.MAX_VALUE / 4;
+
+        @Param({"LOCKING", "SHARDED"})
+        AppConfig.Engine engine;
+
+        @Param({"UNIFORM", "ZIPF"})
+        Selection selection;
+
+        @Param({"10000"})
+        int accountCount;
+
+        @Param({"0.99"})
+        double zipfExponent;
+
+        AccountingService service;
+        long[] accountIds;
+        ZipfDistribution zipf;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            final Properties properties = new Properties();
+            properties.setProperty(AppConfig.ENGINE, engine.name());
+            final Injector injector = Guice.createInjector(new SimpleModule(new AppConfig(properties)));
+
+            service = injector.getInstance(AccountingService.class);
+            accountIds = new long[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                accountIds[i] = service.createAccount(INITIAL_BALANCE).getId();
+            }
+            zipf = new ZipfDistribution(accountCount, zipfExponent);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            service.close();
+        }
+
+        int pick(final SplittableRandom random) {
+            return selection == Selection.ZIPF ? zipf.next(random) : random.nextInt(accountIds.length);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public Transaction transfer(final Ledger ledger, final Client client) {
+        final int creditIndex = ledger.pick(client.random);
+        int debitIndex = ledger.pick(client.random);
+        if (debitIndex == creditIndex) {
+            debitIndex = (debitIndex + 1) % ledger.accountIds.length;
+        }
+        return ledger.service.transfer(ledger.accountIds[creditIndex], ledger.accountIds[debitIndex], 1L);
+    }
+}
@@ -0,0 +1,42 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cost of finding the lock of an account in {@link AccountingLockService}, and of taking it uncontended. It is in the
+ * package of the service, since the service is not public.
+ */
+@State(Scope.Thread)
+public class LockLookupBenchmark {
+
+    @Param({"1024"})
+    int stripeCount;
+
+    private AccountingLockService lockService;
+    private final SplittableRandom random = new SplittableRandom();
+
+    @Setup
+    public void setUp() {
+        lockService = new AccountingLockService(stripeCount);
+    }
+
+    @Benchmark
+    public ReentrantLock getLock() {
+        return lockService.getLock(random.nextLong(1, Long.MAX_VALUE));
+    }
+
+    @Benchmark
+    public ReentrantLock lockAndUnlock() {
+        final ReentrantLock lock = lockService.getLock(random.nextLong(1, Long.MAX_VALUE));
+        lock.lock();
+        lock.unlock();
+        return lock;
+    }
+}
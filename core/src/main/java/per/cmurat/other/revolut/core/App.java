@@ -2,7 +2,14 @@ package per.cmurat.other.revolut.core;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.InvariantChecker;
+import per.cmurat.other.revolut.core.accounting.service.TransactionFeed;
+import per.cmurat.other.revolut.core.archive.ArchiveService;
+import per.cmurat.other.revolut.core.binary.BinaryServer;
 import per.cmurat.other.revolut.core.rest.RestMapper;
+import per.cmurat.other.revolut.core.snapshot.RecoveryService;
+import per.cmurat.other.revolut.core.snapshot.SnapshotService;
 
 public class App {
     public static void main(final String[] args) {
@@ -12,14 +19,29 @@ public class App {
     private Injector injector;
 
     public App() {
-        this.injector = Guice.createInjector(new SimpleModule());
+        this(AppConfig.fromSystemProperties());
+    }
+
+    public App(final AppConfig config) {
+        this.injector = Guice.createInjector(new SimpleModule(config));
     }
 
     public void start() {
+        this.injector.getInstance(RecoveryService.class).recover();
+        this.injector.getInstance(InvariantChecker.class).start();
+        this.injector.getInstance(TransactionFeed.class).start();
+        this.injector.getInstance(SnapshotService.class).start();
+        this.injector.getInstance(ArchiveService.class).start();
         this.injector.getInstance(RestMapper.class).createMappings();
+        this.injector.getInstance(BinaryServer.class).start();
     }
 
     public void stop() {
+        this.injector.getInstance(BinaryServer.class).close();
         this.injector.getInstance(RestMapper.class).stopServer();
+        this.injector.getInstance(ArchiveService.class).close();
+        this.injector.getInstance(SnapshotService.class).close();
+        this.injector.getInstance(InvariantChecker.class).close();
+        this.injector.getInstance(AccountingService.class).close();
     }
 }
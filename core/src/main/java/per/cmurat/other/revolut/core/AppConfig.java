@@ -0,0 +1,494 @@
+package per.cmurat.other.revolut.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Settings of the application. Values are read from the given properties, which are the system properties
+ * when the application is started from {@link App#main(String[])}. Missing values fall back to the defaults.
+ */
+public class AppConfig {
+    /**
+     * Number of decimal places kept for the money amounts of the ledger. Balances and amounts are stored as
+     * long values in units of 10^-scale.
+     */
+    public static final String LEDGER_SCALE = "ledger.scale";
+    public static final int DEFAULT_LEDGER_SCALE = 4;
+
+    /**
+     * Execution engine of the transfers. See {@link Engine}.
+     */
+    public static final String ENGINE = "engine";
+
+    /**
+     * Number of shards of the sharded engine. Defaults to the number of available processors.
+     */
+    public static final String ENGINE_SHARDS = "engine.shards";
+
+    /**
+     * Capacity of the queue of each shard of the sharded engine.
+     */
+    public static final String ENGINE_QUEUE_CAPACITY = "engine.queueCapacity";
+    public static final int DEFAULT_ENGINE_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Directory of the journal. Committed changes are not journaled if it is not set.
+     */
+    public static final String JOURNAL_DIR = "journal.dir";
+
+    /**
+     * When a commit is acknowledged relative to its journal record being forced to the disk. See {@link Durability}.
+     */
+    public static final String JOURNAL_DURABILITY = "journal.durability";
+
+    /**
+     * Size in bytes after which the journal continues in a new segment file.
+     */
+    public static final String JOURNAL_SEGMENT_SIZE = "journal.segmentSize";
+    public static final long DEFAULT_JOURNAL_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Interval of forcing the journal to the disk with {@link Durability#ASYNC}.
+     */
+    public static final String JOURNAL_FLUSH_INTERVAL_MS = "journal.flushIntervalMs";
+    public static final long DEFAULT_JOURNAL_FLUSH_INTERVAL_MS = 10;
+
+    /**
+     * Directory of the snapshots. Defaults to the snapshots directory in the journal directory. Snapshots are not
+     * taken if there is no journal.
+     */
+    public static final String SNAPSHOT_DIR = "snapshot.dir";
+
+    /**
+     * Interval of taking snapshots. A snapshot is also taken when the application is stopped.
+     */
+    public static final String SNAPSHOT_INTERVAL_MS = "snapshot.intervalMs";
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MS = 5 * 60 * 1000;
+
+    /**
+     * Number of entries in each file of a snapshot. Files are loaded in parallel while recovering.
+     */
+    public static final String SNAPSHOT_SEGMENT_ENTRIES = "snapshot.segmentEntries";
+    public static final int DEFAULT_SNAPSHOT_SEGMENT_ENTRIES = 1 << 20;
+
+    /**
+     * Number of threads loading the snapshot while recovering. Defaults to the number of available processors.
+     */
+    public static final String RECOVERY_THREADS = "recovery.threads";
+
+    /**
+     * Storage of the entities of the repositories. See {@link StorageEngine}.
+     */
+    public static final String STORAGE_ENGINE = "storage.engine";
+
+    /**
+     * Width of the time buckets of the transaction time index. Narrower buckets make range queries read fewer
+     * transactions outside the range, at the cost of more buckets.
+     */
+    public static final String TIME_INDEX_BUCKET_MS = "index.timeBucketMs";
+    public static final long DEFAULT_TIME_INDEX_BUCKET_MS = 1000;
+
+    /**
+     * Number of accounts tracked by the lock contention tracker. The most contended accounts are found more
+     * accurately with more of them.
+     */
+    public static final String CONTENTION_TRACKED_ACCOUNTS = "contention.trackedAccounts";
+    public static final int DEFAULT_CONTENTION_TRACKED_ACCOUNTS = 64;
+
+    /**
+     * Time an idempotency key is remembered after its transfer, in milliseconds.
+     */
+    public static final String IDEMPOTENCY_TTL_MS = "idempotency.ttlMs";
+    public static final long DEFAULT_IDEMPOTENCY_TTL_MS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Maximum number of idempotency keys remembered. The oldest keys are forgotten first.
+     */
+    public static final String IDEMPOTENCY_MAX_KEYS = "idempotency.maxKeys";
+    public static final int DEFAULT_IDEMPOTENCY_MAX_KEYS = 100_000;
+
+    /**
+     * Ids of the hot accounts, separated by commas. The balances of the hot accounts are split into sub-balances
+     * by the locking engine, so that concurrent transfers to and from them do not wait for each other.
+     */
+    public static final String HOT_ACCOUNTS = "hotAccounts.ids";
+
+    /**
+     * Number of sub-balances of each hot account.
+     */
+    public static final String HOT_ACCOUNT_SUB_BALANCES = "hotAccounts.subBalances";
+    public static final int DEFAULT_HOT_ACCOUNT_SUB_BALANCES = 8;
+
+    /**
+     * Port of the binary protocol server, 0 for any free port. The server is not started if it is not set.
+     */
+    public static final String BINARY_PORT = "binary.port";
+
+    /**
+     * Number of threads running the requests of the binary protocol server. Defaults to the number of available
+     * processors.
+     */
+    public static final String BINARY_WORKERS = "binary.workers";
+
+    /**
+     * Maximum number of requests of a binary protocol connection whose responses are not written yet. Reading from
+     * the connection is paused while it has that many.
+     */
+    public static final String BINARY_MAX_PENDING = "binary.maxPendingRequests";
+    public static final int DEFAULT_BINARY_MAX_PENDING = 256;
+
+    /**
+     * Time a hold lasts if the request does not say, in milliseconds.
+     */
+    public static final String HOLD_DEFAULT_TTL_MS = "holds.defaultTtlMs";
+    public static final long DEFAULT_HOLD_DEFAULT_TTL_MS = 60 * 1000;
+
+    /**
+     * Longest time a hold can last, in milliseconds.
+     */
+    public static final String HOLD_MAX_TTL_MS = "holds.maxTtlMs";
+    public static final long DEFAULT_HOLD_MAX_TTL_MS = 24 * 60 * 60 * 1000;
+
+    /**
+     * Tick of the timing wheel expiring the holds, in milliseconds. Holds expire up to a tick late.
+     */
+    public static final String HOLD_TICK_MS = "holds.tickMs";
+    public static final long DEFAULT_HOLD_TICK_MS = 100;
+
+    /**
+     * Number of buckets of the timing wheel expiring the holds, rounded up to a power of two. Holds lasting longer
+     * than a turn of the wheel stay in their buckets for several turns.
+     */
+    public static final String HOLD_WHEEL_SIZE = "holds.wheelSize";
+    public static final int DEFAULT_HOLD_WHEEL_SIZE = 1024;
+
+    /**
+     * Time between the checks that the balances add up to the balances the accounts were created with, in
+     * milliseconds.
+     */
+    public static final String INVARIANT_CHECK_INTERVAL_MS = "invariants.intervalMs";
+    public static final long DEFAULT_INVARIANT_CHECK_INTERVAL_MS = 60 * 1000;
+
+    /**
+     * Number of partitions of the accounts summed in parallel by the invariant checks. Defaults to the number of
+     * available processors.
+     */
+    public static final String INVARIANT_CHECK_PARTITIONS = "invariants.partitions";
+
+    /**
+     * Number of the latest committed transactions kept in the ring of the transaction feed, rounded up to a power of
+     * two. Consumers further behind read from the repository.
+     */
+    public static final String FEED_CAPACITY = "feed.capacity";
+    public static final int DEFAULT_FEED_CAPACITY = 1 << 16;
+
+    /**
+     * Directory of the archive segments of the old transactions. Defaults to the archive directory in the journal
+     * directory. Transactions are kept on the heap if neither is set.
+     */
+    public static final String ARCHIVE_DIR = "archive.dir";
+
+    /**
+     * Interval of sealing the old transactions into archive segments, in milliseconds.
+     */
+    public static final String ARCHIVE_INTERVAL_MS = "archive.intervalMs";
+    public static final long DEFAULT_ARCHIVE_INTERVAL_MS = 10 * 1000;
+
+    /**
+     * Number of the latest transaction ids which stay on the heap.
+     */
+    public static final String ARCHIVE_LIVE_TRANSACTIONS = "archive.liveTransactions";
+    public static final int DEFAULT_ARCHIVE_LIVE_TRANSACTIONS = 1 << 20;
+
+    /**
+     * Number of transaction ids sealed into each archive segment.
+     */
+    public static final String ARCHIVE_SEGMENT_TRANSACTIONS = "archive.segmentTransactions";
+    public static final int DEFAULT_ARCHIVE_SEGMENT_TRANSACTIONS = 1 << 18;
+
+    public enum Engine {
+        /**
+         * Transfers run on the calling threads after locking the accounts.
+         */
+        LOCKING,
+        /**
+         * Accounts are partitioned over single threaded shards, which run the transfers.
+         */
+        SHARDED
+    }
+
+    public enum StorageEngine {
+        /**
+         * Concurrent hash map with boxed keys.
+         */
+        MAP,
+        /**
+         * Open addressing hash table with primitive keys.
+         */
+        HASH,
+        /**
+         * Chunked array indexed by the id, which suits the sequentially assigned ids.
+         */
+        ARRAY
+    }
+
+    public enum Durability {
+        /**
+         * Every record is forced to the disk on its own before the commit returns.
+         */
+        SYNC,
+        /**
+         * Commits wait until their record is forced to the disk, but concurrent commits share a single force.
+         */
+        GROUP,
+        /**
+         * Commits return without waiting. The journal is forced periodically, so a crash can lose the commits of
+         * the last interval.
+         */
+        ASYNC
+    }
+
+    private final Properties properties;
+
+    public AppConfig(final Properties properties) {
+        this.properties = AssertionUtils.checkNotNull(properties, "Properties cannot be null");
+    }
+
+    public static AppConfig fromSystemProperties() {
+        return new AppConfig(System.getProperties());
+    }
+
+    public static AppConfig defaults() {
+        return new AppConfig(new Properties());
+    }
+
+    public int getLedgerScale() {
+        final int scale = getInt(LEDGER_SCALE, DEFAULT_LEDGER_SCALE);
+        if (scale < 0 || scale > 18) {
+            throw new IllegalArgumentException(LEDGER_SCALE + " must be between 0 and 18");
+        }
+        return scale;
+    }
+
+    public Engine getEngine() {
+        return getEnum(ENGINE, Engine.class, Engine.LOCKING);
+    }
+
+    public StorageEngine getStorageEngine() {
+        return getEnum(STORAGE_ENGINE, StorageEngine.class, StorageEngine.ARRAY);
+    }
+
+    public long getTimeIndexBucketMillis() {
+        return getPositiveLong(TIME_INDEX_BUCKET_MS, DEFAULT_TIME_INDEX_BUCKET_MS);
+    }
+
+    public int getContentionTrackerCapacity() {
+        return getPositiveInt(CONTENTION_TRACKED_ACCOUNTS, DEFAULT_CONTENTION_TRACKED_ACCOUNTS);
+    }
+
+    public long getIdempotencyTtlMillis() {
+        return getPositiveLong(IDEMPOTENCY_TTL_MS, DEFAULT_IDEMPOTENCY_TTL_MS);
+    }
+
+    public int getIdempotencyMaxKeys() {
+        return getPositiveInt(IDEMPOTENCY_MAX_KEYS, DEFAULT_IDEMPOTENCY_MAX_KEYS);
+    }
+
+    /**
+     * @return Ids of the hot accounts in ascending order, or an empty array if there are none
+     */
+    public long[] getHotAccountIds() {
+        final String value = properties.getProperty(HOT_ACCOUNTS);
+        if (value == null || value.trim().isEmpty()) {
+            return new long[0];
+        }
+
+        try {
+            return Arrays.stream(value.split(",")).map(String::trim).mapToLong(Long::parseLong).sorted().distinct().toArray();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(HOT_ACCOUNTS + " must be a comma separated list of account ids.", e);
+        }
+    }
+
+    public int getHotAccountSubBalanceCount() {
+        return getPositiveInt(HOT_ACCOUNT_SUB_BALANCES, DEFAULT_HOT_ACCOUNT_SUB_BALANCES);
+    }
+
+    /**
+     * @return Port of the binary protocol server, or -1 if the server is disabled
+     */
+    public int getBinaryPort() {
+        final int port = getInt(BINARY_PORT, -1);
+        if (port < -1 || port > 65535) {
+            throw new IllegalArgumentException(BINARY_PORT + " must be between 0 and 65535");
+        }
+        return port;
+    }
+
+    public int getBinaryWorkerCount() {
+        return getPositiveInt(BINARY_WORKERS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getBinaryMaxPending() {
+        return getPositiveInt(BINARY_MAX_PENDING, DEFAULT_BINARY_MAX_PENDING);
+    }
+
+    public long getHoldDefaultTtlMillis() {
+        return getPositiveLong(HOLD_DEFAULT_TTL_MS, DEFAULT_HOLD_DEFAULT_TTL_MS);
+    }
+
+    public long getHoldMaxTtlMillis() {
+        return getPositiveLong(HOLD_MAX_TTL_MS, DEFAULT_HOLD_MAX_TTL_MS);
+    }
+
+    public long getHoldTickMillis() {
+        return getPositiveLong(HOLD_TICK_MS, DEFAULT_HOLD_TICK_MS);
+    }
+
+    public int getHoldWheelSize() {
+        return getPositiveInt(HOLD_WHEEL_SIZE, DEFAULT_HOLD_WHEEL_SIZE);
+    }
+
+    public long getInvariantCheckIntervalMillis() {
+        return getPositiveLong(INVARIANT_CHECK_INTERVAL_MS, DEFAULT_INVARIANT_CHECK_INTERVAL_MS);
+    }
+
+    public int getInvariantCheckPartitions() {
+        return getPositiveInt(INVARIANT_CHECK_PARTITIONS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getEngineShardCount() {
+        return getPositiveInt(ENGINE_SHARDS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getEngineQueueCapacity() {
+        return getPositiveInt(ENGINE_QUEUE_CAPACITY, DEFAULT_ENGINE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return Directory of the journal, or null if journaling is disabled
+     */
+    public Path getJournalDirectory() {
+        final String value = properties.getProperty(JOURNAL_DIR);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return Paths.get(value.trim());
+    }
+
+    public Durability getJournalDurability() {
+        return getEnum(JOURNAL_DURABILITY, Durability.class, Durability.GROUP);
+    }
+
+    public long getJournalSegmentSize() {
+        return getPositiveLong(JOURNAL_SEGMENT_SIZE, DEFAULT_JOURNAL_SEGMENT_SIZE);
+    }
+
+    public long getJournalFlushIntervalMillis() {
+        return getPositiveLong(JOURNAL_FLUSH_INTERVAL_MS, DEFAULT_JOURNAL_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @return Directory of the snapshots, or null if snapshots are disabled
+     */
+    public Path getSnapshotDirectory() {
+        final String value = properties.getProperty(SNAPSHOT_DIR);
+        if (value != null && !value.trim().isEmpty()) {
+            return getJournalDirectory() == null ? null : Paths.get(value.trim());
+        }
+        return getJournalDirectory() == null ? null : getJournalDirectory().resolve("snapshots");
+    }
+
+    public long getSnapshotIntervalMillis() {
+        return getPositiveLong(SNAPSHOT_INTERVAL_MS, DEFAULT_SNAPSHOT_INTERVAL_MS);
+    }
+
+    public int getSnapshotSegmentEntries() {
+        return getPositiveInt(SNAPSHOT_SEGMENT_ENTRIES, DEFAULT_SNAPSHOT_SEGMENT_ENTRIES);
+    }
+
+    public int getFeedCapacity() {
+        return getPositiveInt(FEED_CAPACITY, DEFAULT_FEED_CAPACITY);
+    }
+
+    /**
+     * @return Directory of the archive segments, or null if archiving is disabled
+     */
+    public Path getArchiveDirectory() {
+        final String value = properties.getProperty(ARCHIVE_DIR);
+        if (value != null && !value.trim().isEmpty()) {
+            return Paths.get(value.trim());
+        }
+        return getJournalDirectory() == null ? null : getJournalDirectory().resolve("archive");
+    }
+
+    public long getArchiveIntervalMillis() {
+        return getPositiveLong(ARCHIVE_INTERVAL_MS, DEFAULT_ARCHIVE_INTERVAL_MS);
+    }
+
+    public int getArchiveLiveTransactions() {
+        return getPositiveInt(ARCHIVE_LIVE_TRANSACTIONS, DEFAULT_ARCHIVE_LIVE_TRANSACTIONS);
+    }
+
+    public int getArchiveSegmentTransactions() {
+        return getPositiveInt(ARCHIVE_SEGMENT_TRANSACTIONS, DEFAULT_ARCHIVE_SEGMENT_TRANSACTIONS);
+    }
+
+    public int getRecoveryThreadCount() {
+        return getPositiveInt(RECOVERY_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    private <E extends Enum<E>> E getEnum(final String key, final Class<E> type, final E defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + " must be one of " + Arrays.toString(type.getEnumConstants()), e);
+        }
+    }
+
+    private long getPositiveLong(final String key, final long defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        final long result;
+        try {
+            result = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a valid long value.", e);
+        }
+        if (result < 1) {
+            throw new IllegalArgumentException(key + " must be positive");
+        }
+        return result;
+    }
+
+    private int getPositiveInt(final String key, final int defaultValue) {
+        final int value = getInt(key, defaultValue);
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be positive");
+        }
+        return value;
+    }
+
+    private int getInt(final String key, final int defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a valid int value.", e);
+        }
+    }
+}
@@ -1,13 +1,78 @@
 package per.cmurat.other.revolut.core;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
 import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
 import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.HoldService;
+import per.cmurat.other.revolut.core.accounting.service.IdempotencyCache;
+import per.cmurat.other.revolut.core.accounting.service.InvariantChecker;
+import per.cmurat.other.revolut.core.accounting.service.LockingTransferEngine;
+import per.cmurat.other.revolut.core.accounting.service.ShardedTransferEngine;
+import per.cmurat.other.revolut.core.accounting.service.TransactionFeed;
+import per.cmurat.other.revolut.core.accounting.service.TransferEngine;
+import per.cmurat.other.revolut.core.archive.ArchiveService;
+import per.cmurat.other.revolut.core.archive.TransactionArchive;
+import per.cmurat.other.revolut.core.binary.BinaryServer;
+import per.cmurat.other.revolut.core.journal.DisabledJournal;
+import per.cmurat.other.revolut.core.journal.FileJournal;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+import per.cmurat.other.revolut.core.metrics.MetricsRegistry;
 import per.cmurat.other.revolut.core.rest.RestMapper;
+import per.cmurat.other.revolut.core.snapshot.RecoveryService;
+import per.cmurat.other.revolut.core.snapshot.SnapshotService;
 
 public class SimpleModule extends AbstractModule {
+    private final AppConfig config;
+
+    public SimpleModule() {
+        this(AppConfig.fromSystemProperties());
+    }
+
+    public SimpleModule(final AppConfig config) {
+        this.config = config;
+    }
+
     @Override
     protected void configure() {
+        bind(AppConfig.class).toInstance(config);
+
+        bind(AssetAccountRepository.class).in(Singleton.class);
+        bind(TransactionArchive.class).in(Singleton.class);
+        bind(TransactionRepository.class).in(Singleton.class);
+        bind(AccountHistoryIndex.class).in(Singleton.class);
+        bind(TransactionTimeIndex.class).in(Singleton.class);
+        bind(MetricsRegistry.class).in(Singleton.class);
+        bind(LedgerMetrics.class).in(Singleton.class);
+        bind(ContentionTracker.class).in(Singleton.class);
+        bind(IdempotencyCache.class).in(Singleton.class);
+        bind(HoldService.class).in(Singleton.class);
+        bind(InvariantChecker.class).in(Singleton.class);
+        bind(TransactionFeed.class).in(Singleton.class);
+        bind(AccountingService.class).in(Singleton.class);
+        bind(RestMapper.class).in(Singleton.class);
+        bind(BinaryServer.class).in(Singleton.class);
+        bind(RecoveryService.class).in(Singleton.class);
+        bind(SnapshotService.class).in(Singleton.class);
+        bind(ArchiveService.class).in(Singleton.class);
+
+        switch (config.getEngine()) {
+            case SHARDED:
+                bind(TransferEngine.class).to(ShardedTransferEngine.class).in(Singleton.class);
+                break;
+            default:
+                bind(TransferEngine.class).to(LockingTransferEngine.class).in(Singleton.class);
+        }
+
+        if (config.getJournalDirectory() != null) {
+            bind(Journal.class).to(FileJournal.class).in(Singleton.class);
+        } else {
+            bind(Journal.class).to(DisabledJournal.class).in(Singleton.class);
+        }
     }
 }
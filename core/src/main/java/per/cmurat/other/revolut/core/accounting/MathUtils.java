@@ -1,19 +1,22 @@
 package per.cmurat.other.revolut.core.accounting;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 
 import static java.math.BigDecimal.ROUND_FLOOR;
 
+/**
+ * Money amounts are kept as long values in the minor units of the ledger (see
+ * {@link per.cmurat.other.revolut.core.AppConfig#LEDGER_SCALE}). Operations fail with an
+ * {@link ArithmeticException} instead of silently overflowing.
+ */
 public class MathUtils {
-    public static final MathContext MATH_CONTEXT = MathContext.DECIMAL128;
 
-    public static BigDecimal add(final BigDecimal a, final BigDecimal b) {
-        return a.add(b, MATH_CONTEXT);
+    public static long add(final long a, final long b) {
+        return Math.addExact(a, b);
     }
 
-    public static BigDecimal sub(final BigDecimal a, final BigDecimal b) {
-        return a.subtract(b, MATH_CONTEXT);
+    public static long sub(final long a, final long b) {
+        return Math.subtractExact(a, b);
     }
 
     public static BigDecimal readableScale(final BigDecimal bd) {
@@ -1,7 +1,7 @@
 package per.cmurat.other.revolut.core.accounting.exception;
 
-public class AccountNotFoundException extends IllegalArgumentException {
+public class AccountNotFoundException extends RejectedException {
     public AccountNotFoundException(final String message) {
-        super(message);
+        super(Rejection.ACCOUNT_NOT_FOUND, message);
     }
 }
@@ -0,0 +1,7 @@
+package per.cmurat.other.revolut.core.accounting.exception;
+
+public class HoldNotFoundException extends RejectedException {
+    public HoldNotFoundException(final String message) {
+        super(Rejection.HOLD_NOT_FOUND, message);
+    }
+}
@@ -1,7 +1,7 @@
 package per.cmurat.other.revolut.core.accounting.exception;
 
-public class InsufficientBalanceException extends IllegalArgumentException {
+public class InsufficientBalanceException extends RejectedException {
     public InsufficientBalanceException(final String message) {
-        super(message);
+        super(Rejection.INSUFFICIENT_BALANCE, message);
     }
 }
@@ -0,0 +1,24 @@
+package per.cmurat.other.revolut.core.accounting.exception;
+
+/**
+ * Rejection of an operation, thrown by the methods which do not return their rejections. It carries no stack trace,
+ * since it reports an expected outcome rather than a failure, and capturing the trace would cost more than the
+ * operation itself.
+ */
+public abstract class RejectedException extends IllegalArgumentException {
+    private final Rejection rejection;
+
+    protected RejectedException(final Rejection rejection, final String message) {
+        super(message);
+        this.rejection = rejection;
+    }
+
+    public Rejection getRejection() {
+        return rejection;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
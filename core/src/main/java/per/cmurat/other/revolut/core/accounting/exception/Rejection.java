@@ -0,0 +1,53 @@
+package per.cmurat.other.revolut.core.accounting.exception;
+
+/**
+ * Reasons for rejecting an operation which are expected outcomes rather than failures of the ledger. The names are
+ * the error codes of the APIs.
+ */
+public enum Rejection {
+    ACCOUNT_NOT_FOUND,
+    INSUFFICIENT_BALANCE,
+    /**
+     * A balance would not fit into the ledger.
+     */
+    AMOUNT_OVERFLOW,
+    /**
+     * The hold does not exist, or it was already captured, released or expired.
+     */
+    HOLD_NOT_FOUND,
+    INVALID_REQUEST;
+
+    /**
+     * @return The rejection the exception stands for, or null if the exception is a failure
+     */
+    public static Rejection of(final RuntimeException exception) {
+        if (exception instanceof RejectedException) {
+            return ((RejectedException) exception).getRejection();
+        }
+        if (exception instanceof ArithmeticException) {
+            return AMOUNT_OVERFLOW;
+        }
+        if (exception instanceof IllegalArgumentException) {
+            return INVALID_REQUEST;
+        }
+        return null;
+    }
+
+    /**
+     * @return The exception thrown for the rejection by the methods which do not return it
+     */
+    public RuntimeException toException(final String message) {
+        switch (this) {
+            case ACCOUNT_NOT_FOUND:
+                return new AccountNotFoundException(message);
+            case INSUFFICIENT_BALANCE:
+                return new InsufficientBalanceException(message);
+            case AMOUNT_OVERFLOW:
+                return new ArithmeticException(message);
+            case HOLD_NOT_FOUND:
+                return new HoldNotFoundException(message);
+            default:
+                return new IllegalArgumentException(message);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package per.cmurat.other.revolut.core.accounting.index;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.db.EntityStore;
+
+import javax.inject.Inject;
+
+/**
+ * Transaction ids of each account in the order they were committed.
+ *
+ * The ids of an account are kept in chunks of primitive long arrays, each twice as large as the one before, so an
+ * account with a few transactions costs little and appending never copies the existing ids. Reading a page only
+ * touches the positions of the page.
+ *
+ * The history of an account must only be appended to by the one having exclusive access to the account. Reads are
+ * lock-free and can run concurrently with the appends.
+ */
+public class AccountHistoryIndex {
+    private final EntityStore<History> histories;
+
+    public AccountHistoryIndex() {
+        this(AppConfig.defaults());
+    }
+
+    @Inject
+    public AccountHistoryIndex(final AppConfig config) {
+        this.histories = EntityStore.create(config.getStorageEngine());
+    }
+
+    /**
+     * Appends the transaction to the histories of both of its accounts.
+     */
+    public void add(final Transaction transaction) {
+        final long creditAccountId = transaction.getCreditAccount().getId();
+        final long debitAccountId = transaction.getDebitAccount().getId();
+
+        add(creditAccountId, transaction.getId());
+        if (debitAccountId != creditAccountId) {
+            add(debitAccountId, transaction.getId());
+        }
+    }
+
+    /**
+     * @return Number of transactions of the account
+     */
+    public int size(final long accountId) {
+        final History history = histories.get(accountId);
+        return history == null ? 0 : history.size;
+    }
+
+    /**
+     * Copies the transaction ids of the account, starting from the given position, until the target is full or the
+     * history ends.
+     *
+     * @return Number of ids copied
+     */
+    public int read(final long accountId, final int from, final long[] target) {
+        if (from < 0) {
+            throw new IllegalArgumentException("Position must be non-negative");
+        }
+
+        final History history = histories.get(accountId);
+        return history == null ? 0 : history.read(from, target);
+    }
+
+    /**
+     * Finds where the transactions of the account with the given id or later ones start. Ids of an account increase in
+     * the order of its history, see {@link #addAll(TransactionRepository)}.
+     *
+     * @return Position of the first transaction with an id not less than the given one, or the size of the history
+     */
+    public int position(final long accountId, final long transactionId) {
+        final History history = histories.get(accountId);
+        return history == null ? 0 : history.position(transactionId);
+    }
+
+    /**
+     * Indexes all of the transactions of the repository, e.g. after recovering. Transaction ids are assigned while
+     * holding the accounts, so the ids of an account increase in the order its transactions were committed.
+     */
+    public void addAll(final TransactionRepository transactionRepository) {
+        final long lastId = transactionRepository.getLastId();
+        for (long id = 1; id <= lastId; id++) {
+            final Transaction transaction = transactionRepository.findById(id);
+            if (transaction != null) {
+                add(transaction);
+            }
+        }
+    }
+
+    private void add(final long accountId, final long transactionId) {
+        History history = histories.get(accountId);
+        if (history == null) {
+            history = new History();
+            histories.put(accountId, history);
+        }
+        history.add(transactionId);
+    }
+
+    static final class History {
+        private static final int FIRST_CHUNK_BITS = 3;
+
+        //Chunk i holds 2^(FIRST_CHUNK_BITS + i) ids.
+        private volatile long[][] chunks = new long[1][];
+        private volatile int size;
+
+        void add(final long value) {
+            final int index = size;
+            final int chunk = chunkOf(index);
+
+            long[][] current = chunks;
+            if (chunk >= current.length || current[chunk] == null) {
+                //Chunks are published before the size, so readers never see a position without its chunk.
+                final long[][] grown = new long[Math.max(current.length, chunk + 1)][];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                grown[chunk] = new long[1 << (FIRST_CHUNK_BITS + chunk)];
+                chunks = grown;
+                current = grown;
+            }
+
+            current[chunk][offsetOf(index, chunk)] = value;
+            size = index + 1;
+        }
+
+        int read(final int from, final long[] target) {
+            final int end = (int) Math.min(size, (long) from + target.length);
+            final long[][] current = chunks;
+
+            int count = 0;
+            for (int index = from; index < end; index++) {
+                final int chunk = chunkOf(index);
+                target[count++] = current[chunk][offsetOf(index, chunk)];
+            }
+            return count;
+        }
+
+        int position(final long value) {
+            int high = size;
+            final long[][] current = chunks;
+            int low = 0;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                final int chunk = chunkOf(middle);
+                if (current[chunk][offsetOf(middle, chunk)] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static int chunkOf(final int index) {
+            return 31 - Integer.numberOfLeadingZeros((index >>> FIRST_CHUNK_BITS) + 1);
+        }
+
+        private static int offsetOf(final int index, final int chunk) {
+            return index - (((1 << chunk) - 1) << FIRST_CHUNK_BITS);
+        }
+    }
+}
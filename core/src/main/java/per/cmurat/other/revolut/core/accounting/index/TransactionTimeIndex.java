@@ -0,0 +1,222 @@
+package per.cmurat.other.revolut.core.accounting.index;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import javax.inject.Inject;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Sparse index of the transactions by their timestamps.
+ *
+ * Time is divided into buckets of a fixed width, and only the smallest and the largest transaction id of each bucket
+ * are kept. Transaction ids are assigned nearly in the order of the timestamps, so the id ranges of the buckets
+ * hardly overlap and a range query reads little more than the matching transactions. Ranges are still correct when
+ * the order is not kept, e.g. between the shards, since the transactions are checked against their bucket.
+ *
+ * Adding is safe from concurrent committers, and scans can run concurrently with the adds.
+ */
+public class TransactionTimeIndex {
+    /**
+     * Number of history entries read at once while scanning an account.
+     */
+    private static final int HISTORY_BATCH_SIZE = 64;
+
+    private final long bucketMillis;
+    private final TransactionRepository transactionRepository;
+    private final AccountHistoryIndex historyIndex;
+
+    private final ConcurrentSkipListMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+    /**
+     * Most of the transactions fall into the latest bucket, which is found without a lookup.
+     */
+    private volatile Bucket latest;
+
+    @Inject
+    public TransactionTimeIndex(final AppConfig config, final TransactionRepository transactionRepository,
+                                final AccountHistoryIndex historyIndex) {
+        this(config.getTimeIndexBucketMillis(), transactionRepository, historyIndex);
+    }
+
+    public TransactionTimeIndex(final long bucketMillis, final TransactionRepository transactionRepository,
+                                final AccountHistoryIndex historyIndex) {
+        if (bucketMillis < 1) {
+            throw new IllegalArgumentException("Bucket width must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.transactionRepository = transactionRepository;
+        this.historyIndex = historyIndex;
+    }
+
+    /**
+     * Must be called after the transaction is stored, so that the transactions in the ranges can be found.
+     */
+    public void add(final Transaction transaction) {
+        final long number = bucketOf(transaction.getTimestamp());
+
+        Bucket bucket = latest;
+        if (bucket == null || bucket.number != number) {
+            bucket = getOrCreateBucket(number);
+        }
+        bucket.include(transaction.getId());
+    }
+
+    /**
+     * Indexes all of the transactions of the repository, e.g. after recovering.
+     */
+    public void addAll(final TransactionRepository repository) {
+        final long lastId = repository.getLastId();
+        for (long id = 1; id <= lastId; id++) {
+            final Transaction transaction = repository.findById(id);
+            if (transaction != null) {
+                add(transaction);
+            }
+        }
+    }
+
+    /**
+     * Visits the transactions with timestamps in [from, to), ordered by their buckets and then by their ids. Only
+     * a bucket is held in memory at a time.
+     *
+     * @param accountId If not null, only the transactions of the account are visited, found by the history index
+     * @param afterId If positive, the scan continues after the transaction with this id, which must have been
+     *                visited by an earlier scan of the same range
+     * @param visitor Returns false to stop the scan
+     */
+    public void scan(final Long accountId, final long from, final long to, final long afterId,
+                     final Predicate<Transaction> visitor) {
+        if (from >= to) {
+            return;
+        }
+
+        long firstBucket = bucketOf(from);
+        if (afterId > 0) {
+            final Transaction after = transactionRepository.findById(afterId);
+            if (after == null) {
+                throw new IllegalArgumentException("Transaction not found. Transaction id: " + afterId);
+            }
+            firstBucket = Math.max(firstBucket, bucketOf(after.getTimestamp()));
+        }
+
+        final long lastBucket = bucketOf(to - 1);
+        for (final Bucket bucket : buckets.subMap(firstBucket, true, lastBucket, true).values()) {
+            //Only the bucket of the last visited transaction is partly visited.
+            final long minId = afterId > 0 && bucket.number == firstBucket
+                    ? Math.max(bucket.minId.get(), afterId + 1)
+                    : bucket.minId.get();
+            final long maxId = bucket.maxId.get();
+            final BucketFilter filter = new BucketFilter(bucket.number, from, to, visitor);
+
+            final boolean completed = accountId == null
+                    ? scanIds(minId, maxId, filter)
+                    : scanHistory(accountId, minId, maxId, filter);
+            if (!completed) {
+                return;
+            }
+        }
+    }
+
+    private boolean scanIds(final long minId, final long maxId, final Predicate<Transaction> filter) {
+        for (long id = minId; id <= maxId; id++) {
+            final Transaction transaction = transactionRepository.findById(id);
+            if (transaction != null && !filter.test(transaction)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean scanHistory(final long accountId, final long minId, final long maxId,
+                                final Predicate<Transaction> filter) {
+        final long[] ids = new long[HISTORY_BATCH_SIZE];
+        int position = historyIndex.position(accountId, minId);
+        while (true) {
+            final int count = historyIndex.read(accountId, position, ids);
+            for (int i = 0; i < count; i++) {
+                if (ids[i] > maxId) {
+                    return true;
+                }
+                if (!filter.test(transactionRepository.findById(ids[i]))) {
+                    return false;
+                }
+            }
+            if (count < ids.length) {
+                return true;
+            }
+            position += count;
+        }
+    }
+
+    private long bucketOf(final long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis);
+    }
+
+    private Bucket getOrCreateBucket(final long number) {
+        Bucket bucket = buckets.get(number);
+        if (bucket == null) {
+            final Bucket created = new Bucket(number);
+            bucket = buckets.putIfAbsent(number, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+
+        final Bucket current = latest;
+        if (current == null || current.number < number) {
+            latest = bucket;
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+        private final long number;
+        private final AtomicLong minId = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxId = new AtomicLong(0);
+
+        private Bucket(final long number) {
+            this.number = number;
+        }
+
+        private void include(final long id) {
+            long current = minId.get();
+            while (id < current && !minId.compareAndSet(current, id)) {
+                current = minId.get();
+            }
+
+            current = maxId.get();
+            while (id > current && !maxId.compareAndSet(current, id)) {
+                current = maxId.get();
+            }
+        }
+    }
+
+    /**
+     * Passes on the transactions of the range which belong to the bucket. A transaction in the id range of another
+     * bucket is visited with its own bucket, so it is skipped here.
+     */
+    private final class BucketFilter implements Predicate<Transaction> {
+        private final long number;
+        private final long from;
+        private final long to;
+        private final Predicate<Transaction> visitor;
+
+        private BucketFilter(final long number, final long from, final long to, final Predicate<Transaction> visitor) {
+            this.number = number;
+            this.from = from;
+            this.to = to;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean test(final Transaction transaction) {
+            final long timestamp = transaction.getTimestamp();
+            if (bucketOf(timestamp) != number || timestamp < from || timestamp >= to) {
+                return true;
+            }
+            return visitor.test(transaction);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package per.cmurat.other.revolut.core.accounting.model;
+
+/**
+ * Committed state of an account, published by the account at the end of each commit (see
+ * {@link AssetAccount#getSnapshot()}). Snapshots are immutable, so readers get a consistent balance without acquiring
+ * the account, and never see a commit in progress.
+ */
+public final class AccountSnapshot {
+    private final long id;
+    private final long balance;
+    private final long held;
+    private final long version;
+
+    public AccountSnapshot(final long id, final long balance, final long held, final long version) {
+        this.id = id;
+        this.balance = balance;
+        this.held = held;
+        this.version = version;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return Balance in the minor units of the ledger
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return Total amount of the active holds
+     */
+    public long getHeld() {
+        return held;
+    }
+
+    public long getAvailableBalance() {
+        return balance - held;
+    }
+
+    /**
+     * @return Number of commits published by the account since it was created or loaded. Later snapshots of an
+     * account have higher versions.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
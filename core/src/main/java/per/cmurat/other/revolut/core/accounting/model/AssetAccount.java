@@ -3,43 +3,355 @@ package per.cmurat.other.revolut.core.accounting.model;
 import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
 import per.cmurat.other.revolut.core.db.Entity;
 
-import java.math.BigDecimal;
-
 import static per.cmurat.other.revolut.core.accounting.MathUtils.add;
-import static per.cmurat.other.revolut.core.accounting.MathUtils.readableScale;
 import static per.cmurat.other.revolut.core.accounting.MathUtils.sub;
 
+/**
+ * Changes of an account are made by a single writer at a time, which has exclusive access to the account. The writer
+ * brackets a commit with {@link #beginUpdate()} and {@link #endUpdate(long)}, so that readers without exclusive access
+ * can read the balance together with the sequence number of the last journal record reflected in it, by calling
+ * {@link #readState(long[])}.
+ *
+ * Each commit publishes an immutable {@link AccountSnapshot} with the next version of the account, which readers get
+ * by {@link #getSnapshot()} without waiting for the writers. The first commit after a cut of the ledger also keeps
+ * the balance before it, so that the balances as of the cut can be summed while the transfers go on, see
+ * {@link #getCutBalance(long)}.
+ *
+ * The balance of a hot account can be split into sub-balances, see {@link #split(int)}. Exclusive access to a split
+ * account also means holding all of its sub-balances, which {@link #beginUpdate()} takes care of.
+ */
 public class AssetAccount extends Entity {
-    private BigDecimal balance;
+    /**
+     * Balance in the minor units of the ledger.
+     */
+    private volatile long balance;
+    /**
+     * Sequence number of the last journal record applied to the account.
+     */
+    private volatile long lastSequence;
+    /**
+     * Odd while an update is in progress.
+     */
+    private volatile long stamp;
+    /**
+     * Depth of the nested updates. Only accessed by the writer.
+     */
+    private int updates;
+    /**
+     * Set once the balance is split.
+     */
+    private volatile SubBalances subBalances;
+    /**
+     * Total amount of the active holds of the account, which can only be transferred by capturing them. Kept in
+     * memory only, like the holds. Split accounts have no holds.
+     */
+    private volatile long held;
+    /**
+     * Last published snapshot, or null if none is published since the balance was set.
+     */
+    private volatile AccountSnapshot snapshot;
+    /**
+     * Version of the last published snapshot. Only accessed by the writer.
+     */
+    private long version;
+    /**
+     * Epoch of the cut whose balance is kept in {@link #cutBalance}. Written after it.
+     */
+    private volatile long cutEpoch;
+    /**
+     * Balance as of the cut of {@link #cutEpoch}, kept by the first commit after the cut.
+     */
+    private long cutBalance;
+    /**
+     * Set while a commit of the epoch before {@link #cutEpoch} is in progress, whose change belongs to the cut. Only
+     * accessed by the writer.
+     */
+    private boolean lateCommit;
 
-    public BigDecimal getBalance() {
-        return balance;
+    /**
+     * @return Balance of the account, or the sum of the sub-balances if it is split
+     */
+    public long getBalance() {
+        final SubBalances split = subBalances;
+        return split == null ? balance : split.getTotal();
     }
 
-    public void setBalance(final BigDecimal balance) {
+    /**
+     * Sets the balance outside of a commit, e.g. while loading the account, which unpublishes its snapshot.
+     */
+    public void setBalance(final long balance) {
         this.balance = balance;
+        this.snapshot = null;
+    }
+
+    public long getHeld() {
+        return held;
+    }
+
+    /**
+     * @return Balance which is not held, and can be transferred
+     */
+    public long getAvailableBalance() {
+        return getBalance() - held;
+    }
+
+    public long getLastSequence() {
+        final SubBalances split = subBalances;
+        return split == null ? lastSequence : Math.max(lastSequence, split.getLastSequence());
+    }
+
+    public void setLastSequence(final long lastSequence) {
+        this.lastSequence = lastSequence;
+        this.snapshot = null;
+    }
+
+    public void debit(final long amount) {
+        if (subBalances != null) {
+            subBalances.debit(amount);
+            return;
+        }
+        balance = add(balance, amount);
+    }
+
+    public void credit(final long amount) {
+        if (subBalances != null) {
+            subBalances.credit(amount);
+            return;
+        }
+        if (this.getAvailableBalance() < amount) {
+            throw new InsufficientBalanceException("Asset account doesn't have sufficient balance. Account id: " + getId());
+        }
+
+        balance = sub(balance, amount);
+    }
+
+    /**
+     * Reserves the amount for a hold. Requires exclusive access.
+     */
+    public void hold(final long amount) {
+        if (subBalances != null) {
+            throw new IllegalStateException("Split accounts can not have holds. Account id: " + getId());
+        }
+        if (getAvailableBalance() < amount) {
+            throw new InsufficientBalanceException("Asset account doesn't have sufficient balance. Account id: " + getId());
+        }
+        held += amount;
+    }
+
+    /**
+     * Returns the amount of a hold to the available balance. Requires exclusive access.
+     */
+    public void release(final long heldAmount) {
+        held -= heldAmount;
     }
 
-    public void debit(final BigDecimal amount) {
-        final BigDecimal newBalance = add(this.getBalance(), amount);
-        this.setBalance(newBalance);
+    /**
+     * Ends a hold by taking the amount from the held balance, and returns the rest of the hold to the available
+     * balance. The balance is not checked, since it covers the held amount. Requires exclusive access.
+     *
+     * @param heldAmount Amount of the hold
+     * @param amount Amount taken, at most the amount of the hold
+     */
+    public void capture(final long heldAmount, final long amount) {
+        held -= heldAmount;
+        balance -= amount;
     }
 
-    public void credit(final BigDecimal amount) {
-        final BigDecimal newBalance = sub(this.getBalance(), amount);
+    /**
+     * Marks the start of a commit. Can be nested, e.g. when both sides of a transfer are the same account.
+     */
+    public void beginUpdate() {
+        if (subBalances != null) {
+            subBalances.lockAll();
+            return;
+        }
+        if (updates++ == 0) {
+            if (snapshot == null) {
+                //The state before the commit is the committed one, which the readers get meanwhile.
+                publish();
+            }
+            stamp++;
+        }
+    }
 
-        if (newBalance.signum() == -1 && newBalance.signum() == -1) {
-            throw new InsufficientBalanceException("Asset account doesn't have sufficient balance. Current balance: " + readableScale(balance).toPlainString());
+    /**
+     * Marks the end of a commit.
+     *
+     * @param sequence Sequence number of the journal record of the commit, or 0 if nothing was committed
+     */
+    public void endUpdate(final long sequence) {
+        if (subBalances != null) {
+            subBalances.endUpdate(sequence);
+            publishCommit(sequence);
+            subBalances.unlockAll();
+            return;
+        }
+        if (sequence > lastSequence) {
+            lastSequence = sequence;
+        }
+        if (--updates == 0) {
+            stamp++;
+            publishCommit(sequence);
         }
+    }
+
+    /**
+     * Publishes the commit of a transfer which held a single sub-balance of the split account, see
+     * {@link SubBalances#getCommitLock()}. Called under the commit lock, which orders these commits.
+     *
+     * @param change Amount added to the balance, negative for outgoing transfers
+     */
+    public void publishSubBalanceCommit(final long change) {
+        final AccountSnapshot previous = snapshot;
+        keepLateChange(change);
+        snapshot = new AccountSnapshot(previous.getId(), previous.getBalance() + change, 0L, ++version);
+    }
+
+    /**
+     * Keeps the committed balance as of the cut of the given epoch, unless a commit of the epoch already kept it. Called
+     * by every commit of the epoch changing the balance, before publishing it: within {@link #beginUpdate()} and
+     * {@link #endUpdate(long)}, or under the commit lock of the sub-balances if it is split.
+     *
+     * A commit of the previous epoch can still get the account after a commit of the next one, in which case its change
+     * is added to the kept balance when it is published.
+     */
+    public void keepCutBalance(final long epoch) {
+        final long kept = cutEpoch;
+        if (kept < epoch) {
+            cutBalance = snapshot.getBalance();
+            cutEpoch = epoch;
+        } else if (kept > epoch) {
+            lateCommit = true;
+        }
+    }
+
+    /**
+     * Marks an account which is not stored yet as created after the cut of the given epoch, so that it has no balance
+     * as of the cut.
+     */
+    public void markCreated(final long epoch) {
+        cutBalance = 0;
+        cutEpoch = epoch;
+    }
+
+    /**
+     * @return Balance as of the cut of the given epoch, without waiting for a commit in progress. Requires the commits
+     * of the previous epochs to be complete.
+     */
+    public long getCutBalance(final long epoch) {
+        final AccountSnapshot committed = getSnapshot();
+        return cutEpoch == epoch ? cutBalance : committed.getBalance();
+    }
+
+    /**
+     * @return The state of the account as of its last commit, without waiting for a commit in progress
+     */
+    public AccountSnapshot getSnapshot() {
+        final AccountSnapshot published = snapshot;
+        if (published != null) {
+            return published;
+        }
+
+        final long[] state = new long[2];
+        readState(state);
+        return new AccountSnapshot(idOrZero(), state[0], held, version);
+    }
+
+    private void publish() {
+        final long committed = getBalance();
+        final AccountSnapshot previous = snapshot;
+        if (previous != null) {
+            keepLateChange(committed - previous.getBalance());
+        }
+        snapshot = new AccountSnapshot(idOrZero(), committed, held, ++version);
+    }
+
+    /**
+     * Keeps the published snapshot if nothing was committed, e.g. when the changes were undone after the journal
+     * failed, so that readers see no new version.
+     */
+    private void publishCommit(final long sequence) {
+        final AccountSnapshot previous = snapshot;
+        if (sequence == 0 && previous != null && previous.getBalance() == getBalance()
+                && previous.getHeld() == held) {
+            lateCommit = false;
+            return;
+        }
+        publish();
+    }
+
+    private void keepLateChange(final long change) {
+        if (lateCommit) {
+            cutBalance += change;
+            lateCommit = false;
+        }
+    }
+
+    private long idOrZero() {
+        final Long id = getId();
+        return id == null ? 0L : id;
+    }
+
+    /**
+     * Reads the balance and the last sequence number as of the end of a commit, waiting for a commit in progress
+     * to finish.
+     *
+     * @param state Receives the balance at index 0 and the last sequence number at index 1
+     */
+    public void readState(final long[] state) {
+        if (subBalances != null) {
+            subBalances.readState(state);
+            return;
+        }
+        while (true) {
+            final long before = stamp;
+            if ((before & 1) == 0) {
+                state[0] = balance;
+                state[1] = lastSequence;
+                if (stamp == before) {
+                    return;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Spreads the balance over the given number of sub-balances, so that transfers holding different sub-balances
+     * can run concurrently. Requires exclusive access, and cannot be undone.
+     */
+    public void split(final int count) {
+        if (subBalances != null) {
+            throw new IllegalStateException("Account is already split. Account id: " + getId());
+        }
+        if (held != 0) {
+            throw new IllegalStateException("Accounts with holds can not be split. Account id: " + getId());
+        }
+        subBalances = new SubBalances(getId(), count, balance, lastSequence);
+        publish();
+    }
+
+    public boolean isSplit() {
+        return subBalances != null;
+    }
 
-        this.setBalance(newBalance);
+    /**
+     * @return Sub-balances of the account, or null if it is not split
+     */
+    public SubBalances getSubBalances() {
+        return subBalances;
     }
 
+    /**
+     * The clone is not split, its balance is the total of the sub-balances.
+     */
     @Override
     public AssetAccount clone() {
         final AssetAccount that = new AssetAccount();
         that.setId(this.getId());
-        that.setBalance(new BigDecimal(this.balance.toPlainString()));
+        that.setBalance(this.getBalance());
+        that.setLastSequence(this.getLastSequence());
+        that.held = this.held;
 
         return that;
     }
@@ -1,6 +1,16 @@
 package per.cmurat.other.revolut.core.accounting.model;
 
+import per.cmurat.other.revolut.core.AppConfig;
 import per.cmurat.other.revolut.core.db.Repository;
 
+import javax.inject.Inject;
+
 public class AssetAccountRepository extends Repository<AssetAccount> {
+    public AssetAccountRepository() {
+    }
+
+    @Inject
+    public AssetAccountRepository(final AppConfig config) {
+        super(config);
+    }
 }
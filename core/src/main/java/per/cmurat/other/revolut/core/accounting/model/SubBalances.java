@@ -0,0 +1,213 @@
+package per.cmurat.other.revolut.core.accounting.model;
+
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static per.cmurat.other.revolut.core.accounting.MathUtils.add;
+import static per.cmurat.other.revolut.core.accounting.MathUtils.sub;
+
+/**
+ * Balance of a hot account spread over sub-balances, each guarded by its own lock. See {@link AssetAccount#split(int)}.
+ *
+ * A transfer holding a single sub-balance can run concurrently with the transfers holding the others: incoming
+ * money can go to any sub-balance, and outgoing money can be taken from any sub-balance which has enough of it.
+ * Holding all of the sub-balances gives exclusive access to the account, which is how the other operations work on
+ * it. Every sub-balance stays non-negative, so the total never gets negative.
+ *
+ * Sub-balances are locked after the account locks of the engine, in index order when more than one is locked. The
+ * commit lock orders the commits of the transfers holding single sub-balances, and is locked last.
+ */
+public class SubBalances {
+    private final long accountId;
+    private final SubBalance[] subBalances;
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    SubBalances(final long accountId, final int count, final long balance, final long lastSequence) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Number of sub-balances must be positive");
+        }
+
+        this.accountId = accountId;
+        this.subBalances = new SubBalance[count];
+        for (int i = 0; i < count; i++) {
+            subBalances[i] = new SubBalance(accountId);
+            subBalances[i].lastSequence = lastSequence;
+        }
+        spread(balance);
+    }
+
+    public int size() {
+        return subBalances.length;
+    }
+
+    public SubBalance get(final int index) {
+        return subBalances[index];
+    }
+
+    /**
+     * Sum of the sub-balances. Transfers in progress may or may not be included.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (final SubBalance subBalance : subBalances) {
+            total += subBalance.balance;
+        }
+        return total;
+    }
+
+    long getLastSequence() {
+        long lastSequence = 0;
+        for (final SubBalance subBalance : subBalances) {
+            lastSequence = Math.max(lastSequence, subBalance.lastSequence);
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Locks a sub-balance which is not locked by another thread, starting from a random one. If all of them are
+     * locked, waits for the random one.
+     */
+    public SubBalance lockAny() {
+        final int start = ThreadLocalRandom.current().nextInt(subBalances.length);
+        for (int i = 0; i < subBalances.length; i++) {
+            final SubBalance subBalance = subBalances[(start + i) % subBalances.length];
+            if (subBalance.lock.tryLock()) {
+                return subBalance;
+            }
+        }
+
+        final SubBalance subBalance = subBalances[start];
+        subBalance.lock.lock();
+        return subBalance;
+    }
+
+    /**
+     * Locks a sub-balance of at least the given amount, if one of them has it and is not locked by another thread.
+     *
+     * @return The locked sub-balance, or null if there is none
+     */
+    public SubBalance tryLockWithBalance(final long amount) {
+        final int start = ThreadLocalRandom.current().nextInt(subBalances.length);
+        for (int i = 0; i < subBalances.length; i++) {
+            final SubBalance subBalance = subBalances[(start + i) % subBalances.length];
+            if (subBalance.balance >= amount && subBalance.lock.tryLock()) {
+                if (subBalance.balance >= amount) {
+                    return subBalance;
+                }
+                subBalance.lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    public ReentrantLock getCommitLock() {
+        return commitLock;
+    }
+
+    void lockAll() {
+        for (final SubBalance subBalance : subBalances) {
+            subBalance.lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = subBalances.length - 1; i >= 0; i--) {
+            subBalances[i].lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the total and the last sequence number while holding all of the sub-balances, so that no transfer is in
+     * progress on them. A transfer starting later gets a later sequence number than all of the finished ones.
+     *
+     * @param state Receives the balance at index 0 and the last sequence number at index 1
+     */
+    void readState(final long[] state) {
+        lockAll();
+        try {
+            state[0] = getTotal();
+            state[1] = getLastSequence();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Adds the amount to the first sub-balance. All of the sub-balances must be held.
+     */
+    void debit(final long amount) {
+        subBalances[0].debit(amount);
+    }
+
+    /**
+     * Takes the amount out of the total and spreads what remains evenly over the sub-balances again, so that the
+     * following outgoing transfers find enough in single sub-balances. All of the sub-balances must be held.
+     */
+    void credit(final long amount) {
+        final long total = getTotal();
+        if (total < amount) {
+            throw new InsufficientBalanceException("Asset account doesn't have sufficient balance. Account id: " + accountId);
+        }
+        spread(total - amount);
+    }
+
+    /**
+     * Records the sequence number of the last journal record applied while all of the sub-balances were held.
+     */
+    void endUpdate(final long sequence) {
+        subBalances[0].setLastSequence(sequence);
+    }
+
+    private void spread(final long balance) {
+        final long share = balance / subBalances.length;
+        for (int i = 0; i < subBalances.length; i++) {
+            subBalances[i].balance = share;
+        }
+        subBalances[0].balance = add(share, balance % subBalances.length);
+    }
+
+    public static final class SubBalance {
+        private final long accountId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long balance;
+        /**
+         * Sequence number of the last journal record applied to the sub-balance.
+         */
+        private volatile long lastSequence;
+
+        private SubBalance(final long accountId) {
+            this.accountId = accountId;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+
+        public void debit(final long amount) {
+            balance = add(balance, amount);
+        }
+
+        public void credit(final long amount) {
+            if (balance < amount) {
+                throw new InsufficientBalanceException("Asset account doesn't have sufficient balance. Account id: " + accountId);
+            }
+            balance = sub(balance, amount);
+        }
+
+        public void setLastSequence(final long sequence) {
+            if (sequence > lastSequence) {
+                lastSequence = sequence;
+            }
+        }
+
+        public void unlock() {
+            lock.unlock();
+        }
+    }
+}
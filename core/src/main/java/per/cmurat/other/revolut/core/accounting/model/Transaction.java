@@ -2,14 +2,25 @@ package per.cmurat.other.revolut.core.accounting.model;
 
 import per.cmurat.other.revolut.core.db.Entity;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-
 public class Transaction extends Entity {
     private AssetAccount debitAccount;
     private AssetAccount creditAccount;
-    private BigDecimal amount;
-    private LocalDateTime dateTime;
+    /**
+     * Amount in the minor units of the ledger.
+     */
+    private long amount;
+    /**
+     * Epoch milliseconds of the moment the transaction was committed.
+     */
+    private long timestamp;
+    /**
+     * Sequence number of the journal record of the transaction.
+     */
+    private long sequence;
+    /**
+     * Key given by the client to make retries of the transfer safe, or null. Cleared once the key expires.
+     */
+    private volatile String idempotencyKey;
 
     public AssetAccount getDebitAccount() {
         return debitAccount;
@@ -27,19 +38,35 @@ public class Transaction extends Entity {
         this.creditAccount = creditAccount;
     }
 
-    public BigDecimal getAmount() {
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(final BigDecimal amount) {
+    public void setAmount(final long amount) {
         this.amount = amount;
     }
 
-    public LocalDateTime getDateTime() {
-        return dateTime;
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(final long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(final long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
     }
 
-    public void setDateTime(final LocalDateTime dateTime) {
-        this.dateTime = dateTime;
+    public void setIdempotencyKey(final String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
     }
 }
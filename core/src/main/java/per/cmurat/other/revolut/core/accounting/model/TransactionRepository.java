@@ -1,6 +1,146 @@
 package per.cmurat.other.revolut.core.accounting.model;
 
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.archive.TransactionArchive;
 import per.cmurat.other.revolut.core.db.Repository;
 
+import javax.inject.Inject;
+import java.util.function.Consumer;
+
+/**
+ * Transactions are stored in two tiers: the recent ones as objects on the heap, and the older ones in the
+ * {@link TransactionArchive}, into which they are sealed by {@link #archive(int, int, long)}. Reads look into both tiers.
+ *
+ * A transaction is readable from the archive before it is removed from the heap, so concurrent reads always find it.
+ * The archived copies are new objects on every read. Snapshots only contain the transactions on the heap, see
+ * {@link #forEachOnHeap(Consumer)}, and the archived ones are not loaded onto the heap again on start.
+ */
 public class TransactionRepository extends Repository<Transaction> {
+    private final TransactionArchive archive;
+
+    public TransactionRepository() {
+        this(TransactionArchive.disabled());
+    }
+
+    public TransactionRepository(final TransactionArchive archive) {
+        this.archive = archive;
+        advanceIds(archive.getLastId());
+    }
+
+    @Inject
+    public TransactionRepository(final AppConfig config, final TransactionArchive archive) {
+        super(config);
+        this.archive = archive;
+        advanceIds(archive.getLastId());
+    }
+
+    @Override
+    public Transaction findById(final long id) {
+        final Transaction transaction = super.findById(id);
+        if (transaction != null || id > archive.getLastId()) {
+            return transaction;
+        }
+        return archive.findById(id);
+    }
+
+    /**
+     * Iterates over the archived transactions, then the ones on the heap. Does not run concurrently with archiving,
+     * so that no transaction is missed while it moves.
+     */
+    @Override
+    public synchronized void forEach(final Consumer<Transaction> consumer) {
+        archive.forEach(consumer);
+        final long archivedId = archive.getLastId();
+        super.forEach(transaction -> {
+            //Stored after its id was archived without it, e.g. by a commit in progress while archiving.
+            if (transaction.getId() > archivedId || !archive.contains(transaction.getId())) {
+                consumer.accept(transaction);
+            }
+        });
+    }
+
+    /**
+     * Iterates over the transactions on the heap which are not archived. Does not run concurrently with archiving.
+     *
+     * @return The last archived id as of the iteration
+     */
+    public synchronized long forEachOnHeap(final Consumer<Transaction> consumer) {
+        final long archivedId = archive.getLastId();
+        super.forEach(transaction -> {
+            if (transaction.getId() > archivedId || !archive.contains(transaction.getId())) {
+                consumer.accept(transaction);
+            }
+        });
+        return archivedId;
+    }
+
+    /**
+     * Iterates over the archived transactions which have an idempotency key and were made at or after the given
+     * time, without reading the rest of the archive. See {@link TransactionArchive#forEachWithKey(long, Consumer)}.
+     */
+    public void forEachArchivedWithKey(final long since, final Consumer<Transaction> consumer) {
+        archive.forEachWithKey(since, consumer);
+    }
+
+    /**
+     * @return Number of the transactions in both tiers. Transactions being archived may be counted twice.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, super.size() + archive.size());
+    }
+
+    public long getArchivedCount() {
+        return archive.size();
+    }
+
+    /**
+     * @return The last archived id, or 0 if nothing is archived
+     */
+    public long getLastArchivedId() {
+        return archive.getLastId();
+    }
+
+    public boolean isArchived(final long id) {
+        return archive.contains(id);
+    }
+
+    /**
+     * Seals the oldest transactions on the heap into archive segments of the given number of ids, as long as at
+     * least the given number of the latest ids stay on the heap. Does nothing if archiving is disabled.
+     *
+     * Ids are assigned before the transactions are stored, so a transaction can still be stored after its id is
+     * archived without it, which is rare. It then stays on the heap, and so do the transactions which are not durable
+     * in the journal yet, since the archive must not get ahead of the journal.
+     *
+     * @param durableSequence Sequence number up to which the journal is durable
+     * @return Number of the transactions archived
+     */
+    public synchronized long archive(final int liveTransactions, final int segmentTransactions,
+                                     final long durableSequence) {
+        if (!archive.isEnabled()) {
+            return 0;
+        }
+
+        long archived = 0;
+        while (getLastId() - archive.getLastId() - liveTransactions >= segmentTransactions) {
+            final long firstId = archive.getLastId() + 1;
+            final Transaction[] rows = new Transaction[segmentTransactions];
+            for (int i = 0; i < rows.length; i++) {
+                final Transaction transaction = super.findById(firstId + i);
+                rows[i] = transaction == null || transaction.getSequence() > durableSequence ? null : transaction;
+            }
+
+            archive.seal(rows);
+            for (final Transaction transaction : rows) {
+                if (transaction != null && remove(transaction)) {
+                    archived++;
+                }
+            }
+        }
+        if (archived > 0) {
+            compact(archive.getLastId());
+        }
+        return archived;
+    }
 }
@@ -0,0 +1,541 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.SubBalances;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static per.cmurat.other.revolut.core.accounting.MathUtils.add;
+
+/**
+ * Operations shared by the engines. None of the methods here are thread safe; the engines must call them only
+ * when they have exclusive access to all of the accounts involved.
+ */
+abstract class AbstractTransferEngine implements TransferEngine {
+
+    @Inject
+    private AssetAccountRepository accountRepository;
+
+    @Inject
+    private TransactionRepository transactionRepository;
+
+    @Inject
+    private Journal journal;
+
+    @Inject
+    private AccountHistoryIndex historyIndex;
+
+    @Inject
+    private TransactionTimeIndex timeIndex;
+
+    @Inject
+    private LedgerMetrics metrics;
+
+    @Inject
+    private InvariantChecker invariantChecker;
+
+    @Inject
+    private TransactionFeed transactionFeed;
+
+    LedgerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The account, or null if it does not exist
+     */
+    AssetAccount findAccount(final long id) {
+        return accountRepository.findById(id);
+    }
+
+    AssetAccount getAccount(final long id) {
+        final AssetAccount account = accountRepository.findById(id);
+        if (account == null) {
+            throw new AccountNotFoundException("Account not found. Account id: " + id);
+        }
+        return account;
+    }
+
+    /**
+     * Creates an account with its id assigned, but does not store it.
+     */
+    AssetAccount newAccount(final long balance) {
+        final AssetAccount account = new AssetAccount();
+        account.setBalance(balance);
+        accountRepository.assignId(account);
+        return account;
+    }
+
+    /**
+     * Creates the accounts with a single range of ids reserved for them, but does not store them.
+     */
+    List<AssetAccount> newAccounts(final long[] balances) {
+        final long firstId = accountRepository.reserveIds(balances.length);
+        final List<AssetAccount> accounts = new ArrayList<>(balances.length);
+        for (int i = 0; i < balances.length; i++) {
+            final AssetAccount account = new AssetAccount();
+            account.setId(firstId + i);
+            account.setBalance(balances[i]);
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    void doCreateAccount(final AssetAccount account) {
+        final long epoch = invariantChecker.enter();
+        long sequence = 0;
+        account.markCreated(epoch);
+        account.beginUpdate();
+        try {
+            accountRepository.store(account);
+            sequence = journal.appendAccountCreated(account.getId(), account.getBalance());
+            invariantChecker.accountCreated(epoch, account.getBalance());
+        } finally {
+            account.endUpdate(sequence);
+            invariantChecker.exit(epoch);
+        }
+    }
+
+    /**
+     * Checks the transfer against the snapshots of the accounts as of their last commits, without acquiring them.
+     * The result may be stale by the time of the transfer, see {@link TransferEngine#tryValidate(long, long, long)}.
+     */
+    @Override
+    public TransferResult tryValidate(final long creditAccountId, final long debitAccountId, final long amount) {
+        final AssetAccount creditAccount = findAccount(creditAccountId);
+        if (creditAccount == null) {
+            return accountNotFound(creditAccountId);
+        }
+        final AssetAccount debitAccount = findAccount(debitAccountId);
+        if (debitAccount == null) {
+            return accountNotFound(debitAccountId);
+        }
+
+        if (creditAccount.getSnapshot().getAvailableBalance() < amount) {
+            return insufficientBalance(creditAccountId);
+        }
+        if (creditAccountId != debitAccountId) {
+            try {
+                add(debitAccount.getSnapshot().getBalance(), amount);
+            } catch (ArithmeticException e) {
+                return TransferResult.rejected(e);
+            }
+        }
+        return TransferResult.VALID;
+    }
+
+    /**
+     * Counts the outcome of the transfer in the metrics.
+     */
+    TransferResult doTransfer(final long creditAccountId, final long debitAccountId, final long amount) {
+        return doTransfer(creditAccountId, debitAccountId, amount, null);
+    }
+
+    TransferResult doTransfer(final long creditAccountId, final long debitAccountId, final long amount,
+                              final String idempotencyKey) {
+        return doTransfer(creditAccountId, debitAccountId, amount, idempotencyKey, null);
+    }
+
+    /**
+     * Common rejections are found by checking the accounts before the transfer, so that they cost no exceptions.
+     * Rejections found while applying it, e.g. when another sub-balance of a split account is spent meanwhile, are
+     * caught and returned as well.
+     *
+     * @param subBalance If not null, the only sub-balance held of one of the accounts, which must be split. The other
+     *                   account must be a different one, and held as usual.
+     * @throws RuntimeException Failures other than rejections
+     */
+    TransferResult doTransfer(final long creditAccountId, final long debitAccountId, final long amount,
+                              final String idempotencyKey, final SubBalances.SubBalance subBalance) {
+        final AssetAccount creditAccount = findAccount(creditAccountId);
+        final AssetAccount debitAccount = findAccount(debitAccountId);
+        final TransferResult rejected = check(creditAccountId, creditAccount, debitAccountId, debitAccount, amount,
+                subBalance);
+        if (rejected != null) {
+            metrics.transferRejected(rejected.getRejection());
+            return rejected;
+        }
+
+        final Transaction transaction;
+        try {
+            transaction = subBalance == null
+                    ? transferAndStore(creditAccount, debitAccount, amount, idempotencyKey)
+                    : transferAndStore(creditAccount, debitAccount, amount, idempotencyKey, subBalance);
+        } catch (RuntimeException e) {
+            metrics.transferRejected(e);
+            return TransferResult.rejected(e);
+        }
+        metrics.transferSucceeded();
+        return TransferResult.success(transaction);
+    }
+
+    /**
+     * @return The rejection of the transfer, or null if the accounts exist and the credit account or its held
+     * sub-balance has enough balance at the moment
+     */
+    private static TransferResult check(final long creditAccountId, final AssetAccount creditAccount,
+                                        final long debitAccountId, final AssetAccount debitAccount, final long amount,
+                                        final SubBalances.SubBalance subBalance) {
+        if (creditAccount == null) {
+            return accountNotFound(creditAccountId);
+        }
+        if (debitAccount == null) {
+            return accountNotFound(debitAccountId);
+        }
+
+        final boolean outgoing = subBalance != null && subBalance.getAccountId() == creditAccountId;
+        if ((outgoing ? subBalance.getBalance() : creditAccount.getAvailableBalance()) < amount) {
+            return insufficientBalance(creditAccountId);
+        }
+        return null;
+    }
+
+    private static TransferResult accountNotFound(final long id) {
+        return TransferResult.rejected(Rejection.ACCOUNT_NOT_FOUND, "Account not found. Account id: " + id);
+    }
+
+    private static TransferResult insufficientBalance(final long id) {
+        return TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE,
+                "Asset account doesn't have sufficient balance. Account id: " + id);
+    }
+
+    /**
+     * Reserves the amount of the hold against the available balance of its account.
+     */
+    TransferResult doPlaceHold(final Hold hold) {
+        final AssetAccount account = findAccount(hold.getAccountId());
+        if (account == null) {
+            return accountNotFound(hold.getAccountId());
+        }
+        if (account.isSplit()) {
+            return hotAccountHold(hold.getAccountId());
+        }
+        if (account.getAvailableBalance() < hold.getAmount()) {
+            return insufficientBalance(hold.getAccountId());
+        }
+
+        account.beginUpdate();
+        try {
+            account.hold(hold.getAmount());
+        } finally {
+            account.endUpdate(0);
+        }
+        return TransferResult.VALID;
+    }
+
+    static TransferResult hotAccountHold(final long id) {
+        return TransferResult.rejected(Rejection.INVALID_REQUEST, "Hot accounts can not have holds. Account id: " + id);
+    }
+
+    /**
+     * Returns the amount of the hold to the available balance of its account.
+     *
+     * @return False if the hold already ended
+     */
+    boolean doEndHold(final Hold hold, final Hold.State state) {
+        if (!hold.end(state)) {
+            return false;
+        }
+        final AssetAccount account = getAccount(hold.getAccountId());
+        account.beginUpdate();
+        try {
+            account.release(hold.getAmount());
+        } finally {
+            account.endUpdate(0);
+        }
+        return true;
+    }
+
+    /**
+     * Transfers the amount from the held balance of the account of the hold, without checking the balance again,
+     * and ends the hold. The rest of the hold is released. The hold stays active if the transfer is rejected.
+     */
+    TransferResult doCaptureHold(final Hold hold, final long debitAccountId, final long amount) {
+        final AssetAccount creditAccount = findAccount(hold.getAccountId());
+        final AssetAccount debitAccount = findAccount(debitAccountId);
+        final TransferResult rejected;
+        if (!hold.isActive()) {
+            rejected = TransferResult.rejected(Rejection.HOLD_NOT_FOUND, "Hold not found. Hold id: " + hold.getId());
+        } else if (debitAccount == null) {
+            rejected = accountNotFound(debitAccountId);
+        } else if (amount > hold.getAmount()) {
+            rejected = TransferResult.rejected(Rejection.INVALID_REQUEST,
+                    "Amount cannot be more than the amount of the hold. Hold id: " + hold.getId());
+        } else {
+            rejected = null;
+        }
+        if (rejected != null) {
+            metrics.transferRejected(rejected.getRejection());
+            return rejected;
+        }
+
+        final long epoch = invariantChecker.enter();
+        long sequence = 0;
+        creditAccount.beginUpdate();
+        debitAccount.beginUpdate();
+        try {
+            creditAccount.keepCutBalance(epoch);
+            debitAccount.keepCutBalance(epoch);
+            try {
+                debitAccount.debit(amount);
+            } catch (ArithmeticException e) {
+                metrics.transferRejected(e);
+                return TransferResult.rejected(e);
+            }
+            final Transaction transaction = newTransaction(creditAccount, debitAccount, amount);
+            try {
+                storeTransfer(transaction);
+            } catch (RuntimeException | Error e) {
+                debitAccount.credit(amount);
+                throw e;
+            }
+            hold.end(Hold.State.CAPTURED);
+            creditAccount.capture(hold.getAmount(), amount);
+            sequence = transaction.getSequence();
+            metrics.transferSucceeded();
+            return TransferResult.success(transaction);
+        } finally {
+            debitAccount.endUpdate(sequence);
+            creditAccount.endUpdate(sequence);
+            invariantChecker.exit(epoch);
+        }
+    }
+
+    /**
+     * The accounts are marked as being updated until the transfer is journaled, see {@link AssetAccount#beginUpdate()}.
+     * The transfer is undone if it can not be journaled, so that the balances never include a transfer which would be
+     * lost on restart.
+     */
+    private Transaction transferAndStore(final AssetAccount creditAccount, final AssetAccount debitAccount,
+                                         final long amount, final String idempotencyKey) {
+        final long epoch = invariantChecker.enter();
+        long sequence = 0;
+        creditAccount.beginUpdate();
+        debitAccount.beginUpdate();
+        try {
+            creditAccount.keepCutBalance(epoch);
+            debitAccount.keepCutBalance(epoch);
+            final Transaction transaction = applyTransfer(creditAccount, debitAccount, amount);
+            transaction.setIdempotencyKey(idempotencyKey);
+            try {
+                storeTransfer(transaction);
+            } catch (RuntimeException | Error e) {
+                revertTransfer(transaction);
+                throw e;
+            }
+            sequence = transaction.getSequence();
+            return transaction;
+        } finally {
+            debitAccount.endUpdate(sequence);
+            creditAccount.endUpdate(sequence);
+            invariantChecker.exit(epoch);
+        }
+    }
+
+    /**
+     * Moves the money in or out of the sub-balance of the split account. Commits of the split account are ordered by
+     * its commit lock, because the ids of its transactions must increase in the order of its history.
+     */
+    private Transaction transferAndStore(final AssetAccount creditAccount, final AssetAccount debitAccount,
+                                         final long amount, final String idempotencyKey,
+                                         final SubBalances.SubBalance subBalance) {
+        final boolean incoming = subBalance.getAccountId() == debitAccount.getId();
+        final AssetAccount splitAccount = incoming ? debitAccount : creditAccount;
+        final AssetAccount otherAccount = incoming ? creditAccount : debitAccount;
+
+        final long epoch = invariantChecker.enter();
+        long sequence = 0;
+        otherAccount.beginUpdate();
+        try {
+            otherAccount.keepCutBalance(epoch);
+            if (incoming) {
+                creditAccount.credit(amount);
+                try {
+                    subBalance.debit(amount);
+                } catch (ArithmeticException e) {
+                    creditAccount.debit(amount);
+                    throw e;
+                }
+            } else {
+                subBalance.credit(amount);
+                try {
+                    debitAccount.debit(amount);
+                } catch (ArithmeticException e) {
+                    subBalance.debit(amount);
+                    throw e;
+                }
+            }
+
+            final Transaction transaction = newTransaction(creditAccount, debitAccount, amount);
+            transaction.setIdempotencyKey(idempotencyKey);
+            final ReentrantLock commitLock = splitAccount.getSubBalances().getCommitLock();
+            commitLock.lock();
+            try {
+                try {
+                    storeTransfer(transaction);
+                } catch (RuntimeException | Error e) {
+                    if (incoming) {
+                        subBalance.credit(amount);
+                        creditAccount.debit(amount);
+                    } else {
+                        debitAccount.credit(amount);
+                        subBalance.debit(amount);
+                    }
+                    throw e;
+                }
+                splitAccount.keepCutBalance(epoch);
+                splitAccount.publishSubBalanceCommit(incoming ? amount : -amount);
+            } finally {
+                commitLock.unlock();
+            }
+            sequence = transaction.getSequence();
+            subBalance.setLastSequence(sequence);
+            return transaction;
+        } finally {
+            otherAccount.endUpdate(sequence);
+            invariantChecker.exit(epoch);
+        }
+    }
+
+    List<TransferResult> doTransferAll(final List<TransferRequest> transfers, final boolean atomic) {
+        return atomic ? doTransferAllAtomically(transfers) : doTransferEach(transfers);
+    }
+
+    private List<TransferResult> doTransferEach(final List<TransferRequest> transfers) {
+        final List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (final TransferRequest transfer : transfers) {
+            results.add(doTransfer(transfer.getCreditAccountId(), transfer.getDebitAccountId(), transfer.getAmount()));
+        }
+        return results;
+    }
+
+    private List<TransferResult> doTransferAllAtomically(final List<TransferRequest> transfers) {
+        final List<AssetAccount> updatedAccounts = new ArrayList<>(transfers.size() * 2);
+        final List<Transaction> transactions = new ArrayList<>(transfers.size());
+
+        final long epoch = invariantChecker.enter();
+        long sequence = 0;
+        try {
+            try {
+                for (final TransferRequest transfer : transfers) {
+                    final AssetAccount creditAccount = getAccount(transfer.getCreditAccountId());
+                    final AssetAccount debitAccount = getAccount(transfer.getDebitAccountId());
+                    creditAccount.beginUpdate();
+                    updatedAccounts.add(creditAccount);
+                    debitAccount.beginUpdate();
+                    updatedAccounts.add(debitAccount);
+                    creditAccount.keepCutBalance(epoch);
+                    debitAccount.keepCutBalance(epoch);
+
+                    transactions.add(applyTransfer(creditAccount, debitAccount, transfer.getAmount()));
+                }
+            } catch (RuntimeException e) {
+                for (int i = transactions.size() - 1; i >= 0; i--) {
+                    revertTransfer(transactions.get(i));
+                }
+                metrics.transferRejected(e);
+                metrics.transfersAborted(transfers.size() - 1);
+                throw e;
+            }
+
+            for (final Transaction transaction : transactions) {
+                transactionRepository.assignId(transaction);
+            }
+
+            //The whole batch is a single journal record, so that it is recovered either completely or not at all.
+            try {
+                sequence = journal.appendTransfers(transactions);
+            } catch (RuntimeException | Error e) {
+                for (int i = transactions.size() - 1; i >= 0; i--) {
+                    revertTransfer(transactions.get(i));
+                    transactionFeed.abandon(transactions.get(i).getId());
+                }
+                throw e;
+            }
+
+            final List<TransferResult> results = new ArrayList<>(transactions.size());
+            for (final Transaction transaction : transactions) {
+                transaction.setSequence(sequence);
+                storeInRepositories(transaction);
+                results.add(TransferResult.success(transaction));
+            }
+            metrics.transfersSucceeded(results.size());
+            return results;
+        } finally {
+            for (int i = updatedAccounts.size() - 1; i >= 0; i--) {
+                updatedAccounts.get(i).endUpdate(sequence);
+            }
+            invariantChecker.exit(epoch);
+        }
+    }
+
+    /**
+     * Moves the money between the accounts. The resulting transaction is not stored yet.
+     */
+    private Transaction applyTransfer(final AssetAccount creditAccount, final AssetAccount debitAccount, final long amount) {
+        creditAccount.credit(amount);
+        try {
+            debitAccount.debit(amount);
+        } catch (ArithmeticException e) {
+            creditAccount.debit(amount);
+            throw e;
+        }
+
+        return newTransaction(creditAccount, debitAccount, amount);
+    }
+
+    private static Transaction newTransaction(final AssetAccount creditAccount, final AssetAccount debitAccount,
+                                              final long amount) {
+        final Transaction transaction = new Transaction();
+        transaction.setCreditAccount(creditAccount);
+        transaction.setDebitAccount(debitAccount);
+        transaction.setAmount(amount);
+        transaction.setTimestamp(System.currentTimeMillis());
+        return transaction;
+    }
+
+    private void revertTransfer(final Transaction transaction) {
+        transaction.getDebitAccount().credit(transaction.getAmount());
+        transaction.getCreditAccount().debit(transaction.getAmount());
+    }
+
+    /**
+     * Appends the transfer to the journal and stores it. Durability of the record is awaited by the caller, after
+     * releasing the accounts.
+     */
+    private void storeTransfer(final Transaction transaction) {
+        transactionRepository.assignId(transaction);
+        try {
+            transaction.setSequence(journal.appendTransfer(transaction));
+        } catch (RuntimeException | Error e) {
+            transactionFeed.abandon(transaction.getId());
+            throw e;
+        }
+        storeInRepositories(transaction);
+    }
+
+    /**
+     * Transactions are stored only after they are journaled, so that a stored transaction always has its sequence
+     * number. They are indexed and published to the feed after they are stored, so that their ids can always be found.
+     */
+    private void storeInRepositories(final Transaction transaction) {
+        transactionRepository.store(transaction);
+        accountRepository.store(transaction.getCreditAccount());
+        accountRepository.store(transaction.getDebitAccount());
+        historyIndex.add(transaction);
+        timeIndex.add(transaction);
+        transactionFeed.publish(transaction);
+    }
+}
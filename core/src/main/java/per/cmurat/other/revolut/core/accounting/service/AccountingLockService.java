@@ -1,21 +1,77 @@
 package per.cmurat.other.revolut.core.accounting.service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Stores locks for the given key. It is intended to be used with {@link AccountingService}.
+ * Stores locks for accounts. It is intended to be used with {@link AccountingService}.
+ *
+ * Locks are striped: a fixed, power-of-two sized array of locks is allocated up front and every account id
+ * is mapped to one of them. Lookups are lock-free and the memory used does not grow with the number of
+ * accounts, so there are no idle entries to reclaim. Two accounts may share a stripe, therefore callers
+ * acquiring more than one lock must order them by {@link #stripeOf(long)}. Locking a shared stripe twice is harmless,
+ * since the locks are reentrant.
  */
 class AccountingLockService {
-    private final Map<String, ReentrantLock> keyLockMap = new HashMap<>();
+    static final int DEFAULT_STRIPE_COUNT = 1024;
 
-    synchronized ReentrantLock getLock(String key) {
-        return keyLockMap.compute(key, (k, v) -> {
-            if (v == null) {
-                v = new ReentrantLock();
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    AccountingLockService() {
+        this(DEFAULT_STRIPE_COUNT);
+    }
+
+    AccountingLockService(final int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+
+        final int size = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    ReentrantLock getLock(final long accountId) {
+        return locks[stripeOf(accountId)];
+    }
+
+    ReentrantLock getStripeLock(final int stripe) {
+        return locks[stripe];
+    }
+
+    /**
+     * Returns the index of the stripe guarding the given account. Stripe indexes define the global lock order.
+     */
+    int stripeOf(final long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    int getStripeCount() {
+        return locks.length;
+    }
+
+    /**
+     * Puts the indexes of the stripes, or of anything else acquired in the same way, into the global acquisition
+     * order, without duplicates.
+     *
+     * @param indexes Sorted in place
+     * @return The distinct indexes in ascending order
+     */
+    static int[] sortAndDeduplicate(final int[] indexes) {
+        Arrays.sort(indexes);
+
+        int unique = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (unique == 0 || indexes[unique - 1] != indexes[i]) {
+                indexes[unique++] = indexes[i];
             }
-            return v;
-        });
+        }
+        return Arrays.copyOf(indexes, unique);
     }
 }
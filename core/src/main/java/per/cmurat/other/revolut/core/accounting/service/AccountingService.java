@@ -1,28 +1,37 @@
 package per.cmurat.other.revolut.core.accounting.service;
 
-import io.vavr.control.Try;
-import per.cmurat.other.revolut.core.LockUtils;
 import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.HoldNotFoundException;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
 import per.cmurat.other.revolut.core.accounting.model.Transaction;
 import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.ContentionReport;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
 
 import javax.inject.Inject;
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.PriorityQueue;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Supplier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
 
 /**
  * This service is used for managing accounts and making transfers between them.
  *
- * Validation can be done by calling {@link #validate(long, long, BigDecimal)}, before executing the
- * transaction by calling {@link #transfer(long, long, BigDecimal)}. However, if there are other operations
+ * Validation can be done by calling {@link #validate(long, long, long)}, before executing the
+ * transaction by calling {@link #transfer(long, long, long)}. However, if there are other operations
  * (by the caller or a third party) between validation and execution, the validation results might be stale.
+ * To make sure that a transfer will succeed before committing to it, place a hold on the amount instead by calling
+ * {@link #placeHold(long, long, Long)}, and capture it by calling {@link #captureHold(long, long, Long)}.
+ *
+ * Changes are appended to the {@link Journal}, and the methods return once the changes are durable as
+ * configured.
  */
 public class AccountingService {
 
@@ -33,29 +42,102 @@ public class AccountingService {
     private TransactionRepository transactionRepository;
 
     @Inject
-    private AccountingLockService lockService;
+    private AccountHistoryIndex historyIndex;
+
+    @Inject
+    private TransactionTimeIndex timeIndex;
+
+    @Inject
+    private TransferEngine engine;
+
+    @Inject
+    private Journal journal;
+
+    @Inject
+    private ContentionTracker contentionTracker;
+
+    @Inject
+    private IdempotencyCache idempotencyCache;
+
+    @Inject
+    private HoldService holdService;
+
+    @Inject
+    private TransactionFeed transactionFeed;
 
     /**
      * Creates an account with the given balance. Caller should keep the account ID if
      * they wish to make transfers in the future using the account.
      *
-     * @param balance Initial balance of the account
-     * @return Newly created and stored account object.
+     * @param balance Initial balance of the account in minor units of the ledger
+     * @return Snapshot of the newly created and stored account
      */
-    public AssetAccount createAccount(BigDecimal balance) {
-        checkNotNull(balance, "Balance cannot be null");
-
-        if (balance.signum() < 0) {
+    public AccountSnapshot createAccount(final long balance) {
+        if (balance < 0) {
             throw new IllegalArgumentException("Balance must be non-negative");
         }
 
-        final AssetAccount account = new AssetAccount();
-        account.setBalance(balance);
+        final AssetAccount account = engine.createAccount(balance);
+        journal.awaitDurable(account.getLastSequence());
+        return account.getSnapshot();
+    }
+
+    /**
+     * Creates an account for each of the balances, with consecutive ids. Returns once all of them are durable.
+     *
+     * @param balances Initial balances of the accounts in minor units of the ledger
+     * @return Snapshots of the accounts in the order of the balances
+     */
+    public List<AccountSnapshot> createAccounts(final long[] balances) {
+        checkNotNull(balances, "Balances cannot be null");
+        for (final long balance : balances) {
+            if (balance < 0) {
+                throw new IllegalArgumentException("Balance must be non-negative");
+            }
+        }
+        if (balances.length == 0) {
+            return Collections.emptyList();
+        }
+
+        final List<AssetAccount> accounts = engine.createAccounts(balances);
+        long sequence = 0;
+        for (final AssetAccount account : accounts) {
+            sequence = Math.max(sequence, account.getLastSequence());
+        }
+        journal.awaitDurable(sequence);
 
-        return accountRepository.store(account);
+        final List<AccountSnapshot> snapshots = new ArrayList<>(accounts.size());
+        for (final AssetAccount account : accounts) {
+            snapshots.add(account.getSnapshot());
+        }
+        return snapshots;
     }
 
-    public AssetAccount getAccount(final long id) {
+    /**
+     * Reads the last committed version of the account, without acquiring it or waiting for the transfers in progress.
+     */
+    public AccountSnapshot getAccount(final long id) {
+        return findAccount(id).getSnapshot();
+    }
+
+    /**
+     * Same as {@link #getAccount(long)} for each of the ids. The snapshots are read one by one, so they are not
+     * necessarily of the same moment.
+     *
+     * @return Snapshots in the order of the ids, with null for the accounts not found
+     */
+    public List<AccountSnapshot> getAccounts(final long[] ids) {
+        checkNotNull(ids, "Ids cannot be null");
+
+        final List<AccountSnapshot> snapshots = new ArrayList<>(ids.length);
+        for (final long id : ids) {
+            final AssetAccount account = accountRepository.findById(id);
+            snapshots.add(account == null ? null : account.getSnapshot());
+        }
+        return snapshots;
+    }
+
+    private AssetAccount findAccount(final long id) {
         final AssetAccount account = accountRepository.findById(id);
         if (account == null) {
             throw new AccountNotFoundException("Account not found. Account id: " + id);
@@ -64,88 +146,268 @@ public class AccountingService {
     }
 
     /**
-     * Validates a transaction by checking the existence of accounts. If the accounts exist,
-     * balances of accounts are checked to make sure transaction is doable.
+     * Returns the transactions of an account in the order they were committed, a page at a time. The cost depends
+     * only on the size of the page.
+     *
+     * @param cursor Position to start from: 0 for the first page, or the next cursor of the previous page
+     * @param limit Maximum number of transactions in the page
+     */
+    public TransactionPage getTransactions(final long accountId, final long cursor, final int limit) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Cursor must be non-negative");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        findAccount(accountId);
+
+        if (cursor >= historyIndex.size(accountId)) {
+            return new TransactionPage(new ArrayList<>(), null);
+        }
+
+        final long[] ids = new long[limit];
+        final int count = historyIndex.read(accountId, (int) cursor, ids);
+
+        final List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(transactionRepository.findById(ids[i]));
+        }
+
+        final long next = cursor + count;
+        return new TransactionPage(transactions, next < historyIndex.size(accountId) ? next : null);
+    }
+
+    /**
+     * Returns the transactions with timestamps in [from, to), a page at a time. Transactions are ordered by time with
+     * the precision of the time index buckets, and then by their ids.
+     *
+     * @param accountId If not null, only the transactions of this account are returned
+     * @param cursor 0 for the first page, or the next cursor of the previous page
+     * @param limit Maximum number of transactions in the page
      */
-    public void validate(final long creditAccountId, final long debitAccountId, final BigDecimal amount) throws Throwable {
-        doInLock(creditAccountId, debitAccountId, () -> {
-            doValidate(creditAccountId, debitAccountId, amount);
-            return null;
+    public TransactionPage getTransactions(final Long accountId, final long from, final long to, final long cursor,
+                                           final int limit) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Cursor must be non-negative");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+
+        final List<Transaction> transactions = new ArrayList<>();
+        //One more than the limit is read to find out whether there is a next page.
+        forEachTransaction(accountId, from, to, cursor, transaction -> {
+            transactions.add(transaction);
+            return transactions.size() <= limit;
         });
+
+        if (transactions.size() <= limit) {
+            return new TransactionPage(transactions, null);
+        }
+        transactions.remove(limit);
+        return new TransactionPage(transactions, transactions.get(limit - 1).getId());
     }
 
     /**
-     * Ideally, this method should be called after acquiring locks for both of the accounts.
+     * Streams the transactions with timestamps in [from, to) to the visitor, without collecting them, e.g. for
+     * statements and audits of long periods.
+     *
+     * @param accountId If not null, only the transactions of this account are visited
+     * @param afterId 0 to start from the beginning of the range, or the id of the last transaction visited before
+     * @param visitor Returns false to stop
      */
-    private void doValidate(final long creditAccountId, final long debitAccountId, final BigDecimal amount) {
-        final AssetAccount creditAccount = getAccount(creditAccountId).clone();
-        final AssetAccount debitAccount = getAccount(debitAccountId).clone();
+    public void forEachTransaction(final Long accountId, final long from, final long to, final long afterId,
+                                   final Predicate<Transaction> visitor) {
+        if (from > to) {
+            throw new IllegalArgumentException("Start of the range must not be after its end");
+        }
+        if (accountId != null) {
+            findAccount(accountId);
+        }
 
-        creditAccount.credit(amount);
-        debitAccount.debit(amount);
+        timeIndex.scan(accountId, from, to, afterId, visitor);
+    }
+
+    /**
+     * Reads the feed of the committed transactions of all of the accounts, see {@link TransactionFeed}. Returns once
+     * the transactions read are durable, so that consumers never see a transaction which a crash could lose.
+     *
+     * @param cursor 0 to read from the first transaction, or the next cursor of the previous page
+     * @param limit Maximum number of transactions in the page
+     * @param timeoutMillis Maximum time to wait for a transaction if there is none after the cursor yet
+     */
+    public TransactionPage readFeed(final long cursor, final int limit, final long timeoutMillis) {
+        final TransactionPage page = transactionFeed.read(cursor, limit, timeoutMillis);
+
+        long lastSequence = 0;
+        for (final Transaction transaction : page.getTransactions()) {
+            lastSequence = Math.max(lastSequence, transaction.getSequence());
+        }
+        if (lastSequence > 0) {
+            journal.awaitDurable(lastSequence);
+        }
+        return page;
+    }
+
+    /**
+     * Validates a transaction by checking the existence of accounts. If the accounts exist,
+     * balances of accounts are checked to make sure transaction is doable. The accounts are read as of their last
+     * commits, without acquiring them.
+     */
+    public void validate(final long creditAccountId, final long debitAccountId, final long amount) {
+        tryValidate(creditAccountId, debitAccountId, amount).orThrow();
+    }
+
+    /**
+     * Same as {@link #validate(long, long, long)}, with the rejection returned rather than thrown.
+     */
+    public TransferResult tryValidate(final long creditAccountId, final long debitAccountId, final long amount) {
+        return engine.tryValidate(creditAccountId, debitAccountId, amount);
     }
 
     /**
      * Create and finalize a transaction in a single step. Debit and credit accounts can be the same account.
-     * Before calling this method, the transfer should be validated by calling {@link #validate(long, long, BigDecimal)}.
+     * Before calling this method, the transfer should be validated by calling {@link #validate(long, long, long)}.
      * There can be other operations between validation and execution, which might make the validation result stale.
      *
      * @param creditAccountId Account that the money will be taken from
      * @param debitAccountId Account that will receive the money
-     * @param amount Amount of money to transfer
+     * @param amount Amount of money to transfer in minor units of the ledger
      * @return The resulting transaction
      */
-    public Transaction transfer(final long creditAccountId, final long debitAccountId, final BigDecimal amount) throws Throwable {
-        return doInLock(creditAccountId, debitAccountId, () -> doTransfer(creditAccountId, debitAccountId, amount));
+    public Transaction transfer(final long creditAccountId, final long debitAccountId, final long amount) {
+        return tryTransfer(creditAccountId, debitAccountId, amount).orThrow();
     }
 
     /**
-     * Do not call this method without acquiring locks for both of the accounts.
-     * Otherwise there might be concurrency problems.
+     * Same as {@link #transfer(long, long, long)}, with the rejection returned rather than thrown. Rejections are
+     * common, e.g. for insufficient balances, and returning them does not cost an exception.
      */
-    private Transaction doTransfer(final long creditAccountId, final long debitAccountId, final BigDecimal amount) {
-        final AssetAccount creditAccount = getAccount(creditAccountId);
-        final AssetAccount debitAccount = getAccount(debitAccountId);
+    public TransferResult tryTransfer(final long creditAccountId, final long debitAccountId, final long amount) {
+        final TransferResult result = engine.tryTransfer(creditAccountId, debitAccountId, amount, null);
+        if (result.isSuccess()) {
+            journal.awaitDurable(result.getTransaction().getSequence());
+        }
+        return result;
+    }
 
-        final Transaction transaction = new Transaction();
-        transaction.setCreditAccount(creditAccount);
-        transaction.setDebitAccount(debitAccount);
-        transaction.setAmount(amount);
-        transaction.setDateTime(LocalDateTime.now());
+    /**
+     * Same as {@link #transfer(long, long, long)}, unless a transfer with the same idempotency key was made before.
+     * Then the transaction of that transfer is returned, without making the transfer again and without acquiring
+     * the accounts. A transfer with the same key in progress is waited for.
+     *
+     * @param idempotencyKey If null, the transfer is made as usual
+     * @throws IllegalArgumentException If the key was used for a transfer with different accounts or amount
+     */
+    public Transaction transfer(final long creditAccountId, final long debitAccountId, final long amount,
+                                final String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transfer(creditAccountId, debitAccountId, amount);
+        }
 
-        creditAccount.credit(amount);
-        debitAccount.debit(amount);
+        return idempotencyCache.execute(idempotencyKey, creditAccountId, debitAccountId, amount, () -> {
+            final Transaction transaction = engine.transfer(creditAccountId, debitAccountId, amount, idempotencyKey);
+            journal.awaitDurable(transaction.getSequence());
+            return transaction;
+        });
+    }
 
-        //Normally this part should be transactional. But since we are using in-memory db, we will ignore this.
-        transactionRepository.store(transaction);
-        accountRepository.store(creditAccount);
-        accountRepository.store(debitAccount);
+    /**
+     * Same as {@link #transfer(long, long, long, String)}, with the rejection returned rather than thrown. Rejections
+     * of keyed transfers are still thrown inside the {@link IdempotencyCache}, so that transfers waiting for the same
+     * key see them too.
+     */
+    public TransferResult tryTransfer(final long creditAccountId, final long debitAccountId, final long amount,
+                                      final String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return tryTransfer(creditAccountId, debitAccountId, amount);
+        }
+
+        try {
+            return TransferResult.success(transfer(creditAccountId, debitAccountId, amount, idempotencyKey));
+        } catch (RuntimeException e) {
+            return TransferResult.rejected(e);
+        }
+    }
+
+    /**
+     * Executes a batch of transfers. The involved accounts are acquired once for the whole batch and the transfers
+     * are applied in the given order.
+     *
+     * @param transfers Transfers to execute
+     * @param atomic If true, either all of the transfers are executed or none of them. The first failure is thrown
+     *               and the transfers applied before it are reverted. If false, each transfer succeeds or fails on
+     *               its own and the failures are reported in the results.
+     * @return Results in the order of the given transfers
+     */
+    public List<TransferResult> transferAll(final List<TransferRequest> transfers, final boolean atomic) {
+        checkNotNull(transfers, "Transfers cannot be null");
+        final List<TransferResult> results = engine.transferAll(transfers, atomic);
 
-        return transaction;
+        long sequence = 0;
+        for (final TransferResult result : results) {
+            if (result.isSuccess()) {
+                sequence = Math.max(sequence, result.getTransaction().getSequence());
+            }
+        }
+        if (sequence > 0) {
+            journal.awaitDurable(sequence);
+        }
+        return results;
     }
 
-    private <T> T doInLock(final long firstAccountId, final long secondAccountId, final Supplier<T> supplier) throws Throwable {
-        final PriorityQueue<String> lockNameQueue = new PriorityQueue<>();
-        lockNameQueue.add(getLockNameForAccount(firstAccountId));
-        lockNameQueue.add(getLockNameForAccount(secondAccountId));
+    /**
+     * Reserves an amount of the account, which can not be transferred otherwise until the hold is captured, released
+     * or expired. Capturing the hold later does not check the balance again.
+     *
+     * @param amount Amount to hold in minor units of the ledger
+     * @param ttlMillis Time after which the hold expires, or null for the default
+     */
+    public HoldResult placeHold(final long accountId, final long amount, final Long ttlMillis) {
+        return holdService.place(accountId, amount, ttlMillis);
+    }
 
-        final Try<T> t = LockUtils.tryInLock(
-                lockService.getLock(lockNameQueue.poll()),
-                () -> LockUtils.tryInLock(
-                        lockService.getLock(lockNameQueue.poll()),
-                        supplier::get
-                )
-        ).get();
+    public Hold getHold(final long holdId) {
+        final Hold hold = holdService.get(holdId);
+        if (hold == null) {
+            throw new HoldNotFoundException("Hold not found. Hold id: " + holdId);
+        }
+        return hold;
+    }
 
-        if (t.isFailure()) {
-            throw t.getCause();
+    /**
+     * Transfers from the held amount to the debit account, and releases the rest of the hold.
+     *
+     * @param debitAccountId Account that will receive the money
+     * @param amount Amount to transfer, at most the amount of the hold, or null for the whole hold
+     */
+    public TransferResult captureHold(final long holdId, final long debitAccountId, final Long amount) {
+        final TransferResult result = holdService.capture(holdId, debitAccountId, amount);
+        if (result.isSuccess()) {
+            journal.awaitDurable(result.getTransaction().getSequence());
         }
+        return result;
+    }
+
+    public TransferResult releaseHold(final long holdId) {
+        return holdService.release(holdId);
+    }
 
-        return t.get();
+    /**
+     * Reports the accounts whose locks are waited for the most. Accounts are tracked only by the locking engine.
+     *
+     * @param limit Maximum number of accounts to report
+     */
+    public ContentionReport getContendedAccounts(final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        return contentionTracker.getReport(limit);
     }
 
-    //Visible for testing
-    String getLockNameForAccount(final long accountId) {
-        return "Account-" + accountId;
+    public void close() {
+        holdService.close();
+        engine.close();
+        journal.close();
     }
 }
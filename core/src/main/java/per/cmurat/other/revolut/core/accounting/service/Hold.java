@@ -0,0 +1,80 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+/**
+ * Reservation of an amount of an account, which is captured by a transfer or released later. While it is active, the
+ * amount counts against the available balance of the account, so that it can not be spent otherwise.
+ *
+ * Holds are kept in memory only. They are not journaled, since they do not change the balances, and they are gone
+ * after a restart.
+ */
+public class Hold {
+    public enum State {
+        ACTIVE,
+        CAPTURED,
+        RELEASED,
+        EXPIRED
+    }
+
+    private final long id;
+    private final long accountId;
+    private final long amount;
+    private final long expiresAt;
+    /**
+     * Changed by the engines, with exclusive access to the account.
+     */
+    private volatile State state = State.ACTIVE;
+    /**
+     * Timeout of the hold in the timing wheel of the {@link HoldService}.
+     */
+    volatile TimingWheel.Timeout<Hold> timeout;
+
+    Hold(final long id, final long accountId, final long amount, final long expiresAt) {
+        this.id = id;
+        this.accountId = accountId;
+        this.amount = amount;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return Amount held in minor units of the ledger
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return Time in epoch milliseconds after which the hold is released
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    boolean isActive() {
+        return state == State.ACTIVE;
+    }
+
+    /**
+     * Ends the hold, unless it already ended.
+     *
+     * @return False if the hold was not active
+     */
+    boolean end(final State state) {
+        if (this.state != State.ACTIVE) {
+            return false;
+        }
+        this.state = state;
+        return true;
+    }
+}
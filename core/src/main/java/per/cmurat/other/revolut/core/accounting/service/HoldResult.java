@@ -0,0 +1,56 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+
+/**
+ * Outcome of placing a hold. Either the hold is placed, or it was rejected for the given reason.
+ */
+public class HoldResult {
+    private final Hold hold;
+    private final Rejection rejection;
+    private final String error;
+
+    private HoldResult(final Hold hold, final Rejection rejection, final String error) {
+        this.hold = hold;
+        this.rejection = rejection;
+        this.error = error;
+    }
+
+    public static HoldResult success(final Hold hold) {
+        return new HoldResult(hold, null, null);
+    }
+
+    public static HoldResult rejected(final Rejection rejection, final String error) {
+        return new HoldResult(null, rejection, error);
+    }
+
+    public boolean isSuccess() {
+        return rejection == null;
+    }
+
+    /**
+     * @return The placed hold, null if it was rejected
+     */
+    public Hold getHold() {
+        return hold;
+    }
+
+    public Rejection getRejection() {
+        return rejection;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return The placed hold
+     * @throws RuntimeException The exception of the rejection, see {@link Rejection#toException(String)}
+     */
+    public Hold orThrow() {
+        if (rejection != null) {
+            throw rejection.toException(error);
+        }
+        return hold;
+    }
+}
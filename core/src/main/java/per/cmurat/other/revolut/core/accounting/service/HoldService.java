@@ -0,0 +1,200 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Places holds on accounts and captures or releases them, see {@link Hold}.
+ *
+ * Holds which are neither captured nor released expire after their time to live. Their timeouts are kept in a
+ * {@link TimingWheel}, which a background thread advances every tick, so expiry costs the same with any number of
+ * holds. The engine decides the race between a capture, a release and the expiry of a hold, since it changes the
+ * state of the hold with exclusive access to its account.
+ */
+public class HoldService implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(HoldService.class.getName());
+
+    private final TransferEngine engine;
+    private final long defaultTtlMillis;
+    private final long maxTtlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<Long, Hold> holds = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final TimingWheel<Hold> wheel;
+
+    private ScheduledExecutorService ticker;
+
+    @Inject
+    public HoldService(final AppConfig config, final TransferEngine engine) {
+        this(engine, config.getHoldDefaultTtlMillis(), config.getHoldMaxTtlMillis(), config.getHoldTickMillis(),
+                config.getHoldWheelSize(), System::currentTimeMillis);
+    }
+
+    HoldService(final TransferEngine engine, final long defaultTtlMillis, final long maxTtlMillis,
+                final long tickMillis, final int wheelSize, final LongSupplier clock) {
+        if (defaultTtlMillis < 1 || maxTtlMillis < defaultTtlMillis) {
+            throw new IllegalArgumentException("Default time to live must be positive and not more than the maximum");
+        }
+        this.engine = engine;
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.maxTtlMillis = maxTtlMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(tickMillis, wheelSize, clock.getAsLong());
+    }
+
+    /**
+     * Reserves the amount against the available balance of the account.
+     *
+     * @param amount Amount to hold in minor units of the ledger
+     * @param ttlMillis Time after which the hold expires, or null for the default
+     */
+    public HoldResult place(final long accountId, final long amount, final Long ttlMillis) {
+        if (amount < 1) {
+            throw new IllegalArgumentException("Amount must be positive");
+        }
+        final long ttl = ttlMillis == null ? defaultTtlMillis : ttlMillis;
+        if (ttl < 1 || ttl > maxTtlMillis) {
+            throw new IllegalArgumentException("Time to live must be between 1 and " + maxTtlMillis + " milliseconds");
+        }
+
+        final Hold hold = new Hold(ids.incrementAndGet(), accountId, amount, clock.getAsLong() + ttl);
+        final TransferResult result = engine.tryPlaceHold(hold);
+        if (!result.isSuccess()) {
+            return HoldResult.rejected(result.getRejection(), result.getError());
+        }
+
+        holds.put(hold.getId(), hold);
+        hold.timeout = wheel.schedule(hold, hold.getExpiresAt());
+        startTicker();
+        return HoldResult.success(hold);
+    }
+
+    /**
+     * Transfers from the held amount to the debit account, and releases the rest of the hold.
+     *
+     * @param amount Amount to transfer, at most the amount of the hold, or null for the whole hold
+     */
+    public TransferResult capture(final long holdId, final long debitAccountId, final Long amount) {
+        final Hold hold = holds.get(holdId);
+        if (hold == null) {
+            return holdNotFound(holdId);
+        }
+        final long captured = amount == null ? hold.getAmount() : amount;
+        if (captured < 1) {
+            throw new IllegalArgumentException("Amount must be positive");
+        }
+
+        final TransferResult result = engine.tryCaptureHold(hold, debitAccountId, captured);
+        if (!hold.isActive()) {
+            forget(hold);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the amount of the hold to the available balance of its account.
+     */
+    public TransferResult release(final long holdId) {
+        final Hold hold = holds.get(holdId);
+        if (hold == null || !engine.endHold(hold, Hold.State.RELEASED)) {
+            return holdNotFound(holdId);
+        }
+        forget(hold);
+        return TransferResult.VALID;
+    }
+
+    /**
+     * @return The hold, or null if it is not found. Holds are forgotten once they are captured, released or expired.
+     */
+    public Hold get(final long holdId) {
+        return holds.get(holdId);
+    }
+
+    /**
+     * Releases the holds whose time to live passed.
+     *
+     * @return Number of holds expired
+     */
+    int expire() {
+        final List<Hold> expired = new ArrayList<>();
+        wheel.advance(clock.getAsLong(), expired);
+
+        int count = 0;
+        for (final Hold hold : expired) {
+            if (engine.endHold(hold, Hold.State.EXPIRED)) {
+                count++;
+            }
+            holds.remove(hold.getId(), hold);
+        }
+        return count;
+    }
+
+    /**
+     * Stops expiring the holds. The holds left are lost, like on a restart.
+     */
+    @Override
+    public void close() {
+        final ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = ticker;
+        }
+        if (stopped == null) {
+            return;
+        }
+
+        stopped.shutdownNow();
+        try {
+            stopped.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void startTicker() {
+        if (ticker != null) {
+            return;
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-holds");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::expireSafely, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expireSafely() {
+        try {
+            expire();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Expiring holds failed", e);
+        }
+    }
+
+    private void forget(final Hold hold) {
+        holds.remove(hold.getId(), hold);
+        final TimingWheel.Timeout<Hold> timeout = hold.timeout;
+        if (timeout != null) {
+            wheel.cancel(timeout);
+        }
+    }
+
+    private static TransferResult holdNotFound(final long holdId) {
+        return TransferResult.rejected(Rejection.HOLD_NOT_FOUND, "Hold not found. Hold id: " + holdId);
+    }
+}
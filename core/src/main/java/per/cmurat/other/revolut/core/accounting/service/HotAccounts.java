@@ -0,0 +1,39 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+
+/**
+ * Accounts whose balances are split into sub-balances by the {@link LockingTransferEngine}, e.g. settlement accounts
+ * receiving transfers from many customers at once.
+ */
+class HotAccounts {
+    private final long[] accountIds;
+    private final int subBalanceCount;
+
+    @Inject
+    HotAccounts(final AppConfig config) {
+        this(config.getHotAccountIds(), config.getHotAccountSubBalanceCount());
+    }
+
+    /**
+     * @param accountIds In ascending order
+     */
+    HotAccounts(final long[] accountIds, final int subBalanceCount) {
+        if (subBalanceCount < 1) {
+            throw new IllegalArgumentException("Number of sub-balances must be positive");
+        }
+        this.accountIds = accountIds.clone();
+        this.subBalanceCount = subBalanceCount;
+    }
+
+    boolean isHot(final long accountId) {
+        return accountIds.length != 0 && Arrays.binarySearch(accountIds, accountId) >= 0;
+    }
+
+    int getSubBalanceCount() {
+        return subBalanceCount;
+    }
+}
@@ -0,0 +1,240 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import javax.inject.Inject;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the transfers made with idempotency keys, so that retries of a transfer get its original transaction
+ * instead of making it again.
+ *
+ * Keys are forgotten after a time to live, counted from the transfer, and the oldest keys are forgotten first once
+ * there are too many of them. Concurrent transfers with the same key are coalesced: the first one is executed and
+ * the rest wait for its result. A failed transfer is not remembered, so it can be retried with the same key.
+ *
+ * Keys are kept on their transactions too, so that they are journaled and snapshotted with them, and the cache is
+ * rebuilt from the recovered transactions.
+ */
+public class IdempotencyCache {
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private static final Comparator<Transaction> OLDEST_FIRST =
+            Comparator.comparingLong(Transaction::getTimestamp).thenComparing(Transaction::getId);
+
+    private final long ttlMillis;
+    private final int maxKeys;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Entries in the order they were added, including the ones already removed from the map, so that the memory
+     * used stays bounded.
+     */
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger orderSize = new AtomicInteger();
+
+    @Inject
+    public IdempotencyCache(final AppConfig config) {
+        this(config.getIdempotencyTtlMillis(), config.getIdempotencyMaxKeys(), System::currentTimeMillis);
+    }
+
+    IdempotencyCache(final long ttlMillis, final int maxKeys, final LongSupplier clock) {
+        if (ttlMillis < 1 || maxKeys < 1) {
+            throw new IllegalArgumentException("Time to live and maximum number of keys must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxKeys = maxKeys;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the transaction of an earlier transfer with the same key, or makes the transfer. Reusing a key for a
+     * different transfer is rejected.
+     *
+     * @param transfer Makes the transfer with the key, and returns once it is durable
+     */
+    public Transaction execute(final String key, final long creditAccountId, final long debitAccountId, final long amount,
+                               final Supplier<Transaction> transfer) {
+        checkKey(key);
+
+        final long now = clock.getAsLong();
+        final Entry created = new Entry(key, creditAccountId, debitAccountId, amount, now);
+        while (true) {
+            final Entry existing = entries.putIfAbsent(key, created);
+            if (existing == null) {
+                break;
+            }
+            if (existing.isExpired(now)) {
+                remove(existing);
+                continue;
+            }
+
+            existing.checkSameTransfer(creditAccountId, debitAccountId, amount);
+            return existing.await();
+        }
+
+        add(created);
+        try {
+            final Transaction transaction = transfer.get();
+            created.result.complete(transaction);
+            if (entries.get(key) != created) {
+                //Evicted while the transfer was running.
+                transaction.setIdempotencyKey(null);
+            }
+            return transaction;
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, created);
+            created.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Remembers the keys of the transactions which are not expired yet, e.g. after recovering. Only the newest keys
+     * are remembered if there are too many of them, like when they were added, and keys of the transactions on the
+     * heap which are expired or too many are cleared. The archive is only read for the keys which may not be
+     * expired yet.
+     */
+    public void addAll(final TransactionRepository repository) {
+        final long now = clock.getAsLong();
+        final PriorityQueue<Transaction> newest = new PriorityQueue<>(OLDEST_FIRST);
+        final Consumer<Transaction> collector = transaction -> {
+            newest.add(transaction);
+            if (newest.size() > maxKeys) {
+                final Transaction dropped = newest.poll();
+                //Archived transactions are read as copies, and the archive is never changed.
+                if (!repository.isArchived(dropped.getId())) {
+                    dropped.setIdempotencyKey(null);
+                }
+            }
+        };
+
+        repository.forEachArchivedWithKey(now - ttlMillis + 1, collector);
+        repository.forEachOnHeap(transaction -> {
+            if (transaction.getIdempotencyKey() == null) {
+                return;
+            }
+            if (now - transaction.getTimestamp() >= ttlMillis) {
+                transaction.setIdempotencyKey(null);
+            } else {
+                collector.accept(transaction);
+            }
+        });
+
+        while (!newest.isEmpty()) {
+            final Transaction transaction = newest.poll();
+            final Entry entry = new Entry(transaction, transaction.getTimestamp());
+            if (entries.putIfAbsent(entry.key, entry) == null) {
+                add(entry);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    static void checkKey(final String key) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("Idempotency key cannot be empty");
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key cannot be longer than " + MAX_KEY_LENGTH + " characters");
+        }
+    }
+
+    /**
+     * Adds the entry to the eviction order, and forgets the oldest entries while there are too many of them or
+     * they are expired.
+     */
+    private void add(final Entry entry) {
+        order.add(entry);
+        orderSize.incrementAndGet();
+
+        final long now = clock.getAsLong();
+        while (orderSize.get() > maxKeys || isOldestExpired(now)) {
+            final Entry oldest = order.poll();
+            if (oldest == null) {
+                return;
+            }
+            orderSize.decrementAndGet();
+            remove(oldest);
+        }
+    }
+
+    private boolean isOldestExpired(final long now) {
+        final Entry oldest = order.peek();
+        return oldest != null && oldest.isExpired(now);
+    }
+
+    private void remove(final Entry entry) {
+        if (entries.remove(entry.key, entry) && entry.result.isDone() && !entry.result.isCompletedExceptionally()) {
+            //The transaction no longer needs to carry the key, neither in memory nor in the snapshots.
+            entry.result.join().setIdempotencyKey(null);
+        }
+    }
+
+    private final class Entry {
+        private final String key;
+        private final long creditAccountId;
+        private final long debitAccountId;
+        private final long amount;
+        private final long createdAt;
+        private final CompletableFuture<Transaction> result = new CompletableFuture<>();
+
+        Entry(final String key, final long creditAccountId, final long debitAccountId, final long amount,
+              final long createdAt) {
+            this.key = key;
+            this.creditAccountId = creditAccountId;
+            this.debitAccountId = debitAccountId;
+            this.amount = amount;
+            this.createdAt = createdAt;
+        }
+
+        Entry(final Transaction transaction, final long createdAt) {
+            this(transaction.getIdempotencyKey(), transaction.getCreditAccount().getId(),
+                    transaction.getDebitAccount().getId(), transaction.getAmount(), createdAt);
+            result.complete(transaction);
+        }
+
+        boolean isExpired(final long now) {
+            return now - createdAt >= ttlMillis;
+        }
+
+        void checkSameTransfer(final long creditAccountId, final long debitAccountId, final long amount) {
+            if (this.creditAccountId != creditAccountId || this.debitAccountId != debitAccountId || this.amount != amount) {
+                throw new IllegalArgumentException("Idempotency key is already used for a different transfer");
+            }
+        }
+
+        /**
+         * Waits for the result of the transfer, and throws its failure if it failed.
+         */
+        Transaction await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+/**
+ * Result of a check of the invariant of the ledger, see {@link InvariantChecker}.
+ */
+public class InvariantCheck {
+    private final long epoch;
+    private final long expectedTotal;
+    private final long actualTotal;
+    private final long accountCount;
+    private final long durationNanos;
+
+    InvariantCheck(final long epoch, final long expectedTotal, final long actualTotal, final long accountCount,
+                   final long durationNanos) {
+        this.epoch = epoch;
+        this.expectedTotal = expectedTotal;
+        this.actualTotal = actualTotal;
+        this.accountCount = accountCount;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * @return Epoch started by the check, the balances are summed as of its start
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return Total of the balances the accounts were created with
+     */
+    public long getExpectedTotal() {
+        return expectedTotal;
+    }
+
+    public long getActualTotal() {
+        return actualTotal;
+    }
+
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return Money created, or lost if negative
+     */
+    public long getDivergence() {
+        return actualTotal - expectedTotal;
+    }
+
+    public boolean isHeld() {
+        return actualTotal == expectedTotal;
+    }
+
+    @Override
+    public String toString() {
+        return "epoch " + epoch + ", " + accountCount + " accounts, expected total " + expectedTotal
+                + ", actual total " + actualTotal + ", checked in " + durationNanos / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,242 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks that no money is created or lost: the balances of the accounts must add up to the balances they were created
+ * with, since transfers only move money between them.
+ *
+ * The total the accounts were created with is kept in striped adders, so that creating accounts concurrently does not
+ * contend on it. Transfers do not change it. The balances are summed at a consistent cut of the ledger without
+ * stopping the transfers: every commit changing balances registers with the epoch it starts in, and a check starts
+ * a new epoch and waits only for the commits of the previous one to complete. The first commit of an account in the
+ * new epoch keeps the balance before it, see {@link AssetAccount#getCutBalance(long)}, so the accounts are summed as
+ * of the start of the epoch, in partitions of their ids in parallel.
+ *
+ * Commits alternate between two sets of adders by the parity of their epochs. The commits of an epoch are complete
+ * when the adders of its parity have counted as many of them finished as started.
+ */
+public class InvariantChecker implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(InvariantChecker.class.getName());
+
+    private static final int SPINS_BEFORE_SLEEPING = 1_000;
+
+    private final AssetAccountRepository accountRepository;
+    private final LedgerMetrics metrics;
+    private final long intervalMillis;
+    private final int partitionCount;
+
+    private final LongAdder[] started = {new LongAdder(), new LongAdder()};
+    private final LongAdder[] finished = {new LongAdder(), new LongAdder()};
+    private final LongAdder[] created = {new LongAdder(), new LongAdder()};
+    private volatile long epoch;
+    /**
+     * Total created in the epochs before the last two, which are complete. Guarded by this.
+     */
+    private long settled;
+
+    private final ExecutorService scanners;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public InvariantChecker(final AppConfig config, final AssetAccountRepository accountRepository,
+                            final LedgerMetrics metrics) {
+        this(accountRepository, metrics, config.getInvariantCheckIntervalMillis(), config.getInvariantCheckPartitions());
+    }
+
+    InvariantChecker(final AssetAccountRepository accountRepository, final LedgerMetrics metrics,
+                     final long intervalMillis, final int partitionCount) {
+        this.accountRepository = accountRepository;
+        this.metrics = metrics;
+        this.intervalMillis = intervalMillis;
+        this.partitionCount = partitionCount;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.scanners = Executors.newFixedThreadPool(partitionCount, runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-invariants-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a commit changing balances, which must be ended by {@link #exit(long)}.
+     *
+     * @return Epoch of the commit
+     */
+    long enter() {
+        while (true) {
+            final long current = epoch;
+            started[parity(current)].increment();
+            if (epoch == current) {
+                return current;
+            }
+            //A check started meanwhile, which may not wait for this commit.
+            finished[parity(current)].increment();
+        }
+    }
+
+    void exit(final long epoch) {
+        finished[parity(epoch)].increment();
+    }
+
+    /**
+     * Adds the balance of an account created by a commit of the epoch to the total.
+     */
+    void accountCreated(final long epoch, final long balance) {
+        created[parity(epoch)].add(balance);
+    }
+
+    /**
+     * Takes the balances of the recovered accounts as the total they were created with, and starts checking the
+     * invariant periodically. Must be called after the recovery, before any other operation.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        final long[] recovered = new long[1];
+        accountRepository.forEach(account -> recovered[0] += account.getBalance());
+        settled += recovered[0];
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-invariants");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sums the balances at a new cut and compares them to the total created before the cut. Violations are logged and
+     * counted in the metrics.
+     */
+    public synchronized InvariantCheck check() {
+        final long start = System.nanoTime();
+        final long cut = epoch + 1;
+        final int previous = parity(cut - 1);
+
+        //Adders of this parity were last used by the epoch before the previous one, whose commits are complete.
+        settled += created[parity(cut)].sumThenReset();
+        epoch = cut;
+        awaitCommits(previous);
+        final long expected = settled + created[previous].sum();
+
+        final long lastId = accountRepository.getLastId();
+        final long partitionSize = Math.max(1, (lastId + partitionCount - 1) / partitionCount);
+        final List<Future<long[]>> partitions = new ArrayList<>(partitionCount);
+        for (long first = 1; first <= lastId; first += partitionSize) {
+            final long from = first;
+            final long to = Math.min(lastId, first + partitionSize - 1);
+            partitions.add(scanners.submit(() -> sumBalances(cut, from, to)));
+        }
+
+        long actual = 0;
+        long accounts = 0;
+        for (final Future<long[]> partition : partitions) {
+            final long[] sum = getResult(partition);
+            actual += sum[0];
+            accounts += sum[1];
+        }
+
+        final InvariantCheck check = new InvariantCheck(cut, expected, actual, accounts, System.nanoTime() - start);
+        metrics.invariantChecked(check.getDivergence());
+        if (!check.isHeld()) {
+            LOGGER.severe("Ledger invariant violated: " + check);
+        }
+        return check;
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = scheduler;
+        }
+        if (stopped != null) {
+            stopped.shutdownNow();
+            try {
+                stopped.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        scanners.shutdownNow();
+    }
+
+    /**
+     * @return Sum of the balances as of the cut at index 0, and the number of accounts at index 1
+     */
+    private long[] sumBalances(final long cut, final long from, final long to) {
+        final long[] sum = new long[2];
+        for (long id = from; id <= to; id++) {
+            final AssetAccount account = accountRepository.findById(id);
+            if (account != null) {
+                sum[0] += account.getCutBalance(cut);
+                sum[1]++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Waits until the commits registered with the epochs of the given parity are complete. Finished commits are
+     * counted before the started ones, so that equal counts mean that none of them was running in between.
+     */
+    private void awaitCommits(final int parity) {
+        int spins = 0;
+        while (finished[parity].sum() != started[parity].sum()) {
+            if (++spins < SPINS_BEFORE_SLEEPING) {
+                Thread.yield();
+            } else {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the commits", e);
+                }
+            }
+        }
+    }
+
+    private void checkSafely() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Checking the ledger invariant failed", e);
+        }
+    }
+
+    private static long[] getResult(final Future<long[]> partition) {
+        try {
+            return partition.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while summing the balances", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Summing the balances failed", e.getCause());
+        }
+    }
+
+    private static int parity(final long epoch) {
+        return (int) (epoch & 1);
+    }
+}
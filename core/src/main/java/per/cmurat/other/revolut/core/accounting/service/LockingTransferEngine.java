@@ -0,0 +1,297 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.SubBalances;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
+
+/**
+ * Runs the operations on the calling thread, after locking the accounts involved.
+ *
+ * Locks of the accounts are acquired in stripe order (see {@link AccountingLockService#stripeOf(long)}), which
+ * keeps the acquisition order global and prevents deadlocks. Time spent waiting for the locks and holding them is
+ * recorded in the metrics, and the accounts waited for are sampled by the {@link ContentionTracker}. Batches lock
+ * whole stripes, so their waits are not attributed to accounts.
+ *
+ * Balances of the {@link HotAccounts} are split into sub-balances when they are first transferred to or from. A
+ * transfer between a hot account and another account locks only the other account and a single sub-balance of the
+ * hot one, so many of them run concurrently on the hot account. Outgoing transfers which do not fit in a single
+ * sub-balance, and transfers between hot accounts, lock the hot accounts as a whole.
+ */
+public class LockingTransferEngine extends AbstractTransferEngine {
+
+    @Inject
+    private AccountingLockService lockService;
+
+    @Inject
+    private ContentionTracker contentionTracker;
+
+    @Inject
+    private HotAccounts hotAccounts;
+
+    //Kept in fields, since capturing lambdas would be allocated on every transfer.
+    private final TwoAccountWork<String> transferWork = this::doTransfer;
+    private final TwoAccountWork<Hold> captureWork =
+            (creditAccountId, debitAccountId, amount, hold) -> doCaptureHold(hold, debitAccountId, amount);
+
+    @Override
+    public AssetAccount createAccount(final long balance) {
+        final AssetAccount account = newAccount(balance);
+
+        final ReentrantLock lock = lockService.getLock(account.getId());
+        final long waitStart = System.nanoTime();
+        lock(lock, account.getId());
+        final long acquired = getMetrics().lockAcquired(waitStart);
+        try {
+            doCreateAccount(account);
+        } finally {
+            lock.unlock();
+            getMetrics().lockReleased(acquired);
+        }
+        return account;
+    }
+
+    /**
+     * Accounts are locked one at a time, so that a large batch does not hold up the transfers of the other accounts.
+     */
+    @Override
+    public List<AssetAccount> createAccounts(final long[] balances) {
+        checkNotNull(balances, "Balances cannot be null");
+
+        final List<AssetAccount> accounts = newAccounts(balances);
+        for (final AssetAccount account : accounts) {
+            inLock(account.getId(), () -> {
+                doCreateAccount(account);
+                return account;
+            });
+        }
+        return accounts;
+    }
+
+    /**
+     * The path does not allocate anything except the resulting transaction, its result and the snapshots of the
+     * accounts.
+     */
+    @Override
+    public TransferResult tryTransfer(final long creditAccountId, final long debitAccountId, final long amount,
+                                      final String idempotencyKey) {
+        final SubBalances creditSubBalances = subBalancesOf(creditAccountId);
+        final SubBalances debitSubBalances = subBalancesOf(debitAccountId);
+        if (creditSubBalances == null && debitSubBalances != null) {
+            return transferToSubBalance(creditAccountId, debitAccountId, amount, idempotencyKey, debitSubBalances);
+        }
+        if (creditSubBalances != null && debitSubBalances == null) {
+            final TransferResult result = transferFromSubBalance(creditAccountId, debitAccountId, amount,
+                    idempotencyKey, creditSubBalances);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        return inLocks(creditAccountId, debitAccountId, amount, idempotencyKey, transferWork);
+    }
+
+    /**
+     * Locks of all the involved accounts are acquired once, in stripe order, and held until the whole batch
+     * is processed.
+     */
+    @Override
+    public List<TransferResult> transferAll(final List<TransferRequest> transfers, final boolean atomic) {
+        checkNotNull(transfers, "Transfers cannot be null");
+
+        final int[] stripes = getSortedStripes(transfers);
+        final long waitStart = System.nanoTime();
+        for (int i = 0; i < stripes.length; i++) {
+            lockService.getStripeLock(stripes[i]).lock();
+        }
+        final long acquired = getMetrics().lockAcquired(waitStart);
+
+        try {
+            return doTransferAll(transfers, atomic);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                lockService.getStripeLock(stripes[i]).unlock();
+            }
+            getMetrics().lockReleased(acquired);
+        }
+    }
+
+    /**
+     * Holds are not supported on the hot accounts, since their balances are split.
+     */
+    @Override
+    public TransferResult tryPlaceHold(final Hold hold) {
+        if (hotAccounts.isHot(hold.getAccountId())) {
+            return hotAccountHold(hold.getAccountId());
+        }
+        return inLock(hold.getAccountId(), () -> doPlaceHold(hold));
+    }
+
+    @Override
+    public TransferResult tryCaptureHold(final Hold hold, final long debitAccountId, final long amount) {
+        return inLocks(hold.getAccountId(), debitAccountId, amount, hold, captureWork);
+    }
+
+    @Override
+    public boolean endHold(final Hold hold, final Hold.State state) {
+        return inLock(hold.getAccountId(), () -> doEndHold(hold, state));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> T inLock(final long accountId, final Supplier<T> work) {
+        final ReentrantLock lock = lockService.getLock(accountId);
+        final long waitStart = System.nanoTime();
+        lock(lock, accountId);
+        final long acquired = getMetrics().lockAcquired(waitStart);
+        try {
+            return work.get();
+        } finally {
+            lock.unlock();
+            getMetrics().lockReleased(acquired);
+        }
+    }
+
+    /**
+     * Runs the work holding the locks of both accounts, which are acquired in stripe order.
+     */
+    private <A> TransferResult inLocks(final long creditAccountId, final long debitAccountId, final long amount,
+                                       final A argument, final TwoAccountWork<A> work) {
+        final boolean inOrder = lockService.stripeOf(creditAccountId) <= lockService.stripeOf(debitAccountId);
+        final long firstAccountId = inOrder ? creditAccountId : debitAccountId;
+        final long secondAccountId = inOrder ? debitAccountId : creditAccountId;
+        final ReentrantLock firstLock = lockService.getLock(firstAccountId);
+        final ReentrantLock secondLock = lockService.getLock(secondAccountId);
+
+        final long waitStart = System.nanoTime();
+        lock(firstLock, firstAccountId);
+        long acquired = waitStart;
+        try {
+            lock(secondLock, secondAccountId);
+            try {
+                acquired = getMetrics().lockAcquired(waitStart);
+                return work.run(creditAccountId, debitAccountId, amount, argument);
+            } finally {
+                secondLock.unlock();
+            }
+        } finally {
+            firstLock.unlock();
+            getMetrics().lockReleased(acquired);
+        }
+    }
+
+    /**
+     * @return Sub-balances of the account if it is a hot account, which is split first if it is not split yet
+     */
+    private SubBalances subBalancesOf(final long accountId) {
+        if (!hotAccounts.isHot(accountId)) {
+            return null;
+        }
+        final AssetAccount account = findAccount(accountId);
+        if (account == null) {
+            return null;
+        }
+
+        if (!account.isSplit()) {
+            final ReentrantLock lock = lockService.getLock(accountId);
+            lock.lock();
+            try {
+                if (!account.isSplit()) {
+                    account.split(hotAccounts.getSubBalanceCount());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return account.getSubBalances();
+    }
+
+    private TransferResult transferToSubBalance(final long creditAccountId, final long debitAccountId, final long amount,
+                                                final String idempotencyKey, final SubBalances subBalances) {
+        final ReentrantLock lock = lockService.getLock(creditAccountId);
+        final long waitStart = System.nanoTime();
+        lock(lock, creditAccountId);
+        long acquired = waitStart;
+        try {
+            final SubBalances.SubBalance subBalance = subBalances.lockAny();
+            try {
+                acquired = getMetrics().lockAcquired(waitStart);
+                return doTransfer(creditAccountId, debitAccountId, amount, idempotencyKey, subBalance);
+            } finally {
+                subBalance.unlock();
+            }
+        } finally {
+            lock.unlock();
+            getMetrics().lockReleased(acquired);
+        }
+    }
+
+    /**
+     * @return The result, or null if no sub-balance had enough for the transfer at the moment
+     */
+    private TransferResult transferFromSubBalance(final long creditAccountId, final long debitAccountId, final long amount,
+                                                  final String idempotencyKey, final SubBalances subBalances) {
+        final ReentrantLock lock = lockService.getLock(debitAccountId);
+        final long waitStart = System.nanoTime();
+        lock(lock, debitAccountId);
+        long acquired = waitStart;
+        try {
+            final SubBalances.SubBalance subBalance = subBalances.tryLockWithBalance(amount);
+            if (subBalance == null) {
+                return null;
+            }
+            try {
+                acquired = getMetrics().lockAcquired(waitStart);
+                return doTransfer(creditAccountId, debitAccountId, amount, idempotencyKey, subBalance);
+            } finally {
+                subBalance.unlock();
+            }
+        } finally {
+            lock.unlock();
+            if (acquired != waitStart) {
+                getMetrics().lockReleased(acquired);
+            }
+        }
+    }
+
+    /**
+     * Acquires the lock of the account. If the lock is held by another thread, the wait is recorded by the
+     * contention tracker. The lock may be held for another account of the same stripe.
+     */
+    private void lock(final ReentrantLock lock, final long accountId) {
+        if (lock.tryLock()) {
+            return;
+        }
+
+        final int queueLength = lock.getQueueLength() + 1;
+        final long waitStart = System.nanoTime();
+        lock.lock();
+        contentionTracker.record(accountId, queueLength, System.nanoTime() - waitStart);
+    }
+
+    private int[] getSortedStripes(final List<TransferRequest> transfers) {
+        final int[] stripes = new int[transfers.size() * 2];
+        int i = 0;
+        for (final TransferRequest transfer : transfers) {
+            stripes[i++] = lockService.stripeOf(transfer.getCreditAccountId());
+            stripes[i++] = lockService.stripeOf(transfer.getDebitAccountId());
+        }
+        return AccountingLockService.sortAndDeduplicate(stripes);
+    }
+
+    /**
+     * Operation on two accounts, run by {@link #inLocks(long, long, long, Object, TwoAccountWork)}.
+     */
+    @FunctionalInterface
+    private interface TwoAccountWork<A> {
+        TransferResult run(long creditAccountId, long debitAccountId, long amount, A argument);
+    }
+}
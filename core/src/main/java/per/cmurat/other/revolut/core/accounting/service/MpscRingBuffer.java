@@ -0,0 +1,68 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer. Producers claim slots with a CAS on the
+ * tail; the consumer owns the head and clears the slots it has read.
+ */
+class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    //Written only by the consumer.
+    private volatile long head;
+
+    MpscRingBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(final E e) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+
+        //A volatile write, so that it is ordered before the producer checks whether the consumer is parked.
+        buffer.set((int) t & mask, e);
+        return true;
+    }
+
+    /**
+     * Must only be called by the consumer thread.
+     *
+     * @return null if the buffer is empty, or the next slot is claimed but not written yet
+     */
+    E poll() {
+        final long h = head;
+        final int index = (int) h & mask;
+        final E e = buffer.get(index);
+        if (e == null) {
+            return null;
+        }
+
+        buffer.lazySet(index, null);
+        head = h + 1;
+        return e;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
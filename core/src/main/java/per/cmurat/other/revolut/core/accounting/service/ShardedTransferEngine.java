@@ -0,0 +1,322 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.LockSupport;
+
+import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
+
+/**
+ * Partitions the accounts over single threaded shards by the hash of their ids. Each shard has a worker thread
+ * fed by a lock-free ring buffer, and only that thread modifies the accounts of the shard. Operations whose
+ * accounts are all on one shard run on its thread without any locks.
+ *
+ * Operations spanning several shards follow a deterministic protocol: the operation runs on the lowest shard
+ * involved, which first parks the other shards in ascending order by queuing a park task on each of them and
+ * waiting for it to start. Once all of them are parked the operation has exclusive access to their accounts.
+ * Because shards are always parked in ascending order, and by a lower shard, two operations can not wait for
+ * each other.
+ */
+public class ShardedTransferEngine extends AbstractTransferEngine {
+
+    private static final int SPINS_BEFORE_PARKING = 100;
+
+    private final Shard[] shards;
+
+    @Inject
+    public ShardedTransferEngine(final AppConfig config) {
+        this(config.getEngineShardCount(), config.getEngineQueueCapacity());
+    }
+
+    ShardedTransferEngine(final int shardCount, final int queueCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+            shards[i].thread.start();
+        }
+    }
+
+    @Override
+    public AssetAccount createAccount(final long balance) {
+        final AssetAccount account = newAccount(balance);
+        return execute(new int[]{shardOf(account.getId())}, () -> {
+            doCreateAccount(account);
+            return account;
+        });
+    }
+
+    /**
+     * The accounts of each shard are created by a single operation on the shard.
+     */
+    @Override
+    public List<AssetAccount> createAccounts(final long[] balances) {
+        checkNotNull(balances, "Balances cannot be null");
+
+        final List<AssetAccount> accounts = newAccounts(balances);
+        final List<List<AssetAccount>> accountsByShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            accountsByShard.add(new ArrayList<>());
+        }
+        for (final AssetAccount account : accounts) {
+            accountsByShard.get(shardOf(account.getId())).add(account);
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            final List<AssetAccount> shardAccounts = accountsByShard.get(i);
+            if (shardAccounts.isEmpty()) {
+                continue;
+            }
+            execute(new int[]{i}, () -> {
+                for (final AssetAccount account : shardAccounts) {
+                    doCreateAccount(account);
+                }
+                return null;
+            });
+        }
+        return accounts;
+    }
+
+    @Override
+    public TransferResult tryTransfer(final long creditAccountId, final long debitAccountId, final long amount,
+                                      final String idempotencyKey) {
+        return execute(sortedShardsOf(creditAccountId, debitAccountId),
+                () -> doTransfer(creditAccountId, debitAccountId, amount, idempotencyKey));
+    }
+
+    @Override
+    public List<TransferResult> transferAll(final List<TransferRequest> transfers, final boolean atomic) {
+        checkNotNull(transfers, "Transfers cannot be null");
+
+        final int[] shardIndexes = new int[transfers.size() * 2];
+        int i = 0;
+        for (final TransferRequest transfer : transfers) {
+            shardIndexes[i++] = shardOf(transfer.getCreditAccountId());
+            shardIndexes[i++] = shardOf(transfer.getDebitAccountId());
+        }
+
+        return execute(AccountingLockService.sortAndDeduplicate(shardIndexes), () -> doTransferAll(transfers, atomic));
+    }
+
+    @Override
+    public TransferResult tryPlaceHold(final Hold hold) {
+        return execute(new int[]{shardOf(hold.getAccountId())}, () -> doPlaceHold(hold));
+    }
+
+    @Override
+    public TransferResult tryCaptureHold(final Hold hold, final long debitAccountId, final long amount) {
+        return execute(sortedShardsOf(hold.getAccountId(), debitAccountId),
+                () -> doCaptureHold(hold, debitAccountId, amount));
+    }
+
+    @Override
+    public boolean endHold(final Hold hold, final Hold.State state) {
+        return execute(new int[]{shardOf(hold.getAccountId())}, () -> doEndHold(hold, state));
+    }
+
+    @Override
+    public void close() {
+        for (final Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+
+        for (final Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    int shardOf(final long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) ((h & 0x7FFFFFFFL) % shards.length);
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    private int[] sortedShardsOf(final long firstAccountId, final long secondAccountId) {
+        final int firstShard = shardOf(firstAccountId);
+        final int secondShard = shardOf(secondAccountId);
+
+        if (firstShard == secondShard) {
+            return new int[]{firstShard};
+        }
+        return firstShard < secondShard ? new int[]{firstShard, secondShard} : new int[]{secondShard, firstShard};
+    }
+
+    /**
+     * Runs the work on the first of the given shards, after parking the rest of them. Time spent in the queues and
+     * parking the shards is recorded as the lock wait, and time spent running the work as the lock hold.
+     *
+     * @param sortedShards Indexes of the shards involved in ascending order, without duplicates
+     */
+    private <T> T execute(final int[] sortedShards, final Callable<T> work) {
+        final long waitStart = System.nanoTime();
+        final FutureTask<T> task = new FutureTask<>(() -> {
+            final ParkTask[] parkTasks = new ParkTask[sortedShards.length - 1];
+            long acquired = waitStart;
+            try {
+                for (int i = 1; i < sortedShards.length; i++) {
+                    parkTasks[i - 1] = new ParkTask();
+                    shards[sortedShards[i]].submit(parkTasks[i - 1]);
+                    parkTasks[i - 1].awaitParked();
+                }
+                acquired = getMetrics().lockAcquired(waitStart);
+                return work.call();
+            } finally {
+                for (final ParkTask parkTask : parkTasks) {
+                    if (parkTask != null) {
+                        parkTask.release();
+                    }
+                }
+                getMetrics().lockReleased(acquired);
+            }
+        });
+
+        shards[sortedShards[0]].submit(task);
+        return getResult(task);
+    }
+
+    private static <T> T getResult(final FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    //The task can not be taken back once it is queued, so the result is awaited anyway.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks the thread of a shard until it is released, so that another shard can use its accounts.
+     */
+    private static class ParkTask implements Runnable {
+        private final CountDownLatch parked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            parked.countDown();
+            awaitUninterruptibly(released);
+        }
+
+        void awaitParked() {
+            awaitUninterruptibly(parked);
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    private static class Shard implements Runnable {
+        private final MpscRingBuffer<Runnable> queue;
+        private final Thread thread;
+
+        private volatile boolean running = true;
+        private volatile boolean waiting;
+
+        Shard(final int index, final int queueCapacity) {
+            this.queue = new MpscRingBuffer<>(queueCapacity);
+            this.thread = new Thread(this, "ledger-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(final Runnable task) {
+            if (!running) {
+                throw new IllegalStateException("Engine is closed");
+            }
+
+            //Callers wait while the shard is full, which throttles them to the speed of the shard.
+            while (!queue.offer(task)) {
+                Thread.yield();
+            }
+
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            int idleSpins = 0;
+            while (running) {
+                final Runnable task = queue.poll();
+                if (task != null) {
+                    idleSpins = 0;
+                    task.run();
+                } else if (idleSpins < SPINS_BEFORE_PARKING) {
+                    idleSpins++;
+                    Thread.yield();
+                } else {
+                    waiting = true;
+                    //Checked again after announcing the wait, so that a task queued in between is not missed.
+                    final Runnable lateTask = queue.poll();
+                    if (lateTask != null) {
+                        waiting = false;
+                        lateTask.run();
+                    } else {
+                        LockSupport.park(this);
+                        waiting = false;
+                    }
+                }
+            }
+
+            //Tasks queued before closing are still run, so that their callers don't wait forever.
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
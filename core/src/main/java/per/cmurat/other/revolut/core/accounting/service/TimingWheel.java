@@ -0,0 +1,138 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel. Timeouts are kept in a ring of buckets by the tick of their deadline, so scheduling and
+ * cancelling them take constant time and a tick only visits a single bucket. Timeouts further away than a turn of
+ * the wheel stay in their bucket for the turns in between.
+ *
+ * Times are passed in by the caller. A timeout expires at the first tick at or after its deadline, so never early
+ * and at most a tick late. Thread safe; the expired items are returned to the caller, so that they are processed
+ * outside of the lock of the wheel.
+ */
+class TimingWheel<T> {
+    private final long tickMillis;
+    private final long startMillis;
+    private final Timeout<T>[] buckets;
+    private final int mask;
+
+    /**
+     * The next tick to visit.
+     */
+    private long currentTick;
+    private int size;
+
+    TimingWheel(final long tickMillis, final int wheelSize, final long startMillis) {
+        if (tickMillis < 1 || wheelSize < 1 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Tick must be positive and wheel size must be between 1 and 2^30");
+        }
+
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        final int capacity = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        this.buckets = newBuckets(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param deadlineMillis Time after which the item expires. Deadlines which already passed expire at the next
+     *                       tick.
+     */
+    synchronized Timeout<T> schedule(final T item, final long deadlineMillis) {
+        final long deadlineTick = Math.max(ceilDiv(deadlineMillis - startMillis, tickMillis), currentTick);
+        final Timeout<T> timeout = new Timeout<>(item, deadlineTick);
+
+        final int bucket = (int) (deadlineTick & mask);
+        timeout.next = buckets[bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[bucket] = timeout;
+        timeout.scheduled = true;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return False if the timeout already expired or was cancelled
+     */
+    synchronized boolean cancel(final Timeout<T> timeout) {
+        if (!timeout.scheduled) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Visits the ticks up to the given time, removing the timeouts whose deadlines passed.
+     *
+     * @param expired Receives the items of the expired timeouts
+     */
+    synchronized void advance(final long nowMillis, final List<T> expired) {
+        final long lastTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        if (lastTick < currentTick) {
+            return;
+        }
+
+        //After a whole turn or more, every bucket is visited once.
+        final long ticks = Math.min(lastTick - currentTick + 1, buckets.length);
+        for (long tick = currentTick; tick < currentTick + ticks; tick++) {
+            Timeout<T> timeout = buckets[(int) (tick & mask)];
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                if (timeout.deadlineTick <= lastTick) {
+                    unlink(timeout);
+                    expired.add(timeout.item);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = lastTick + 1;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private void unlink(final Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[] newBuckets(final int length) {
+        return (Timeout<T>[]) new Timeout<?>[length];
+    }
+
+    private static long ceilDiv(final long dividend, final long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    /**
+     * Scheduled item, linked into the list of its bucket. Guarded by the wheel.
+     */
+    static final class Timeout<T> {
+        private final T item;
+        private final long deadlineTick;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private boolean scheduled;
+
+        private Timeout(final T item, final long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feed of the committed transactions for downstream consumers, in the order of their ids, which is the order the
+ * transactions of each account were committed. Consumers read it from any position, and resume from the last id
+ * they read.
+ *
+ * Commits publish their transactions into a bounded ring of slots indexed by the transaction id, without waiting for
+ * the consumers: a later transaction simply takes the slot of an earlier one. Consumers read the slots without locks,
+ * and the transactions they have missed, or which were committed before the start, from the repository, which
+ * includes the archive. So slow consumers never slow down the commits.
+ *
+ * Ids are assigned before the commits are journaled, and the ids of the commits failing in between are never
+ * stored. Those are given up by {@link #abandon(long)}, so that consumers skip them instead of waiting for them. They
+ * are forgotten once a consumer has read past them, since the ids read past are known to be stored or abandoned.
+ */
+public class TransactionFeed {
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TransactionRepository transactionRepository;
+    private final LedgerMetrics metrics;
+
+    private final AtomicReferenceArray<Transaction> slots;
+    private final int mask;
+    private final NavigableSet<Long> abandoned = new ConcurrentSkipListSet<>();
+    /**
+     * Ids up to this one were read past by a consumer, so they are stored or abandoned.
+     */
+    private final AtomicLong resolvedId = new AtomicLong();
+    /**
+     * Transactions up to this id were committed before the start, and are only in the repository.
+     */
+    private volatile long startId;
+
+    @Inject
+    public TransactionFeed(final AppConfig config, final TransactionRepository transactionRepository,
+                           final LedgerMetrics metrics) {
+        this(transactionRepository, metrics, config.getFeedCapacity());
+    }
+
+    TransactionFeed(final TransactionRepository transactionRepository, final LedgerMetrics metrics,
+                    final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        final int rounded = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.transactionRepository = transactionRepository;
+        this.metrics = metrics;
+        this.slots = new AtomicReferenceArray<>(rounded);
+        this.mask = rounded - 1;
+    }
+
+    /**
+     * Marks the transactions recovered so far as committed before the start. Must be called after the recovery,
+     * before any commit.
+     */
+    public void start() {
+        startId = transactionRepository.getLastId();
+    }
+
+    /**
+     * Publishes a committed transaction, after it is stored.
+     */
+    void publish(final Transaction transaction) {
+        final long id = transaction.getId();
+        final int index = (int) (id & mask);
+        while (true) {
+            final Transaction current = slots.get(index);
+            if (current != null && current.getId() > id) {
+                //A later transaction took the slot already, consumers find this one in the repository.
+                return;
+            }
+            if (slots.compareAndSet(index, current, transaction)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives up an id assigned to a commit which failed before storing its transaction.
+     */
+    void abandon(final long id) {
+        abandoned.add(id);
+    }
+
+    /**
+     * Reads the transactions committed after the given id, waiting up to the timeout for the first one if there is
+     * none yet.
+     *
+     * @param cursor 0 to read from the first transaction, or the next cursor of the previous page
+     * @param limit Maximum number of transactions in the page
+     * @param timeoutMillis Maximum time to wait for a transaction, 0 not to wait
+     * @return Transactions in the order of their ids, possibly none, and the cursor to read the next ones from
+     */
+    public TransactionPage read(final long cursor, final int limit, final long timeoutMillis) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Cursor must be non-negative");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout must be non-negative");
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final List<Transaction> transactions = new ArrayList<>();
+        long next = cursor;
+        while (true) {
+            next = readCommitted(next, limit, transactions);
+            if (!transactions.isEmpty() || deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted()) {
+                return new TransactionPage(transactions, next);
+            }
+            LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * Reads the transactions following the cursor until one is not committed yet, or the limit is reached.
+     *
+     * @return Id of the last transaction read or skipped
+     */
+    private long readCommitted(final long cursor, final int limit, final List<Transaction> target) {
+        long last = cursor;
+        int fromRepository = 0;
+        while (target.size() < limit) {
+            final long id = last + 1;
+            final Transaction published = slots.get((int) (id & mask));
+            if (published != null && published.getId() == id) {
+                target.add(published);
+            } else if (id <= startId || published != null && published.getId() > id) {
+                //Committed before the start, or its slot was taken by a later transaction.
+                final Transaction stored = transactionRepository.findById(id);
+                if (stored != null) {
+                    target.add(stored);
+                    fromRepository++;
+                } else if (id > startId && isPending(id)) {
+                    //Overtaken by later commits before it was stored.
+                    break;
+                }
+            } else if (isPending(id)) {
+                break;
+            }
+            last = id;
+        }
+
+        if (last > cursor) {
+            resolve(last);
+        }
+
+        if (fromRepository > 0) {
+            metrics.feedReadFromRepository(fromRepository);
+        }
+        return last;
+    }
+
+    /**
+     * Checks the abandoned ids first, since they are pruned after the resolved id passes them.
+     *
+     * @return Whether the transaction with the given id may still be stored
+     */
+    private boolean isPending(final long id) {
+        return !abandoned.contains(id) && id > resolvedId.get();
+    }
+
+    private void resolve(final long id) {
+        final long resolved = resolvedId.accumulateAndGet(id, Math::max);
+        if (!abandoned.isEmpty()) {
+            abandoned.headSet(resolved, true).clear();
+        }
+    }
+
+    int getAbandonedCount() {
+        return abandoned.size();
+    }
+}
@@ -0,0 +1,29 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.util.List;
+
+/**
+ * A page of the transactions of an account.
+ */
+public class TransactionPage {
+    private final List<Transaction> transactions;
+    private final Long nextCursor;
+
+    public TransactionPage(final List<Transaction> transactions, final Long nextCursor) {
+        this.transactions = transactions;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return Cursor of the next page, or null if this is the last page
+     */
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,93 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.util.List;
+
+/**
+ * Executes the operations of {@link AccountingService} that modify or check more than one account.
+ * Implementations decide how concurrent operations on the same accounts are kept apart.
+ * The engine is selected with {@link per.cmurat.other.revolut.core.AppConfig#ENGINE}.
+ */
+public interface TransferEngine extends AutoCloseable {
+
+    /**
+     * Creates and stores an account. The account is journaled before any other operation can reach it.
+     */
+    AssetAccount createAccount(long balance);
+
+    /**
+     * Creates and stores an account for each of the balances, with consecutive ids reserved at once. Each account is
+     * journaled before any other operation can reach it.
+     *
+     * @return Accounts in the order of the balances
+     */
+    List<AssetAccount> createAccounts(long[] balances);
+
+    /**
+     * Checks that the transfer could be made now, against the last committed versions of the accounts and without
+     * waiting for the transfers in progress. Rejections are returned rather than thrown, since they are common.
+     */
+    TransferResult tryValidate(long creditAccountId, long debitAccountId, long amount);
+
+    /**
+     * Makes the transfer, with the idempotency key stored and journaled with the transaction. Rejections are returned
+     * rather than thrown, since they are common.
+     *
+     * @param idempotencyKey Can be null
+     */
+    TransferResult tryTransfer(long creditAccountId, long debitAccountId, long amount, String idempotencyKey);
+
+    /**
+     * Same as {@link #tryValidate(long, long, long)}, with the rejection thrown.
+     */
+    default void validate(final long creditAccountId, final long debitAccountId, final long amount) {
+        tryValidate(creditAccountId, debitAccountId, amount).orThrow();
+    }
+
+    /**
+     * Same as {@link #tryTransfer(long, long, long, String)} without an idempotency key, with the rejection thrown.
+     */
+    default Transaction transfer(final long creditAccountId, final long debitAccountId, final long amount) {
+        return tryTransfer(creditAccountId, debitAccountId, amount, null).orThrow();
+    }
+
+    /**
+     * Same as {@link #tryTransfer(long, long, long, String)}, with the rejection thrown.
+     */
+    default Transaction transfer(final long creditAccountId, final long debitAccountId, final long amount,
+                                 final String idempotencyKey) {
+        return tryTransfer(creditAccountId, debitAccountId, amount, idempotencyKey).orThrow();
+    }
+
+    List<TransferResult> transferAll(List<TransferRequest> transfers, boolean atomic);
+
+    /**
+     * Reserves the amount of the hold against the available balance of its account.
+     *
+     * @return {@link TransferResult#VALID} if the hold is placed, or its rejection
+     */
+    TransferResult tryPlaceHold(Hold hold);
+
+    /**
+     * Transfers from the account of the hold to the debit account, out of the held amount, and ends the hold.
+     *
+     * @param amount At most the amount of the hold. The rest of the hold is released.
+     */
+    TransferResult tryCaptureHold(Hold hold, long debitAccountId, long amount);
+
+    /**
+     * Ends the hold without a transfer, returning its amount to the available balance.
+     *
+     * @param state State ending the hold
+     * @return False if the hold already ended
+     */
+    boolean endHold(Hold hold, Hold.State state);
+
+    /**
+     * Releases the resources of the engine. It should not be used afterwards.
+     */
+    @Override
+    void close();
+}
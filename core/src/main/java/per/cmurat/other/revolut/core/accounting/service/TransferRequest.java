@@ -0,0 +1,33 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+/**
+ * A transfer to be executed as a part of a batch. See {@link AccountingService#transferAll(java.util.List, boolean)}.
+ */
+public class TransferRequest {
+    private final long creditAccountId;
+    private final long debitAccountId;
+    private final long amount;
+
+    /**
+     * @param creditAccountId Account that the money will be taken from
+     * @param debitAccountId Account that will receive the money
+     * @param amount Amount of money to transfer in minor units of the ledger
+     */
+    public TransferRequest(final long creditAccountId, final long debitAccountId, final long amount) {
+        this.creditAccountId = creditAccountId;
+        this.debitAccountId = debitAccountId;
+        this.amount = amount;
+    }
+
+    public long getCreditAccountId() {
+        return creditAccountId;
+    }
+
+    public long getDebitAccountId() {
+        return debitAccountId;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+}
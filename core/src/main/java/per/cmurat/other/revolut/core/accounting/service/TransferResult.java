@@ -0,0 +1,74 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+/**
+ * Outcome of a transfer or a validation. Either it succeeded, with the transaction of a transfer, or it was rejected
+ * for the given reason.
+ */
+public class TransferResult {
+    /**
+     * Successful validation, which has no transaction.
+     */
+    public static final TransferResult VALID = new TransferResult(null, null, null);
+
+    private final Transaction transaction;
+    private final Rejection rejection;
+    private final String error;
+
+    private TransferResult(final Transaction transaction, final Rejection rejection, final String error) {
+        this.transaction = transaction;
+        this.rejection = rejection;
+        this.error = error;
+    }
+
+    public static TransferResult success(final Transaction transaction) {
+        return new TransferResult(transaction, null, null);
+    }
+
+    public static TransferResult rejected(final Rejection rejection, final String error) {
+        return new TransferResult(null, rejection, error);
+    }
+
+    /**
+     * @throws RuntimeException The given exception, if it is not a rejection
+     */
+    public static TransferResult rejected(final RuntimeException exception) {
+        final Rejection rejection = Rejection.of(exception);
+        if (rejection == null) {
+            throw exception;
+        }
+        return rejected(rejection, exception.getMessage());
+    }
+
+    public boolean isSuccess() {
+        return rejection == null;
+    }
+
+    /**
+     * @return The transaction of a successful transfer, null otherwise
+     */
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public Rejection getRejection() {
+        return rejection;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return The transaction of a successful transfer, null for a successful validation
+     * @throws RuntimeException The exception of the rejection, see {@link Rejection#toException(String)}
+     */
+    public Transaction orThrow() {
+        if (rejection != null) {
+            throw rejection.toException(error);
+        }
+        return transaction;
+    }
+}
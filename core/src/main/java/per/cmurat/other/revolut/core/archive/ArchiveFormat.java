@@ -0,0 +1,87 @@
+package per.cmurat.other.revolut.core.archive;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of the archive segments.
+ *
+ * A segment file holds the transactions of a range of consecutive ids, one row per id, and is never changed once it
+ * is written. It is laid out as: magic (int), first id (long), number of rows (int), the columns, the idempotency
+ * keys, CRC32 of everything before it (int). All numbers are big endian.
+ *
+ * The columns are, in order: presence (1 for the ids with a transaction, 0 for the ids which were never stored),
+ * credit account id, debit account id, amount, timestamp, sequence number, and the end offsets of the idempotency
+ * keys. A column is laid out as: minimum (long), bit width (byte), and the values minus the minimum packed into that
+ * many bits each, the most significant bit first, followed by {@link #PADDING} zero bytes. Values of a segment are
+ * close to each other, so they take a few bits each, and any of them is read with a single long read. Columns with
+ * the bit width {@link #RAW_WIDTH} are not packed, and their minimum is 0.
+ *
+ * Rows without a transaction repeat the values of a row with one, so that they do not widen the columns. Segments
+ * written before may have zeros in those rows instead, so the values of such rows are not to be relied on.
+ *
+ * Idempotency keys are laid out as their total length (int) and the UTF-8 keys one after the other. The key of a row
+ * starts at the end offset of the previous row; rows without a key have an empty one.
+ */
+final class ArchiveFormat {
+    static final int MAGIC = 0x4C415243;
+    static final int HEADER_SIZE = 16;
+    static final int TRAILER_SIZE = 4;
+
+    static final int PRESENT = 0;
+    static final int CREDIT_ACCOUNT_ID = 1;
+    static final int DEBIT_ACCOUNT_ID = 2;
+    static final int AMOUNT = 3;
+    static final int TIMESTAMP = 4;
+    static final int SEQUENCE = 5;
+    static final int KEY_END = 6;
+    static final int COLUMN_COUNT = 7;
+
+    /**
+     * Packed values up to this wide can be read with a single long read at any bit offset.
+     */
+    static final int MAX_PACKED_WIDTH = 56;
+    static final int RAW_WIDTH = 64;
+    static final int PADDING = 8;
+
+    private static final String SEGMENT_PREFIX = "transactions-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private ArchiveFormat() {
+    }
+
+    static String segmentName(final long firstId) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstId, SEGMENT_SUFFIX);
+    }
+
+    static boolean isTemporary(final Path path) {
+        return path.getFileName().toString().endsWith(TEMPORARY_SUFFIX);
+    }
+
+    static boolean isSegment(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX)
+                && (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + TEMPORARY_SUFFIX));
+    }
+
+    /**
+     * @return Number of bits needed for the values between the minimum and the maximum, or {@link #RAW_WIDTH} if
+     * packing them would not fit into a long read
+     */
+    static int widthOf(final long min, final long max) {
+        final long range = max - min;
+        if (range < 0) {
+            //The range overflowed.
+            return RAW_WIDTH;
+        }
+        final int width = 64 - Long.numberOfLeadingZeros(range);
+        return width > MAX_PACKED_WIDTH ? RAW_WIDTH : width;
+    }
+
+    /**
+     * @return Size of a column of the given number of values, without the minimum and the width
+     */
+    static long columnSize(final int rows, final int width) {
+        return ((long) rows * width + 7) / 8 + PADDING;
+    }
+}
@@ -0,0 +1,341 @@
+package per.cmurat.other.revolut.core.archive;
+
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.AMOUNT;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.COLUMN_COUNT;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.CREDIT_ACCOUNT_ID;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.DEBIT_ACCOUNT_ID;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.HEADER_SIZE;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.KEY_END;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.MAGIC;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.PADDING;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.PRESENT;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.RAW_WIDTH;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.SEQUENCE;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.TIMESTAMP;
+import static per.cmurat.other.revolut.core.archive.ArchiveFormat.TRAILER_SIZE;
+
+/**
+ * A sealed segment of the archive, see {@link ArchiveFormat}. The file is memory-mapped, so the transactions take no
+ * heap until they are read, and reading a transaction only touches its row of each column.
+ *
+ * Reads use absolute positions only, so a segment can be read by any number of threads concurrently.
+ */
+final class ArchiveSegment {
+    private final ByteBuffer buffer;
+    private final long firstId;
+    private final int rowCount;
+    private final long[] mins = new long[COLUMN_COUNT];
+    private final int[] widths = new int[COLUMN_COUNT];
+    private final int[] offsets = new int[COLUMN_COUNT];
+    private final int keysOffset;
+    private final int transactionCount;
+
+    private ArchiveSegment(final Path file, final ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        final int size = buffer.capacity();
+        final ByteBuffer content = buffer.duplicate();
+        content.limit(size - TRAILER_SIZE);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        if (buffer.getInt(size - TRAILER_SIZE) != (int) crc.getValue()) {
+            throw new IllegalStateException("Archive segment is corrupted: " + file);
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Archive segment has invalid header: " + file);
+        }
+        this.firstId = buffer.getLong(4);
+        this.rowCount = buffer.getInt(12);
+
+        long position = HEADER_SIZE;
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            mins[column] = buffer.getLong((int) position);
+            widths[column] = buffer.get((int) position + 8);
+            offsets[column] = (int) position + 9;
+            position += 9 + ArchiveFormat.columnSize(rowCount, widths[column]);
+        }
+        final int keysLength = buffer.getInt((int) position);
+        this.keysOffset = (int) position + 4;
+        if (keysOffset + (long) keysLength != size - TRAILER_SIZE) {
+            throw new IllegalStateException("Archive segment has invalid size: " + file);
+        }
+
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            count += get(PRESENT, row);
+        }
+        this.transactionCount = count;
+    }
+
+    /**
+     * Writes the rows into a new segment file in the directory, and opens it. The file is on the disk once this
+     * returns, since snapshots taken afterwards leave its transactions to it.
+     *
+     * @param rows Transactions of the consecutive ids starting from the first id, null for the ids without one
+     */
+    static ArchiveSegment write(final Path directory, final long firstId, final Transaction[] rows) {
+        if (rows.length == 0) {
+            throw new IllegalArgumentException("Segment must have rows");
+        }
+
+        final long[][] columns = new long[COLUMN_COUNT][rows.length];
+        final ByteArrayOutputStream keys = new ByteArrayOutputStream();
+        for (int row = 0; row < rows.length; row++) {
+            final Transaction transaction = rows[row];
+            if (transaction != null) {
+                columns[PRESENT][row] = 1;
+                columns[CREDIT_ACCOUNT_ID][row] = transaction.getCreditAccount().getId();
+                columns[DEBIT_ACCOUNT_ID][row] = transaction.getDebitAccount().getId();
+                columns[AMOUNT][row] = transaction.getAmount();
+                columns[TIMESTAMP][row] = transaction.getTimestamp();
+                columns[SEQUENCE][row] = transaction.getSequence();
+
+                final String key = transaction.getIdempotencyKey();
+                if (key != null) {
+                    final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                    keys.write(bytes, 0, bytes.length);
+                }
+            }
+            columns[KEY_END][row] = keys.size();
+        }
+        fillAbsentRows(rows, columns);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(firstId);
+            out.writeInt(rows.length);
+            for (final long[] column : columns) {
+                writeColumn(out, column);
+            }
+            out.writeInt(keys.size());
+            keys.writeTo(out);
+
+            final CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Path file = directory.resolve(ArchiveFormat.segmentName(firstId));
+        final Path temporary = directory.resolve(file.getFileName() + ArchiveFormat.TEMPORARY_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return open(file);
+    }
+
+    static ArchiveSegment open(final Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Archive segment has invalid size: " + file);
+            }
+            //The mapping stays valid after the channel is closed.
+            return new ArchiveSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long getFirstId() {
+        return firstId;
+    }
+
+    long getLastId() {
+        return firstId + rowCount - 1;
+    }
+
+    /**
+     * @return Number of the ids of the segment which have a transaction
+     */
+    int getTransactionCount() {
+        return transactionCount;
+    }
+
+    boolean contains(final long id) {
+        return id >= firstId && id <= getLastId() && get(PRESENT, (int) (id - firstId)) == 1;
+    }
+
+    /**
+     * @return A bound which none of the timestamps of the segment is after, read from the layout of the column only
+     */
+    long getMaxTimestamp() {
+        final int width = widths[TIMESTAMP];
+        if (width == RAW_WIDTH) {
+            return Long.MAX_VALUE;
+        }
+        return mins[TIMESTAMP] + (1L << width) - 1;
+    }
+
+    /**
+     * Reads the transactions of the segment which have an idempotency key and were made at or after the given time.
+     * Only the key offsets and timestamps of the rows are read until one matches, and segments without keys or with
+     * older timestamps only are skipped without reading any of their rows.
+     *
+     * @param accounts Finds the accounts of the transactions by their ids
+     */
+    void forEachWithKey(final long since, final LongFunction<AssetAccount> accounts,
+                        final Consumer<? super Transaction> consumer) {
+        if (keysOffset == buffer.capacity() - TRAILER_SIZE || getMaxTimestamp() < since) {
+            return;
+        }
+
+        long keyStart = 0;
+        for (int row = 0; row < rowCount; row++) {
+            final long keyEnd = get(KEY_END, row);
+            if (keyEnd != keyStart && get(TIMESTAMP, row) >= since) {
+                consumer.accept(read(firstId + row, accounts));
+            }
+            keyStart = keyEnd;
+        }
+    }
+
+    /**
+     * @param accounts Finds the accounts of the transaction by their ids
+     * @return A new copy of the transaction with the given id, or null if the segment does not have it
+     */
+    Transaction read(final long id, final LongFunction<AssetAccount> accounts) {
+        if (!contains(id)) {
+            return null;
+        }
+
+        final int row = (int) (id - firstId);
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setCreditAccount(accounts.apply(get(CREDIT_ACCOUNT_ID, row)));
+        transaction.setDebitAccount(accounts.apply(get(DEBIT_ACCOUNT_ID, row)));
+        transaction.setAmount(get(AMOUNT, row));
+        transaction.setTimestamp(get(TIMESTAMP, row));
+        transaction.setSequence(get(SEQUENCE, row));
+        transaction.setIdempotencyKey(readKey(row));
+        return transaction;
+    }
+
+    private long get(final int column, final int row) {
+        final int width = widths[column];
+        if (width == 0) {
+            return mins[column];
+        }
+        if (width == RAW_WIDTH) {
+            return buffer.getLong((int) (offsets[column] + (long) row * 8));
+        }
+
+        final long bit = (long) row * width;
+        final long word = buffer.getLong((int) (offsets[column] + (bit >>> 3)));
+        return mins[column] + ((word << (bit & 7)) >>> (64 - width));
+    }
+
+    private String readKey(final int row) {
+        final int start = row == 0 ? 0 : (int) get(KEY_END, row - 1);
+        final int end = (int) get(KEY_END, row);
+        if (start == end) {
+            return null;
+        }
+
+        final byte[] key = new byte[end - start];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = buffer.get(keysOffset + start + i);
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes the new name of the segment durable. Not every platform can open a directory, in which case the rename is
+     * left to the file system.
+     */
+    private static void forceDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //E.g. on Windows, directories can not be opened as channels.
+        }
+    }
+
+    private static void fillAbsentRows(final Transaction[] rows, final long[][] columns) {
+        int present = 0;
+        while (present < rows.length && rows[present] == null) {
+            present++;
+        }
+        if (present == rows.length) {
+            return;
+        }
+
+        for (int row = 0; row < rows.length; row++) {
+            if (rows[row] == null) {
+                for (int column = CREDIT_ACCOUNT_ID; column <= SEQUENCE; column++) {
+                    columns[column][row] = columns[column][present];
+                }
+            }
+        }
+    }
+
+    private static void writeColumn(final DataOutputStream out, final long[] values) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (final long value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        final int width = ArchiveFormat.widthOf(min, max);
+        if (width == RAW_WIDTH) {
+            out.writeLong(0L);
+            out.writeByte(width);
+            for (final long value : values) {
+                out.writeLong(value);
+            }
+        } else {
+            out.writeLong(min);
+            out.writeByte(width);
+
+            //Fewer than 8 bits are pending between the values, so a value of up to 56 bits always fits next to them.
+            long pending = 0;
+            int pendingBits = 0;
+            for (final long value : values) {
+                pending = (pending << width) | (value - min);
+                pendingBits += width;
+                while (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    out.writeByte((int) (pending >>> pendingBits));
+                }
+                pending &= (1L << pendingBits) - 1;
+            }
+            if (pendingBits > 0) {
+                out.writeByte((int) (pending << (8 - pendingBits)));
+            }
+        }
+        out.write(new byte[PADDING]);
+    }
+}
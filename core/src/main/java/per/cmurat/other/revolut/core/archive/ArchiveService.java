@@ -0,0 +1,98 @@
+package per.cmurat.other.revolut.core.archive;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+
+import javax.inject.Inject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Seals the old transactions into the archive periodically, so that only the latest ones stay on the heap. The first
+ * run is right after the start, which archives the old transactions recovered.
+ *
+ * Only transactions which are durable in the journal are archived, since the snapshots leave the archived transactions
+ * to the archive.
+ */
+public class ArchiveService implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ArchiveService.class.getName());
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionArchive archive;
+    private final Journal journal;
+    private final long intervalMillis;
+    private final int liveTransactions;
+    private final int segmentTransactions;
+
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public ArchiveService(final AppConfig config, final TransactionRepository transactionRepository,
+                          final TransactionArchive archive, final Journal journal) {
+        this.transactionRepository = transactionRepository;
+        this.archive = archive;
+        this.journal = journal;
+        this.intervalMillis = config.getArchiveIntervalMillis();
+        this.liveTransactions = config.getArchiveLiveTransactions();
+        this.segmentTransactions = config.getArchiveSegmentTransactions();
+    }
+
+    /**
+     * Starts archiving periodically, if archiving is enabled.
+     */
+    public synchronized void start() {
+        if (!archive.isEnabled() || scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archiveSafely, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Number of the transactions archived
+     */
+    public long archive() {
+        final long start = System.nanoTime();
+        final long durableSequence = journal.getLastSequence();
+        journal.awaitDurable(durableSequence);
+        final long archived = transactionRepository.archive(liveTransactions, segmentTransactions, durableSequence);
+        if (archived > 0) {
+            LOGGER.info("Archived " + archived + " transactions in " + (System.nanoTime() - start) / 1_000_000
+                    + " ms, " + archive.size() + " transactions are archived");
+        }
+        return archived;
+    }
+
+    @Override
+    public void close() {
+        final ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = scheduler;
+        }
+        if (stopped != null) {
+            stopped.shutdownNow();
+            try {
+                stopped.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void archiveSafely() {
+        try {
+            archive();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Archiving transactions failed", e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package per.cmurat.other.revolut.core.archive;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Cold tier of the transactions: immutable, compressed segment files of consecutive transaction ids, which are
+ * memory-mapped for reads, see {@link ArchiveSegment}. The transactions read from the archive are new copies, which
+ * refer to the accounts of the repository.
+ *
+ * Segments are kept across restarts, since the snapshots leave the archived transactions to them: on start, only
+ * the latest transactions are loaded onto the heap. The segments are validated when they are opened, and a corrupted
+ * or missing segment fails the start, since its transactions are nowhere else. Without a journal nothing is recovered,
+ * so the segments of an earlier run are deleted instead.
+ *
+ * Segments are only added by a single writer, and reads are lock-free.
+ */
+public class TransactionArchive {
+    private final Path directory;
+    private final AssetAccountRepository accountRepository;
+
+    private volatile ArchiveSegment[] segments = new ArchiveSegment[0];
+    private volatile long transactionCount;
+
+    @Inject
+    public TransactionArchive(final AppConfig config, final AssetAccountRepository accountRepository) {
+        this(config.getArchiveDirectory(), config.getJournalDirectory() != null, accountRepository);
+    }
+
+    /**
+     * Opens the archive, keeping the segments of an earlier run.
+     *
+     * @param directory Directory of the segments, or null to disable archiving
+     */
+    public TransactionArchive(final Path directory, final AssetAccountRepository accountRepository) {
+        this(directory, true, accountRepository);
+    }
+
+    /**
+     * @param directory Directory of the segments, or null to disable archiving
+     * @param recovered Whether the ledger is recovered on start, otherwise the segments of an earlier run are deleted
+     */
+    public TransactionArchive(final Path directory, final boolean recovered,
+                              final AssetAccountRepository accountRepository) {
+        this.directory = directory;
+        this.accountRepository = accountRepository;
+        if (directory != null) {
+            openSegments(directory, recovered);
+        }
+    }
+
+    /**
+     * @return An archive which is disabled, so the transactions stay on the heap
+     */
+    public static TransactionArchive disabled() {
+        return new TransactionArchive((Path) null, null);
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @return The last archived id, or 0 if nothing is archived. Ids up to it are archived, or were never stored.
+     */
+    public long getLastId() {
+        final ArchiveSegment[] current = segments;
+        return current.length == 0 ? 0 : current[current.length - 1].getLastId();
+    }
+
+    /**
+     * @return Number of the archived transactions
+     */
+    public long size() {
+        return transactionCount;
+    }
+
+    /**
+     * @return A new copy of the archived transaction with the given id, or null if it is not archived
+     */
+    public Transaction findById(final long id) {
+        final ArchiveSegment segment = segmentOf(id);
+        return segment == null ? null : segment.read(id, accountRepository::findById);
+    }
+
+    public boolean contains(final long id) {
+        final ArchiveSegment segment = segmentOf(id);
+        return segment != null && segment.contains(id);
+    }
+
+    /**
+     * Visits the archived transactions in the order of their ids.
+     */
+    public void forEach(final Consumer<? super Transaction> consumer) {
+        for (final ArchiveSegment segment : segments) {
+            for (long id = segment.getFirstId(); id <= segment.getLastId(); id++) {
+                final Transaction transaction = segment.read(id, accountRepository::findById);
+                if (transaction != null) {
+                    consumer.accept(transaction);
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the archived transactions which have an idempotency key and were made at or after the given time, in
+     * the order of their ids. Segments which can not have such transactions are skipped without reading their rows.
+     */
+    public void forEachWithKey(final long since, final Consumer<? super Transaction> consumer) {
+        for (final ArchiveSegment segment : segments) {
+            segment.forEachWithKey(since, accountRepository::findById, consumer);
+        }
+    }
+
+    /**
+     * Seals the transactions of the ids following the last archived one into a new segment. The transactions can be
+     * read from the archive once this returns.
+     *
+     * @param rows Transactions of the consecutive ids, null for the ids without one
+     */
+    public synchronized void seal(final Transaction[] rows) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("Archiving is disabled");
+        }
+
+        final ArchiveSegment segment = ArchiveSegment.write(directory, getLastId() + 1, rows);
+        final ArchiveSegment[] current = segments;
+        final ArchiveSegment[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = segment;
+        transactionCount += segment.getTransactionCount();
+        segments = grown;
+    }
+
+    private ArchiveSegment segmentOf(final long id) {
+        final ArchiveSegment[] current = segments;
+        int low = 0;
+        int high = current.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final ArchiveSegment segment = current[middle];
+            if (id < segment.getFirstId()) {
+                high = middle - 1;
+            } else if (id > segment.getLastId()) {
+                low = middle + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the segments of an earlier run, which must follow each other from the first id, or deletes them. Segments
+     * which were not completely written are deleted.
+     */
+    private void openSegments(final Path directory, final boolean recovered) {
+        final List<Path> files = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> listed = Files.list(directory)) {
+                for (final Path file : (Iterable<Path>) listed.filter(ArchiveFormat::isSegment)::iterator) {
+                    if (!recovered || ArchiveFormat.isTemporary(file)) {
+                        Files.delete(file);
+                    } else {
+                        files.add(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        //Names have the zero-padded first ids, so they sort in the order of the ids.
+        Collections.sort(files);
+
+        final ArchiveSegment[] opened = new ArchiveSegment[files.size()];
+        long count = 0;
+        for (int i = 0; i < opened.length; i++) {
+            opened[i] = ArchiveSegment.open(files.get(i));
+            final long expectedFirstId = i == 0 ? 1 : opened[i - 1].getLastId() + 1;
+            if (opened[i].getFirstId() != expectedFirstId) {
+                throw new IllegalStateException("Archive segment is missing before: " + files.get(i));
+            }
+            count += opened[i].getTransactionCount();
+        }
+        segments = opened;
+        transactionCount = count;
+    }
+}
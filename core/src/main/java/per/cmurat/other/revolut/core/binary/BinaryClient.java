@@ -0,0 +1,206 @@
+package per.cmurat.other.revolut.core.binary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client of the {@link BinaryServer}, sending its requests over a single connection.
+ *
+ * Requests are pipelined: every call sends its request right away and returns a future, which a reader thread
+ * completes when the response with the same correlation id arrives. Failed requests complete their futures with
+ * {@link BinaryProtocolException}s, and the pending requests of a broken connection with
+ * {@link UncheckedIOException}s. Amounts and balances are in minor units of the ledger.
+ *
+ * Thread safe.
+ */
+public class BinaryClient implements AutoCloseable {
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    /**
+     * Guarded by itself, like the writes to the channel.
+     */
+    private final ByteBuffer output = ByteBuffer.allocateDirect(4 + BinaryProtocol.MAX_REQUEST_LENGTH);
+    private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+    private final AtomicLong correlationIds = new AtomicLong();
+    private final Thread reader;
+    private volatile IOException failure;
+
+    public BinaryClient(final String host, final int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        reader = new Thread(this::read, "binary-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @param balance Initial balance
+     */
+    public CompletableFuture<Account> createAccount(final long balance) {
+        return send(BinaryProtocol.CREATE_ACCOUNT, balance, 0L, 0L);
+    }
+
+    public CompletableFuture<Account> getAccount(final long accountId) {
+        return send(BinaryProtocol.GET_ACCOUNT, accountId, 0L, 0L);
+    }
+
+    public CompletableFuture<Void> validate(final long creditAccountId, final long debitAccountId, final long amount) {
+        return send(BinaryProtocol.VALIDATE, creditAccountId, debitAccountId, amount);
+    }
+
+    /**
+     * @param creditAccountId Account that the money will be taken from
+     * @param debitAccountId Account that will receive the money
+     */
+    public CompletableFuture<Transfer> transfer(final long creditAccountId, final long debitAccountId, final long amount) {
+        return send(BinaryProtocol.TRANSFER, creditAccountId, debitAccountId, amount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> send(final byte opcode, final long first, final long second, final long third) {
+        final long correlationId = correlationIds.incrementAndGet();
+        final PendingRequest request = new PendingRequest(opcode);
+        pending.put(correlationId, request);
+
+        try {
+            synchronized (output) {
+                if (failure != null) {
+                    throw failure;
+                }
+                output.clear();
+                BinaryProtocol.putRequest(output, correlationId, opcode, first, second, third);
+                output.flip();
+                while (output.hasRemaining()) {
+                    channel.write(output);
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(correlationId);
+            request.future.completeExceptionally(new UncheckedIOException(e));
+        }
+        return (CompletableFuture<T>) request.future;
+    }
+
+    private void read() {
+        final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+        try {
+            while (channel.read(input) >= 0) {
+                input.flip();
+                while (input.remaining() >= 4 && input.remaining() >= 4 + input.getInt(input.position())) {
+                    final int length = input.getInt();
+                    final int end = input.position() + length;
+                    complete(input.getLong(), input.get(), input);
+                    input.position(end);
+                }
+                input.compact();
+            }
+            fail(new IOException("Connection closed by the server"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void complete(final long correlationId, final byte status, final ByteBuffer payload) {
+        final PendingRequest request = pending.remove(correlationId);
+        if (request == null) {
+            return;
+        }
+
+        if (status != BinaryProtocol.OK) {
+            final byte[] message = new byte[payload.getShort() & 0xFFFF];
+            payload.get(message);
+            request.future.completeExceptionally(new BinaryProtocolException(status, new String(message, StandardCharsets.UTF_8)));
+            return;
+        }
+
+        switch (request.opcode) {
+            case BinaryProtocol.CREATE_ACCOUNT:
+            case BinaryProtocol.GET_ACCOUNT:
+                request.future.complete(new Account(payload.getLong(), payload.getLong()));
+                break;
+            case BinaryProtocol.TRANSFER:
+                request.future.complete(new Transfer(payload.getLong(), payload.getLong()));
+                break;
+            default:
+                request.future.complete(null);
+        }
+    }
+
+    private void fail(final IOException cause) {
+        synchronized (output) {
+            failure = cause;
+        }
+        for (final Long correlationId : pending.keySet()) {
+            final PendingRequest request = pending.remove(correlationId);
+            if (request != null) {
+                request.future.completeExceptionally(new UncheckedIOException(cause));
+            }
+        }
+    }
+
+    private static final class PendingRequest {
+        private final byte opcode;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private PendingRequest(final byte opcode) {
+            this.opcode = opcode;
+        }
+    }
+
+    public static final class Account {
+        private final long id;
+        private final long balance;
+
+        private Account(final long id, final long balance) {
+            this.id = id;
+            this.balance = balance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getBalance() {
+            return balance;
+        }
+    }
+
+    public static final class Transfer {
+        private final long transactionId;
+        private final long timestamp;
+
+        private Transfer(final long transactionId, final long timestamp) {
+            this.transactionId = transactionId;
+            this.timestamp = timestamp;
+        }
+
+        public long getTransactionId() {
+            return transactionId;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package per.cmurat.other.revolut.core.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the frames of the binary protocol, spoken by the {@link BinaryServer} and the {@link BinaryClient}.
+ *
+ * A frame is laid out as: length of the rest of the frame (int), correlation id (long), opcode of a request or
+ * status of a response (byte), payload. The response to a request has the correlation id of the request. All
+ * numbers are big endian, and amounts and balances are in minor units of the ledger.
+ *
+ * Request payloads:
+ * <ul>
+ * <li>{@link #CREATE_ACCOUNT}: balance</li>
+ * <li>{@link #GET_ACCOUNT}: account id</li>
+ * <li>{@link #VALIDATE} and {@link #TRANSFER}: credit account id, debit account id, amount</li>
+ * </ul>
+ *
+ * Response payloads with {@link #OK}: account id and balance for {@link #CREATE_ACCOUNT} and {@link #GET_ACCOUNT},
+ * nothing for {@link #VALIDATE}, transaction id and timestamp for {@link #TRANSFER}. With the other statuses, the
+ * payload is the length of the error message (unsigned short) and the message in UTF-8.
+ */
+public final class BinaryProtocol {
+    public static final byte CREATE_ACCOUNT = 1;
+    public static final byte GET_ACCOUNT = 2;
+    public static final byte VALIDATE = 3;
+    public static final byte TRANSFER = 4;
+
+    public static final byte OK = 0;
+    public static final byte BAD_REQUEST = 1;
+    public static final byte ACCOUNT_NOT_FOUND = 2;
+    public static final byte INSUFFICIENT_BALANCE = 3;
+    public static final byte INTERNAL_ERROR = 4;
+
+    /**
+     * Correlation id and opcode or status, which follow the length.
+     */
+    static final int HEADER_SIZE = 9;
+    static final int MAX_MESSAGE_LENGTH = 256;
+    static final int MAX_REQUEST_LENGTH = HEADER_SIZE + 24;
+    static final int MAX_RESPONSE_LENGTH = 4 + HEADER_SIZE + 2 + MAX_MESSAGE_LENGTH;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @return Length of the payload of the requests with the given opcode, or -1 if the opcode is unknown
+     */
+    static int requestPayloadLength(final byte opcode) {
+        switch (opcode) {
+            case CREATE_ACCOUNT:
+            case GET_ACCOUNT:
+                return 8;
+            case VALIDATE:
+            case TRANSFER:
+                return 24;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Length of the payload of the successful responses to the requests with the given opcode.
+     */
+    static int responsePayloadLength(final byte opcode) {
+        return opcode == VALIDATE ? 0 : 16;
+    }
+
+    static void putRequest(final ByteBuffer buffer, final long correlationId, final byte opcode,
+                           final long first, final long second, final long third) {
+        final int payloadLength = requestPayloadLength(opcode);
+        buffer.putInt(HEADER_SIZE + payloadLength);
+        buffer.putLong(correlationId);
+        buffer.put(opcode);
+        buffer.putLong(first);
+        if (payloadLength > 8) {
+            buffer.putLong(second);
+            buffer.putLong(third);
+        }
+    }
+
+    /**
+     * Puts a successful response. The payload has the given values if there is one.
+     */
+    static void putResponse(final ByteBuffer buffer, final long correlationId, final byte opcode,
+                            final long first, final long second) {
+        final int payloadLength = responsePayloadLength(opcode);
+        buffer.putInt(HEADER_SIZE + payloadLength);
+        buffer.putLong(correlationId);
+        buffer.put(OK);
+        if (payloadLength > 0) {
+            buffer.putLong(first);
+            buffer.putLong(second);
+        }
+    }
+
+    /**
+     * Puts a failed response. Messages longer than {@link #MAX_MESSAGE_LENGTH} bytes are truncated.
+     */
+    static void putError(final ByteBuffer buffer, final long correlationId, final byte status, final String message) {
+        final byte[] encoded = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(encoded.length, MAX_MESSAGE_LENGTH);
+        buffer.putInt(HEADER_SIZE + 2 + length);
+        buffer.putLong(correlationId);
+        buffer.put(status);
+        buffer.putShort((short) length);
+        buffer.put(encoded, 0, length);
+    }
+}
@@ -0,0 +1,20 @@
+package per.cmurat.other.revolut.core.binary;
+
+/**
+ * Failure reported by the {@link BinaryServer} in the response to a request.
+ */
+public class BinaryProtocolException extends RuntimeException {
+    private final byte status;
+
+    public BinaryProtocolException(final byte status, final String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return One of the statuses of the {@link BinaryProtocol}, e.g. {@link BinaryProtocol#INSUFFICIENT_BALANCE}
+     */
+    public byte getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,457 @@
+package per.cmurat.other.revolut.core.binary;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking server of the {@link BinaryProtocol}, listening next to the REST API for service to service traffic.
+ * It is started only if {@link AppConfig#BINARY_PORT} is set.
+ *
+ * A selector thread reads the frames of all of the connections and hands the requests over to the worker threads,
+ * which call the {@link AccountingService}. Clients can pipeline requests over a connection: the responses are
+ * written in the order the requests complete, and are matched to the requests by their correlation ids.
+ *
+ * A connection can have up to {@link AppConfig#BINARY_MAX_PENDING} requests whose responses are not written to it
+ * yet. Reading from it is paused while it has that many, so a client that doesn't read its responses cannot make the
+ * server buffer them without bounds.
+ */
+public class BinaryServer implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(BinaryServer.class.getName());
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final int port;
+    private final int workerCount;
+    private final int maxPending;
+    private final AccountingService accountingService;
+
+    /**
+     * Connections with responses to write, queued by the workers for the selector thread.
+     */
+    private final Queue<Connection> flushes = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    @Inject
+    public BinaryServer(final AppConfig config, final AccountingService accountingService) {
+        this(config.getBinaryPort(), config.getBinaryWorkerCount(), config.getBinaryMaxPending(), accountingService);
+    }
+
+    /**
+     * @param port 0 for any free port, negative if the server is disabled
+     */
+    public BinaryServer(final int port, final int workerCount, final int maxPending, final AccountingService accountingService) {
+        if (workerCount < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("Number of workers and pending requests must be positive");
+        }
+        this.port = port;
+        this.workerCount = workerCount;
+        this.maxPending = maxPending;
+        this.accountingService = accountingService;
+    }
+
+    /**
+     * Starts listening, unless the server is disabled.
+     */
+    public synchronized void start() {
+        if (port < 0 || running) {
+            return;
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            throw new UncheckedIOException(e);
+        }
+
+        final AtomicInteger workerIds = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            final Thread thread = new Thread(runnable, "binary-worker-" + workerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        selectorThread = new Thread(this::run, "binary-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * @return Port the server listens on, or -1 if it is not started
+     */
+    public synchronized int getPort() {
+        return running ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Stops reading requests, waits for the requests in progress and closes the connections.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (final SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        closeQuietly(selector);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Connection flushed;
+                while ((flushed = flushes.poll()) != null) {
+                    try {
+                        flush(flushed);
+                        dispatch(flushed);
+                    } catch (IOException e) {
+                        closeConnection(flushed, e);
+                    }
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            flush(connection);
+                        }
+                        if (key.isReadable() && connection.channel.read(connection.input) < 0) {
+                            closeConnection(connection, null);
+                            continue;
+                        }
+                        dispatch(connection);
+                    } catch (IOException e) {
+                        closeConnection(connection, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Binary server stopped", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key, maxPending));
+    }
+
+    /**
+     * Hands the complete frames read from the connection over to the workers, as long as the connection can have
+     * more pending requests.
+     */
+    private void dispatch(final Connection connection) throws IOException {
+        final ByteBuffer input = connection.input;
+        input.flip();
+        try {
+            while (input.remaining() >= 4) {
+                final int length = input.getInt(input.position());
+                if (length < BinaryProtocol.HEADER_SIZE || length > BinaryProtocol.MAX_REQUEST_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (input.remaining() < 4 + length || !connection.tryAddPending()) {
+                    break;
+                }
+
+                input.getInt();
+                final long correlationId = input.getLong();
+                final byte opcode = input.get();
+                final int payloadLength = length - BinaryProtocol.HEADER_SIZE;
+                if (payloadLength == BinaryProtocol.requestPayloadLength(opcode)) {
+                    final long first = input.getLong();
+                    final long second = payloadLength > 8 ? input.getLong() : 0L;
+                    final long third = payloadLength > 8 ? input.getLong() : 0L;
+                    workers.execute(new Request(connection, correlationId, opcode, first, second, third));
+                } else {
+                    input.position(input.position() + payloadLength);
+                    workers.execute(() -> connection.respondWithError(correlationId, BinaryProtocol.BAD_REQUEST,
+                            "Invalid request, opcode: " + opcode + ", payload length: " + payloadLength));
+                }
+            }
+        } finally {
+            input.compact();
+        }
+
+        connection.updateInterest();
+    }
+
+    private void flush(final Connection connection) throws IOException {
+        synchronized (connection) {
+            if (connection.closed) {
+                return;
+            }
+
+            connection.output.flip();
+            try {
+                connection.channel.write(connection.output);
+            } finally {
+                connection.output.compact();
+            }
+            if (connection.output.position() == 0) {
+                connection.pending -= connection.buffered;
+                connection.buffered = 0;
+                connection.flushQueued = false;
+            }
+        }
+    }
+
+    private void closeConnection(final Connection connection, final IOException cause) {
+        if (cause != null) {
+            LOGGER.log(Level.FINE, "Closing binary connection", cause);
+        }
+        synchronized (connection) {
+            connection.closed = true;
+        }
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close", e);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+        /**
+         * Large enough for the responses to all of the pending requests.
+         */
+        private final ByteBuffer output;
+
+        /**
+         * Requests read from the connection whose responses are not written to it yet. Guarded by this, like the
+         * output buffer and the fields below.
+         */
+        private int pending;
+        /**
+         * Responses in the output buffer.
+         */
+        private int buffered;
+        private boolean flushQueued;
+        private boolean closed;
+
+        private Connection(final SocketChannel channel, final SelectionKey key, final int maxPending) {
+            this.channel = channel;
+            this.key = key;
+            this.output = ByteBuffer.allocate(maxPending * BinaryProtocol.MAX_RESPONSE_LENGTH);
+        }
+
+        private synchronized boolean tryAddPending() {
+            if (pending >= maxPending) {
+                return false;
+            }
+            pending++;
+            return true;
+        }
+
+        /**
+         * Reads while more requests can be pending, and waits for the channel to be writable while there are
+         * responses to write.
+         */
+        private synchronized void updateInterest() {
+            if (closed) {
+                return;
+            }
+            key.interestOps((pending < maxPending ? SelectionKey.OP_READ : 0)
+                    | (output.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+
+        private void respond(final long correlationId, final byte opcode, final long first, final long second) {
+            final boolean queue;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                BinaryProtocol.putResponse(output, correlationId, opcode, first, second);
+                queue = responseBuffered();
+            }
+            queueFlush(queue);
+        }
+
+        private void respondWithError(final long correlationId, final byte status, final String message) {
+            final boolean queue;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                BinaryProtocol.putError(output, correlationId, status, message);
+                queue = responseBuffered();
+            }
+            queueFlush(queue);
+        }
+
+        /**
+         * @return Whether the connection is to be queued for flushing
+         */
+        private boolean responseBuffered() {
+            buffered++;
+            if (flushQueued) {
+                return false;
+            }
+            flushQueued = true;
+            return true;
+        }
+
+        private void queueFlush(final boolean queue) {
+            if (queue) {
+                flushes.add(this);
+                selector.wakeup();
+            }
+        }
+    }
+
+    private static byte statusOf(final Rejection rejection) {
+        switch (rejection) {
+            case ACCOUNT_NOT_FOUND:
+                return BinaryProtocol.ACCOUNT_NOT_FOUND;
+            case INSUFFICIENT_BALANCE:
+                return BinaryProtocol.INSUFFICIENT_BALANCE;
+            default:
+                return BinaryProtocol.BAD_REQUEST;
+        }
+    }
+
+    private final class Request implements Runnable {
+        private final Connection connection;
+        private final long correlationId;
+        private final byte opcode;
+        private final long first;
+        private final long second;
+        private final long third;
+
+        private Request(final Connection connection, final long correlationId, final byte opcode,
+                        final long first, final long second, final long third) {
+            this.connection = connection;
+            this.correlationId = correlationId;
+            this.opcode = opcode;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (opcode) {
+                    case BinaryProtocol.CREATE_ACCOUNT:
+                        respond(accountingService.createAccount(first));
+                        break;
+                    case BinaryProtocol.GET_ACCOUNT:
+                        respond(accountingService.getAccount(first));
+                        break;
+                    case BinaryProtocol.VALIDATE:
+                        final TransferResult validation = accountingService.tryValidate(first, second, third);
+                        if (validation.isSuccess()) {
+                            connection.respond(correlationId, opcode, 0L, 0L);
+                        } else {
+                            reject(validation.getRejection(), validation.getError());
+                        }
+                        break;
+                    case BinaryProtocol.TRANSFER:
+                        final TransferResult result = accountingService.tryTransfer(first, second, third);
+                        if (result.isSuccess()) {
+                            final Transaction transaction = result.getTransaction();
+                            connection.respond(correlationId, opcode, transaction.getId(), transaction.getTimestamp());
+                        } else {
+                            reject(result.getRejection(), result.getError());
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown opcode: " + opcode);
+                }
+            } catch (RuntimeException e) {
+                final Rejection rejection = Rejection.of(e);
+                if (rejection != null) {
+                    reject(rejection, e.getMessage());
+                } else {
+                    LOGGER.log(Level.WARNING, "Binary request failed", e);
+                    connection.respondWithError(correlationId, BinaryProtocol.INTERNAL_ERROR, e.toString());
+                }
+            }
+        }
+
+        private void respond(final AccountSnapshot account) {
+            connection.respond(correlationId, opcode, account.getId(), account.getBalance());
+        }
+
+        private void reject(final Rejection rejection, final String message) {
+            connection.respondWithError(correlationId, statusOf(rejection), message);
+        }
+    }
+}
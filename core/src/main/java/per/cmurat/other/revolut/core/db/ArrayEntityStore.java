@@ -0,0 +1,183 @@
+package per.cmurat.other.revolut.core.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Stores the entities in chunks of an array indexed by the id. Since ids are assigned sequentially, the array is
+ * dense and an entry costs a single reference. Chunks are allocated as the ids grow, so existing entries are never
+ * copied.
+ *
+ * Lookups are lock-free. Only adding or releasing a chunk takes a lock. Removing an entity clears its entry, the
+ * chunk is kept until it is released by {@link #compact(long)}.
+ */
+public class ArrayEntityStore<T> implements EntityStore<T> {
+    private static final int CHUNK_BITS = 14;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicReferenceArray<T>[] chunks = newChunks(16);
+    private final AtomicInteger size = new AtomicInteger();
+    private final Object growLock = new Object();
+
+    @Override
+    public T get(final long id) {
+        if (id < 1) {
+            return null;
+        }
+
+        final long index = id - 1;
+        final AtomicReferenceArray<T>[] current = chunks;
+        final long chunk = index >>> CHUNK_BITS;
+        if (chunk >= current.length || current[(int) chunk] == null) {
+            return null;
+        }
+        return current[(int) chunk].get((int) (index & CHUNK_MASK));
+    }
+
+    @Override
+    public void put(final long id, final T entity) {
+        if (id < 1) {
+            throw new IllegalArgumentException("Id must be positive: " + id);
+        }
+
+        final long index = id - 1;
+        if ((index >>> CHUNK_BITS) >= Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Id is too large: " + id);
+        }
+
+        final int chunk = (int) (index >>> CHUNK_BITS);
+        final int offset = (int) (index & CHUNK_MASK);
+        final AtomicReferenceArray<T> target = chunkOf(chunk);
+        if (target.getAndSet(offset, entity) == null) {
+            size.incrementAndGet();
+        }
+        if (chunks[chunk] != target) {
+            //The chunk was released meanwhile, it may have been before compact moved the late entries.
+            chunkOf(chunk).set(offset, entity);
+        }
+    }
+
+    @Override
+    public boolean remove(final long id, final T entity) {
+        if (id < 1) {
+            return false;
+        }
+
+        final long index = id - 1;
+        final AtomicReferenceArray<T>[] current = chunks;
+        final long chunk = index >>> CHUNK_BITS;
+        if (chunk >= current.length || current[(int) chunk] == null
+                || !current[(int) chunk].compareAndSet((int) (index & CHUNK_MASK), entity, null)) {
+            return false;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void forEach(final Consumer<? super T> consumer) {
+        for (final AtomicReferenceArray<T> chunk : chunks) {
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                final T entity = chunk.get(i);
+                if (entity != null) {
+                    consumer.accept(entity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the chunks which are empty and only have ids up to the given one.
+     */
+    @Override
+    public void compact(final long lastId) {
+        synchronized (growLock) {
+            final AtomicReferenceArray<T>[] current = chunks;
+            final int end = (int) Math.min(lastId >>> CHUNK_BITS, current.length);
+            AtomicReferenceArray<T>[] compacted = null;
+            for (int chunk = 0; chunk < end; chunk++) {
+                if (current[chunk] != null && isEmpty(current[chunk])) {
+                    if (compacted == null) {
+                        compacted = copyChunks(current, current.length);
+                    }
+                    compacted[chunk] = null;
+                }
+            }
+            if (compacted == null) {
+                return;
+            }
+            chunks = compacted;
+
+            //Entries put concurrently into a released chunk are moved to a new one, see put.
+            for (int chunk = 0; chunk < end; chunk++) {
+                if (current[chunk] != null && compacted[chunk] == null) {
+                    moveLateEntries(chunk, current[chunk]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    private AtomicReferenceArray<T> chunkOf(final int chunk) {
+        final AtomicReferenceArray<T>[] current = chunks;
+        if (chunk < current.length && current[chunk] != null) {
+            return current[chunk];
+        }
+
+        synchronized (growLock) {
+            AtomicReferenceArray<T>[] grown = chunks;
+            if (chunk >= grown.length) {
+                grown = copyChunks(grown, Math.max(chunk + 1, grown.length * 2));
+            }
+            if (grown[chunk] == null) {
+                //The directory is copied before adding the chunk, so readers never see a chunk being added to an array they hold.
+                final AtomicReferenceArray<T>[] copy = grown == chunks ? copyChunks(grown, grown.length) : grown;
+                copy[chunk] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                grown = copy;
+            }
+            chunks = grown;
+            return grown[chunk];
+        }
+    }
+
+    private void moveLateEntries(final int chunk, final AtomicReferenceArray<T> released) {
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            final T entity = released.get(i);
+            if (entity != null) {
+                chunkOf(chunk).compareAndSet(i, null, entity);
+            }
+        }
+    }
+
+    private static boolean isEmpty(final AtomicReferenceArray<?> chunk) {
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            if (chunk.get(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> AtomicReferenceArray<T>[] copyChunks(final AtomicReferenceArray<T>[] source, final int length) {
+        final AtomicReferenceArray<T>[] copy = newChunks(length);
+        System.arraycopy(source, 0, copy, 0, Math.min(source.length, length));
+        return copy;
+    }
+
+    /**
+     * The only place creating a directory, since generic arrays can only be created unchecked.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> AtomicReferenceArray<T>[] newChunks(final int length) {
+        return (AtomicReferenceArray<T>[]) new AtomicReferenceArray<?>[length];
+    }
+}
@@ -0,0 +1,59 @@
+package per.cmurat.other.revolut.core.db;
+
+import per.cmurat.other.revolut.core.AppConfig;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage of the entities of a {@link Repository}, keyed by their ids. Implementations are thread safe. Entities
+ * are only removed when they are moved elsewhere, e.g. to the archive of the old transactions.
+ *
+ * The implementation is selected with {@link per.cmurat.other.revolut.core.AppConfig#STORAGE_ENGINE}.
+ */
+public interface EntityStore<T> {
+
+    /**
+     * @return Entity with the given id, or null if there is none
+     */
+    T get(long id);
+
+    /**
+     * Stores the entity with the given id, replacing the previous one if any.
+     *
+     * @param id A positive id
+     */
+    void put(long id, T entity);
+
+    /**
+     * Removes the entity with the given id, only if it is the given one.
+     *
+     * @return Whether the entity was removed
+     */
+    boolean remove(long id, T entity);
+
+    /**
+     * Visits the stored entities in no particular order. Entities stored before the call are visited; entities stored
+     * concurrently may or may not be. The consumer is called without holding any locks of the store.
+     */
+    void forEach(Consumer<? super T> consumer);
+
+    int size();
+
+    /**
+     * Releases the memory kept for the ids up to the given one, after their entities were removed. Entities stored
+     * with these ids afterwards are still kept.
+     */
+    default void compact(long lastId) {
+    }
+
+    static <T> EntityStore<T> create(final AppConfig.StorageEngine engine) {
+        switch (engine) {
+            case MAP:
+                return new MapEntityStore<>();
+            case HASH:
+                return new HashEntityStore<>();
+            default:
+                return new ArrayEntityStore<>();
+        }
+    }
+}
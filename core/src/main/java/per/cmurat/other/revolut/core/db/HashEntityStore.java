@@ -0,0 +1,231 @@
+package per.cmurat.other.revolut.core.db;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Open addressing hash table with primitive long keys, split into segments with a lock each. An entry costs a slot
+ * in a long array and a slot in a reference array, with no per entry objects.
+ *
+ * Lookups first probe optimistically without locking, and only take the read lock of the segment if a write
+ * interfered. Removing an entity moves the entries probed after it back, so probing still stops at the first empty
+ * slot. Zero marks an empty slot, so ids must be positive.
+ */
+public class HashEntityStore<T> implements EntityStore<T> {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public HashEntityStore() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(INITIAL_SEGMENT_CAPACITY);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(final long id) {
+        final long hash = hash(id);
+        return (T) segmentOf(hash).get(id, (int) hash);
+    }
+
+    @Override
+    public void put(final long id, final T entity) {
+        if (id < 1) {
+            throw new IllegalArgumentException("Id must be positive: " + id);
+        }
+        final long hash = hash(id);
+        segmentOf(hash).put(id, (int) hash, entity);
+    }
+
+    @Override
+    public boolean remove(final long id, final T entity) {
+        final long hash = hash(id);
+        return segmentOf(hash).remove(id, (int) hash, entity);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(final Consumer<? super T> consumer) {
+        for (final Segment segment : segments) {
+            for (final Object value : segment.values()) {
+                if (value != null) {
+                    consumer.accept((T) value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentOf(final long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long hash(final long id) {
+        final long h = id * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        Segment(final int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+
+        Object get(final long id, final int hash) {
+            final long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                final Object value = find(keys, values, id, hash);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+
+            final long readStamp = lock.readLock();
+            try {
+                return find(keys, values, id, hash);
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        void put(final long id, final int hash, final Object value) {
+            final long stamp = lock.writeLock();
+            try {
+                if (size + 1 > keys.length * LOAD_FACTOR) {
+                    resize();
+                }
+
+                final int mask = keys.length - 1;
+                int slot = hash & mask;
+                while (keys[slot] != 0 && keys[slot] != id) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == 0) {
+                    size++;
+                }
+                values[slot] = value;
+                keys[slot] = id;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean remove(final long id, final int hash, final Object value) {
+            final long stamp = lock.writeLock();
+            try {
+                final int mask = keys.length - 1;
+                int slot = hash & mask;
+                while (keys[slot] != id) {
+                    if (keys[slot] == 0) {
+                        return false;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (values[slot] != value) {
+                    return false;
+                }
+
+                //An entry can fill the gap unless its home slot is between the gap and the entry.
+                int gap = slot;
+                for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                    final int home = (int) hash(keys[next]) & mask;
+                    if (((next - home) & mask) >= ((next - gap) & mask)) {
+                        keys[gap] = keys[next];
+                        values[gap] = values[next];
+                        gap = next;
+                    }
+                }
+                keys[gap] = 0;
+                values[gap] = null;
+                size--;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return Copy of the values, some of which are null
+         */
+        Object[] values() {
+            final long stamp = lock.readLock();
+            try {
+                return Arrays.copyOf(values, values.length);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int size() {
+            final long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Can be called without holding the lock, in which case the arrays may be changed concurrently and the
+         * result must be validated.
+         */
+        private static Object find(final long[] keys, final Object[] values, final long id, final int hash) {
+            if (keys.length != values.length) {
+                return null;
+            }
+
+            final int mask = keys.length - 1;
+            int slot = hash & mask;
+            for (int probes = 0; probes < keys.length; probes++) {
+                final long key = keys[slot];
+                if (key == id) {
+                    return values[slot];
+                }
+                if (key == 0) {
+                    return null;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final long[] newKeys = new long[oldKeys.length * 2];
+            final Object[] newValues = new Object[oldKeys.length * 2];
+
+            final int mask = newKeys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) hash(oldKeys[i]) & mask;
+                    while (newKeys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newKeys[slot] = oldKeys[i];
+                    newValues[slot] = oldValues[i];
+                }
+            }
+
+            keys = newKeys;
+            values = newValues;
+        }
+    }
+}
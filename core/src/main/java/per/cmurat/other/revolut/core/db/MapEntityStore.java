@@ -0,0 +1,37 @@
+package per.cmurat.other.revolut.core.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Stores the entities in a {@link ConcurrentHashMap}. Every entry costs a map node and a boxed key.
+ */
+public class MapEntityStore<T> implements EntityStore<T> {
+    private final Map<Long, T> map = new ConcurrentHashMap<>();
+
+    @Override
+    public T get(final long id) {
+        return map.get(id);
+    }
+
+    @Override
+    public void put(final long id, final T entity) {
+        map.put(id, entity);
+    }
+
+    @Override
+    public boolean remove(final long id, final T entity) {
+        return map.remove(id, entity);
+    }
+
+    @Override
+    public void forEach(final Consumer<? super T> consumer) {
+        map.values().forEach(consumer);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+}
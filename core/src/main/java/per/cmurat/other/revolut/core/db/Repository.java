@@ -1,22 +1,29 @@
 package per.cmurat.other.revolut.core.db;
 
-import io.vavr.control.Try;
-import per.cmurat.other.revolut.core.AssertionUtils;
-import per.cmurat.other.revolut.core.LockUtils;
+import per.cmurat.other.revolut.core.AppConfig;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
 
 public abstract class Repository<T extends Entity> {
 
-    private final Map<Long, T> store = new ConcurrentHashMap<>();
+    private final EntityStore<T> store;
 
-    private final ReentrantLock lock = new ReentrantLock();
-    private AtomicLong idCounter = new AtomicLong(0);
+    private final AtomicLong idCounter = new AtomicLong(0);
+
+    protected Repository() {
+        this(AppConfig.defaults());
+    }
+
+    protected Repository(final AppConfig config) {
+        this(EntityStore.<T>create(config.getStorageEngine()));
+    }
+
+    protected Repository(final EntityStore<T> store) {
+        this.store = checkNotNull(store, "Store cannot be null");
+    }
 
     public T store(final T t) {
         checkNotNull(t, "Cannot store null objects");
@@ -29,15 +36,80 @@ public abstract class Repository<T extends Entity> {
         return store.get(id);
     }
 
-    private void assignId(final T t) {
+    /**
+     * Puts back an object with an id assigned earlier, e.g. while recovering. Ids assigned afterwards are greater
+     * than the ids of the restored objects.
+     */
+    public void restore(final T t) {
+        checkNotNull(t, "Cannot restore null objects");
+        checkNotNull(t.getId(), "Cannot restore objects without id");
+        store.put(t.getId(), t);
+        advanceIds(t.getId());
+    }
+
+    /**
+     * Makes the ids assigned afterwards greater than the given one, e.g. the ids of the objects kept elsewhere.
+     */
+    protected void advanceIds(final long id) {
+        long current = idCounter.get();
+        while (current < id && !idCounter.compareAndSet(current, id)) {
+            current = idCounter.get();
+        }
+    }
+
+    /**
+     * Removes the object, unless another one is stored with its id meanwhile.
+     *
+     * @return Whether the object was removed
+     */
+    protected boolean remove(final T t) {
+        return store.remove(t.getId(), t);
+    }
+
+    /**
+     * Releases the memory kept by the store for the ids up to the given one, after their objects were removed.
+     */
+    protected void compact(final long lastId) {
+        store.compact(lastId);
+    }
+
+    /**
+     * Iterates over the stored objects. Objects stored or changed concurrently may or may not be visited.
+     */
+    public void forEach(final Consumer<T> consumer) {
+        store.forEach(consumer);
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return The last assigned id, or 0 if none is assigned yet. Stored objects have ids up to it.
+     */
+    public long getLastId() {
+        return idCounter.get();
+    }
+
+    /**
+     * Assigns the next id to the object, unless it already has one. The object is not stored.
+     */
+    public void assignId(final T t) {
         if (t.getId() == null) {
-            final Try result = LockUtils.tryInLock(lock, () -> {
-                t.setId(idCounter.incrementAndGet());
-            });
+            t.setId(idCounter.incrementAndGet());
+        }
+    }
 
-            if (result.isFailure()) {
-                throw new RuntimeException(result.getCause());
-            }
+    /**
+     * Reserves a range of consecutive ids at once, e.g. for objects created in a batch. The ids are not assigned to
+     * any object.
+     *
+     * @return The first id of the range
+     */
+    public long reserveIds(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive");
         }
+        return idCounter.getAndAdd(count) + 1;
     }
 }
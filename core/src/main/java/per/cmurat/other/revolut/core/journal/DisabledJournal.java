@@ -0,0 +1,45 @@
+package per.cmurat.other.revolut.core.journal;
+
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Used when no journal directory is configured. Nothing is stored, but commits still get sequence numbers.
+ */
+public class DisabledJournal implements Journal {
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public long appendAccountCreated(final long accountId, final long balance) {
+        return sequence.incrementAndGet();
+    }
+
+    @Override
+    public long appendTransfer(final Transaction transaction) {
+        return sequence.incrementAndGet();
+    }
+
+    @Override
+    public long appendTransfers(final List<Transaction> transactions) {
+        return sequence.incrementAndGet();
+    }
+
+    @Override
+    public void awaitDurable(final long sequence) {
+    }
+
+    @Override
+    public long getLastSequence() {
+        return sequence.get();
+    }
+
+    @Override
+    public void deleteBefore(final long sequence) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,443 @@
+package per.cmurat.other.revolut.core.journal;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.ACCOUNT_CREATED;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.ACCOUNT_CREATED_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.BODY_PREFIX_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.HEADER_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.IDEMPOTENT_TRANSFER;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.TRANSFER;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.TRANSFER_BATCH;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.TRANSFER_SIZE;
+
+/**
+ * Journal stored in segment files of a directory, written through a {@link FileChannel}. See {@link JournalFormat}
+ * for the layout.
+ *
+ * Appends write the record to the file under a lock, without forcing it to the disk. Forcing is done according to
+ * the {@link AppConfig.Durability}. With group commit, the first committer waiting for durability forces the file
+ * and thereby makes all the records written so far durable; committers arriving meanwhile wait for it and mostly
+ * find their records already covered, so one force serves many transfers.
+ *
+ * A record which fails to be written is cut off again, so that no later record follows a torn one. If that fails too,
+ * or forcing fails, the records written may not be on the disk, and the journal fails: later appends and waits for
+ * durability throw.
+ */
+public class FileJournal implements Journal {
+    private static final Logger LOGGER = Logger.getLogger(FileJournal.class.getName());
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final AppConfig.Durability durability;
+    private final long segmentSize;
+    private final int ledgerScale;
+
+    //Guards the buffer, the checksum, the channel writes and the sequence numbers.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    //Held while forcing, so that only one committer forces at a time. Acquired after the append lock, if both are needed.
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private volatile FileChannel channel;
+    private long segmentLength;
+    private long lastSequence;
+
+    private volatile long writtenSequence;
+    private volatile long durableSequence;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    @Inject
+    public FileJournal(final AppConfig config) {
+        this(config.getJournalDirectory(), config.getJournalDurability(), config.getJournalSegmentSize(),
+                config.getJournalFlushIntervalMillis(), config.getLedgerScale());
+    }
+
+    /**
+     * @param ledgerScale Ledger scale of the amounts, written into the segments. A journal written in another scale
+     *                    is not continued.
+     */
+    public FileJournal(final Path directory, final AppConfig.Durability durability, final long segmentSize,
+                       final long flushIntervalMillis, final int ledgerScale) {
+        this.directory = checkNotNull(directory, "Journal directory cannot be null");
+        this.durability = checkNotNull(durability, "Durability cannot be null");
+        this.segmentSize = segmentSize;
+        this.ledgerScale = ledgerScale;
+
+        try {
+            Files.createDirectories(directory);
+            openLastSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (durability == AppConfig.Durability.ASYNC) {
+            flusher = new Thread(() -> flushPeriodically(flushIntervalMillis), "journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Continues the last segment, after cutting off a record that was only partially written before a crash.
+     */
+    private void openLastSegment() throws IOException {
+        final List<Path> segments = JournalFormat.segments(directory);
+        if (segments.isEmpty()) {
+            openSegment(1L);
+            return;
+        }
+
+        final Path last = segments.get(segments.size() - 1);
+        final JournalReader.SegmentEnd end = JournalReader.scan(last, Long.MAX_VALUE, null);
+        if (end.scale != JournalFormat.UNKNOWN_SCALE && end.scale != ledgerScale) {
+            throw new IllegalStateException("Journal amounts are in ledger scale " + end.scale + ", but "
+                    + AppConfig.LEDGER_SCALE + " is " + ledgerScale + ": " + directory);
+        }
+
+        lastSequence = end.lastSequence == 0 ? JournalFormat.firstSequenceOf(last) - 1 : end.lastSequence;
+        writtenSequence = lastSequence;
+        durableSequence = lastSequence;
+
+        channel = FileChannel.open(last, StandardOpenOption.WRITE);
+        channel.truncate(end.validLength);
+        channel.position(end.validLength);
+        segmentLength = end.validLength;
+        if (segmentLength == 0) {
+            writeSegmentHeader();
+        }
+    }
+
+    private void openSegment(final long firstSequence) throws IOException {
+        channel = FileChannel.open(directory.resolve(JournalFormat.segmentName(firstSequence)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentLength = channel.size();
+        if (segmentLength == 0) {
+            writeSegmentHeader();
+        }
+    }
+
+    private void writeSegmentHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(JournalFormat.SEGMENT_HEADER_SIZE);
+        header.putInt(JournalFormat.SEGMENT_MAGIC);
+        header.putInt(ledgerScale);
+        header.flip();
+        while (header.hasRemaining()) {
+            segmentLength += channel.write(header);
+        }
+    }
+
+    @Override
+    public long appendAccountCreated(final long accountId, final long balance) {
+        appendLock.lock();
+        try {
+            final long sequence = beginRecord(ACCOUNT_CREATED, ACCOUNT_CREATED_SIZE);
+            buffer.putLong(accountId);
+            buffer.putLong(balance);
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfer(final Transaction transaction) {
+        final String idempotencyKey = transaction.getIdempotencyKey();
+        final byte[] key = idempotencyKey == null ? null : idempotencyKey.getBytes(StandardCharsets.UTF_8);
+
+        appendLock.lock();
+        try {
+            if (key == null) {
+                final long sequence = beginRecord(TRANSFER, TRANSFER_SIZE);
+                putTransfer(transaction);
+                return endRecord(sequence);
+            }
+
+            final long sequence = beginRecord(IDEMPOTENT_TRANSFER, TRANSFER_SIZE + 2 + key.length);
+            putTransfer(transaction);
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfers(final List<Transaction> transactions) {
+        final int payloadSize = 4 + transactions.size() * TRANSFER_SIZE;
+
+        appendLock.lock();
+        try {
+            final long sequence = beginRecord(TRANSFER_BATCH, payloadSize);
+            buffer.putInt(transactions.size());
+            for (final Transaction transaction : transactions) {
+                putTransfer(transaction);
+            }
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void awaitDurable(final long sequence) {
+        if (sequence > durableSequence) {
+            checkNotFailed();
+        }
+        if (durability == AppConfig.Durability.ASYNC || sequence <= durableSequence) {
+            return;
+        }
+        flush(sequence);
+    }
+
+    @Override
+    public long getLastSequence() {
+        return writtenSequence;
+    }
+
+    /**
+     * Deletes the segments that only have records before the given sequence number. The current segment is kept.
+     */
+    @Override
+    public void deleteBefore(final long sequence) {
+        appendLock.lock();
+        try {
+            final List<Path> segments = JournalFormat.segments(directory);
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (JournalFormat.firstSequenceOf(segments.get(i + 1)) > sequence) {
+                    break;
+                }
+                Files.delete(segments.get(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        appendLock.lock();
+        flushLock.lock();
+        try {
+            if (failure == null) {
+                channel.force(false);
+                durableSequence = writtenSequence;
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            flushLock.unlock();
+            appendLock.unlock();
+        }
+    }
+
+    long getDurableSequence() {
+        return durableSequence;
+    }
+
+    private void putTransfer(final Transaction transaction) {
+        buffer.putLong(transaction.getId());
+        buffer.putLong(transaction.getCreditAccount().getId());
+        buffer.putLong(transaction.getDebitAccount().getId());
+        buffer.putLong(transaction.getAmount());
+        buffer.putLong(transaction.getTimestamp());
+    }
+
+    /**
+     * Must be called holding the append lock. Leaves the buffer positioned at the start of the payload.
+     */
+    private long beginRecord(final byte type, final int payloadSize) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        checkNotFailed();
+
+        final int recordSize = HEADER_SIZE + BODY_PREFIX_SIZE + payloadSize;
+        if (segmentLength > JournalFormat.SEGMENT_HEADER_SIZE && segmentLength + recordSize > segmentSize) {
+            rollSegment();
+        }
+
+        if (buffer.capacity() < recordSize) {
+            buffer = ByteBuffer.allocateDirect(Math.max(recordSize, buffer.capacity() * 2));
+        }
+
+        final long sequence = lastSequence + 1;
+        buffer.clear();
+        buffer.putInt(BODY_PREFIX_SIZE + payloadSize);
+        buffer.putInt(0);
+        buffer.putLong(sequence);
+        buffer.put(type);
+        return sequence;
+    }
+
+    /**
+     * Must be called holding the append lock. Fills in the checksum and writes the record. A record which is not
+     * written completely is cut off, so that the next one follows the last complete record.
+     */
+    private long endRecord(final long sequence) {
+        buffer.flip();
+
+        buffer.position(HEADER_SIZE);
+        crc.reset();
+        crc.update(buffer);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.position(0);
+
+        final long recordStart = segmentLength;
+        try {
+            while (buffer.hasRemaining()) {
+                segmentLength += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            cutOff(recordStart, e);
+            throw new UncheckedIOException(e);
+        }
+        if (durability == AppConfig.Durability.SYNC) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                cutOff(recordStart, e);
+                throw fail(e);
+            }
+            durableSequence = sequence;
+        }
+
+        lastSequence = sequence;
+        writtenSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Must be called holding the append lock. The full segment is forced before the next one is started.
+     */
+    private void rollSegment() {
+        flushLock.lock();
+        try {
+            channel.force(false);
+            durableSequence = writtenSequence;
+            channel.close();
+            openSegment(lastSequence + 1);
+        } catch (IOException e) {
+            throw fail(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Must be called holding the append lock. Cuts the segment off at the start of a record which failed, or fails the
+     * journal if that fails too.
+     */
+    private void cutOff(final long recordStart, final IOException cause) {
+        try {
+            channel.truncate(recordStart);
+            channel.position(recordStart);
+            segmentLength = recordStart;
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            fail(cause);
+        }
+    }
+
+    /**
+     * Fails the journal, since records written may have been lost.
+     *
+     * @return The exception to throw
+     */
+    private UncheckedIOException fail(final IOException cause) {
+        if (failure == null) {
+            failure = cause;
+            LOGGER.log(Level.SEVERE, "Journal failed, no more records are accepted: " + directory, cause);
+        }
+        return new UncheckedIOException(cause);
+    }
+
+    private void checkNotFailed() {
+        final IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("Journal failed: " + directory, failed);
+        }
+    }
+
+    private void flush(final long sequence) {
+        flushLock.lock();
+        try {
+            if (sequence <= durableSequence) {
+                return;
+            }
+
+            //Everything written up to this point is covered by the force, even if it is newer than the target.
+            checkNotFailed();
+            final long target = writtenSequence;
+            channel.force(false);
+            durableSequence = target;
+        } catch (IOException e) {
+            throw fail(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushPeriodically(final long intervalMillis) {
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (writtenSequence > durableSequence) {
+                try {
+                    flush(writtenSequence);
+                } catch (UncheckedIOException e) {
+                    //Logged when the journal failed, and retrying the force can not recover the records.
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package per.cmurat.other.revolut.core.journal;
+
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.util.List;
+
+/**
+ * Append-only log of the committed changes of the ledger. Every append gets the next sequence number, which
+ * orders the commits. Appends only hand the record over; {@link #awaitDurable(long)} waits until it is safely
+ * stored, as far as the configured durability requires.
+ *
+ * Changes of an account must be appended while holding exclusive access to the account, so that the order of
+ * the sequence numbers of an account is the order its changes are applied in.
+ */
+public interface Journal extends AutoCloseable {
+
+    /**
+     * @return Sequence number of the record
+     */
+    long appendAccountCreated(long accountId, long balance);
+
+    /**
+     * The idempotency key of the transaction, if it has one, is journaled with it.
+     *
+     * @return Sequence number of the record
+     */
+    long appendTransfer(Transaction transaction);
+
+    /**
+     * Appends the transfers as a single record, so that either all or none of them are recovered.
+     *
+     * @return Sequence number of the record
+     */
+    long appendTransfers(List<Transaction> transactions);
+
+    /**
+     * Blocks until the record with the given sequence number, and all of the records before it, are durable.
+     */
+    void awaitDurable(long sequence);
+
+    /**
+     * @return Sequence number of the last appended record, or 0 if nothing is appended yet
+     */
+    long getLastSequence();
+
+    /**
+     * Releases the records before the given sequence number, once they are no longer needed for recovering.
+     * Records may be kept longer than requested.
+     */
+    void deleteBefore(long sequence);
+
+    @Override
+    void close();
+}
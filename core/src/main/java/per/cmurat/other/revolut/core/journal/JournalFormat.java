@@ -0,0 +1,96 @@
+package per.cmurat.other.revolut.core.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the journal files.
+ *
+ * The journal is a sequence of segment files named after the sequence number of their first record. A segment starts
+ * with a header: magic (int), ledger scale of the amounts (int), followed by the records. Segments written before the
+ * header was added start with the first record. A record is laid out as: body length (int), CRC32 of the body (int),
+ * body. The body is: sequence number (long), record type (byte), payload. All numbers are big endian.
+ */
+final class JournalFormat {
+    /**
+     * Larger than any body length, so a segment without a header is told apart by its first int.
+     */
+    static final int SEGMENT_MAGIC = 0x4C4A524E;
+    static final int SEGMENT_HEADER_SIZE = 8;
+    /**
+     * Ledger scale of a segment without a header.
+     */
+    static final int UNKNOWN_SCALE = -1;
+
+    static final int HEADER_SIZE = 8;
+    static final int BODY_PREFIX_SIZE = 9;
+
+    /**
+     * Payload: account id, balance.
+     */
+    static final byte ACCOUNT_CREATED = 1;
+
+    /**
+     * Payload: transaction id, credit account id, debit account id, amount, timestamp.
+     */
+    static final byte TRANSFER = 2;
+
+    /**
+     * Payload: number of transfers (int), followed by the payloads of the transfers.
+     */
+    static final byte TRANSFER_BATCH = 3;
+
+    /**
+     * Payload: the payload of a transfer, followed by the length of the idempotency key (unsigned short) and the
+     * key in UTF-8.
+     */
+    static final byte IDEMPOTENT_TRANSFER = 4;
+
+    static final int ACCOUNT_CREATED_SIZE = 16;
+    static final int TRANSFER_SIZE = 40;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private JournalFormat() {
+    }
+
+    static String segmentName(final long firstSequence) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX);
+    }
+
+    static long firstSequenceOf(final Path segment) {
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * @return Segments of the journal in the order of their sequence numbers
+     */
+    static List<Path> segments(final Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+
+        final List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(JournalFormat::isSegment).forEach(segments::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        segments.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return segments;
+    }
+
+    private static boolean isSegment(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX) && Files.isRegularFile(path);
+    }
+}
@@ -0,0 +1,214 @@
+package per.cmurat.other.revolut.core.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static per.cmurat.other.revolut.core.journal.JournalFormat.ACCOUNT_CREATED;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.BODY_PREFIX_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.HEADER_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.IDEMPOTENT_TRANSFER;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.SEGMENT_HEADER_SIZE;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.SEGMENT_MAGIC;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.TRANSFER;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.TRANSFER_BATCH;
+import static per.cmurat.other.revolut.core.journal.JournalFormat.UNKNOWN_SCALE;
+
+/**
+ * Reads the records written by {@link FileJournal}. Records are verified with their checksums. A record that is
+ * cut short or fails the verification ends the last segment, since it can only be the result of a crash while
+ * appending. The same in an earlier segment means the journal is corrupted.
+ */
+public class JournalReader {
+
+    private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    public interface Visitor {
+        /**
+         * Called before the records of each segment read which has a header, with the ledger scale of its amounts.
+         */
+        default void onLedgerScale(int scale) {
+        }
+
+        void onAccountCreated(long sequence, long accountId, long balance);
+
+        /**
+         * @param idempotencyKey Key the transfer was made with, or null
+         */
+        void onTransfer(long sequence, long transactionId, long creditAccountId, long debitAccountId, long amount,
+                        long timestamp, String idempotencyKey);
+    }
+
+    private JournalReader() {
+    }
+
+    /**
+     * Reads the records of the journal in the given directory, starting from the given sequence number.
+     * Transfers of a batch record are visited one by one with the same sequence number.
+     *
+     * @return Sequence number of the last record of the journal, or 0 if the journal is empty
+     */
+    public static long read(final Path directory, final long fromSequence, final Visitor visitor) {
+        final List<Path> segments = JournalFormat.segments(directory);
+
+        long lastSequence = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            //Segments ending before the requested sequence are skipped without reading them.
+            final boolean lastSegment = i == segments.size() - 1;
+            if (!lastSegment && JournalFormat.firstSequenceOf(segments.get(i + 1)) <= fromSequence) {
+                continue;
+            }
+
+            final SegmentEnd end = scan(segments.get(i), fromSequence, visitor);
+            if (end.torn && !lastSegment) {
+                throw new IllegalStateException("Journal segment is corrupted: " + segments.get(i));
+            }
+            lastSequence = Math.max(lastSequence, end.lastSequence);
+        }
+
+        return lastSequence;
+    }
+
+    /**
+     * Reads a segment until its end or until the first invalid record.
+     *
+     * @param visitor Receives the records with sequence numbers not less than the given one. Can be null.
+     */
+    static SegmentEnd scan(final Path segment, final long fromSequence, final Visitor visitor) {
+        final CRC32 crc = new CRC32();
+        byte[] body = new byte[4096];
+
+        long position = 0;
+        long lastSequence = 0;
+        int scale = UNKNOWN_SCALE;
+        try (InputStream in = Files.newInputStream(segment);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024))) {
+            data.mark(SEGMENT_HEADER_SIZE);
+            try {
+                if (data.readInt() == SEGMENT_MAGIC) {
+                    scale = data.readInt();
+                    position = SEGMENT_HEADER_SIZE;
+                } else {
+                    data.reset();
+                }
+            } catch (EOFException e) {
+                //A partially written header.
+                return new SegmentEnd(0, 0, UNKNOWN_SCALE, Files.size(segment) > 0);
+            }
+            if (visitor != null && scale != UNKNOWN_SCALE) {
+                visitor.onLedgerScale(scale);
+            }
+
+            while (true) {
+                final int length;
+                final int checksum;
+                try {
+                    length = data.readInt();
+                    checksum = data.readInt();
+                } catch (EOFException e) {
+                    //Anything after the last complete record is a partially written header.
+                    return new SegmentEnd(position, lastSequence, scale, Files.size(segment) > position);
+                }
+
+                if (length < BODY_PREFIX_SIZE || length > MAX_BODY_SIZE) {
+                    return new SegmentEnd(position, lastSequence, scale, true);
+                }
+
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+                try {
+                    data.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    return new SegmentEnd(position, lastSequence, scale, true);
+                }
+
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    return new SegmentEnd(position, lastSequence, scale, true);
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(body, 0, length);
+                final long sequence = buffer.getLong();
+                final byte type = buffer.get();
+                if (visitor != null && sequence >= fromSequence) {
+                    visit(sequence, type, buffer, visitor);
+                }
+
+                lastSequence = sequence;
+                position += HEADER_SIZE + length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void visit(final long sequence, final byte type, final ByteBuffer payload, final Visitor visitor) {
+        switch (type) {
+            case ACCOUNT_CREATED:
+                visitor.onAccountCreated(sequence, payload.getLong(), payload.getLong());
+                break;
+            case TRANSFER:
+                visitTransfer(sequence, payload, visitor);
+                break;
+            case IDEMPOTENT_TRANSFER:
+                visitIdempotentTransfer(sequence, payload, visitor);
+                break;
+            case TRANSFER_BATCH:
+                final int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    visitTransfer(sequence, payload, visitor);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type: " + type);
+        }
+    }
+
+    private static void visitTransfer(final long sequence, final ByteBuffer payload, final Visitor visitor) {
+        visitor.onTransfer(sequence, payload.getLong(), payload.getLong(), payload.getLong(), payload.getLong(), payload.getLong(), null);
+    }
+
+    private static void visitIdempotentTransfer(final long sequence, final ByteBuffer payload, final Visitor visitor) {
+        final long transactionId = payload.getLong();
+        final long creditAccountId = payload.getLong();
+        final long debitAccountId = payload.getLong();
+        final long amount = payload.getLong();
+        final long timestamp = payload.getLong();
+
+        final byte[] key = new byte[payload.getShort() & 0xFFFF];
+        payload.get(key);
+        visitor.onTransfer(sequence, transactionId, creditAccountId, debitAccountId, amount, timestamp,
+                new String(key, StandardCharsets.UTF_8));
+    }
+
+    static class SegmentEnd {
+        /**
+         * Position right after the last valid record.
+         */
+        final long validLength;
+        final long lastSequence;
+        /**
+         * Ledger scale of the segment, or {@link JournalFormat#UNKNOWN_SCALE} if it has no header.
+         */
+        final int scale;
+        final boolean torn;
+
+        SegmentEnd(final long validLength, final long lastSequence, final int scale, final boolean torn) {
+            this.validLength = validLength;
+            this.lastSequence = lastSequence;
+            this.scale = scale;
+            this.torn = torn;
+        }
+    }
+}
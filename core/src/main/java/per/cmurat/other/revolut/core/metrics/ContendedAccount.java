@@ -0,0 +1,47 @@
+package per.cmurat.other.revolut.core.metrics;
+
+/**
+ * Contention of the lock of an account, as estimated by the {@link ContentionTracker}.
+ */
+public class ContendedAccount {
+    private final long accountId;
+    private final long contentions;
+    private final long maxError;
+    private final long waitNanos;
+    private final int maxQueueLength;
+
+    public ContendedAccount(final long accountId, final long contentions, final long maxError, final long waitNanos,
+                            final int maxQueueLength) {
+        this.accountId = accountId;
+        this.contentions = contentions;
+        this.maxError = maxError;
+        this.waitNanos = waitNanos;
+        this.maxQueueLength = maxQueueLength;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return Estimated number of acquisitions which had to wait, at most {@link #getMaxError()} more than the actual
+     */
+    public long getContentions() {
+        return contentions;
+    }
+
+    public long getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return Total time waited since the account has been tracked
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+}
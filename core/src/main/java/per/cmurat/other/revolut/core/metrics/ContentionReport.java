@@ -0,0 +1,34 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import java.util.List;
+
+/**
+ * The most contended accounts, with the number of samples they are estimated from.
+ */
+public class ContentionReport {
+    private final long sampledContentions;
+    private final long droppedSamples;
+    private final List<ContendedAccount> accounts;
+
+    public ContentionReport(final long sampledContentions, final long droppedSamples,
+                            final List<ContendedAccount> accounts) {
+        this.sampledContentions = sampledContentions;
+        this.droppedSamples = droppedSamples;
+        this.accounts = accounts;
+    }
+
+    public long getSampledContentions() {
+        return sampledContentions;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * @return Accounts in descending order of their contentions
+     */
+    public List<ContendedAccount> getAccounts() {
+        return accounts;
+    }
+}
@@ -0,0 +1,117 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import per.cmurat.other.revolut.core.AppConfig;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the accounts whose locks are waited for the most, with the Space-Saving heavy hitters algorithm.
+ *
+ * A fixed number of accounts are counted. When an untracked account is contended and all of the slots are in use,
+ * it takes over the slot with the smallest count and inherits that count as its error. Any account contended more
+ * than total / capacity times is guaranteed to be tracked, and counts are overestimated by at most their error.
+ *
+ * Only the acquisitions which have to wait are recorded, so the uncontended path costs nothing. Recording never
+ * blocks: if another thread is updating the sketch, the sample is dropped and counted as such.
+ */
+public class ContentionTracker {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder dropped = new LongAdder();
+
+    private final long[] accountIds;
+    private final long[] counts;
+    private final long[] errors;
+    private final long[] waitNanos;
+    private final int[] maxQueueLengths;
+    private int size;
+    private long total;
+
+    @Inject
+    public ContentionTracker(final AppConfig config) {
+        this(config.getContentionTrackerCapacity());
+    }
+
+    public ContentionTracker(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.accountIds = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.waitNanos = new long[capacity];
+        this.maxQueueLengths = new int[capacity];
+    }
+
+    /**
+     * @param queueLength Number of threads waiting for the lock, including the recording thread
+     * @param waitNanos Time the recording thread waited for the lock
+     */
+    public void record(final long accountId, final int queueLength, final long waitNanos) {
+        if (!lock.tryLock()) {
+            dropped.increment();
+            return;
+        }
+
+        try {
+            total++;
+            final int slot = slotOf(accountId);
+            counts[slot]++;
+            this.waitNanos[slot] += waitNanos;
+            maxQueueLengths[slot] = Math.max(maxQueueLengths[slot], queueLength);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param limit Maximum number of accounts to report
+     */
+    public ContentionReport getReport(final int limit) {
+        final List<ContendedAccount> accounts = new ArrayList<>();
+        final long sampled;
+        lock.lock();
+        try {
+            sampled = total;
+            for (int i = 0; i < size; i++) {
+                accounts.add(new ContendedAccount(accountIds[i], counts[i], errors[i], waitNanos[i], maxQueueLengths[i]));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        accounts.sort(Comparator.comparingLong(ContendedAccount::getContentions).reversed());
+        return new ContentionReport(sampled, dropped.sum(), new ArrayList<>(accounts.subList(0, Math.min(limit, accounts.size()))));
+    }
+
+    /**
+     * Finds the slot of the account, replacing the least contended account if it is not tracked yet.
+     */
+    private int slotOf(final long accountId) {
+        int min = 0;
+        for (int i = 0; i < size; i++) {
+            if (accountIds[i] == accountId) {
+                return i;
+            }
+            if (counts[i] < counts[min]) {
+                min = i;
+            }
+        }
+
+        if (size < accountIds.length) {
+            accountIds[size] = accountId;
+            return size++;
+        }
+
+        //The new account may have been contended as often as the evicted one while it was not tracked.
+        accountIds[min] = accountId;
+        errors[min] = counts[min];
+        waitNanos[min] = 0;
+        maxQueueLengths[min] = 0;
+        return min;
+    }
+}
@@ -0,0 +1,60 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations, with buckets bounded by the powers of two in microseconds, from 1 microsecond up to
+ * about 33 seconds. Longer durations fall into an overflow bucket. Recording does not allocate.
+ */
+public class LatencyHistogram {
+    /**
+     * Number of bounded buckets. The upper bound of the last one is 2^25 microseconds.
+     */
+    static final int BUCKET_COUNT = 26;
+
+    private final LongAdder[] counts = new LongAdder[BUCKET_COUNT + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos) {
+        final long duration = Math.max(nanos, 0);
+        counts[indexOf(duration)].increment();
+        sumNanos.add(duration);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @param index Index of a bucket, or {@link #BUCKET_COUNT} for the overflow bucket
+     */
+    long getBucketCount(final int index) {
+        return counts[index].sum();
+    }
+
+    static long upperBoundMicros(final int index) {
+        return 1L << index;
+    }
+
+    static int indexOf(final long nanos) {
+        final long micros = nanos / 1000 + (nanos % 1000 == 0 ? 0 : 1);
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKET_COUNT);
+    }
+}
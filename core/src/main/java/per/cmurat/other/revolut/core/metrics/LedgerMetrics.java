@@ -0,0 +1,158 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import javax.inject.Inject;
+
+/**
+ * Metrics of the ledger, registered once so that the hot path only updates them.
+ */
+public class LedgerMetrics {
+    private static final String TRANSFERS = "ledger_transfers_total";
+    private static final String TRANSFERS_HELP = "Transfers processed, by result and the reason of rejection.";
+    private static final String INVARIANT_CHECKS = "ledger_invariant_checks_total";
+    private static final String INVARIANT_CHECKS_HELP = "Checks that the balances add up to the balances the accounts "
+            + "were created with, by result.";
+    private static final String REQUEST_DURATION = "ledger_http_request_duration_seconds";
+
+    private final MetricsRegistry registry;
+
+    private final Counter succeeded;
+    private final Counter insufficientBalance;
+    private final Counter accountNotFound;
+    private final Counter overflow;
+    private final Counter invalid;
+    private final Counter aborted;
+    private final Counter failed;
+
+    private final LatencyHistogram lockWait;
+    private final LatencyHistogram lockHold;
+
+    private final Counter invariantHeld;
+    private final Counter invariantViolated;
+    private volatile long invariantDivergence;
+
+    private final Counter feedRepositoryReads;
+
+    @Inject
+    public LedgerMetrics(final MetricsRegistry registry, final AssetAccountRepository accountRepository,
+                         final TransactionRepository transactionRepository) {
+        this.registry = registry;
+
+        succeeded = registry.counter(TRANSFERS, TRANSFERS_HELP, "result", "success");
+        insufficientBalance = rejected("insufficient_balance");
+        accountNotFound = rejected("account_not_found");
+        overflow = rejected("overflow");
+        invalid = rejected("invalid");
+        aborted = rejected("batch_aborted");
+        failed = registry.counter(TRANSFERS, TRANSFERS_HELP, "result", "error");
+
+        lockWait = registry.histogram("ledger_lock_wait_seconds",
+                "Time waited for exclusive access to the accounts of an operation.");
+        lockHold = registry.histogram("ledger_lock_hold_seconds",
+                "Time the accounts of an operation were held exclusively.");
+
+        invariantHeld = registry.counter(INVARIANT_CHECKS, INVARIANT_CHECKS_HELP, "result", "held");
+        invariantViolated = registry.counter(INVARIANT_CHECKS, INVARIANT_CHECKS_HELP, "result", "violated");
+        registry.gauge("ledger_invariant_divergence",
+                "Money created, or lost if negative, as of the last invariant check.", () -> invariantDivergence);
+
+        feedRepositoryReads = registry.counter("ledger_feed_repository_reads_total",
+                "Transactions read by the feed consumers from the repository, because they fell behind the ring or "
+                        + "were committed before the start.");
+
+        registry.gauge("ledger_accounts", "Number of accounts.", accountRepository::size);
+        registry.gauge("ledger_transactions", "Number of transactions.", transactionRepository::size);
+        registry.gauge("ledger_archived_transactions", "Number of transactions sealed into the archive segments.",
+                transactionRepository::getArchivedCount);
+    }
+
+    public void transferSucceeded() {
+        succeeded.increment();
+    }
+
+    public void transfersSucceeded(final int count) {
+        succeeded.add(count);
+    }
+
+    /**
+     * Counts a transfer rejected by the given exception, by the kind of the exception. Exceptions which are not
+     * rejections are counted as failures.
+     */
+    public void transferRejected(final RuntimeException cause) {
+        transferRejected(Rejection.of(cause));
+    }
+
+    /**
+     * @param rejection Null for a failure
+     */
+    public void transferRejected(final Rejection rejection) {
+        if (rejection == null) {
+            failed.increment();
+            return;
+        }
+        switch (rejection) {
+            case INSUFFICIENT_BALANCE:
+                insufficientBalance.increment();
+                break;
+            case ACCOUNT_NOT_FOUND:
+                accountNotFound.increment();
+                break;
+            case AMOUNT_OVERFLOW:
+                overflow.increment();
+                break;
+            default:
+                invalid.increment();
+        }
+    }
+
+    /**
+     * Counts the transfers of an atomic batch which were rolled back because another transfer of it was rejected.
+     */
+    public void transfersAborted(final int count) {
+        aborted.add(count);
+    }
+
+    /**
+     * @param waitStart {@link System#nanoTime()} before starting to wait for the accounts
+     * @return {@link System#nanoTime()} when the accounts were acquired, to be passed to {@link #lockReleased(long)}
+     */
+    public long lockAcquired(final long waitStart) {
+        final long acquired = System.nanoTime();
+        lockWait.record(acquired - waitStart);
+        return acquired;
+    }
+
+    public void lockReleased(final long acquired) {
+        lockHold.record(System.nanoTime() - acquired);
+    }
+
+    /**
+     * @param divergence Money created, or lost if negative, 0 if the invariant held
+     */
+    public void invariantChecked(final long divergence) {
+        invariantDivergence = divergence;
+        if (divergence == 0) {
+            invariantHeld.increment();
+        } else {
+            invariantViolated.increment();
+        }
+    }
+
+    public void feedReadFromRepository(final int count) {
+        feedRepositoryReads.add(count);
+    }
+
+    /**
+     * @param route Method and path pattern of the route, e.g. "GET /accounting/account/:id"
+     */
+    public LatencyHistogram requestDuration(final String route) {
+        return registry.histogram(REQUEST_DURATION, "Time taken to handle the HTTP requests, by route.", "route", route);
+    }
+
+    private Counter rejected(final String reason) {
+        return registry.counter(TRANSFERS, TRANSFERS_HELP, "result", "rejected", "reason", reason);
+    }
+}
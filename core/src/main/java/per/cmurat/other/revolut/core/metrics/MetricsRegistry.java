@@ -0,0 +1,135 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static per.cmurat.other.revolut.core.AssertionUtils.checkNotNull;
+
+/**
+ * Keeps the metrics of the application and writes them in the Prometheus text exposition format.
+ *
+ * Metrics are registered once, when their owners are created, and updated without going through the registry
+ * afterwards. Registering the same name and labels again returns the existing metric.
+ */
+public class MetricsRegistry {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @param labels Names and values of the labels, alternately
+     */
+    public synchronized Counter counter(final String name, final String help, final String... labels) {
+        return (Counter) family(name, help, COUNTER).metrics.computeIfAbsent(formatLabels(labels), key -> new Counter());
+    }
+
+    /**
+     * @param labels Names and values of the labels, alternately
+     */
+    public synchronized LatencyHistogram histogram(final String name, final String help, final String... labels) {
+        return (LatencyHistogram) family(name, help, HISTOGRAM).metrics.computeIfAbsent(formatLabels(labels), key -> new LatencyHistogram());
+    }
+
+    /**
+     * @param supplier Read on every scrape
+     * @param labels Names and values of the labels, alternately
+     */
+    public synchronized void gauge(final String name, final String help, final LongSupplier supplier, final String... labels) {
+        checkNotNull(supplier, "Gauge supplier cannot be null");
+        family(name, help, GAUGE).metrics.put(formatLabels(labels), supplier);
+    }
+
+    public synchronized String scrape() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Family family : families.values()) {
+            builder.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            builder.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+            for (final Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+                final Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    appendSample(builder, family.name, entry.getKey(), Long.toString(((Counter) metric).get()));
+                } else if (metric instanceof LongSupplier) {
+                    appendSample(builder, family.name, entry.getKey(), Long.toString(((LongSupplier) metric).getAsLong()));
+                } else {
+                    appendHistogram(builder, family.name, entry.getKey(), (LatencyHistogram) metric);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private Family family(final String name, final String help, final String type) {
+        checkNotNull(name, "Metric name cannot be null");
+
+        final Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void appendHistogram(final StringBuilder builder, final String name, final String labels,
+                                        final LatencyHistogram histogram) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+
+        //Buckets are read one by one, so the cumulative counts may include records that the count does not.
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            cumulative += histogram.getBucketCount(i);
+            final String bound = BigDecimal.valueOf(LatencyHistogram.upperBoundMicros(i), 6).toPlainString();
+            appendSample(builder, name + "_bucket", prefix + "le=\"" + bound + "\"", Long.toString(cumulative));
+        }
+        cumulative += histogram.getBucketCount(LatencyHistogram.BUCKET_COUNT);
+        appendSample(builder, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(cumulative));
+
+        appendSample(builder, name + "_sum", labels, BigDecimal.valueOf(histogram.getSumNanos(), 9).toPlainString());
+        appendSample(builder, name + "_count", labels, Long.toString(cumulative));
+    }
+
+    private static void appendSample(final StringBuilder builder, final String name, final String labels, final String value) {
+        builder.append(name);
+        if (!labels.isEmpty()) {
+            builder.append('{').append(labels).append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private static String formatLabels(final String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Family(final String name, final String help, final String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
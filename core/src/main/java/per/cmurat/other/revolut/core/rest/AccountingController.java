@@ -1,46 +1,175 @@
 package per.cmurat.other.revolut.core.rest;
 
-import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
-import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
 import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.Hold;
+import per.cmurat.other.revolut.core.accounting.service.HoldResult;
+import per.cmurat.other.revolut.core.accounting.service.TransactionPage;
+import per.cmurat.other.revolut.core.accounting.service.TransferRequest;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+import per.cmurat.other.revolut.core.metrics.ContentionReport;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
 import spark.utils.StringUtils;
 
 import javax.inject.Inject;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class AccountingController {
 
+    public static final int MAX_BATCH_SIZE = 10_000;
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1_000;
+    public static final int DEFAULT_CONTENDED_ACCOUNTS = 10;
+    public static final long MAX_FEED_TIMEOUT_MS = 30_000;
+
     @Inject
     private AccountingService accountingService;
 
-    public AssetAccount createAccount(final BigDecimal balance) {
+    @Inject
+    private MoneyConverter moneyConverter;
+
+    public AccountSnapshot createAccount(final BigDecimal balance) {
         checkBalanceParameter(balance);
-        return accountingService.createAccount(balance);
+        return accountingService.createAccount(moneyConverter.toMinorUnits(balance));
+    }
+
+    public List<AccountSnapshot> createAccounts(final List<BigDecimal> balances) {
+        checkBatchSize(balances.size(), "accounts");
+
+        final long[] minorUnits = new long[balances.size()];
+        for (int i = 0; i < minorUnits.length; i++) {
+            checkBalanceParameter(balances.get(i));
+            minorUnits[i] = moneyConverter.toMinorUnits(balances.get(i));
+        }
+        return accountingService.createAccounts(minorUnits);
     }
 
-    public AssetAccount getAccount(final String accountId) {
+    public AccountSnapshot getAccount(final String accountId) {
         return accountingService.getAccount(checkAndParseAccountId(accountId));
     }
 
-    public void validateTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) {
-        checkAmountParameter(amount);
-        try {
-            accountingService.validate(sendingAccountId, receivingAccountId, amount);
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+    /**
+     * @return Accounts in the order of the ids, with null for the accounts not found
+     */
+    public List<AccountSnapshot> getAccounts(final long[] accountIds) {
+        checkBatchSize(accountIds.length, "account ids");
+        return accountingService.getAccounts(accountIds);
+    }
+
+    public TransactionPage getTransactions(final String accountId, final String cursor, final String limit) {
+        return accountingService.getTransactions(checkAndParseAccountId(accountId), parseCursor(cursor), parseLimit(limit));
+    }
+
+    /**
+     * @param from Start of the range, inclusive, as a local date time
+     * @param to End of the range, exclusive, as a local date time
+     * @param accountId Optional account to filter by
+     */
+    public TransactionPage getTransactionsInRange(final String from, final String to, final String accountId,
+                                                  final String cursor, final String limit) {
+        final Long parsedAccountId = StringUtils.isEmpty(accountId) ? null : checkAndParseAccountId(accountId);
+        return accountingService.getTransactions(parsedAccountId, parseDateTime(from, "From"), parseDateTime(to, "To"),
+                parseCursor(cursor), parseLimit(limit));
+    }
+
+    /**
+     * @param timeoutMs Maximum time in milliseconds to wait for a transaction, not waiting if empty
+     */
+    public TransactionPage readFeed(final String cursor, final String limit, final String timeoutMs) {
+        final long parsedTimeout = StringUtils.isEmpty(timeoutMs) ? 0 : parseLong(timeoutMs, "Timeout");
+        if (parsedTimeout < 0 || parsedTimeout > MAX_FEED_TIMEOUT_MS) {
+            throw new IllegalArgumentException("Timeout must be between 0 and " + MAX_FEED_TIMEOUT_MS);
         }
+        return accountingService.readFeed(parseCursor(cursor), parseLimit(limit), parsedTimeout);
     }
 
-    public Transaction processTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) {
+    /**
+     * @return The result of the validation. Invalid parameters are thrown rather than returned.
+     */
+    public TransferResult validateTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) {
         checkAmountParameter(amount);
-        try {
-            return accountingService.transfer(sendingAccountId, receivingAccountId, amount);
-        } catch (RuntimeException e) {
-            throw e;
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+        return accountingService.tryValidate(sendingAccountId, receivingAccountId, moneyConverter.toMinorUnits(amount));
+    }
+
+    public TransferResult processTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) {
+        return processTransfer(sendingAccountId, receivingAccountId, amount, null);
+    }
+
+    /**
+     * @param idempotencyKey Optional key of the transfer. Retries with the same key get the original transaction.
+     * @return The result of the transfer. Invalid parameters are thrown rather than returned.
+     */
+    public TransferResult processTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount,
+                                          final String idempotencyKey) {
+        checkAmountParameter(amount);
+        final long minorUnits = moneyConverter.toMinorUnits(amount);
+        return accountingService.tryTransfer(sendingAccountId, receivingAccountId, minorUnits, idempotencyKey);
+    }
+
+    /**
+     * @param ttlMillis Optional time to live of the hold
+     * @return The result of placing the hold. Invalid parameters are thrown rather than returned.
+     */
+    public HoldResult placeHold(final long accountId, final BigDecimal amount, final Long ttlMillis) {
+        checkAmountParameter(amount);
+        return accountingService.placeHold(accountId, moneyConverter.toMinorUnits(amount), ttlMillis);
+    }
+
+    public Hold getHold(final String holdId) {
+        return accountingService.getHold(checkAndParseHoldId(holdId));
+    }
+
+    /**
+     * @param amount Optional amount to transfer. Without it, the whole hold is transferred.
+     */
+    public TransferResult captureHold(final String holdId, final long receivingAccountId, final BigDecimal amount) {
+        if (amount != null) {
+            checkAmountParameter(amount);
+        }
+        return accountingService.captureHold(checkAndParseHoldId(holdId), receivingAccountId,
+                amount == null ? null : moneyConverter.toMinorUnits(amount));
+    }
+
+    public TransferResult releaseHold(final String holdId) {
+        return accountingService.releaseHold(checkAndParseHoldId(holdId));
+    }
+
+    public List<TransferResult> processTransfers(final List<TransactionDto> transfers, final boolean atomic) {
+        if (transfers == null) {
+            throw new IllegalArgumentException("Transfers cannot be empty");
+        }
+        checkBatchSize(transfers.size(), "transfers");
+
+        final List<TransferRequest> requests = new ArrayList<>(transfers.size());
+        for (final TransactionDto transfer : transfers) {
+            checkAmountParameter(transfer.getAmount());
+            requests.add(new TransferRequest(
+                    transfer.getSendingAccountId(),
+                    transfer.getReceivingAccountId(),
+                    moneyConverter.toMinorUnits(transfer.getAmount())));
+        }
+
+        return accountingService.transferAll(requests, atomic);
+    }
+
+    public ContentionReport getContendedAccounts(final String limit) {
+        final int parsedLimit = StringUtils.isEmpty(limit) ? DEFAULT_CONTENDED_ACCOUNTS : parseLimit(limit);
+        return accountingService.getContendedAccounts(parsedLimit);
+    }
+
+    private void checkBatchSize(final int size, final String name) {
+        if (size == 0) {
+            throw new IllegalArgumentException(Character.toUpperCase(name.charAt(0)) + name.substring(1)
+                    + " cannot be empty");
+        }
+
+        if (size > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A batch cannot have more than " + MAX_BATCH_SIZE + " " + name);
         }
     }
 
@@ -69,13 +198,46 @@ public class AccountingController {
             throw new IllegalArgumentException("Account ID must not be empty.");
         }
 
-        final long accountId;
+        return parseLong(accountIdStr, "Account ID");
+    }
+
+    private long checkAndParseHoldId(final String holdIdStr) {
+        if (StringUtils.isEmpty(holdIdStr)) {
+            throw new IllegalArgumentException("Hold ID must not be empty.");
+        }
+
+        return parseLong(holdIdStr, "Hold ID");
+    }
+
+    private long parseCursor(final String cursor) {
+        return StringUtils.isEmpty(cursor) ? 0 : parseLong(cursor, "Cursor");
+    }
+
+    private int parseLimit(final String limit) {
+        final long parsedLimit = StringUtils.isEmpty(limit) ? DEFAULT_PAGE_SIZE : parseLong(limit, "Limit");
+        if (parsedLimit < 1 || parsedLimit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return (int) parsedLimit;
+    }
+
+    private long parseDateTime(final String value, final String name) {
+        if (StringUtils.isEmpty(value)) {
+            throw new IllegalArgumentException(name + " must not be empty.");
+        }
+
         try {
-            accountId = Long.parseLong(accountIdStr);
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Account ID must be a valid long value.", e);
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " must be a valid local date time.", e);
         }
+    }
 
-        return accountId;
+    private long parseLong(final String value, final String name) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a valid long value.", e);
+        }
     }
 }
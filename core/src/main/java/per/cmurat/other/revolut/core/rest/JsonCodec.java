@@ -0,0 +1,371 @@
+package per.cmurat.other.revolut.core.rest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.service.Hold;
+import per.cmurat.other.revolut.core.accounting.service.TransactionPage;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.CaptureHoldDto;
+import per.cmurat.other.revolut.core.rest.dto.ContentionReportDto;
+import per.cmurat.other.revolut.core.rest.dto.ErrorDto;
+import per.cmurat.other.revolut.core.rest.dto.HoldDto;
+import per.cmurat.other.revolut.core.rest.dto.LocalDateTimeSerializer;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+import per.cmurat.other.revolut.core.rest.dto.TransferBatchDto;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static per.cmurat.other.revolut.core.accounting.MathUtils.readableScale;
+
+/**
+ * Reads the request bodies and writes the response bodies of the REST API.
+ *
+ * The readers and writers are built once and shared by the requests. Transfers, which make up most of the requests,
+ * are parsed field by field from the bytes of the request, and transactions are written from the model straight
+ * to the output stream of the response, without the DTOs and strings in between.
+ *
+ * Malformed request bodies are rejected by {@link IllegalArgumentException}s.
+ */
+public class JsonCodec {
+
+    private static final ThreadLocal<char[]> AMOUNT_BUFFERS = ThreadLocal.withInitial(() -> new char[MoneyConverter.MAX_CHARS]);
+
+    private final MoneyConverter moneyConverter;
+    private final JsonFactory factory;
+    private final ObjectReader accountReader;
+    private final ObjectReader transferBatchReader;
+    private final ObjectReader holdReader;
+    private final ObjectReader captureReader;
+    private final ObjectWriter contentionReportWriter;
+
+    @Inject
+    public JsonCodec(final MoneyConverter moneyConverter) {
+        this.moneyConverter = moneyConverter;
+
+        final ObjectMapper mapper = new ObjectMapper();
+        this.factory = mapper.getFactory();
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.accountReader = mapper.reader(AssetAccountDto.class);
+        this.transferBatchReader = mapper.reader(TransferBatchDto.class);
+        this.holdReader = mapper.reader(HoldDto.class);
+        this.captureReader = mapper.reader(CaptureHoldDto.class);
+        this.contentionReportWriter = mapper.writerFor(ContentionReportDto.class);
+    }
+
+    public AssetAccountDto readAccount(final byte[] body) throws IOException {
+        try {
+            return accountReader.readValue(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid account: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    public TransferBatchDto readTransferBatch(final byte[] body) throws IOException {
+        try {
+            return transferBatchReader.readValue(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid transfer batch: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    public HoldDto readHold(final byte[] body) throws IOException {
+        try {
+            return holdReader.readValue(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid hold: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    public CaptureHoldDto readCapture(final byte[] body) throws IOException {
+        try {
+            return captureReader.readValue(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid capture: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the sending and receiving account ids and the amount of a transfer. Ids and amounts can be given as
+     * numbers or strings. The id and date time of a transaction are ignored, so that transactions can be sent back.
+     */
+    public TransactionDto readTransfer(final byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Transfer must be a JSON object");
+            }
+
+            final TransactionDto transfer = new TransactionDto();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "sendingAccountId":
+                        transfer.setSendingAccountId(readLong(parser, value, field));
+                        break;
+                    case "receivingAccountId":
+                        transfer.setReceivingAccountId(readLong(parser, value, field));
+                        break;
+                    case "amount":
+                        transfer.setAmount(readDecimal(parser, value, field));
+                        break;
+                    case "id":
+                    case "dateTime":
+                        parser.skipChildren();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown transfer field: " + field);
+                }
+            }
+            return transfer;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid transfer: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the balances of the accounts to create, as in <code>{"balances": [100, "25.50"]}</code>.
+     */
+    public List<BigDecimal> readBalances(final byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            startArrayField(parser, "balances");
+
+            final List<BigDecimal> balances = new ArrayList<>();
+            JsonToken value;
+            while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                balances.add(readDecimal(parser, value, "balance"));
+            }
+            endObject(parser);
+            return balances;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid accounts: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the ids of the accounts to get, as in <code>{"ids": [1, "2"]}</code>.
+     */
+    public long[] readAccountIds(final byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            startArrayField(parser, "ids");
+
+            long[] ids = new long[16];
+            int count = 0;
+            JsonToken value;
+            while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = readLong(parser, value, "id");
+            }
+            endObject(parser);
+            return Arrays.copyOf(ids, count);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid account ids: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    public void writeAccount(final AccountSnapshot account, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            writeAccount(account, jgen);
+        }
+    }
+
+    /**
+     * Writes the accounts as an array, with null for the accounts which are not found.
+     */
+    public void writeAccounts(final List<AccountSnapshot> accounts, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            jgen.writeStartArray();
+            for (final AccountSnapshot account : accounts) {
+                if (account == null) {
+                    jgen.writeNull();
+                } else {
+                    writeAccount(account, jgen);
+                }
+            }
+            jgen.writeEndArray();
+        }
+    }
+
+    public void writeHold(final Hold hold, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            jgen.writeStartObject();
+            jgen.writeNumberField("id", hold.getId());
+            jgen.writeNumberField("accountId", hold.getAccountId());
+            jgen.writeNumberField("amount", readableScale(moneyConverter.toDecimal(hold.getAmount())));
+            jgen.writeStringField("state", hold.getState().name());
+            jgen.writeFieldName("expiresAt");
+            LocalDateTimeSerializer.writeEpochMillis(hold.getExpiresAt(), jgen);
+            jgen.writeEndObject();
+        }
+    }
+
+    public void writeTransaction(final Transaction transaction, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            writeTransaction(transaction, jgen);
+        }
+    }
+
+    public void writeTransactionPage(final TransactionPage page, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            jgen.writeStartObject();
+            jgen.writeArrayFieldStart("transactions");
+            for (final Transaction transaction : page.getTransactions()) {
+                writeTransaction(transaction, jgen);
+            }
+            jgen.writeEndArray();
+            jgen.writeFieldName("nextCursor");
+            if (page.getNextCursor() == null) {
+                jgen.writeNull();
+            } else {
+                jgen.writeNumber(page.getNextCursor());
+            }
+            jgen.writeEndObject();
+        }
+    }
+
+    public void writeTransferResults(final List<TransferResult> results, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            jgen.writeStartArray();
+            for (final TransferResult result : results) {
+                jgen.writeStartObject();
+                jgen.writeFieldName("transaction");
+                if (result.isSuccess()) {
+                    writeTransaction(result.getTransaction(), jgen);
+                } else {
+                    jgen.writeNull();
+                }
+                jgen.writeStringField("code", result.isSuccess() ? null : result.getRejection().name());
+                jgen.writeStringField("error", result.isSuccess() ? null : result.getError());
+                jgen.writeEndObject();
+            }
+            jgen.writeEndArray();
+        }
+    }
+
+    /**
+     * Writes the body of a failed request, see {@link ErrorDto}.
+     */
+    public void writeError(final String code, final String message, final OutputStream out) throws IOException {
+        try (JsonGenerator jgen = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            writeError(code, message, jgen);
+        }
+    }
+
+    /**
+     * Same as {@link #writeError(String, String, OutputStream)}, for the exception handlers which set the body
+     * as a string.
+     */
+    public String errorToString(final String code, final String message) {
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator jgen = factory.createGenerator(out)) {
+            writeError(code, message, jgen);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    public void writeContentionReport(final ContentionReportDto report, final OutputStream out) throws IOException {
+        contentionReportWriter.writeValue(out, report);
+    }
+
+    private static void writeError(final String code, final String message, final JsonGenerator jgen) throws IOException {
+        jgen.writeStartObject();
+        jgen.writeStringField("code", code);
+        jgen.writeStringField("message", message);
+        jgen.writeEndObject();
+    }
+
+    private void writeAccount(final AccountSnapshot account, final JsonGenerator jgen) throws IOException {
+        jgen.writeStartObject();
+        jgen.writeNumberField("id", account.getId());
+        jgen.writeNumberField("balance", readableScale(moneyConverter.toDecimal(account.getBalance())));
+        jgen.writeNumberField("version", account.getVersion());
+        jgen.writeEndObject();
+    }
+
+    private void writeTransaction(final Transaction transaction, final JsonGenerator jgen) throws IOException {
+        final char[] amount = AMOUNT_BUFFERS.get();
+
+        jgen.writeStartObject();
+        jgen.writeNumberField("id", transaction.getId());
+        jgen.writeNumberField("sendingAccountId", transaction.getCreditAccount().getId());
+        jgen.writeNumberField("receivingAccountId", transaction.getDebitAccount().getId());
+        jgen.writeFieldName("amount");
+        jgen.writeRawValue(amount, 0, moneyConverter.toChars(transaction.getAmount(), amount));
+        jgen.writeFieldName("dateTime");
+        LocalDateTimeSerializer.writeEpochMillis(transaction.getTimestamp(), jgen);
+        jgen.writeEndObject();
+    }
+
+    /**
+     * Moves the parser into the array of an object which has only that field.
+     */
+    private static void startArrayField(final JsonParser parser, final String field) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Request must be a JSON object");
+        }
+        if (parser.nextToken() != JsonToken.FIELD_NAME || !field.equals(parser.getCurrentName())) {
+            throw new IllegalArgumentException("Request must have only the " + field + " field");
+        }
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException(field + " must be an array");
+        }
+    }
+
+    private static void endObject(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.END_OBJECT) {
+            throw new IllegalArgumentException("Request must have only one field");
+        }
+    }
+
+    private static long readLong(final JsonParser parser, final JsonToken value, final String field) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(field + " must be a number", e);
+            }
+        }
+        throw new IllegalArgumentException(field + " must be a number");
+    }
+
+    private static BigDecimal readDecimal(final JsonParser parser, final JsonToken value, final String field) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDecimalValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return new BigDecimal(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(field + " must be a number", e);
+            }
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new IllegalArgumentException(field + " must be a number");
+    }
+}
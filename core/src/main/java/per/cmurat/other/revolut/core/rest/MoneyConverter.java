@@ -0,0 +1,94 @@
+package per.cmurat.other.revolut.core.rest;
+
+import per.cmurat.other.revolut.core.AppConfig;
+
+import javax.inject.Inject;
+import java.math.BigDecimal;
+
+/**
+ * Converts between the decimal amounts of the REST API and the minor units used by the ledger.
+ * The number of decimal places is defined by {@link AppConfig#LEDGER_SCALE}.
+ */
+public class MoneyConverter {
+
+    /**
+     * Buffer size needed by {@link #toChars(long, char[])}.
+     */
+    public static final int MAX_CHARS = 21;
+
+    private final int scale;
+
+    @Inject
+    public MoneyConverter(final AppConfig config) {
+        this.scale = config.getLedgerScale();
+    }
+
+    /**
+     * @throws IllegalArgumentException If the amount has more decimal places than the ledger scale or
+     *                                  doesn't fit into the ledger
+     */
+    public long toMinorUnits(final BigDecimal amount) {
+        if (amount.stripTrailingZeros().scale() > scale) {
+            throw new IllegalArgumentException("Amount cannot have more than " + scale + " decimal places");
+        }
+
+        try {
+            return amount.setScale(scale).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount is too large", e);
+        }
+    }
+
+    /**
+     * Trailing zeros are removed, so that the amount is returned as it was sent.
+     */
+    public BigDecimal toDecimal(final long minorUnits) {
+        final BigDecimal amount = BigDecimal.valueOf(minorUnits, scale).stripTrailingZeros();
+        return amount.scale() < 0 ? amount.setScale(0) : amount;
+    }
+
+    /**
+     * Writes the amount returned by {@link #toDecimal(long)} in plain notation, without creating the decimal.
+     *
+     * @param buffer At least {@link #MAX_CHARS} long
+     * @return Number of characters written
+     */
+    public int toChars(final long minorUnits, final char[] buffer) {
+        if (minorUnits == Long.MIN_VALUE) {
+            final String amount = toDecimal(minorUnits).toPlainString();
+            amount.getChars(0, amount.length(), buffer, 0);
+            return amount.length();
+        }
+
+        long value = Math.abs(minorUnits);
+        int fractionDigits = scale;
+        while (fractionDigits > 0 && value % 10 == 0) {
+            value /= 10;
+            fractionDigits--;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        final int integerDigits = Math.max(1, digits - fractionDigits);
+        final int length = (minorUnits < 0 ? 1 : 0) + integerDigits + (fractionDigits > 0 ? fractionDigits + 1 : 0);
+
+        int position = length - 1;
+        for (int i = 0; i < fractionDigits; i++) {
+            buffer[position--] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        if (fractionDigits > 0) {
+            buffer[position--] = '.';
+        }
+        do {
+            buffer[position--] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (minorUnits < 0) {
+            buffer[0] = '-';
+        }
+        return length;
+    }
+}
@@ -1,19 +1,40 @@
 package per.cmurat.other.revolut.core.rest;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
-import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
-import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.service.Hold;
+import per.cmurat.other.revolut.core.accounting.service.HoldResult;
+import per.cmurat.other.revolut.core.accounting.service.TransactionPage;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+import per.cmurat.other.revolut.core.metrics.ContendedAccount;
+import per.cmurat.other.revolut.core.metrics.ContentionReport;
+import per.cmurat.other.revolut.core.metrics.LatencyHistogram;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+import per.cmurat.other.revolut.core.metrics.MetricsRegistry;
 import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.CaptureHoldDto;
+import per.cmurat.other.revolut.core.rest.dto.ContendedAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.ContentionReportDto;
+import per.cmurat.other.revolut.core.rest.dto.HoldDto;
 import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+import per.cmurat.other.revolut.core.rest.dto.TransferBatchDto;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 import spark.Spark;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import static per.cmurat.other.revolut.core.accounting.MathUtils.readableScale;
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.awaitStop;
+import static spark.Spark.delete;
 import static spark.Spark.exception;
 import static spark.Spark.get;
 import static spark.Spark.path;
@@ -27,51 +48,200 @@ public class RestMapper {
     public static final int STATUS_BAD_REQUEST = 400;
     public static final int STATUS_INTERNAL_SERVER_ERROR = 500;
 
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    /**
+     * Error code of the failures of the server. Rejections have the names of the {@link Rejection}s as their codes.
+     */
+    public static final String INTERNAL_ERROR_CODE = "INTERNAL_ERROR";
+
+    private static final Logger LOGGER = Logger.getLogger(RestMapper.class.getName());
+
     private static final String EMPTY_BODY = "";
 
     @Inject
     private AccountingController accountingController;
 
-    public void createMappings() {
-        ObjectMapper mapper = new ObjectMapper();
+    @Inject
+    private JsonCodec jsonCodec;
 
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    @Inject
+    private LedgerMetrics metrics;
+
+    public void createMappings() {
         path("/accounting", () -> {
-            put("/account", (request, response) -> {
-                final AssetAccountDto requestDto = mapper.readValue(request.body().toString(), AssetAccountDto.class);
-                final AssetAccount account = accountingController.createAccount(requestDto.getBalance());
-                response.status(STATUS_OK);
-                return mapper.writeValueAsString(mapToDto(account));
-            });
+            put("/account", timed("PUT /accounting/account", (request, response) -> {
+                final AssetAccountDto requestDto = jsonCodec.readAccount(request.bodyAsBytes());
+                final AccountSnapshot account = accountingController.createAccount(requestDto.getBalance());
+                return respond(response, out -> jsonCodec.writeAccount(account, out));
+            }));
 
-            get("/account/:id", (request, response) -> {
+            put("/accounts", timed("PUT /accounting/accounts", (request, response) -> {
+                final List<BigDecimal> balances = jsonCodec.readBalances(request.bodyAsBytes());
+                final List<AccountSnapshot> accounts = accountingController.createAccounts(balances);
+                return respond(response, out -> jsonCodec.writeAccounts(accounts, out));
+            }));
+
+            post("/accounts/query", timed("POST /accounting/accounts/query", (request, response) -> {
+                final long[] ids = jsonCodec.readAccountIds(request.bodyAsBytes());
+                final List<AccountSnapshot> accounts = accountingController.getAccounts(ids);
+                return respond(response, out -> jsonCodec.writeAccounts(accounts, out));
+            }));
+
+            get("/account/:id", timed("GET /accounting/account/:id", (request, response) -> {
                 final String id = request.params(":id");
-                final AssetAccount account = accountingController.getAccount(id);
-                response.status(STATUS_OK);
-                return mapper.writeValueAsString(mapToDto(account));
-            });
+                final AccountSnapshot account = accountingController.getAccount(id);
+                return respond(response, out -> jsonCodec.writeAccount(account, out));
+            }));
+
+            get("/account/:id/transactions", timed("GET /accounting/account/:id/transactions", (request, response) -> {
+                final TransactionPage page = accountingController.getTransactions(
+                        request.params(":id"), request.queryParams("cursor"), request.queryParams("limit"));
+                return respond(response, out -> jsonCodec.writeTransactionPage(page, out));
+            }));
+
+            get("/transactions", timed("GET /accounting/transactions", (request, response) -> {
+                final TransactionPage page = accountingController.getTransactionsInRange(
+                        request.queryParams("from"), request.queryParams("to"), request.queryParams("accountId"),
+                        request.queryParams("cursor"), request.queryParams("limit"));
+                return respond(response, out -> jsonCodec.writeTransactionPage(page, out));
+            }));
+
+            get("/feed", timed("GET /accounting/feed", (request, response) -> {
+                final TransactionPage page = accountingController.readFeed(request.queryParams("cursor"),
+                        request.queryParams("limit"), request.queryParams("timeoutMs"));
+                return respond(response, out -> jsonCodec.writeTransactionPage(page, out));
+            }));
 
-            post("/validateTransfer", (request, response) -> {
-                final TransactionDto requestDto = mapper.readValue(request.body().toString(), TransactionDto.class);
-                accountingController.validateTransfer(requestDto.getSendingAccountId(), requestDto.getReceivingAccountId(), requestDto.getAmount());
+            post("/validateTransfer", timed("POST /accounting/validateTransfer", (request, response) -> {
+                final TransactionDto requestDto = jsonCodec.readTransfer(request.bodyAsBytes());
+                final TransferResult result = accountingController.validateTransfer(
+                        requestDto.getSendingAccountId(), requestDto.getReceivingAccountId(), requestDto.getAmount());
+                if (!result.isSuccess()) {
+                    return reject(response, result);
+                }
                 response.status(STATUS_OK);
                 return EMPTY_BODY;
-            });
+            }));
 
-            post("/processTransfer", (request, response) -> {
-                final TransactionDto requestDto = mapper.readValue(request.body().toString(), TransactionDto.class);
-                final Transaction transaction = accountingController.processTransfer(requestDto.getSendingAccountId(), requestDto.getReceivingAccountId(), requestDto.getAmount());
+            post("/processTransfer", timed("POST /accounting/processTransfer", (request, response) -> {
+                final TransactionDto requestDto = jsonCodec.readTransfer(request.bodyAsBytes());
+                final TransferResult result = accountingController.processTransfer(requestDto.getSendingAccountId(),
+                        requestDto.getReceivingAccountId(), requestDto.getAmount(), request.headers(IDEMPOTENCY_KEY_HEADER));
+                if (!result.isSuccess()) {
+                    return reject(response, result);
+                }
+                return respond(response, out -> jsonCodec.writeTransaction(result.getTransaction(), out));
+            }));
+
+            post("/holds", timed("POST /accounting/holds", (request, response) -> {
+                final HoldDto requestDto = jsonCodec.readHold(request.bodyAsBytes());
+                final HoldResult result = accountingController.placeHold(
+                        requestDto.getAccountId(), requestDto.getAmount(), requestDto.getTtlMs());
+                if (!result.isSuccess()) {
+                    return reject(response, result.getRejection(), result.getError());
+                }
+                return respond(response, out -> jsonCodec.writeHold(result.getHold(), out));
+            }));
+
+            get("/holds/:id", timed("GET /accounting/holds/:id", (request, response) -> {
+                final Hold hold = accountingController.getHold(request.params(":id"));
+                return respond(response, out -> jsonCodec.writeHold(hold, out));
+            }));
+
+            post("/holds/:id/capture", timed("POST /accounting/holds/:id/capture", (request, response) -> {
+                final CaptureHoldDto requestDto = jsonCodec.readCapture(request.bodyAsBytes());
+                final TransferResult result = accountingController.captureHold(
+                        request.params(":id"), requestDto.getReceivingAccountId(), requestDto.getAmount());
+                if (!result.isSuccess()) {
+                    return reject(response, result);
+                }
+                return respond(response, out -> jsonCodec.writeTransaction(result.getTransaction(), out));
+            }));
+
+            delete("/holds/:id", timed("DELETE /accounting/holds/:id", (request, response) -> {
+                final TransferResult result = accountingController.releaseHold(request.params(":id"));
+                if (!result.isSuccess()) {
+                    return reject(response, result);
+                }
                 response.status(STATUS_OK);
-                return mapper.writeValueAsString(mapToDto(transaction));
-            });
+                return EMPTY_BODY;
+            }));
+
+            post("/processTransfers", timed("POST /accounting/processTransfers", (request, response) -> {
+                final TransferBatchDto requestDto = jsonCodec.readTransferBatch(request.bodyAsBytes());
+                final List<TransferResult> results = accountingController.processTransfers(requestDto.getTransfers(), requestDto.isAtomic());
+                return respond(response, out -> jsonCodec.writeTransferResults(results, out));
+            }));
+        });
+
+        path("/admin", () -> {
+            get("/contention", timed("GET /admin/contention", (request, response) -> {
+                final ContentionReport report = accountingController.getContendedAccounts(request.queryParams("limit"));
+                return respond(response, out -> jsonCodec.writeContentionReport(mapToDto(report), out));
+            }));
+        });
+
+        get("/metrics", (request, response) -> {
+            response.status(STATUS_OK);
+            response.type(MetricsRegistry.CONTENT_TYPE);
+            return metricsRegistry.scrape();
         });
 
         exception(Exception.class, this::handleException);
         exception(RuntimeException.class, this::handleRuntimeException);
         exception(IllegalArgumentException.class, this::handleIllegalArgumentException);
+
+        awaitInitialization();
     }
 
     public void stopServer() {
         stop();
+        awaitStop();
+    }
+
+    /**
+     * Records the time taken by the handler, including the failed requests, in the latency histogram of the route.
+     */
+    private Route timed(final String route, final Route handler) {
+        final LatencyHistogram duration = metrics.requestDuration(route);
+        return (request, response) -> {
+            final long start = System.nanoTime();
+            try {
+                return handler.handle(request, response);
+            } finally {
+                duration.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Writes the JSON body straight to the output stream of the response, leaving nothing for Spark to write.
+     */
+    private Object respond(final Response response, final JsonBody body) throws IOException {
+        response.status(STATUS_OK);
+        response.type(JSON_CONTENT_TYPE);
+        body.writeTo(response.raw().getOutputStream());
+        return EMPTY_BODY;
+    }
+
+    /**
+     * Rejections are expected outcomes, so they are reported with their codes only.
+     */
+    private Object reject(final Response response, final TransferResult result) throws IOException {
+        return reject(response, result.getRejection(), result.getError());
+    }
+
+    private Object reject(final Response response, final Rejection rejection, final String error) throws IOException {
+        response.status(STATUS_BAD_REQUEST);
+        response.type(JSON_CONTENT_TYPE);
+        jsonCodec.writeError(rejection.name(), error, response.raw().getOutputStream());
+        return EMPTY_BODY;
     }
 
     private void handleException(final Exception exception, final Request request, final Response response) {
@@ -81,44 +251,53 @@ public class RestMapper {
     private void handleRuntimeException(final RuntimeException exception, final Request request, final Response response) {
         if (exception.getCause() != null && exception.getCause() instanceof IllegalArgumentException) {
             handleIllegalArgumentException((IllegalArgumentException) exception.getCause(), request, response);
+        } else if (Rejection.of(exception) != null) {
+            handleRejection(exception, Rejection.of(exception), response);
         } else {
             handleThrowable(exception, request, response);
         }
     }
 
     private void handleIllegalArgumentException(final IllegalArgumentException exception, final Request request, final Response response) {
-        handleException(exception, request, response);
+        handleRejection(exception, Rejection.of(exception), response);
+    }
+
+    private void handleRejection(final RuntimeException exception, final Rejection rejection, final Response response) {
         response.status(STATUS_BAD_REQUEST);
+        response.type(JSON_CONTENT_TYPE);
+        response.body(jsonCodec.errorToString(rejection.name(), exception.getMessage()));
     }
 
+    /**
+     * Only the failures of the server are logged with their stack traces. The response does not include them.
+     */
     private void handleThrowable(final Throwable exception, final Request request, final Response response) {
-        final String stackTrace = getStackTrace(exception);
-        System.err.println(stackTrace);
-        response.body(stackTrace);
+        LOGGER.log(Level.SEVERE, "Failed to handle " + request.requestMethod() + " " + request.pathInfo(), exception);
         response.status(STATUS_INTERNAL_SERVER_ERROR);
+        response.type(JSON_CONTENT_TYPE);
+        response.body(jsonCodec.errorToString(INTERNAL_ERROR_CODE, exception.toString()));
     }
 
-    private String getStackTrace(final Throwable e) {
-        final StringWriter sw = new StringWriter();
-        e.printStackTrace(new PrintWriter(sw));
-        return sw.toString();
-    }
-
-    private TransactionDto mapToDto(final Transaction transaction) {
-        final TransactionDto dto = new TransactionDto();
-        dto.setSendingAccountId(transaction.getCreditAccount().getId());
-        dto.setReceivingAccountId(transaction.getDebitAccount().getId());
-        dto.setAmount(transaction.getAmount());
-        dto.setDateTime(transaction.getDateTime());
+    private ContentionReportDto mapToDto(final ContentionReport report) {
+        final List<ContendedAccountDto> accounts = new ArrayList<>(report.getAccounts().size());
+        for (final ContendedAccount account : report.getAccounts()) {
+            final ContendedAccountDto dto = new ContendedAccountDto();
+            dto.setAccountId(account.getAccountId());
+            dto.setContentions(account.getContentions());
+            dto.setMaxError(account.getMaxError());
+            dto.setWaitMicros(account.getWaitNanos() / 1000);
+            dto.setMaxQueueLength(account.getMaxQueueLength());
+            accounts.add(dto);
+        }
 
+        final ContentionReportDto dto = new ContentionReportDto();
+        dto.setSampledContentions(report.getSampledContentions());
+        dto.setDroppedSamples(report.getDroppedSamples());
+        dto.setAccounts(accounts);
         return dto;
     }
 
-    private AssetAccountDto mapToDto(final AssetAccount account) {
-        final AssetAccountDto dto = new AssetAccountDto();
-        dto.setId(account.getId());
-        dto.setBalance(readableScale(account.getBalance()));
-
-        return dto;
+    private interface JsonBody {
+        void writeTo(OutputStream out) throws IOException;
     }
 }
@@ -5,6 +5,11 @@ import java.math.BigDecimal;
 public class AssetAccountDto {
     private long id;
     private BigDecimal balance;
+    /**
+     * Version of the account as of the response, see
+     * {@link per.cmurat.other.revolut.core.accounting.model.AccountSnapshot#getVersion()}.
+     */
+    private Long version;
 
     public long getId() {
         return id;
@@ -21,4 +26,12 @@ public class AssetAccountDto {
     public void setBalance(final BigDecimal balance) {
         this.balance = balance;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(final Long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,27 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Capture of a hold. Without an amount, the whole hold is transferred.
+ */
+public class CaptureHoldDto {
+    private long receivingAccountId;
+    private BigDecimal amount;
+
+    public long getReceivingAccountId() {
+        return receivingAccountId;
+    }
+
+    public void setReceivingAccountId(final long receivingAccountId) {
+        this.receivingAccountId = receivingAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(final BigDecimal amount) {
+        this.amount = amount;
+    }
+}
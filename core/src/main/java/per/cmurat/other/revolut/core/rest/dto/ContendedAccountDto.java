@@ -0,0 +1,49 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+public class ContendedAccountDto {
+    private long accountId;
+    private long contentions;
+    private long maxError;
+    private long waitMicros;
+    private int maxQueueLength;
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(final long accountId) {
+        this.accountId = accountId;
+    }
+
+    public long getContentions() {
+        return contentions;
+    }
+
+    public void setContentions(final long contentions) {
+        this.contentions = contentions;
+    }
+
+    public long getMaxError() {
+        return maxError;
+    }
+
+    public void setMaxError(final long maxError) {
+        this.maxError = maxError;
+    }
+
+    public long getWaitMicros() {
+        return waitMicros;
+    }
+
+    public void setWaitMicros(final long waitMicros) {
+        this.waitMicros = waitMicros;
+    }
+
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public void setMaxQueueLength(final int maxQueueLength) {
+        this.maxQueueLength = maxQueueLength;
+    }
+}
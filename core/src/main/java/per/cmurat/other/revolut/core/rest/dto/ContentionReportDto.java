@@ -0,0 +1,33 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import java.util.List;
+
+public class ContentionReportDto {
+    private long sampledContentions;
+    private long droppedSamples;
+    private List<ContendedAccountDto> accounts;
+
+    public long getSampledContentions() {
+        return sampledContentions;
+    }
+
+    public void setSampledContentions(final long sampledContentions) {
+        this.sampledContentions = sampledContentions;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public void setDroppedSamples(final long droppedSamples) {
+        this.droppedSamples = droppedSamples;
+    }
+
+    public List<ContendedAccountDto> getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(final List<ContendedAccountDto> accounts) {
+        this.accounts = accounts;
+    }
+}
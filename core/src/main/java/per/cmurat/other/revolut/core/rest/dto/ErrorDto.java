@@ -0,0 +1,27 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+/**
+ * Body of a failed request. The code is the name of a
+ * {@link per.cmurat.other.revolut.core.accounting.exception.Rejection}, or INTERNAL_ERROR for a failure of the
+ * server.
+ */
+public class ErrorDto {
+    private String code;
+    private String message;
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(final String code) {
+        this.code = code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,71 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A hold placed on an account. Requests give the account, the amount and optionally the time to live in
+ * milliseconds; responses have the id, the state and the expiry time of the hold instead of the time to live.
+ */
+public class HoldDto {
+    private Long id;
+    private long accountId;
+    private BigDecimal amount;
+    private Long ttlMs;
+    private String state;
+
+    @JsonSerialize(using = LocalDateTimeSerializer.class)
+    @JsonDeserialize(using = LocalDateTimeDeserializer.class)
+    private LocalDateTime expiresAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(final Long id) {
+        this.id = id;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(final long accountId) {
+        this.accountId = accountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(final BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public Long getTtlMs() {
+        return ttlMs;
+    }
+
+    public void setTtlMs(final Long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(final String state) {
+        this.state = state;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(final LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -6,17 +6,141 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
 
+/**
+ * Writes date times in the format of {@link DateTimeFormatter#ISO_LOCAL_DATE_TIME}, e.g. 2019-01-31T12:30:05.25,
+ * through a per thread character buffer instead of building a string for each of them.
+ *
+ * Timestamps can be written without creating date time objects by {@link #writeEpochMillis(long, JsonGenerator)}.
+ * They are converted to the default time zone of the system, whose offset is cached until its next transition.
+ */
 public class LocalDateTimeSerializer extends StdSerializer<LocalDateTime> {
 
+    private static final int MAX_LENGTH = 29;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private static final ThreadLocal<char[]> BUFFERS = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+    private static final ZoneRules ZONE_RULES = ZoneId.systemDefault().getRules();
+    private static volatile OffsetPeriod offsetPeriod = new OffsetPeriod(0L, 0L, 0L);
+
     public LocalDateTimeSerializer() {
         super(LocalDateTime.class);
     }
 
     @Override
     public void serialize(final LocalDateTime value, final JsonGenerator jgen, final SerializerProvider provider) throws IOException, JsonGenerationException {
-        jgen.writeString(value.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        write(value.getYear(), value.getMonthValue(), value.getDayOfMonth(),
+                value.getHour(), value.getMinute(), value.getSecond(), value.getNano(), jgen);
+    }
+
+    /**
+     * Writes the timestamp as a date time in the default time zone of the system, the same as
+     * {@code Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()).toLocalDateTime()} would be written.
+     */
+    public static void writeEpochMillis(final long epochMillis, final JsonGenerator jgen) throws IOException {
+        final long localMillis = epochMillis + offsetMillisAt(epochMillis);
+        final long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        final int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+
+        // Days to civil date, counting the years from March so that the leap day is the last day of a year
+        final long days = epochDay + 719_468;
+        final long era = Math.floorDiv(days, 146_097);
+        final int dayOfEra = (int) (days - era * 146_097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int marchMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * marchMonth + 2) / 5 + 1;
+        final int month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+        final int year = (int) (era * 400 + yearOfEra + (month <= 2 ? 1 : 0));
+
+        write(year, month, day, millisOfDay / 3_600_000, millisOfDay / 60_000 % 60, millisOfDay / 1000 % 60,
+                millisOfDay % 1000 * 1_000_000, jgen);
+    }
+
+    private static void write(final int year, final int month, final int day, final int hour, final int minute,
+                              final int second, final int nano, final JsonGenerator jgen) throws IOException {
+        if (year < 0 || year > 9999) {
+            // Years which don't have four digits are written with a sign
+            jgen.writeString(LocalDateTime.of(year, month, day, hour, minute, second, nano).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            return;
+        }
+
+        final char[] buffer = BUFFERS.get();
+        put2(buffer, 0, year / 100);
+        put2(buffer, 2, year % 100);
+        buffer[4] = '-';
+        put2(buffer, 5, month);
+        buffer[7] = '-';
+        put2(buffer, 8, day);
+        buffer[10] = 'T';
+        put2(buffer, 11, hour);
+        buffer[13] = ':';
+        put2(buffer, 14, minute);
+        buffer[16] = ':';
+        put2(buffer, 17, second);
+        int length = 19;
+
+        if (nano != 0) {
+            buffer[length++] = '.';
+            int fraction = nano;
+            int digits = 9;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (int i = length + digits - 1; i >= length; i--) {
+                buffer[i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            length += digits;
+        }
+
+        jgen.writeString(buffer, 0, length);
+    }
+
+    private static void put2(final char[] buffer, final int offset, final int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static long offsetMillisAt(final long epochMillis) {
+        final OffsetPeriod period = offsetPeriod;
+        if (epochMillis >= period.from && epochMillis < period.until) {
+            return period.offsetMillis;
+        }
+
+        final Instant instant = Instant.ofEpochMilli(epochMillis);
+        final ZoneOffset offset = ZONE_RULES.getOffset(instant);
+        final long offsetMillis = offset.getTotalSeconds() * 1000L;
+        if (ZONE_RULES.isFixedOffset()) {
+            offsetPeriod = new OffsetPeriod(Long.MIN_VALUE, Long.MAX_VALUE, offsetMillis);
+        } else {
+            final ZoneOffsetTransition next = ZONE_RULES.nextTransition(instant);
+            offsetPeriod = new OffsetPeriod(epochMillis, next == null ? Long.MAX_VALUE : next.getInstant().toEpochMilli(), offsetMillis);
+        }
+        return offsetMillis;
+    }
+
+    /**
+     * Offset of the zone from the start of the period, inclusive, to its end, exclusive.
+     */
+    private static final class OffsetPeriod {
+        private final long from;
+        private final long until;
+        private final long offsetMillis;
+
+        private OffsetPeriod(final long from, final long until, final long offsetMillis) {
+            this.from = from;
+            this.until = until;
+            this.offsetMillis = offsetMillis;
+        }
     }
 }
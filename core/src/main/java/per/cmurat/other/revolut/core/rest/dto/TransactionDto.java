@@ -7,6 +7,7 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 public class TransactionDto {
+    private Long id;
     private long sendingAccountId;
     private long receivingAccountId;
     private BigDecimal amount;
@@ -15,6 +16,14 @@ public class TransactionDto {
     @JsonDeserialize(using = LocalDateTimeDeserializer.class)
     private LocalDateTime dateTime;
 
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(final Long id) {
+        this.id = id;
+    }
+
     public long getSendingAccountId() {
         return sendingAccountId;
     }
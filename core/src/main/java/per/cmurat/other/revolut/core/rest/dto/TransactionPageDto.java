@@ -0,0 +1,24 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import java.util.List;
+
+public class TransactionPageDto {
+    private List<TransactionDto> transactions;
+    private Long nextCursor;
+
+    public List<TransactionDto> getTransactions() {
+        return transactions;
+    }
+
+    public void setTransactions(final List<TransactionDto> transactions) {
+        this.transactions = transactions;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(final Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
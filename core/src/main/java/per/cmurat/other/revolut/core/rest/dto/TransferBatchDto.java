@@ -0,0 +1,24 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import java.util.List;
+
+public class TransferBatchDto {
+    private boolean atomic;
+    private List<TransactionDto> transfers;
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public void setAtomic(final boolean atomic) {
+        this.atomic = atomic;
+    }
+
+    public List<TransactionDto> getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(final List<TransactionDto> transfers) {
+        this.transfers = transfers;
+    }
+}
@@ -0,0 +1,34 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+public class TransferResultDto {
+    private TransactionDto transaction;
+    private String code;
+    private String error;
+
+    public TransactionDto getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(final TransactionDto transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * @return Name of the rejection of a failed transfer, null for a successful one
+     */
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(final String code) {
+        this.code = code;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(final String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,101 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and reads the idempotency keys of the transactions of a snapshot. See {@link SnapshotFormat#IDEMPOTENCY_KEYS}.
+ */
+final class IdempotencyKeysFile {
+
+    interface KeyVisitor {
+        void visit(long transactionId, String idempotencyKey);
+    }
+
+    private IdempotencyKeysFile() {
+    }
+
+    /**
+     * @param keys Idempotency keys by transaction id
+     */
+    static void write(final Path file, final Map<Long, String> keys) {
+        final Map<Long, byte[]> encoded = new LinkedHashMap<>();
+        int size = 4 + 4 + 4;
+        for (final Map.Entry<Long, String> entry : keys.entrySet()) {
+            final byte[] key = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            encoded.put(entry.getKey(), key);
+            size += 8 + 2 + key.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(SnapshotFormat.MAGIC);
+        buffer.putInt(encoded.size());
+        for (final Map.Entry<Long, byte[]> entry : encoded.entrySet()) {
+            buffer.putLong(entry.getKey());
+            buffer.putShort((short) entry.getValue().length);
+            buffer.put(entry.getValue());
+        }
+        buffer.putInt(checksum(buffer));
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Snapshots written before the keys were snapshotted have no keys file.
+     *
+     * @return Number of keys read
+     */
+    static long read(final Path file, final KeyVisitor visitor) {
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+
+        final ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (buffer.remaining() < 12 || buffer.getInt() != SnapshotFormat.MAGIC) {
+            throw new IllegalStateException("Invalid idempotency keys file: " + file);
+        }
+        final ByteBuffer checked = ByteBuffer.wrap(buffer.array(), 0, buffer.limit() - 4);
+        checked.position(checked.limit());
+        if (buffer.getInt(buffer.limit() - 4) != checksum(checked)) {
+            throw new IllegalStateException("Corrupt idempotency keys file: " + file);
+        }
+
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final long transactionId = buffer.getLong();
+            final byte[] key = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(key);
+            visitor.visit(transactionId, new String(key, StandardCharsets.UTF_8));
+        }
+        return count;
+    }
+
+    private static int checksum(final ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return (int) crc.getValue();
+    }
+}
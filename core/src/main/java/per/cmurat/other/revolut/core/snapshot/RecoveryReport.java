@@ -0,0 +1,92 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timing of the phases of a recovery.
+ */
+public class RecoveryReport {
+
+    public static class Phase {
+        private final String name;
+        private final long count;
+        private final long elapsedMillis;
+
+        Phase(final String name, final long count, final long elapsedMillis) {
+            this.name = name;
+            this.count = count;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Number of entries processed in the phase
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+    private long snapshotSequence;
+    private long lastSequence;
+
+    void addPhase(final String name, final long count, final long startNanos) {
+        phases.add(new Phase(name, count, (System.nanoTime() - startNanos) / 1_000_000));
+    }
+
+    void setSnapshotSequence(final long snapshotSequence) {
+        this.snapshotSequence = snapshotSequence;
+    }
+
+    void setLastSequence(final long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return Journal sequence number of the loaded snapshot, or 0 if there was none
+     */
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    /**
+     * @return Sequence number of the last replayed journal record
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getTotalMillis() {
+        long total = 0;
+        for (final Phase phase : phases) {
+            total += phase.elapsedMillis;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Recovered up to journal sequence ").append(lastSequence)
+                .append(" from snapshot ").append(snapshotSequence)
+                .append(" in ").append(getTotalMillis()).append(" ms");
+        for (final Phase phase : phases) {
+            builder.append(System.lineSeparator()).append("  ").append(phase.name).append(": ")
+                    .append(phase.count).append(" in ").append(phase.elapsedMillis).append(" ms");
+        }
+        return builder.toString();
+    }
+}
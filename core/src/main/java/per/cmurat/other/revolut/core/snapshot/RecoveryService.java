@@ -0,0 +1,297 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.accounting.service.IdempotencyCache;
+import per.cmurat.other.revolut.core.journal.JournalReader;
+
+import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static per.cmurat.other.revolut.core.accounting.MathUtils.add;
+import static per.cmurat.other.revolut.core.accounting.MathUtils.sub;
+
+/**
+ * Restores the repositories when the application starts: the latest snapshot is loaded, with its files in parallel,
+ * and then the journal records after it are replayed. Archived transactions stay in the archive, only the ones after
+ * it are loaded onto the heap.
+ *
+ * A record is replayed on an account only if it is newer than the last record reflected in the account, since the
+ * accounts of a snapshot are taken at different points in time.
+ */
+public class RecoveryService {
+    private static final Logger LOGGER = Logger.getLogger(RecoveryService.class.getName());
+
+    private final Path journalDirectory;
+    private final Path snapshotDirectory;
+    private final int threadCount;
+    private final int ledgerScale;
+    private final AssetAccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final AccountHistoryIndex historyIndex;
+    private final TransactionTimeIndex timeIndex;
+    private final IdempotencyCache idempotencyCache;
+
+    @Inject
+    public RecoveryService(final AppConfig config, final AssetAccountRepository accountRepository,
+                           final TransactionRepository transactionRepository, final AccountHistoryIndex historyIndex,
+                           final TransactionTimeIndex timeIndex, final IdempotencyCache idempotencyCache) {
+        this.journalDirectory = config.getJournalDirectory();
+        this.snapshotDirectory = config.getSnapshotDirectory();
+        this.threadCount = config.getRecoveryThreadCount();
+        this.ledgerScale = config.getLedgerScale();
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.historyIndex = historyIndex;
+        this.timeIndex = timeIndex;
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    /**
+     * Must be called before the repositories are used.
+     */
+    public RecoveryReport recover() {
+        final RecoveryReport report = new RecoveryReport();
+        if (journalDirectory == null) {
+            return report;
+        }
+
+        if (snapshotDirectory != null) {
+            loadSnapshot(report);
+        }
+
+        long start = System.nanoTime();
+        final Replayer replayer = new Replayer();
+        final long lastSequence = JournalReader.read(journalDirectory, report.getSnapshotSequence() + 1, replayer);
+        report.addPhase("journal replay", replayer.count, start);
+        report.setLastSequence(Math.max(lastSequence, report.getSnapshotSequence()));
+
+        //Indexes are not part of the snapshots, they are rebuilt from the recovered transactions.
+        start = System.nanoTime();
+        historyIndex.addAll(transactionRepository);
+        report.addPhase("history index", transactionRepository.size(), start);
+
+        start = System.nanoTime();
+        timeIndex.addAll(transactionRepository);
+        report.addPhase("time index", transactionRepository.size(), start);
+
+        start = System.nanoTime();
+        idempotencyCache.addAll(transactionRepository);
+        report.addPhase("idempotency keys", idempotencyCache.size(), start);
+
+        LOGGER.info(report.toString());
+        return report;
+    }
+
+    private void loadSnapshot(final RecoveryReport report) {
+        for (final Path snapshot : SnapshotFormat.snapshots(snapshotDirectory)) {
+            final SnapshotManifest manifest = SnapshotManifest.read(snapshot);
+            if (manifest == null) {
+                LOGGER.warning("Skipping snapshot without a valid manifest: " + snapshot);
+                continue;
+            }
+            if (manifest.ledgerScale != SnapshotFormat.UNKNOWN_SCALE) {
+                checkLedgerScale(manifest.ledgerScale, snapshot);
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                long start = System.nanoTime();
+                final long accounts = loadSegments(executor, snapshot, SnapshotFormat.ACCOUNTS, manifest.accountSegments,
+                        this::restoreAccount);
+                report.addPhase("snapshot accounts", accounts, start);
+
+                //Transactions refer to the accounts, so they are loaded after all of the accounts.
+                start = System.nanoTime();
+                final long transactions = loadSegments(executor, snapshot, SnapshotFormat.TRANSACTIONS,
+                        manifest.transactionSegments, this::restoreTransaction);
+                report.addPhase("snapshot transactions", transactions, start);
+
+                start = System.nanoTime();
+                final long keys = IdempotencyKeysFile.read(snapshot.resolve(SnapshotFormat.IDEMPOTENCY_KEYS),
+                        this::restoreIdempotencyKey);
+                report.addPhase("snapshot idempotency keys", keys, start);
+
+                if (accounts != manifest.accountCount || transactions != manifest.transactionCount) {
+                    throw new IllegalStateException("Snapshot is incomplete: " + snapshot);
+                }
+                if (transactionRepository.getLastArchivedId() < manifest.archivedId) {
+                    throw new IllegalStateException("Archive is missing transactions of the snapshot up to id "
+                            + manifest.archivedId + ": " + snapshot);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            report.setSnapshotSequence(manifest.sequence);
+            return;
+        }
+    }
+
+    private long loadSegments(final ExecutorService executor, final Path snapshot, final byte type, final int segmentCount,
+                              final SnapshotFile.EntryVisitor visitor) {
+        final AtomicLong count = new AtomicLong();
+        final List<Future<?>> futures = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            final Path segment = snapshot.resolve(SnapshotFormat.segmentName(type, i));
+            futures.add(executor.submit(() -> count.addAndGet(SnapshotFile.read(segment, type, visitor))));
+        }
+
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading snapshot", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Loading snapshot failed: " + snapshot, e.getCause());
+        }
+        return count.get();
+    }
+
+    private void restoreAccount(final ByteBuffer entry) {
+        final AssetAccount account = new AssetAccount();
+        account.setId(entry.getLong());
+        account.setBalance(entry.getLong());
+        account.setLastSequence(entry.getLong());
+        accountRepository.restore(account);
+    }
+
+    /**
+     * Transactions archived after the snapshot was taken are already in the archive.
+     */
+    private void restoreTransaction(final ByteBuffer entry) {
+        final long id = entry.getLong();
+        if (transactionRepository.isArchived(id)) {
+            return;
+        }
+
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setCreditAccount(findAccount(entry.getLong()));
+        transaction.setDebitAccount(findAccount(entry.getLong()));
+        transaction.setAmount(entry.getLong());
+        transaction.setTimestamp(entry.getLong());
+        transaction.setSequence(entry.getLong());
+        transactionRepository.restore(transaction);
+    }
+
+    private void restoreIdempotencyKey(final long transactionId, final String idempotencyKey) {
+        final Transaction transaction = transactionRepository.findById(transactionId);
+        if (transaction == null) {
+            throw new IllegalStateException("Snapshot refers to an unknown transaction. Transaction id: " + transactionId);
+        }
+        transaction.setIdempotencyKey(idempotencyKey);
+    }
+
+    private AssetAccount findAccount(final long id) {
+        final AssetAccount account = accountRepository.findById(id);
+        if (account == null) {
+            throw new IllegalStateException("Recovered data refers to an unknown account. Account id: " + id);
+        }
+        return account;
+    }
+
+    /**
+     * Amounts are kept as integers in the ledger scale, so they can not be recovered in another one.
+     */
+    private void checkLedgerScale(final int scale, final Path source) {
+        if (scale != ledgerScale) {
+            throw new IllegalStateException("Amounts are in ledger scale " + scale + ", but " + AppConfig.LEDGER_SCALE
+                    + " is " + ledgerScale + ": " + source);
+        }
+    }
+
+    private class Replayer implements JournalReader.Visitor {
+        //Accounts changed by the current record. A batch record changes an account more than once.
+        private final Set<Long> replayedAccounts = new HashSet<>();
+        private long currentSequence;
+        private long count;
+
+        @Override
+        public void onLedgerScale(final int scale) {
+            checkLedgerScale(scale, journalDirectory);
+        }
+
+        @Override
+        public void onAccountCreated(final long sequence, final long accountId, final long balance) {
+            count++;
+            if (accountRepository.findById(accountId) != null) {
+                return;
+            }
+
+            final AssetAccount account = new AssetAccount();
+            account.setId(accountId);
+            account.setBalance(balance);
+            account.setLastSequence(sequence);
+            accountRepository.restore(account);
+        }
+
+        @Override
+        public void onTransfer(final long sequence, final long transactionId, final long creditAccountId,
+                               final long debitAccountId, final long amount, final long timestamp,
+                               final String idempotencyKey) {
+            count++;
+            if (sequence != currentSequence) {
+                currentSequence = sequence;
+                replayedAccounts.clear();
+            }
+
+            final AssetAccount creditAccount = findAccount(creditAccountId);
+            final AssetAccount debitAccount = findAccount(debitAccountId);
+            if (isNew(creditAccount, sequence)) {
+                creditAccount.setBalance(sub(creditAccount.getBalance(), amount));
+                creditAccount.setLastSequence(sequence);
+            }
+            if (isNew(debitAccount, sequence)) {
+                debitAccount.setBalance(add(debitAccount.getBalance(), amount));
+                debitAccount.setLastSequence(sequence);
+            }
+
+            final Transaction existing = transactionRepository.findById(transactionId);
+            if (existing != null) {
+                if (existing.getIdempotencyKey() == null) {
+                    existing.setIdempotencyKey(idempotencyKey);
+                }
+            } else {
+                final Transaction transaction = new Transaction();
+                transaction.setId(transactionId);
+                transaction.setCreditAccount(creditAccount);
+                transaction.setDebitAccount(debitAccount);
+                transaction.setAmount(amount);
+                transaction.setTimestamp(timestamp);
+                transaction.setSequence(sequence);
+                transaction.setIdempotencyKey(idempotencyKey);
+                transactionRepository.restore(transaction);
+            }
+        }
+
+        /**
+         * Marks the account as replayed for the current record, unless it already reflected the record.
+         */
+        private boolean isNew(final AssetAccount account, final long sequence) {
+            if (account.getLastSequence() < sequence) {
+                replayedAccounts.add(account.getId());
+                return true;
+            }
+            return account.getLastSequence() == sequence && replayedAccounts.contains(account.getId());
+        }
+    }
+}
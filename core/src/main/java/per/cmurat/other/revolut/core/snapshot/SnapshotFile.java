@@ -0,0 +1,175 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static per.cmurat.other.revolut.core.snapshot.SnapshotFormat.HEADER_SIZE;
+import static per.cmurat.other.revolut.core.snapshot.SnapshotFormat.MAGIC;
+import static per.cmurat.other.revolut.core.snapshot.SnapshotFormat.TRAILER_SIZE;
+
+/**
+ * Writes and reads the segment files of a snapshot. See {@link SnapshotFormat}.
+ */
+final class SnapshotFile {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    interface EntryVisitor {
+        /**
+         * @param entry Positioned at the start of the entry
+         */
+        void visit(ByteBuffer entry);
+    }
+
+    private SnapshotFile() {
+    }
+
+    static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private final int entrySize;
+        private int count;
+
+        Writer(final Path file, final byte type) {
+            this.entrySize = SnapshotFormat.entrySize(type);
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.putInt(MAGIC);
+            buffer.put(type);
+        }
+
+        /**
+         * @return Buffer to put the next entry into, with enough room for it
+         */
+        ByteBuffer nextEntry() {
+            if (buffer.remaining() < entrySize) {
+                flush();
+            }
+            count++;
+            return buffer;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (buffer.remaining() < TRAILER_SIZE) {
+                    flush();
+                }
+                buffer.putInt(count);
+                crc.update(buffer.array(), 0, buffer.position());
+                buffer.putInt((int) crc.getValue());
+                write();
+
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() {
+            crc.update(buffer.array(), 0, buffer.position());
+            write();
+        }
+
+        private void write() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads all the entries of a segment file, after verifying its checksum.
+     *
+     * @return Number of entries read
+     */
+    static int read(final Path file, final byte type, final EntryVisitor visitor) {
+        final int entrySize = SnapshotFormat.entrySize(type);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long entriesSize = size - HEADER_SIZE - TRAILER_SIZE;
+            if (entriesSize < 0 || entriesSize % entrySize != 0) {
+                throw new IllegalStateException("Snapshot file has invalid size: " + file);
+            }
+
+            verify(file, channel, size);
+
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % entrySize);
+            channel.position(0);
+            readFully(channel, buffer, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC || buffer.get() != type) {
+                throw new IllegalStateException("Snapshot file has invalid header: " + file);
+            }
+
+            final long entryCount = entriesSize / entrySize;
+            long remaining = entriesSize;
+            while (remaining > 0) {
+                final int chunk = (int) Math.min(remaining, buffer.capacity());
+                readFully(channel, buffer, chunk);
+                while (buffer.hasRemaining()) {
+                    final int next = buffer.position() + entrySize;
+                    visitor.visit(buffer);
+                    buffer.position(next);
+                }
+                remaining -= chunk;
+            }
+
+            readFully(channel, buffer, TRAILER_SIZE);
+            if (buffer.getInt() != entryCount) {
+                throw new IllegalStateException("Snapshot file has invalid entry count: " + file);
+            }
+            return (int) entryCount;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void verify(final Path file, final FileChannel channel, final long size) throws IOException {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        long remaining = size - 4;
+        while (remaining > 0) {
+            final int chunk = (int) Math.min(remaining, buffer.capacity());
+            readFully(channel, buffer, chunk);
+            crc.update(buffer.array(), 0, chunk);
+            remaining -= chunk;
+        }
+
+        readFully(channel, buffer, 4);
+        if (buffer.getInt() != (int) crc.getValue()) {
+            throw new IllegalStateException("Snapshot file is corrupted: " + file);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IllegalStateException("Unexpected end of snapshot file");
+            }
+        }
+        buffer.flip();
+    }
+}
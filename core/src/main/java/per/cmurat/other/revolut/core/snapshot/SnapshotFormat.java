@@ -0,0 +1,107 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Layout of the snapshots.
+ *
+ * A snapshot is a directory named after the journal sequence number it was started at. Replaying the journal after
+ * that sequence number on top of the snapshot restores the ledger. The directory contains the segment files of the
+ * accounts and of the transactions, and a manifest, which is written last. The transactions archived as of the
+ * snapshot are left to the archive, which keeps them across restarts.
+ *
+ * A segment file is laid out as: magic (int), entry type (byte), entries of fixed size, entry count (int), CRC32 of
+ * everything before it (int). All numbers are big endian.
+ */
+final class SnapshotFormat {
+    static final int MAGIC = 0x4C534E50;
+    static final int HEADER_SIZE = 5;
+    static final int TRAILER_SIZE = 8;
+
+    /**
+     * Entry: account id, balance, sequence number of the last journal record reflected in the balance.
+     */
+    static final byte ACCOUNTS = 1;
+    static final int ACCOUNT_SIZE = 24;
+
+    /**
+     * Entry: transaction id, credit account id, debit account id, amount, timestamp, sequence number.
+     */
+    static final byte TRANSACTIONS = 2;
+    static final int TRANSACTION_SIZE = 48;
+
+    /**
+     * Idempotency keys of the snapshotted transactions which have one. Layout: magic (int), number of keys (int),
+     * keys as transaction id (long), length of the UTF-8 key (unsigned short), key; CRC32 of everything before it
+     * (int). Older snapshots do not have it.
+     */
+    static final String IDEMPOTENCY_KEYS = "idempotency-keys.bin";
+
+    /**
+     * Layout: magic (int), sequence number (long), number of account segments (int), number of transaction
+     * segments (int), number of accounts (long), number of transactions (long), last archived transaction id (long),
+     * ledger scale of the amounts (int), CRC32 of everything before it (int). Older manifests do not have the ledger
+     * scale, and the oldest ones do not have the archived id either, their snapshots contain all of the transactions.
+     */
+    static final String MANIFEST = "manifest";
+    static final int MANIFEST_SIZE = 52;
+    static final int UNSCALED_MANIFEST_SIZE = 48;
+    static final int LEGACY_MANIFEST_SIZE = 40;
+    /**
+     * Ledger scale of a manifest which does not have one.
+     */
+    static final int UNKNOWN_SCALE = -1;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private SnapshotFormat() {
+    }
+
+    static String snapshotName(final long sequence) {
+        return String.format("%s%020d", SNAPSHOT_PREFIX, sequence);
+    }
+
+    static long sequenceOf(final Path snapshot) {
+        return Long.parseLong(snapshot.getFileName().toString().substring(SNAPSHOT_PREFIX.length()));
+    }
+
+    static String segmentName(final byte type, final int index) {
+        return String.format("%s-%05d.bin", type == ACCOUNTS ? "accounts" : "transactions", index);
+    }
+
+    static int entrySize(final byte type) {
+        return type == ACCOUNTS ? ACCOUNT_SIZE : TRANSACTION_SIZE;
+    }
+
+    /**
+     * @return Completed snapshots in the given directory, the latest first
+     */
+    static List<Path> snapshots(final Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+
+        final List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(SnapshotFormat::isSnapshot).forEach(snapshots::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        snapshots.sort((a, b) -> Long.compare(sequenceOf(b), sequenceOf(a)));
+        return snapshots;
+    }
+
+    private static boolean isSnapshot(final Path path) {
+        final String name = path.getFileName().toString();
+        return name.startsWith(SNAPSHOT_PREFIX) && !name.endsWith(TEMPORARY_SUFFIX) && Files.isDirectory(path);
+    }
+}
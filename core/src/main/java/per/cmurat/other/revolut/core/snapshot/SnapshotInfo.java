@@ -0,0 +1,51 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.nio.file.Path;
+
+/**
+ * Describes a snapshot that was taken.
+ */
+public class SnapshotInfo {
+    private final Path path;
+    private final long sequence;
+    private final long accountCount;
+    private final long transactionCount;
+    private final long elapsedMillis;
+
+    SnapshotInfo(final Path path, final long sequence, final long accountCount, final long transactionCount, final long elapsedMillis) {
+        this.path = path;
+        this.sequence = sequence;
+        this.accountCount = accountCount;
+        this.transactionCount = transactionCount;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return Journal sequence number the snapshot was started at
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot " + path.getFileName() + ": " + accountCount + " accounts, " + transactionCount
+                + " transactions in " + elapsedMillis + " ms";
+    }
+}
@@ -0,0 +1,105 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Contents of the manifest of a snapshot. See {@link SnapshotFormat#MANIFEST}.
+ */
+class SnapshotManifest {
+    final long sequence;
+    final int accountSegments;
+    final int transactionSegments;
+    final long accountCount;
+    final long transactionCount;
+    /**
+     * Transactions up to this id are in the archive, not in the snapshot, unless they were stored after they were
+     * archived.
+     */
+    final long archivedId;
+    /**
+     * Ledger scale of the amounts, or {@link SnapshotFormat#UNKNOWN_SCALE}.
+     */
+    final int ledgerScale;
+
+    SnapshotManifest(final long sequence, final int accountSegments, final int transactionSegments,
+                     final long accountCount, final long transactionCount, final long archivedId,
+                     final int ledgerScale) {
+        this.sequence = sequence;
+        this.accountSegments = accountSegments;
+        this.transactionSegments = transactionSegments;
+        this.accountCount = accountCount;
+        this.transactionCount = transactionCount;
+        this.archivedId = archivedId;
+        this.ledgerScale = ledgerScale;
+    }
+
+    void write(final Path file) {
+        final ByteBuffer buffer = ByteBuffer.allocate(SnapshotFormat.MANIFEST_SIZE);
+        buffer.putInt(SnapshotFormat.MAGIC);
+        buffer.putLong(sequence);
+        buffer.putInt(accountSegments);
+        buffer.putInt(transactionSegments);
+        buffer.putLong(accountCount);
+        buffer.putLong(transactionCount);
+        buffer.putLong(archivedId);
+        buffer.putInt(ledgerScale);
+        buffer.putInt(checksum(buffer));
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Manifest of the given snapshot, or null if it is missing or invalid
+     */
+    static SnapshotManifest read(final Path snapshot) {
+        final Path file = snapshot.resolve(SnapshotFormat.MANIFEST);
+        final byte[] bytes;
+        try {
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            final long size = Files.size(file);
+            if (size != SnapshotFormat.MANIFEST_SIZE && size != SnapshotFormat.UNSCALED_MANIFEST_SIZE
+                    && size != SnapshotFormat.LEGACY_MANIFEST_SIZE) {
+                return null;
+            }
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != SnapshotFormat.MAGIC) {
+            return null;
+        }
+        final SnapshotManifest manifest = new SnapshotManifest(buffer.getLong(), buffer.getInt(), buffer.getInt(),
+                buffer.getLong(), buffer.getLong(),
+                bytes.length == SnapshotFormat.LEGACY_MANIFEST_SIZE ? 0L : buffer.getLong(),
+                bytes.length == SnapshotFormat.MANIFEST_SIZE ? buffer.getInt() : SnapshotFormat.UNKNOWN_SCALE);
+        if (buffer.getInt(buffer.position()) != checksum(buffer) || manifest.sequence != SnapshotFormat.sequenceOf(snapshot)) {
+            return null;
+        }
+        return manifest;
+    }
+
+    private static int checksum(final ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,129 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes snapshots of the repositories periodically, without stopping the writers. After a snapshot, the older
+ * snapshots are deleted, except for the previous one, and so are the journal records that neither of them needs.
+ */
+public class SnapshotService implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(SnapshotService.class.getName());
+
+    private static final int RETAINED_SNAPSHOTS = 2;
+
+    private final Path directory;
+    private final long intervalMillis;
+    private final int segmentEntries;
+    private final int ledgerScale;
+    private final AssetAccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final Journal journal;
+
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public SnapshotService(final AppConfig config, final AssetAccountRepository accountRepository,
+                           final TransactionRepository transactionRepository, final Journal journal) {
+        this.directory = config.getSnapshotDirectory();
+        this.intervalMillis = config.getSnapshotIntervalMillis();
+        this.segmentEntries = config.getSnapshotSegmentEntries();
+        this.ledgerScale = config.getLedgerScale();
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.journal = journal;
+    }
+
+    /**
+     * Starts taking snapshots periodically, if snapshots are enabled.
+     */
+    public synchronized void start() {
+        if (directory == null || scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::takeSnapshotSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The snapshot taken, or null if snapshots are disabled
+     */
+    public synchronized SnapshotInfo takeSnapshot() {
+        if (directory == null) {
+            return null;
+        }
+
+        final SnapshotInfo info = new SnapshotWriter(directory, segmentEntries, ledgerScale)
+                .write(accountRepository, transactionRepository, journal);
+        LOGGER.info(info.toString());
+
+        deleteOldSnapshots();
+        return info;
+    }
+
+    /**
+     * Stops the periodic snapshots and takes a last one, so that the next start has nothing to replay.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+
+        if (scheduler != null) {
+            try {
+                scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        takeSnapshot();
+    }
+
+    private void takeSnapshotSafely() {
+        try {
+            takeSnapshot();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Taking snapshot failed", e);
+        }
+    }
+
+    private void deleteOldSnapshots() {
+        final List<Path> snapshots = SnapshotFormat.snapshots(directory);
+        if (snapshots.size() < RETAINED_SNAPSHOTS) {
+            return;
+        }
+
+        for (final Path snapshot : snapshots.subList(RETAINED_SNAPSHOTS, snapshots.size())) {
+            try {
+                SnapshotWriter.deleteRecursively(snapshot);
+            } catch (IOException | UncheckedIOException e) {
+                LOGGER.log(Level.WARNING, "Deleting snapshot failed: " + snapshot, e);
+            }
+        }
+
+        //Recovering from the oldest retained snapshot only needs the records after it.
+        journal.deleteBefore(SnapshotFormat.sequenceOf(snapshots.get(RETAINED_SNAPSHOTS - 1)) + 1);
+    }
+}
@@ -0,0 +1,162 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Writes a fuzzy snapshot of the repositories while they are being modified.
+ *
+ * The snapshot is started at the sequence number of the last journal record. Every account is read together with
+ * the sequence number of the last record reflected in it (see {@link AssetAccount#readState(long[])}), so the
+ * accounts can be written at different points in time; replaying only the records newer than that of each account
+ * brings them all up to date. A commit that was journaled before the start holds its accounts until its transaction
+ * is stored, so by the time all of the accounts are read, all of the transactions up to the start are stored.
+ * Transactions after the start are left to the replay, and the archived ones to the archive, so the size of a
+ * snapshot does not grow with the age of the ledger.
+ */
+class SnapshotWriter {
+    private final Path directory;
+    private final int segmentEntries;
+    private final int ledgerScale;
+
+    private final long[] state = new long[2];
+    private Path temporary;
+    private SnapshotFile.Writer writer;
+    private int segmentCount;
+    private long entryCount;
+    private long lastSequence;
+
+    SnapshotWriter(final Path directory, final int segmentEntries, final int ledgerScale) {
+        this.directory = directory;
+        this.segmentEntries = segmentEntries;
+        this.ledgerScale = ledgerScale;
+    }
+
+    SnapshotInfo write(final AssetAccountRepository accountRepository, final TransactionRepository transactionRepository,
+                       final Journal journal) {
+        final long start = System.nanoTime();
+        final long sequence = journal.getLastSequence();
+        lastSequence = sequence;
+
+        final String name = SnapshotFormat.snapshotName(sequence);
+        final Path target = directory.resolve(name);
+        temporary = directory.resolve(name + SnapshotFormat.TEMPORARY_SUFFIX);
+
+        //Nothing was journaled since the last snapshot.
+        final SnapshotManifest existing = SnapshotManifest.read(target);
+        if (existing != null) {
+            return new SnapshotInfo(target, sequence, existing.accountCount, existing.transactionCount, 0);
+        }
+
+        try {
+            deleteRecursively(target);
+            Files.createDirectories(directory);
+            deleteRecursively(temporary);
+            Files.createDirectory(temporary);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        accountRepository.forEach(account -> {
+            account.readState(state);
+            final ByteBuffer entry = nextEntry(SnapshotFormat.ACCOUNTS);
+            entry.putLong(account.getId());
+            entry.putLong(state[0]);
+            entry.putLong(state[1]);
+            lastSequence = Math.max(lastSequence, state[1]);
+        });
+        final long accountCount = entryCount;
+        final int accountSegments = endSegments();
+
+        final Map<Long, String> idempotencyKeys = new LinkedHashMap<>();
+        final long archivedId = transactionRepository.forEachOnHeap(transaction -> {
+            if (transaction.getSequence() <= sequence) {
+                putTransaction(nextEntry(SnapshotFormat.TRANSACTIONS), transaction);
+                final String idempotencyKey = transaction.getIdempotencyKey();
+                if (idempotencyKey != null) {
+                    idempotencyKeys.put(transaction.getId(), idempotencyKey);
+                }
+            }
+        });
+        final long transactionCount = entryCount;
+        final int transactionSegments = endSegments();
+        IdempotencyKeysFile.write(temporary.resolve(SnapshotFormat.IDEMPOTENCY_KEYS), idempotencyKeys);
+
+        //The snapshot must not get ahead of the journal, otherwise a crash could leave changes that the journal lost.
+        journal.awaitDurable(lastSequence);
+
+        new SnapshotManifest(sequence, accountSegments, transactionSegments, accountCount, transactionCount, archivedId,
+                ledgerScale).write(temporary.resolve(SnapshotFormat.MANIFEST));
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new SnapshotInfo(target, sequence, accountCount, transactionCount, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void putTransaction(final ByteBuffer entry, final Transaction transaction) {
+        entry.putLong(transaction.getId());
+        entry.putLong(transaction.getCreditAccount().getId());
+        entry.putLong(transaction.getDebitAccount().getId());
+        entry.putLong(transaction.getAmount());
+        entry.putLong(transaction.getTimestamp());
+        entry.putLong(transaction.getSequence());
+    }
+
+    private ByteBuffer nextEntry(final byte type) {
+        if (writer == null || writer.getCount() == segmentEntries) {
+            if (writer != null) {
+                writer.close();
+            }
+            writer = new SnapshotFile.Writer(temporary.resolve(SnapshotFormat.segmentName(type, segmentCount++)), type);
+        }
+        entryCount++;
+        return writer.nextEntry();
+    }
+
+    /**
+     * @return Number of segments written since the last call
+     */
+    private int endSegments() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+
+        final int count = segmentCount;
+        segmentCount = 0;
+        entryCount = 0;
+        return count;
+    }
+
+    static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package per.cmurat.other.revolut.core.accounting.index;
+
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AccountHistoryIndexTest {
+
+    private final AccountHistoryIndex tested = new AccountHistoryIndex();
+
+    @Test
+    void addShouldAppendToBothAccounts() {
+        tested.add(transaction(1L, 1L, 2L));
+        tested.add(transaction(2L, 2L, 3L));
+
+        assertArrayEquals(new long[]{1L}, readAll(1L));
+        assertArrayEquals(new long[]{1L, 2L}, readAll(2L));
+        assertArrayEquals(new long[]{2L}, readAll(3L));
+        assertEquals(0, tested.size(4L));
+    }
+
+    @Test
+    void addShouldAppendOnceWhenBothSidesAreTheSameAccount() {
+        tested.add(transaction(1L, 7L, 7L));
+
+        assertArrayEquals(new long[]{1L}, readAll(7L));
+    }
+
+    @Test
+    void readShouldKeepOrderAcrossChunkBoundaries() {
+        final int count = 1_000;
+        for (int i = 1; i <= count; i++) {
+            tested.add(transaction((long) i, 1L, 2L));
+        }
+
+        final long[] expected = new long[count];
+        Arrays.setAll(expected, i -> i + 1);
+        assertArrayEquals(expected, readAll(1L));
+        assertArrayEquals(expected, readAll(2L));
+    }
+
+    @Test
+    void readShouldReturnPages() {
+        for (int i = 1; i <= 20; i++) {
+            tested.add(transaction((long) i, 1L, 2L));
+        }
+
+        final long[] page = new long[8];
+        assertEquals(8, tested.read(1L, 6, page));
+        assertArrayEquals(new long[]{7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L}, page);
+
+        assertEquals(6, tested.read(1L, 14, page));
+        assertArrayEquals(new long[]{15L, 16L, 17L, 18L, 19L, 20L}, Arrays.copyOf(page, 6));
+
+        assertEquals(0, tested.read(1L, 20, page));
+        assertEquals(0, tested.read(3L, 0, page));
+        assertThrows(IllegalArgumentException.class, () -> tested.read(1L, -1, page));
+    }
+
+    @Test
+    void positionShouldFindFirstIdNotLessThanGivenOne() {
+        for (int i = 1; i <= 100; i++) {
+            tested.add(transaction((long) i * 2, 1L, 2L));
+        }
+
+        assertEquals(0, tested.position(1L, 1L));
+        assertEquals(0, tested.position(1L, 2L));
+        assertEquals(10, tested.position(1L, 21L));
+        assertEquals(10, tested.position(1L, 22L));
+        assertEquals(100, tested.position(1L, 201L));
+        assertEquals(0, tested.position(3L, 5L));
+    }
+
+    @Test
+    void addAllShouldIndexRepositoryInIdOrder() {
+        final TransactionRepository repository = new TransactionRepository();
+        for (int i = 0; i < 5; i++) {
+            final Transaction transaction = transaction(null, 1L, 2L + i % 2);
+            repository.assignId(transaction);
+            repository.store(transaction);
+        }
+
+        tested.addAll(repository);
+
+        assertArrayEquals(new long[]{1L, 2L, 3L, 4L, 5L}, readAll(1L));
+        assertArrayEquals(new long[]{1L, 3L, 5L}, readAll(2L));
+        assertArrayEquals(new long[]{2L, 4L}, readAll(3L));
+    }
+
+    private long[] readAll(final long accountId) {
+        final long[] ids = new long[tested.size(accountId)];
+        assertEquals(ids.length, tested.read(accountId, 0, ids));
+        return ids;
+    }
+
+    private static Transaction transaction(final Long id, final long creditAccountId, final long debitAccountId) {
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setCreditAccount(account(creditAccountId));
+        transaction.setDebitAccount(account(debitAccountId));
+        return transaction;
+    }
+
+    private static AssetAccount account(final long id) {
+        final AssetAccount account = new AssetAccount();
+        account.setId(id);
+        return account;
+    }
+}
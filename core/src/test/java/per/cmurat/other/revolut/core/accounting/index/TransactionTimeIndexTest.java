@@ -0,0 +1,131 @@
+package per.cmurat.other.revolut.core.accounting.index;
+
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TransactionTimeIndexTest {
+    private static final long BUCKET_MILLIS = 10;
+
+    private final TransactionRepository transactionRepository = new TransactionRepository();
+    private final AccountHistoryIndex historyIndex = new AccountHistoryIndex();
+    private final TransactionTimeIndex tested = new TransactionTimeIndex(BUCKET_MILLIS, transactionRepository, historyIndex);
+
+    @Test
+    void scanShouldVisitTransactionsInRange() {
+        for (long timestamp = 0; timestamp < 100; timestamp += 5) {
+            commit(1L, 2L, timestamp);
+        }
+
+        assertEquals(Arrays.asList(14L, 15L, 16L, 17L), scan(null, 62, 82, 0));
+        assertEquals(Arrays.asList(1L, 2L), scan(null, 0, 10, 0));
+        assertEquals(Arrays.asList(20L), scan(null, 95, 1_000, 0));
+        assertEquals(Arrays.asList(), scan(null, 41, 45, 0));
+        assertEquals(Arrays.asList(), scan(null, 200, 300, 0));
+    }
+
+    @Test
+    void scanShouldFindTransactionsCommittedOutOfTimeOrder() {
+        commit(1L, 2L, 8);
+        commit(1L, 2L, 12);
+        commit(1L, 2L, 9);
+        commit(1L, 2L, 25);
+        commit(1L, 2L, 11);
+
+        assertEquals(Arrays.asList(1L, 3L), scan(null, 0, 10, 0));
+        assertEquals(Arrays.asList(1L, 3L, 2L, 5L), scan(null, 0, 20, 0));
+        assertEquals(Arrays.asList(3L, 5L), scan(null, 9, 12, 0));
+    }
+
+    @Test
+    void scanShouldFilterByAccount() {
+        commit(1L, 2L, 1);
+        commit(2L, 3L, 2);
+        commit(3L, 1L, 13);
+        commit(2L, 3L, 14);
+        commit(1L, 1L, 35);
+
+        assertEquals(Arrays.asList(1L, 3L, 5L), scan(1L, 0, 100, 0));
+        assertEquals(Arrays.asList(3L), scan(1L, 10, 30, 0));
+        assertEquals(Arrays.asList(2L, 3L, 4L), scan(3L, 2, 15, 0));
+        assertEquals(Arrays.asList(), scan(4L, 0, 100, 0));
+    }
+
+    @Test
+    void scanShouldContinueAfterLastVisitedTransaction() {
+        commit(1L, 2L, 8);
+        commit(1L, 2L, 12);
+        commit(1L, 2L, 9);
+        commit(1L, 2L, 25);
+        commit(1L, 2L, 11);
+
+        assertEquals(Arrays.asList(2L, 5L, 4L), scan(null, 0, 100, 3));
+        assertEquals(Arrays.asList(5L, 4L), scan(2L, 0, 100, 2));
+        assertThrows(IllegalArgumentException.class, () -> scan(null, 0, 100, 42));
+    }
+
+    @Test
+    void scanShouldStopWhenVisitorReturnsFalse() {
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            commit(1L, 2L, timestamp);
+        }
+
+        final List<Transaction> visited = new ArrayList<>();
+        tested.scan(null, 0, 100, 0, transaction -> {
+            visited.add(transaction);
+            return visited.size() < 15;
+        });
+
+        assertEquals(15, visited.size());
+    }
+
+    @Test
+    void addAllShouldIndexRepository() {
+        for (long timestamp = 0; timestamp < 50; timestamp += 5) {
+            final Transaction transaction = transaction(1L, 2L, timestamp);
+            transactionRepository.assignId(transaction);
+            transactionRepository.store(transaction);
+        }
+
+        tested.addAll(transactionRepository);
+
+        assertEquals(Arrays.asList(3L, 4L, 5L), scan(null, 10, 25, 0));
+    }
+
+    private void commit(final long creditAccountId, final long debitAccountId, final long timestamp) {
+        final Transaction transaction = transaction(creditAccountId, debitAccountId, timestamp);
+        transactionRepository.assignId(transaction);
+        transactionRepository.store(transaction);
+        historyIndex.add(transaction);
+        tested.add(transaction);
+    }
+
+    private List<Long> scan(final Long accountId, final long from, final long to, final long afterId) {
+        final List<Transaction> visited = new ArrayList<>();
+        tested.scan(accountId, from, to, afterId, visited::add);
+        return visited.stream().map(Transaction::getId).collect(Collectors.toList());
+    }
+
+    private static Transaction transaction(final long creditAccountId, final long debitAccountId, final long timestamp) {
+        final Transaction transaction = new Transaction();
+        transaction.setCreditAccount(account(creditAccountId));
+        transaction.setDebitAccount(account(debitAccountId));
+        transaction.setTimestamp(timestamp);
+        return transaction;
+    }
+
+    private static AssetAccount account(final long id) {
+        final AssetAccount account = new AssetAccount();
+        account.setId(id);
+        return account;
+    }
+}
@@ -1,13 +1,18 @@
 package per.cmurat.other.revolut.core.accounting.service;
 
-import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AccountingLockServiceTest {
 
@@ -20,17 +25,53 @@ class AccountingLockServiceTest {
 
     @Test
     void shouldReturnSameLockWithSameKey() {
-        final ReentrantLock lock1 = tested.getLock("lock");
-        final ReentrantLock lock2 = tested.getLock("lock");
+        final ReentrantLock lock1 = tested.getLock(1L);
+        final ReentrantLock lock2 = tested.getLock(1L);
 
         assertEquals(lock1, lock2);
     }
 
     @Test
     void shouldReturnDifferentLockWithDifferentKet() {
-        final ReentrantLock lock1 = tested.getLock("lock1");
-        final ReentrantLock lock2 = tested.getLock("lock2");
+        final ReentrantLock lock1 = tested.getLock(1L);
+        final ReentrantLock lock2 = tested.getLock(2L);
 
         assertNotEquals(lock1, lock2);
     }
+
+    @Test
+    void shouldReturnLockOfTheStripe() {
+        final AccountingLockService small = new AccountingLockService(2);
+
+        assertSame(small.getLock(1L), small.getLock(1L));
+        assertEquals(small.stripeOf(5L) == small.stripeOf(6L), small.getLock(5L) == small.getLock(6L));
+    }
+
+    @Test
+    void stripeCountShouldBeRoundedUpToPowerOfTwo() {
+        assertEquals(1, new AccountingLockService(1).getStripeCount());
+        assertEquals(8, new AccountingLockService(5).getStripeCount());
+        assertEquals(16, new AccountingLockService(16).getStripeCount());
+
+        assertThrows(IllegalArgumentException.class, () -> new AccountingLockService(0));
+    }
+
+    @Test
+    void sequentialAccountIdsShouldBeSpreadOverStripes() {
+        final Set<Integer> stripes = new HashSet<>();
+        for (long id = 1; id <= tested.getStripeCount(); id++) {
+            final int stripe = tested.stripeOf(id);
+            assertTrue(stripe >= 0 && stripe < tested.getStripeCount());
+            stripes.add(stripe);
+        }
+
+        assertTrue(stripes.size() > tested.getStripeCount() / 2);
+    }
+
+    @Test
+    void indexesShouldBeSortedWithoutDuplicates() {
+        assertArrayEquals(new int[]{1, 3, 7}, AccountingLockService.sortAndDeduplicate(new int[]{7, 3, 3, 1, 7, 1}));
+        assertArrayEquals(new int[]{4}, AccountingLockService.sortAndDeduplicate(new int[]{4, 4}));
+        assertArrayEquals(new int[0], AccountingLockService.sortAndDeduplicate(new int[0]));
+    }
 }
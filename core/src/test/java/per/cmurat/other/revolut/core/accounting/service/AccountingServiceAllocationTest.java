@@ -0,0 +1,71 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the bytes allocated by the transfer path using the per thread allocation counter of the JVM.
+ */
+class AccountingServiceAllocationTest {
+
+    private static final int WARM_UP_TRANSFERS = 50_000;
+    private static final int MEASURED_TRANSFERS = 10_000;
+
+    //Transaction, its id, its entry in the repository and the snapshots of the two accounts published by the commit.
+    //Balances and metrics are not expected to allocate.
+    private static final long ALLOWED_BYTES_PER_TRANSFER = 224;
+
+    private TransferEngineFixture fixture;
+    private AccountingService tested;
+
+    @BeforeEach
+    void before() {
+        fixture = new TransferEngineFixture();
+        tested = fixture.accountingService(fixture.lockingEngine());
+    }
+
+    @AfterEach
+    void after() {
+        fixture.close();
+    }
+
+    @Test
+    void transferShouldOnlyAllocateTheTransactionAndSnapshots() {
+        final com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+        assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        final long firstAccountId = tested.createAccount(10_000_000L).getId();
+        final long secondAccountId = tested.createAccount(10_000_000L).getId();
+        final long amount = 10_000L;
+
+        transferBackAndForth(firstAccountId, secondAccountId, amount, WARM_UP_TRANSFERS);
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        transferBackAndForth(firstAccountId, secondAccountId, amount, MEASURED_TRANSFERS);
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        final long bytesPerTransfer = allocated / MEASURED_TRANSFERS;
+        assertTrue(bytesPerTransfer <= ALLOWED_BYTES_PER_TRANSFER,
+                "Transfer allocated " + bytesPerTransfer + " bytes, allowed " + ALLOWED_BYTES_PER_TRANSFER);
+    }
+
+    private void transferBackAndForth(final long firstAccountId, final long secondAccountId, final long amount, final int count) {
+        for (int i = 0; i < count; i += 2) {
+            tested.transfer(firstAccountId, secondAccountId, amount);
+            tested.transfer(secondAccountId, firstAccountId, amount);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
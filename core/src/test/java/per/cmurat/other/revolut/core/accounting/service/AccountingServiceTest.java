@@ -1,36 +1,44 @@
 package per.cmurat.other.revolut.core.accounting.service;
 
-import com.jayway.awaitility.Awaitility;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.HoldNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
 import per.cmurat.other.revolut.core.accounting.model.Transaction;
 import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.ContentionReport;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
 
-import java.math.BigDecimal;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -45,7 +53,28 @@ class AccountingServiceTest {
     private TransactionRepository transactionRepository;
 
     @Mock
-    private AccountingLockService lockService;
+    private AccountHistoryIndex historyIndex;
+
+    @Mock
+    private TransactionTimeIndex timeIndex;
+
+    @Mock
+    private TransferEngine engine;
+
+    @Mock
+    private Journal journal;
+
+    @Mock
+    private ContentionTracker contentionTracker;
+
+    @Mock
+    private IdempotencyCache idempotencyCache;
+
+    @Mock
+    private HoldService holdService;
+
+    @Mock
+    private TransactionFeed transactionFeed;
 
     @InjectMocks
     private AccountingService tested;
@@ -64,265 +93,324 @@ class AccountingServiceTest {
     void getAccountShouldReturnCorrectValue() {
         final long accountId = 99L;
         final AssetAccount expected = new AssetAccount();
+        expected.setId(accountId);
+        expected.setBalance(5L);
+        expected.beginUpdate();
+        expected.endUpdate(0);
         when(accountRepository.findById(eq(accountId))).thenReturn(expected);
 
-        final AssetAccount actual = tested.getAccount(accountId);
+        final AccountSnapshot actual = tested.getAccount(accountId);
 
-        assertEquals(expected, actual);
+        assertEquals(expected.getSnapshot(), actual);
+        assertEquals(5L, actual.getBalance());
         verify(accountRepository, times(1)).findById(accountId);
     }
 
     @Test
     void createAccountShouldSucceed() {
         final long id = 1L;
-        final BigDecimal balance = new BigDecimal("123.124");
+        final long balance = 1231240L;
         final AssetAccount expected = new AssetAccount();
         expected.setBalance(balance);
         expected.setId(id);
+        expected.setLastSequence(7L);
 
-        when(accountRepository.store(isA(AssetAccount.class))).thenReturn(expected);
+        when(engine.createAccount(balance)).thenReturn(expected);
 
-        final AssetAccount actual = tested.createAccount(balance);
+        final AccountSnapshot actual = tested.createAccount(balance);
 
-        verify(accountRepository, times(1)).store(isA(AssetAccount.class));
+        verify(engine, times(1)).createAccount(balance);
+        verify(journal, times(1)).awaitDurable(7L);
 
         assertEquals(expected.getBalance(), actual.getBalance());
-        assertEquals(expected.getId(), actual.getId());
-        assertEquals(expected, actual);
+        assertEquals((long) expected.getId(), actual.getId());
     }
 
     @Test
     void createAccountShouldSucceedWhenBalanceIsZero() {
         final long id = 1L;
-        final BigDecimal balance = new BigDecimal("0");
+        final long balance = 0L;
         final AssetAccount expected = new AssetAccount();
         expected.setBalance(balance);
         expected.setId(id);
+        expected.setLastSequence(7L);
 
-        when(accountRepository.store(isA(AssetAccount.class))).thenReturn(expected);
+        when(engine.createAccount(balance)).thenReturn(expected);
 
-        final AssetAccount actual = tested.createAccount(balance);
+        final AccountSnapshot actual = tested.createAccount(balance);
 
-        verify(accountRepository, times(1)).store(isA(AssetAccount.class));
+        verify(engine, times(1)).createAccount(balance);
+        verify(journal, times(1)).awaitDurable(7L);
 
         assertEquals(expected.getBalance(), actual.getBalance());
-        assertEquals(expected.getId(), actual.getId());
-        assertEquals(expected, actual);
+        assertEquals((long) expected.getId(), actual.getId());
     }
 
     @Test
     void createAccountShouldThrowWhenBalanceIsNegative() {
-        final BigDecimal balance = new BigDecimal("-5.21");
+        final long balance = -52100L;
 
         assertThrows(IllegalArgumentException.class, () -> tested.createAccount(balance));
 
-        verify(accountRepository, times(0)).store(isA(AssetAccount.class));
+        verify(engine, times(0)).createAccount(balance);
     }
 
     @Test
-    void validateTransferShouldSucceed() throws Throwable {
-        final long creditAccountId = 1L;
-        final AssetAccount creditAccount = mock(AssetAccount.class);
-
-        final long debitAccountId = 2L;
-        final AssetAccount debitAccount = mock(AssetAccount.class);
-
-        final BigDecimal amount = new BigDecimal("123.124");
-
-        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
-        lenient().when(accountRepository.findById(debitAccountId)).thenReturn(debitAccount);
-
-        lenient().when(lockService.getLock(anyString())).thenReturn(new ReentrantLock());
-        lenient().when(lockService.getLock(anyString())).thenReturn(new ReentrantLock());
-
-        when(creditAccount.clone()).thenReturn(creditAccount);
-        when(debitAccount.clone()).thenReturn(debitAccount);
+    void createAccountsShouldAwaitTheLastAccount() {
+        final long[] balances = {10L, 0L};
+        final AssetAccount first = new AssetAccount();
+        first.setId(1L);
+        first.setBalance(10L);
+        first.setLastSequence(8L);
+        final AssetAccount second = new AssetAccount();
+        second.setId(2L);
+        second.setLastSequence(9L);
+        when(engine.createAccounts(balances)).thenReturn(Arrays.asList(first, second));
+
+        final List<AccountSnapshot> actual = tested.createAccounts(balances);
+
+        verify(journal, times(1)).awaitDurable(9L);
+        assertEquals(2, actual.size());
+        assertEquals(1L, actual.get(0).getId());
+        assertEquals(10L, actual.get(0).getBalance());
+        assertEquals(2L, actual.get(1).getId());
+    }
 
-        tested.validate(creditAccountId, debitAccountId, amount);
+    @Test
+    void createAccountsShouldThrowWhenAnyBalanceIsNegative() {
+        final long[] balances = {10L, -1L};
 
-        verify(accountRepository, times(1)).findById(creditAccountId);
-        verify(accountRepository, times(1)).findById(debitAccountId);
+        assertThrows(IllegalArgumentException.class, () -> tested.createAccounts(balances));
 
-        verify(creditAccount, times(1)).credit(amount);
-        verify(debitAccount, times(1)).debit(amount);
+        verify(engine, never()).createAccounts(any());
     }
 
     @Test
-    void validateTransferShouldThrowWhenAccountIsNonexistent() {
-        final long creditAccountId = 1L;
-        final AssetAccount creditAccount = mock(AssetAccount.class);
-
-        final long debitAccountId = 2L;
-        final AssetAccount debitAccount = mock(AssetAccount.class);
+    void getAccountsShouldReturnNullForMissingAccounts() {
+        final AssetAccount account = new AssetAccount();
+        account.setId(1L);
+        account.setBalance(5L);
+        lenient().when(accountRepository.findById(1L)).thenReturn(account);
 
-        final BigDecimal amount = new BigDecimal("123.124");
+        final List<AccountSnapshot> actual = tested.getAccounts(new long[]{2L, 1L});
 
-        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
-        lenient().when(accountRepository.findById(debitAccountId)).thenReturn(null);
-
-        lenient().when(lockService.getLock(anyString())).thenReturn(new ReentrantLock());
+        assertEquals(2, actual.size());
+        assertNull(actual.get(0));
+        assertEquals(5L, actual.get(1).getBalance());
+    }
 
-        assertThrows(AccountNotFoundException.class, () -> tested.validate(creditAccountId, debitAccountId, amount));
+    @Test
+    void transfersShouldBeDelegatedToTheEngine() {
+        final Transaction expected = new Transaction();
+        when(engine.tryValidate(1L, 2L, 3L)).thenReturn(TransferResult.VALID);
+        when(engine.tryTransfer(1L, 2L, 3L, null)).thenReturn(TransferResult.success(expected));
 
-        verify(accountRepository, times(1)).findById(creditAccountId);
-        verify(accountRepository, times(1)).findById(debitAccountId);
+        tested.validate(1L, 2L, 3L);
+        final Transaction actual = tested.transfer(1L, 2L, 3L);
 
-        verify(lockService, times(2)).getLock(anyString());
+        assertEquals(expected, actual);
+        verify(engine, times(1)).tryValidate(1L, 2L, 3L);
+        verify(engine, times(1)).tryTransfer(1L, 2L, 3L, null);
     }
 
     @Test
-    void transferShouldSucceed() throws Throwable {
-        final long creditAccountId = 1L;
-        final AssetAccount creditAccount = mock(AssetAccount.class);
+    void rejectedTransfersShouldBeReturnedWithoutAwaitingTheJournal() {
+        when(engine.tryTransfer(1L, 2L, 3L, null))
+                .thenReturn(TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE, "No money"));
 
-        final long debitAccountId = 2L;
-        final AssetAccount debitAccount = mock(AssetAccount.class);
+        final TransferResult result = tested.tryTransfer(1L, 2L, 3L);
 
-        final BigDecimal amount = new BigDecimal("123.124");
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, result.getRejection());
+        assertEquals("No money", result.getError());
+        assertThrows(InsufficientBalanceException.class, () -> tested.transfer(1L, 2L, 3L));
+        verify(journal, never()).awaitDurable(anyLong());
+    }
 
-        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
-        lenient().when(accountRepository.findById(debitAccountId)).thenReturn(debitAccount);
+    @Test
+    void rejectionsOfKeyedTransfersShouldBeReturned() {
+        doThrow(new AccountNotFoundException("Account not found. Account id: 2"))
+                .when(idempotencyCache).execute(eq("key"), eq(1L), eq(2L), eq(3L), any());
 
-        lenient().when(lockService.getLock(anyString())).thenReturn(new ReentrantLock());
-        lenient().when(lockService.getLock(anyString())).thenReturn(new ReentrantLock());
+        final TransferResult result = tested.tryTransfer(1L, 2L, 3L, "key");
 
-        final Transaction actual = tested.transfer(creditAccountId, debitAccountId, amount);
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, result.getRejection());
+    }
 
-        verify(accountRepository, times(1)).findById(creditAccountId);
-        verify(accountRepository, times(1)).findById(debitAccountId);
+    @Test
+    void keyedTransfersShouldGoThroughTheIdempotencyCache() {
+        final Transaction expected = new Transaction();
+        expected.setSequence(7L);
+        when(engine.transfer(1L, 2L, 3L, "key")).thenReturn(expected);
+        doAnswer(invocation -> invocation.<Supplier<Transaction>>getArgument(4).get())
+                .when(idempotencyCache).execute(eq("key"), eq(1L), eq(2L), eq(3L), any());
+
+        assertEquals(expected, tested.transfer(1L, 2L, 3L, "key"));
+        verify(journal, times(1)).awaitDurable(7L);
+    }
 
-        verify(creditAccount, times(1)).credit(amount);
-        verify(debitAccount, times(1)).debit(amount);
+    @Test
+    void transfersWithoutKeyShouldBypassTheIdempotencyCache() {
+        final Transaction expected = new Transaction();
+        when(engine.tryTransfer(1L, 2L, 3L, null)).thenReturn(TransferResult.success(expected));
 
-        assertEquals(creditAccount, actual.getCreditAccount());
-        assertEquals(debitAccount, actual.getDebitAccount());
-        assertEquals(amount, actual.getAmount());
-        assertNotNull(actual.getDateTime());
+        assertEquals(expected, tested.transfer(1L, 2L, 3L, null));
+        verify(idempotencyCache, never()).execute(any(), anyLong(), anyLong(), anyLong(), any());
     }
 
     @Test
-    void validateTransferShouldBlockForSameAccount() throws Throwable {
-        testTransferFunctionShouldBlockOnSameAccount(tested::validate);
+    void getTransactionsShouldReturnPageWithNextCursor() {
+        final long accountId = 5L;
+        when(accountRepository.findById(accountId)).thenReturn(new AssetAccount());
+        when(historyIndex.size(accountId)).thenReturn(5);
+        doAnswer(invocation -> {
+            final long[] target = invocation.getArgument(2);
+            target[0] = 12L;
+            target[1] = 14L;
+            return 2;
+        }).when(historyIndex).read(eq(accountId), eq(1), any(long[].class));
+        final Transaction first = new Transaction();
+        final Transaction second = new Transaction();
+        doReturn(first).when(transactionRepository).findById(12L);
+        doReturn(second).when(transactionRepository).findById(14L);
+
+        final TransactionPage page = tested.getTransactions(accountId, 1, 2);
+
+        assertEquals(2, page.getTransactions().size());
+        assertEquals(first, page.getTransactions().get(0));
+        assertEquals(second, page.getTransactions().get(1));
+        assertEquals(Long.valueOf(3L), page.getNextCursor());
     }
 
     @Test
-    void transferShouldBlockForSameAccount() throws Throwable {
-        testTransferFunctionShouldBlockOnSameAccount((creditAccountId, debitAccountId, amount) ->
-                tested.transfer(creditAccountId, debitAccountId, amount));
+    void getTransactionsShouldNotReturnCursorOnLastPage() {
+        final long accountId = 5L;
+        when(accountRepository.findById(accountId)).thenReturn(new AssetAccount());
+        when(historyIndex.size(accountId)).thenReturn(1);
+        doAnswer(invocation -> {
+            final long[] target = invocation.getArgument(2);
+            target[0] = 12L;
+            return 1;
+        }).when(historyIndex).read(eq(accountId), eq(0), any(long[].class));
+        when(transactionRepository.findById(12L)).thenReturn(new Transaction());
+
+        final TransactionPage page = tested.getTransactions(accountId, 0, 10);
+
+        assertEquals(1, page.getTransactions().size());
+        assertNull(page.getNextCursor());
     }
 
-    //The pass method is testes whether it is acquiring locks for the given accounts and thus blocking any subsequent calls with the same accounts from another thread.
-    private void testTransferFunctionShouldBlockOnSameAccount(final TransferFunction f) throws InterruptedException, ExecutionException, TimeoutException {
-        final BigDecimal balance = new BigDecimal("10");
-
-        final long creditAccountId = 1L;
-        final AssetAccount creditAccount = new AssetAccount();
-        creditAccount.setBalance(balance);
-
-        //This latch is for making the second thread wait until the first thread can acquire the locks.
-        final CountDownLatch startSecondFunctionLatch = new CountDownLatch(1);
-
-        //This latch is for asserting that the locks are acquired and
-        //the seconds thread is waiting for the first thread to release the locks.
-        final CountDownLatch finishFirstFunctionLatch = new CountDownLatch(1);
-
-        //This account is used in the first thread. We assume that the debit method call is made after the locks are acquired.
-        //This means that once the debit method is called, the seconds thread can start.
-        //It is also used to suspend the first thread, to assert the state of the locks.
-        final long debitAccountId1 = 2L;
-        final AssetAccount debitAccount1 = new AssetAccount() {
-            @Override
-            public void debit(final BigDecimal amount) {
-                try {
-                    startSecondFunctionLatch.countDown();
-                    finishFirstFunctionLatch.await();
-                } catch (InterruptedException ignored) {
-                }
-                super.debit(amount);
-            }
-
-            @Override
-            public AssetAccount clone() {
-                return this;
-            }
-        };
-        debitAccount1.setBalance(balance);
-
-        final long debitAccountId2 = 3L;
-        final AssetAccount debitAccount2 = new AssetAccount();
-        debitAccount2.setBalance(balance);
+    @Test
+    void getTransactionsOfNonExistentAccountShouldThrowException() {
+        when(accountRepository.findById(99L)).thenReturn(null);
 
-        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
-        lenient().when(accountRepository.findById(debitAccountId1)).thenReturn(debitAccount1);
-        lenient().when(accountRepository.findById(debitAccountId2)).thenReturn(debitAccount2);
+        assertThrows(AccountNotFoundException.class, () -> tested.getTransactions(99L, 0, 10));
 
-        final ReentrantLock creditAccountLock = new ReentrantLock();
-        lenient().when(lockService.getLock(tested.getLockNameForAccount(creditAccountId))).thenReturn(creditAccountLock);
-        lenient().when(lockService.getLock(tested.getLockNameForAccount(debitAccountId1))).thenReturn(new ReentrantLock());
-        lenient().when(lockService.getLock(tested.getLockNameForAccount(debitAccountId2))).thenReturn(new ReentrantLock());
+        verify(historyIndex, never()).read(anyLong(), anyInt(), any(long[].class));
+    }
 
-        final BigDecimal amount = new BigDecimal("1");
+    @Test
+    void getTransactionsWithInvalidLimitShouldThrowException() {
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions(5L, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions(5L, -1, 10));
+    }
 
-        Future first = newSingleThreadExecutor().submit(() -> {
-            try {
-                f.transaction(creditAccountId, debitAccountId1, amount);
-            } catch (final Throwable throwable) {
-                throw new RuntimeException(throwable);
-            }
-        });
-
-        Future second = newSingleThreadExecutor().submit(() -> {
-            try {
-                startSecondFunctionLatch.await();
-                f.transaction(creditAccountId, debitAccountId2, amount);
-            } catch (final Throwable throwable) {
-                throw new RuntimeException(throwable);
+    @Test
+    void getTransactionsInRangeShouldReturnPageWithNextCursor() {
+        final Transaction first = transactionWithId(4L);
+        final Transaction second = transactionWithId(6L);
+        final Transaction third = transactionWithId(9L);
+        doAnswer(invocation -> {
+            final Predicate<Transaction> visitor = invocation.getArgument(4);
+            for (final Transaction transaction : Arrays.asList(first, second, third)) {
+                if (!visitor.test(transaction)) {
+                    break;
+                }
             }
-        });
-
-        //Wait until the second thread is waiting on the lock.
-        Awaitility
-                .given()
-                .pollInterval(100L, TimeUnit.MILLISECONDS)
-                .atMost(2L, TimeUnit.SECONDS)
-                .until(creditAccountLock::hasQueuedThreads);
-
-        assertFalse(first.isDone());
-        assertFalse(second.isDone());
-
-        //The first thread should have the lock and the second thread should be queued.
-        assertTrue(creditAccountLock.isLocked());
+            return null;
+        }).when(timeIndex).scan(isNull(), eq(100L), eq(200L), eq(0L), any());
 
-        //Assertions are done, we can release the first thread.
-        finishFirstFunctionLatch.countDown();
+        final TransactionPage page = tested.getTransactions(null, 100L, 200L, 0L, 2);
 
-        //Make sure the both threads finish their job.
-        final long timeoutSeconds = 2L;
-        first.get(timeoutSeconds, TimeUnit.SECONDS);
-        second.get(timeoutSeconds, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(first, second), page.getTransactions());
+        assertEquals(Long.valueOf(6L), page.getNextCursor());
     }
 
-    @FunctionalInterface
-    private interface TransferFunction {
-        void transaction(final long creditAccountId, final long debitAccountId2, final BigDecimal amount) throws Throwable;
+    @Test
+    void getTransactionsInRangeShouldNotReturnCursorOnLastPage() {
+        final Transaction transaction = transactionWithId(4L);
+        when(accountRepository.findById(5L)).thenReturn(new AssetAccount());
+        doAnswer(invocation -> {
+            final Predicate<Transaction> visitor = invocation.getArgument(4);
+            visitor.test(transaction);
+            return null;
+        }).when(timeIndex).scan(eq(5L), eq(100L), eq(200L), eq(3L), any());
+
+        final TransactionPage page = tested.getTransactions(5L, 100L, 200L, 3L, 2);
+
+        assertEquals(Collections.singletonList(transaction), page.getTransactions());
+        assertNull(page.getNextCursor());
     }
-}
-
-
-
-
-
-
-
 
+    @Test
+    void getTransactionsInRangeShouldThrowForIllegalArguments() {
+        when(accountRepository.findById(99L)).thenReturn(null);
 
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions(null, 200L, 100L, 0L, 10));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions(null, 100L, 200L, 0L, 0));
+        assertThrows(AccountNotFoundException.class, () -> tested.getTransactions(99L, 100L, 200L, 0L, 10));
 
+        verify(timeIndex, never()).scan(any(), anyLong(), anyLong(), anyLong(), any());
+    }
 
+    private static Transaction transactionWithId(final long id) {
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        return transaction;
+    }
 
+    @Test
+    void getContendedAccountsShouldReportFromTracker() {
+        final ContentionReport expected = new ContentionReport(3, 0, Collections.emptyList());
+        when(contentionTracker.getReport(5)).thenReturn(expected);
 
+        assertEquals(expected, tested.getContendedAccounts(5));
+        assertThrows(IllegalArgumentException.class, () -> tested.getContendedAccounts(0));
+    }
 
+    @Test
+    void capturedHoldShouldBeDurableBeforeReturning() {
+        final Transaction transaction = transactionWithId(3L);
+        transaction.setSequence(7L);
+        when(holdService.capture(1L, 2L, null)).thenReturn(TransferResult.success(transaction));
+        doReturn(TransferResult.rejected(Rejection.HOLD_NOT_FOUND, "Gone")).when(holdService).capture(1L, 2L, 5L);
 
+        assertEquals(transaction, tested.captureHold(1L, 2L, null).getTransaction());
+        assertEquals(Rejection.HOLD_NOT_FOUND, tested.captureHold(1L, 2L, 5L).getRejection());
 
+        verify(journal, times(1)).awaitDurable(7L);
+    }
 
+    @Test
+    void feedShouldBeDurableBeforeReturning() {
+        final Transaction first = transactionWithId(4L);
+        first.setSequence(9L);
+        final Transaction second = transactionWithId(5L);
+        second.setSequence(8L);
+        final TransactionPage page = new TransactionPage(Arrays.asList(first, second), 5L);
+        when(transactionFeed.read(3L, 10, 100L)).thenReturn(page);
+        doReturn(new TransactionPage(Collections.emptyList(), 5L)).when(transactionFeed).read(5L, 10, 0L);
+
+        assertEquals(page, tested.readFeed(3L, 10, 100L));
+        assertEquals(5L, tested.readFeed(5L, 10, 0L).getNextCursor().longValue());
+
+        verify(journal, times(1)).awaitDurable(9L);
+        verify(journal, times(1)).awaitDurable(anyLong());
+    }
 
+    @Test
+    void getUnknownHoldShouldThrowException() {
+        when(holdService.get(1L)).thenReturn(null);
 
+        assertThrows(HoldNotFoundException.class, () -> tested.getHold(1L));
+    }
+}
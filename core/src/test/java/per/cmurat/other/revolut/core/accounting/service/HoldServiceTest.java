@@ -0,0 +1,123 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HoldServiceTest {
+
+    private static final long DEFAULT_TTL = 1_000L;
+    private static final long MAX_TTL = 10_000L;
+
+    @Mock
+    private TransferEngine engine;
+
+    private final AtomicLong clock = new AtomicLong(5_000L);
+
+    private HoldService tested;
+
+    @BeforeEach
+    void setUp() {
+        tested = new HoldService(engine, DEFAULT_TTL, MAX_TTL, 10L, 64, clock::get);
+        lenient().when(engine.tryPlaceHold(any())).thenReturn(TransferResult.VALID);
+        lenient().when(engine.endHold(any(), any())).thenAnswer(
+                invocation -> invocation.<Hold>getArgument(0).end(invocation.getArgument(1)));
+    }
+
+    @AfterEach
+    void close() {
+        tested.close();
+    }
+
+    @Test
+    void placedHoldShouldExpireAfterItsTimeToLive() {
+        final Hold hold = tested.place(1L, 100L, null).orThrow();
+
+        assertEquals(6_000L, hold.getExpiresAt());
+        assertSame(hold, tested.get(hold.getId()));
+
+        clock.set(5_999L);
+        assertEquals(0, tested.expire());
+        clock.set(6_000L);
+        assertEquals(1, tested.expire());
+
+        assertEquals(Hold.State.EXPIRED, hold.getState());
+        assertNull(tested.get(hold.getId()));
+        assertEquals(Rejection.HOLD_NOT_FOUND, tested.release(hold.getId()).getRejection());
+    }
+
+    @Test
+    void capturedHoldShouldBeForgotten() {
+        final Hold hold = tested.place(1L, 100L, 50L).orThrow();
+        when(engine.tryCaptureHold(hold, 2L, 100L)).thenAnswer(invocation -> {
+            hold.end(Hold.State.CAPTURED);
+            return TransferResult.VALID;
+        });
+
+        assertTrue(tested.capture(hold.getId(), 2L, null).isSuccess());
+
+        assertNull(tested.get(hold.getId()));
+        clock.set(10_000L);
+        assertEquals(0, tested.expire());
+        verify(engine, never()).endHold(any(), any());
+    }
+
+    @Test
+    void rejectedCaptureShouldKeepTheHold() {
+        final Hold hold = tested.place(1L, 100L, null).orThrow();
+        when(engine.tryCaptureHold(hold, 2L, 30L))
+                .thenReturn(TransferResult.rejected(Rejection.ACCOUNT_NOT_FOUND, "Account not found. Account id: 2"));
+
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, tested.capture(hold.getId(), 2L, 30L).getRejection());
+
+        assertSame(hold, tested.get(hold.getId()));
+        assertTrue(tested.release(hold.getId()).isSuccess());
+        assertEquals(Hold.State.RELEASED, hold.getState());
+        assertNull(tested.get(hold.getId()));
+    }
+
+    @Test
+    void rejectedHoldShouldNotBeKept() {
+        when(engine.tryPlaceHold(any()))
+                .thenReturn(TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE, "No money"));
+
+        final HoldResult result = tested.place(1L, 100L, null);
+
+        assertFalse(result.isSuccess());
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, result.getRejection());
+        assertNull(tested.get(1L));
+    }
+
+    @Test
+    void invalidRequestsShouldBeThrown() {
+        assertThrows(IllegalArgumentException.class, () -> tested.place(1L, 0L, null));
+        assertThrows(IllegalArgumentException.class, () -> tested.place(1L, 1L, 0L));
+        assertThrows(IllegalArgumentException.class, () -> tested.place(1L, 1L, MAX_TTL + 1));
+        final Hold hold = tested.place(1L, 100L, null).orThrow();
+        assertThrows(IllegalArgumentException.class, () -> tested.capture(hold.getId(), 2L, 0L));
+        assertEquals(Rejection.HOLD_NOT_FOUND, tested.capture(99L, 2L, null).getRejection());
+
+        verify(engine, never()).tryCaptureHold(any(), anyLong(), eq(0L));
+    }
+}
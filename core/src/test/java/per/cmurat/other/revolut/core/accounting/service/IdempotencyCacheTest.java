@@ -0,0 +1,184 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyCacheTest {
+    private static final long TTL = 1_000L;
+
+    private final AtomicLong now = new AtomicLong(10_000L);
+    private final AtomicInteger transfers = new AtomicInteger();
+    private final IdempotencyCache tested = new IdempotencyCache(TTL, 3, now::get);
+
+    @Test
+    void retriesShouldGetTheOriginalTransaction() {
+        final Transaction first = tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+        final Transaction retried = tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+
+        assertSame(first, retried);
+        assertEquals(1, transfers.get());
+    }
+
+    @Test
+    void reusingKeyForDifferentTransferShouldBeRejected() {
+        tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+
+        assertThrows(IllegalArgumentException.class, () -> tested.execute("a", 1L, 2L, 4L, () -> transfer("a", 1L, 2L, 4L)));
+        assertThrows(IllegalArgumentException.class, () -> tested.execute("a", 2L, 1L, 3L, () -> transfer("a", 2L, 1L, 3L)));
+        assertEquals(1, transfers.get());
+    }
+
+    @Test
+    void failedTransfersShouldNotBeRemembered() {
+        assertThrows(InsufficientBalanceException.class, () -> tested.execute("a", 1L, 2L, 3L, () -> {
+            throw new InsufficientBalanceException("No money");
+        }));
+
+        tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+        assertEquals(1, transfers.get());
+    }
+
+    @Test
+    void expiredKeysShouldBeForgotten() {
+        final Transaction first = tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+        now.addAndGet(TTL);
+
+        final Transaction second = tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+
+        assertEquals(2, transfers.get());
+        assertNull(first.getIdempotencyKey());
+        assertEquals("a", second.getIdempotencyKey());
+    }
+
+    @Test
+    void oldestKeysShouldBeForgottenWhenThereAreTooMany() {
+        final Transaction first = tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L));
+        tested.execute("b", 1L, 2L, 3L, () -> transfer("b", 1L, 2L, 3L));
+        tested.execute("c", 1L, 2L, 3L, () -> transfer("c", 1L, 2L, 3L));
+        tested.execute("d", 1L, 2L, 3L, () -> transfer("d", 1L, 2L, 3L));
+
+        assertEquals(3, tested.size());
+        assertNull(first.getIdempotencyKey());
+        tested.execute("b", 1L, 2L, 3L, () -> transfer("b", 1L, 2L, 3L));
+        assertEquals(4, transfers.get());
+    }
+
+    @Test
+    void concurrentTransfersWithSameKeyShouldBeCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Transaction> first = executor.submit(() -> tested.execute("a", 1L, 2L, 3L, () -> {
+                started.countDown();
+                await(release);
+                return transfer("a", 1L, 2L, 3L);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            final Future<Transaction> second = executor.submit(() -> tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L)));
+
+            release.countDown();
+            assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, transfers.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void addAllShouldRememberRecoveredKeysUntilTheyExpire() {
+        final TransactionRepository repository = new TransactionRepository();
+        final Transaction recent = transaction("a", 1L, 2L, 3L);
+        recent.setTimestamp(now.get() - 10L);
+        final Transaction old = transaction("b", 1L, 2L, 3L);
+        old.setTimestamp(now.get() - TTL);
+        repository.store(recent);
+        repository.store(old);
+        repository.store(transaction(null, 1L, 2L, 3L));
+
+        tested.addAll(repository);
+
+        assertEquals(1, tested.size());
+        assertNull(old.getIdempotencyKey());
+        assertSame(recent, tested.execute("a", 1L, 2L, 3L, () -> transfer("a", 1L, 2L, 3L)));
+        assertEquals(0, transfers.get());
+    }
+
+    @Test
+    void addAllShouldRememberOnlyTheNewestRecoveredKeys() {
+        final TransactionRepository repository = new TransactionRepository();
+        final long[] ages = {50L, 10L, 40L, 20L, 30L};
+        final Transaction[] recovered = new Transaction[ages.length];
+        for (int i = 0; i < ages.length; i++) {
+            recovered[i] = transaction("k" + i, 1L, 2L, 3L);
+            recovered[i].setTimestamp(now.get() - ages[i]);
+            repository.store(recovered[i]);
+        }
+
+        tested.addAll(repository);
+
+        assertEquals(3, tested.size());
+        assertNull(recovered[0].getIdempotencyKey());
+        assertNull(recovered[2].getIdempotencyKey());
+        assertSame(recovered[1], tested.execute("k1", 1L, 2L, 3L, () -> transfer("k1", 1L, 2L, 3L)));
+        assertSame(recovered[3], tested.execute("k3", 1L, 2L, 3L, () -> transfer("k3", 1L, 2L, 3L)));
+        assertSame(recovered[4], tested.execute("k4", 1L, 2L, 3L, () -> transfer("k4", 1L, 2L, 3L)));
+        assertEquals(0, transfers.get());
+
+        tested.execute("k0", 1L, 2L, 3L, () -> transfer("k0", 1L, 2L, 3L));
+        assertEquals(1, transfers.get());
+    }
+
+    @Test
+    void invalidKeysShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> tested.execute("", 1L, 2L, 3L, () -> transfer("", 1L, 2L, 3L)));
+        final String tooLong = new String(new char[IdempotencyCache.MAX_KEY_LENGTH + 1]).replace('\0', 'k');
+        assertThrows(IllegalArgumentException.class, () -> tested.execute(tooLong, 1L, 2L, 3L, () -> transfer(tooLong, 1L, 2L, 3L)));
+    }
+
+    private Transaction transfer(final String key, final long creditAccountId, final long debitAccountId, final long amount) {
+        transfers.incrementAndGet();
+        final Transaction transaction = transaction(key, creditAccountId, debitAccountId, amount);
+        transaction.setTimestamp(now.get());
+        return transaction;
+    }
+
+    private static Transaction transaction(final String key, final long creditAccountId, final long debitAccountId, final long amount) {
+        final AssetAccount creditAccount = new AssetAccount();
+        creditAccount.setId(creditAccountId);
+        final AssetAccount debitAccount = new AssetAccount();
+        debitAccount.setId(debitAccountId);
+
+        final Transaction transaction = new Transaction();
+        transaction.setCreditAccount(creditAccount);
+        transaction.setDebitAccount(debitAccount);
+        transaction.setAmount(amount);
+        transaction.setIdempotencyKey(key);
+        return transaction;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+import per.cmurat.other.revolut.core.metrics.MetricsRegistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvariantCheckerTest {
+
+    private final AssetAccountRepository accountRepository = new AssetAccountRepository();
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private InvariantChecker tested;
+
+    @BeforeEach
+    void before() {
+        tested = new InvariantChecker(accountRepository,
+                new LedgerMetrics(registry, accountRepository, new TransactionRepository()), 60_000L, 2);
+    }
+
+    @AfterEach
+    void after() {
+        tested.close();
+    }
+
+    @Test
+    void recoveredBalancesShouldBeTheExpectedTotal() {
+        restore(1L, 100L);
+        restore(2L, 250L);
+        restore(3L, 0L);
+        tested.start();
+
+        final InvariantCheck check = tested.check();
+
+        assertTrue(check.isHeld(), check.toString());
+        assertEquals(350L, check.getExpectedTotal());
+        assertEquals(3L, check.getAccountCount());
+    }
+
+    @Test
+    void accountsCreatedAfterTheCutShouldBeCountedByTheNextCheck() {
+        restore(1L, 100L);
+        tested.start();
+        tested.check();
+
+        final long epoch = tested.enter();
+        final AssetAccount created = new AssetAccount();
+        created.markCreated(epoch);
+        created.setBalance(40L);
+        accountRepository.store(created);
+        tested.accountCreated(epoch, 40L);
+        tested.exit(epoch);
+
+        final InvariantCheck check = tested.check();
+
+        assertTrue(check.isHeld(), check.toString());
+        assertEquals(140L, check.getExpectedTotal());
+        assertEquals(2L, check.getAccountCount());
+    }
+
+    @Test
+    void commitsAfterTheCutShouldNotBeSummed() {
+        final AssetAccount account = restore(1L, 100L);
+        tested.start();
+
+        final long epoch = tested.check().getEpoch();
+        assertEquals(epoch, tested.enter());
+        account.beginUpdate();
+        account.keepCutBalance(epoch);
+        account.debit(30L);
+        account.endUpdate(1L);
+        tested.exit(epoch);
+
+        assertEquals(100L, account.getCutBalance(epoch));
+        assertEquals(130L, account.getSnapshot().getBalance());
+    }
+
+    @Test
+    void changedTotalShouldBeReportedAsViolation() {
+        final AssetAccount account = restore(1L, 100L);
+        tested.start();
+        account.setBalance(90L);
+
+        final InvariantCheck check = tested.check();
+
+        assertFalse(check.isHeld());
+        assertEquals(-10L, check.getDivergence());
+        final String scrape = registry.scrape();
+        assertTrue(scrape.contains("ledger_invariant_checks_total{result=\"violated\"} 1"), scrape);
+        assertTrue(scrape.contains("ledger_invariant_divergence -10"), scrape);
+    }
+
+    private AssetAccount restore(final long id, final long balance) {
+        final AssetAccount account = new AssetAccount();
+        account.setId(id);
+        account.setBalance(balance);
+        accountRepository.restore(account);
+        return account;
+    }
+}
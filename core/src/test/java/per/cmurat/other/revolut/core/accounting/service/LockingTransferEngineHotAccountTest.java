@@ -0,0 +1,180 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.SubBalances;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transfers to and from a hot account, with real repositories and indexes.
+ */
+class LockingTransferEngineHotAccountTest {
+    private static final long HOT_ACCOUNT_ID = 1L;
+    private static final int SUB_BALANCES = 4;
+
+    private TransferEngineFixture fixture;
+    private AssetAccountRepository accountRepository;
+    private AccountHistoryIndex historyIndex;
+    private InvariantChecker invariantChecker;
+    private LockingTransferEngine tested;
+
+    @BeforeEach
+    void before() {
+        fixture = new TransferEngineFixture();
+        accountRepository = fixture.getAccountRepository();
+        historyIndex = fixture.getHistoryIndex();
+        invariantChecker = fixture.getInvariantChecker();
+        tested = fixture.lockingEngine(new HotAccounts(new long[]{HOT_ACCOUNT_ID}, SUB_BALANCES));
+    }
+
+    @AfterEach
+    void after() {
+        fixture.close();
+    }
+
+    @Test
+    void hotAccountShouldBeSplitOnFirstTransfer() {
+        final AssetAccount hot = tested.createAccount(0L);
+        final AssetAccount customer = tested.createAccount(100L);
+        assertEquals(HOT_ACCOUNT_ID, hot.getId().longValue());
+        assertFalse(hot.isSplit());
+
+        tested.transfer(customer.getId(), hot.getId(), 40L);
+
+        assertTrue(hot.isSplit());
+        assertFalse(customer.isSplit());
+        assertEquals(SUB_BALANCES, hot.getSubBalances().size());
+        assertEquals(40L, hot.getBalance());
+        assertEquals(60L, customer.getBalance());
+    }
+
+    @Test
+    void outgoingTransferLargerThanSubBalancesShouldRebalanceThem() {
+        final AssetAccount hot = tested.createAccount(80L);
+        final AssetAccount customer = tested.createAccount(0L);
+        tested.transfer(customer.getId(), hot.getId(), 0L);
+        assertEquals(20L, hot.getSubBalances().get(0).getBalance());
+
+        tested.transfer(hot.getId(), customer.getId(), 50L);
+
+        assertEquals(30L, hot.getBalance());
+        assertEquals(50L, customer.getBalance());
+        final SubBalances subBalances = hot.getSubBalances();
+        for (int i = 0; i < subBalances.size(); i++) {
+            assertTrue(subBalances.get(i).getBalance() >= 7L);
+        }
+
+        assertThrows(InsufficientBalanceException.class, () -> tested.transfer(hot.getId(), customer.getId(), 31L));
+        assertEquals(30L, hot.getBalance());
+        assertEquals(50L, customer.getBalance());
+    }
+
+    @Test
+    void concurrentTransfersShouldKeepTotalAndHistoryOrder() throws Exception {
+        final AssetAccount hot = tested.createAccount(0L);
+        final int threads = 8;
+        final int transfersPerThread = 2_000;
+        final List<AssetAccount> customers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            customers.add(tested.createAccount(1_000_000L));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final AssetAccount customer : customers) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < transfersPerThread; i++) {
+                    if (i % 4 == 3) {
+                        tested.transfer(hot.getId(), customer.getId(), 15L);
+                    } else {
+                        tested.transfer(customer.getId(), hot.getId(), 10L);
+                    }
+                }
+            }));
+        }
+        try {
+            //Checks at cuts while the transfers go on, including the ones holding a single sub-balance.
+            int checks = 0;
+            while (!allDone(futures) || checks == 0) {
+                final InvariantCheck check = invariantChecker.check();
+                assertTrue(check.isHeld(), check.toString());
+                assertEquals(threads * 1_000_000L, check.getExpectedTotal());
+                checks++;
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final long quarters = transfersPerThread / 4;
+        assertEquals(threads * (quarters * 3 * 10L - quarters * 15L), hot.getBalance());
+        long total = hot.getBalance();
+        for (final AssetAccount customer : customers) {
+            total += customer.getBalance();
+        }
+        assertEquals(threads * 1_000_000L, total);
+        assertEquals(hot.getBalance(), hot.getSnapshot().getBalance());
+        assertTrue(hot.getSnapshot().getVersion() > threads * transfersPerThread);
+
+        final SubBalances subBalances = hot.getSubBalances();
+        for (int i = 0; i < subBalances.size(); i++) {
+            assertTrue(subBalances.get(i).getBalance() >= 0);
+        }
+
+        final int historySize = historyIndex.size(hot.getId());
+        assertEquals(threads * transfersPerThread, historySize);
+        final long[] ids = new long[historySize];
+        assertEquals(historySize, historyIndex.read(hot.getId(), 0, ids));
+        final List<Long> sorted = new ArrayList<>();
+        for (final long id : ids) {
+            sorted.add(id);
+        }
+        Collections.sort(sorted);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(sorted.get(i).longValue(), ids[i]);
+        }
+    }
+
+    @Test
+    void readStateOfSplitAccountShouldReturnTheTotal() {
+        final AssetAccount hot = tested.createAccount(0L);
+        final AssetAccount customer = tested.createAccount(100L);
+        for (int i = 0; i < 10; i++) {
+            tested.transfer(customer.getId(), hot.getId(), 3L);
+        }
+
+        final long[] state = new long[2];
+        hot.readState(state);
+
+        assertEquals(30L, state[0]);
+        assertEquals(hot.getLastSequence(), state[1]);
+        assertEquals(30L, accountRepository.findById(hot.getId()).clone().getBalance());
+    }
+
+    private static boolean allDone(final List<Future<?>> futures) {
+        for (final Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
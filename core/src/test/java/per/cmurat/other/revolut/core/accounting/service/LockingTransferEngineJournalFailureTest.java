@@ -0,0 +1,156 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.DisabledJournal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transfers which can not be journaled, with real repositories and indexes.
+ */
+class LockingTransferEngineJournalFailureTest {
+    private static final long HOT_ACCOUNT_ID = 1L;
+
+    private final FailingJournal journal = new FailingJournal();
+    private TransferEngineFixture fixture;
+    private TransactionRepository transactionRepository;
+    private LockingTransferEngine tested;
+
+    private AssetAccount hot;
+    private AssetAccount first;
+    private AssetAccount second;
+
+    @BeforeEach
+    void before() {
+        fixture = new TransferEngineFixture(journal);
+        transactionRepository = fixture.getTransactionRepository();
+        tested = fixture.lockingEngine(new HotAccounts(new long[]{HOT_ACCOUNT_ID}, 4));
+
+        hot = tested.createAccount(100L);
+        first = tested.createAccount(100L);
+        second = tested.createAccount(50L);
+    }
+
+    @AfterEach
+    void after() {
+        fixture.close();
+    }
+
+    @Test
+    void transferShouldBeUndoneWhenItCanNotBeJournaled() {
+        final AccountSnapshot firstSnapshot = first.getSnapshot();
+        final AccountSnapshot secondSnapshot = second.getSnapshot();
+        journal.failing = true;
+
+        assertThrows(UncheckedIOException.class, () -> tested.transfer(first.getId(), second.getId(), 30L));
+
+        assertEquals(100L, first.getBalance());
+        assertEquals(50L, second.getBalance());
+        assertSame(firstSnapshot, first.getSnapshot());
+        assertSame(secondSnapshot, second.getSnapshot());
+        assertEquals(0, transactionRepository.size());
+        assertBalancesAddUp();
+
+        journal.failing = false;
+        final Transaction transaction = tested.transfer(first.getId(), second.getId(), 30L);
+        assertEquals(70L, first.getSnapshot().getBalance());
+        assertEquals(80L, second.getSnapshot().getBalance());
+        assertSame(transaction, transactionRepository.findById(transaction.getId()));
+    }
+
+    @Test
+    void subBalanceTransfersShouldBeUndoneWhenTheyCanNotBeJournaled() {
+        tested.transfer(first.getId(), hot.getId(), 10L);
+        final AccountSnapshot hotSnapshot = hot.getSnapshot();
+        final AccountSnapshot firstSnapshot = first.getSnapshot();
+        journal.failing = true;
+
+        assertThrows(UncheckedIOException.class, () -> tested.transfer(first.getId(), hot.getId(), 20L));
+        assertThrows(UncheckedIOException.class, () -> tested.transfer(hot.getId(), first.getId(), 5L));
+
+        assertTrue(hot.isSplit());
+        assertEquals(110L, hot.getBalance());
+        assertEquals(90L, first.getBalance());
+        assertSame(hotSnapshot, hot.getSnapshot());
+        assertSame(firstSnapshot, first.getSnapshot());
+        assertBalancesAddUp();
+    }
+
+    @Test
+    void atomicBatchShouldBeUndoneWhenItCanNotBeJournaled() {
+        final AccountSnapshot firstSnapshot = first.getSnapshot();
+        final AccountSnapshot secondSnapshot = second.getSnapshot();
+        final List<TransferRequest> transfers = Arrays.asList(
+                new TransferRequest(first.getId(), second.getId(), 60L),
+                new TransferRequest(second.getId(), first.getId(), 110L));
+        journal.failing = true;
+
+        assertThrows(UncheckedIOException.class, () -> tested.transferAll(transfers, true));
+
+        assertEquals(100L, first.getBalance());
+        assertEquals(50L, second.getBalance());
+        assertSame(firstSnapshot, first.getSnapshot());
+        assertSame(secondSnapshot, second.getSnapshot());
+        assertEquals(0, transactionRepository.size());
+        assertBalancesAddUp();
+    }
+
+    @Test
+    void holdShouldStayActiveWhenItsCaptureCanNotBeJournaled() {
+        final Hold hold = new Hold(1L, first.getId(), 40L, Long.MAX_VALUE);
+        assertTrue(tested.tryPlaceHold(hold).isSuccess());
+        final AccountSnapshot firstSnapshot = first.getSnapshot();
+        final AccountSnapshot secondSnapshot = second.getSnapshot();
+        journal.failing = true;
+
+        assertThrows(UncheckedIOException.class, () -> tested.tryCaptureHold(hold, second.getId(), 30L));
+
+        assertEquals(Hold.State.ACTIVE, hold.getState());
+        assertEquals(40L, first.getHeld());
+        assertEquals(100L, first.getBalance());
+        assertEquals(50L, second.getBalance());
+        assertSame(firstSnapshot, first.getSnapshot());
+        assertSame(secondSnapshot, second.getSnapshot());
+        assertBalancesAddUp();
+    }
+
+    private void assertBalancesAddUp() {
+        assertEquals(0L, fixture.getInvariantChecker().check().getDivergence());
+    }
+
+    private static class FailingJournal extends DisabledJournal {
+        private volatile boolean failing;
+
+        @Override
+        public long appendTransfer(final Transaction transaction) {
+            failIfFailing();
+            return super.appendTransfer(transaction);
+        }
+
+        @Override
+        public long appendTransfers(final List<Transaction> transactions) {
+            failIfFailing();
+            return super.appendTransfers(transactions);
+        }
+
+        private void failIfFailing() {
+            if (failing) {
+                throw new UncheckedIOException(new IOException("Disk full"));
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import com.jayway.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.intThat;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class LockingTransferEngineTest {
+
+    @Mock
+    private AssetAccountRepository accountRepository;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private AccountingLockService lockService;
+
+    @Mock
+    private Journal journal;
+
+    @Mock
+    private AccountHistoryIndex historyIndex;
+
+    @Mock
+    private TransactionTimeIndex timeIndex;
+
+    @Mock
+    private LedgerMetrics metrics;
+
+    @Mock
+    private InvariantChecker invariantChecker;
+
+    @Mock
+    private TransactionFeed transactionFeed;
+
+    @Mock
+    private ContentionTracker contentionTracker;
+
+    @Mock
+    private HotAccounts hotAccounts;
+
+    @InjectMocks
+    private LockingTransferEngine tested;
+
+    @Test
+    void validateTransferShouldSucceed() {
+        accountWithBalance(1L, 1231240L);
+        accountWithBalance(2L, 0L);
+
+        tested.validate(1L, 2L, 1231240L);
+
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, tested.tryValidate(1L, 2L, 1231241L).getRejection());
+        verifyZeroInteractions(lockService);
+    }
+
+    @Test
+    void validateTransferShouldThrowWhenAccountIsNonexistent() {
+        final long creditAccountId = 1L;
+        final AssetAccount creditAccount = mock(AssetAccount.class);
+
+        final long debitAccountId = 2L;
+        final AssetAccount debitAccount = mock(AssetAccount.class);
+
+        final long amount = 1231240L;
+
+        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
+        lenient().when(accountRepository.findById(debitAccountId)).thenReturn(null);
+
+        stubStripes();
+        lenient().when(lockService.getLock(anyLong())).thenReturn(new ReentrantLock());
+
+        assertThrows(AccountNotFoundException.class, () -> tested.validate(creditAccountId, debitAccountId, amount));
+
+        verify(accountRepository, times(1)).findById(creditAccountId);
+        verify(accountRepository, times(1)).findById(debitAccountId);
+
+        verify(lockService, never()).getLock(anyLong());
+    }
+
+    @Test
+    void transferShouldSucceed() throws Throwable {
+        final long creditAccountId = 1L;
+        final AssetAccount creditAccount = mock(AssetAccount.class);
+
+        final long debitAccountId = 2L;
+        final AssetAccount debitAccount = mock(AssetAccount.class);
+
+        final long amount = 1231240L;
+
+        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
+        lenient().when(accountRepository.findById(debitAccountId)).thenReturn(debitAccount);
+
+        when(creditAccount.getAvailableBalance()).thenReturn(amount);
+
+        stubStripes();
+        lenient().when(lockService.getLock(anyLong())).thenReturn(new ReentrantLock());
+
+        final Transaction actual = tested.transfer(creditAccountId, debitAccountId, amount);
+
+        verify(creditAccount, times(1)).credit(amount);
+        verify(debitAccount, times(1)).debit(amount);
+
+        assertEquals(creditAccount, actual.getCreditAccount());
+        assertEquals(debitAccount, actual.getDebitAccount());
+        assertEquals(amount, actual.getAmount());
+        assertTrue(actual.getTimestamp() > 0);
+
+        verify(metrics, times(1)).transferSucceeded();
+        verify(metrics, times(1)).lockAcquired(anyLong());
+        verify(metrics, times(1)).lockReleased(anyLong());
+    }
+
+    @Test
+    void rejectedTransferShouldBeReturnedWithoutChangingTheAccounts() {
+        final AssetAccount creditAccount = mock(AssetAccount.class);
+        final AssetAccount debitAccount = mock(AssetAccount.class);
+        lenient().when(accountRepository.findById(1L)).thenReturn(creditAccount);
+        lenient().when(accountRepository.findById(2L)).thenReturn(debitAccount);
+        when(creditAccount.getAvailableBalance()).thenReturn(99L);
+        stubStripes();
+        lenient().when(lockService.getLock(anyLong())).thenReturn(new ReentrantLock());
+
+        final TransferResult result = tested.tryTransfer(1L, 2L, 100L, null);
+
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, result.getRejection());
+        assertEquals("Asset account doesn't have sufficient balance. Account id: 1", result.getError());
+        verify(creditAccount, never()).credit(anyLong());
+        verify(debitAccount, never()).debit(anyLong());
+        verify(metrics, times(1)).transferRejected(Rejection.INSUFFICIENT_BALANCE);
+        verify(journal, never()).appendTransfer(isA(Transaction.class));
+
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, tested.tryTransfer(1L, 3L, 1L, null).getRejection());
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, tested.tryValidate(3L, 2L, 1L).getRejection());
+    }
+
+    @Test
+    void createAccountShouldJournalAccountWhileHoldingItsLock() {
+        final ReentrantLock lock = new ReentrantLock();
+        when(lockService.getLock(anyLong())).thenReturn(lock);
+        doAnswer(invocation -> {
+            invocation.<AssetAccount>getArgument(0).setId(5L);
+            return null;
+        }).when(accountRepository).assignId(isA(AssetAccount.class));
+        when(journal.appendAccountCreated(5L, 100L)).thenAnswer(invocation -> {
+            assertTrue(lock.isHeldByCurrentThread());
+            return 9L;
+        });
+
+        final AssetAccount actual = tested.createAccount(100L);
+
+        assertEquals(Long.valueOf(5L), actual.getId());
+        assertEquals(100L, actual.getBalance());
+        assertEquals(9L, actual.getLastSequence());
+        verify(accountRepository, times(1)).store(actual);
+        verify(lockService, times(1)).getLock(5L);
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    void transferAllShouldRevertAppliedTransfersWhenAtomicBatchFails() {
+        final AssetAccount first = accountWithBalance(1L, 100L);
+        final AssetAccount second = accountWithBalance(2L, 50L);
+        stubStripes();
+        lenient().when(lockService.getStripeLock(anyInt())).thenReturn(new ReentrantLock());
+
+        final List<TransferRequest> transfers = Arrays.asList(
+                new TransferRequest(1L, 2L, 100L),
+                new TransferRequest(2L, 1L, 500L));
+
+        assertThrows(InsufficientBalanceException.class, () -> tested.transferAll(transfers, true));
+
+        assertEquals(100L, first.getBalance());
+        assertEquals(50L, second.getBalance());
+        verify(transactionRepository, times(0)).store(isA(Transaction.class));
+        verify(metrics, times(1)).transferRejected(isA(InsufficientBalanceException.class));
+        verify(metrics, times(1)).transfersAborted(1);
+        verify(metrics, never()).transfersSucceeded(anyInt());
+    }
+
+    @Test
+    void transferAllShouldReportFailuresPerTransferWhenNotAtomic() {
+        final AssetAccount first = accountWithBalance(1L, 100L);
+        final AssetAccount second = accountWithBalance(2L, 50L);
+        stubStripes();
+        lenient().when(lockService.getStripeLock(anyInt())).thenReturn(new ReentrantLock());
+
+        final List<TransferResult> results = tested.transferAll(Arrays.asList(
+                new TransferRequest(1L, 2L, 100L),
+                new TransferRequest(1L, 2L, 1L),
+                new TransferRequest(2L, 1L, 150L)), false);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertNotNull(results.get(1).getError());
+        assertTrue(results.get(2).isSuccess());
+
+        assertEquals(150L, first.getBalance());
+        assertEquals(0L, second.getBalance());
+        verify(transactionRepository, times(2)).store(isA(Transaction.class));
+        verify(metrics, times(2)).transferSucceeded();
+        verify(metrics, times(1)).transferRejected(Rejection.INSUFFICIENT_BALANCE);
+    }
+
+    @Test
+    void transferAllShouldLockEachStripeOnceInOrder() {
+        accountWithBalance(1L, 100L);
+        accountWithBalance(2L, 100L);
+        accountWithBalance(3L, 100L);
+        stubStripes();
+
+        final List<Integer> lockedStripes = new ArrayList<>();
+        final ReentrantLock[] locks = {new ReentrantLock(), new ReentrantLock(), new ReentrantLock(), new ReentrantLock()};
+        when(lockService.getStripeLock(anyInt())).thenAnswer(invocation -> {
+            final int stripe = invocation.getArgument(0);
+            lockedStripes.add(stripe);
+            return locks[stripe];
+        });
+
+        tested.transferAll(Arrays.asList(
+                new TransferRequest(3L, 1L, 1L),
+                new TransferRequest(2L, 3L, 1L)), true);
+
+        //Three stripes locked in ascending order, then unlocked in reverse.
+        assertEquals(Arrays.asList(1, 2, 3, 3, 2, 1), lockedStripes);
+    }
+
+    private AssetAccount accountWithBalance(final long id, final long balance) {
+        final AssetAccount account = new AssetAccount();
+        account.setId(id);
+        account.setBalance(balance);
+        lenient().when(accountRepository.findById(id)).thenReturn(account);
+        return account;
+    }
+
+    @Test
+    void validateTransferShouldReadCommittedBalancesWithoutWaiting() {
+        final AssetAccount creditAccount = accountWithBalance(1L, 100L);
+        accountWithBalance(2L, 0L);
+
+        creditAccount.beginUpdate();
+        creditAccount.credit(100L);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertTrue(tested.tryValidate(1L, 2L, 100L).isSuccess()));
+        assertEquals(100L, creditAccount.getSnapshot().getBalance());
+
+        creditAccount.endUpdate(0);
+
+        assertEquals(0L, creditAccount.getSnapshot().getBalance());
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, tested.tryValidate(1L, 2L, 100L).getRejection());
+    }
+
+    @Test
+    void transferShouldBlockForSameAccount() throws Throwable {
+        testTransferFunctionShouldBlockOnSameAccount((creditAccountId, debitAccountId, amount) ->
+                tested.transfer(creditAccountId, debitAccountId, amount));
+    }
+
+    //The pass method is testes whether it is acquiring locks for the given accounts and thus blocking any subsequent calls with the same accounts from another thread.
+    private void testTransferFunctionShouldBlockOnSameAccount(final TransferFunction f) throws InterruptedException, ExecutionException, TimeoutException {
+        final long balance = 100000L;
+
+        final long creditAccountId = 1L;
+        final AssetAccount creditAccount = new AssetAccount();
+        creditAccount.setBalance(balance);
+
+        //This latch is for making the second thread wait until the first thread can acquire the locks.
+        final CountDownLatch startSecondFunctionLatch = new CountDownLatch(1);
+
+        //This latch is for asserting that the locks are acquired and
+        //the seconds thread is waiting for the first thread to release the locks.
+        final CountDownLatch finishFirstFunctionLatch = new CountDownLatch(1);
+
+        //This account is used in the first thread. We assume that the debit method call is made after the locks are acquired.
+        //This means that once the debit method is called, the seconds thread can start.
+        //It is also used to suspend the first thread, to assert the state of the locks.
+        final long debitAccountId1 = 2L;
+        final AssetAccount debitAccount1 = new AssetAccount() {
+            @Override
+            public void debit(final long amount) {
+                try {
+                    startSecondFunctionLatch.countDown();
+                    finishFirstFunctionLatch.await();
+                } catch (InterruptedException ignored) {
+                }
+                super.debit(amount);
+            }
+
+            @Override
+            public AssetAccount clone() {
+                return this;
+            }
+        };
+        debitAccount1.setBalance(balance);
+
+        final long debitAccountId2 = 3L;
+        final AssetAccount debitAccount2 = new AssetAccount();
+        debitAccount2.setBalance(balance);
+
+        lenient().when(accountRepository.findById(creditAccountId)).thenReturn(creditAccount);
+        lenient().when(accountRepository.findById(debitAccountId1)).thenReturn(debitAccount1);
+        lenient().when(accountRepository.findById(debitAccountId2)).thenReturn(debitAccount2);
+
+        final ReentrantLock creditAccountLock = new ReentrantLock();
+        stubStripes();
+        lenient().when(lockService.getLock(creditAccountId)).thenReturn(creditAccountLock);
+        lenient().when(lockService.getLock(debitAccountId1)).thenReturn(new ReentrantLock());
+        lenient().when(lockService.getLock(debitAccountId2)).thenReturn(new ReentrantLock());
+
+        final long amount = 10000L;
+
+        Future first = newSingleThreadExecutor().submit(() -> {
+            try {
+                f.transaction(creditAccountId, debitAccountId1, amount);
+            } catch (final Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+        });
+
+        Future second = newSingleThreadExecutor().submit(() -> {
+            try {
+                startSecondFunctionLatch.await();
+                f.transaction(creditAccountId, debitAccountId2, amount);
+            } catch (final Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+        });
+
+        //Wait until the second thread is waiting on the lock.
+        Awaitility
+                .given()
+                .pollInterval(100L, TimeUnit.MILLISECONDS)
+                .atMost(2L, TimeUnit.SECONDS)
+                .until(creditAccountLock::hasQueuedThreads);
+
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        //The first thread should have the lock and the second thread should be queued.
+        assertTrue(creditAccountLock.isLocked());
+
+        //Assertions are done, we can release the first thread.
+        finishFirstFunctionLatch.countDown();
+
+        //Make sure the both threads finish their job.
+        final long timeoutSeconds = 2L;
+        first.get(timeoutSeconds, TimeUnit.SECONDS);
+        second.get(timeoutSeconds, TimeUnit.SECONDS);
+
+        //The second thread had to wait for the lock of the credit account.
+        verify(contentionTracker, times(1)).record(eq(creditAccountId), intThat(queueLength -> queueLength >= 1), anyLong());
+    }
+
+    //Every account gets its own stripe, so that the locks can be told apart in the tests.
+    private void stubStripes() {
+        lenient().when(lockService.stripeOf(anyLong())).thenAnswer(invocation -> (int) (long) invocation.getArgument(0));
+    }
+
+    @FunctionalInterface
+    private interface TransferFunction {
+        void transaction(final long creditAccountId, final long debitAccountId2, final long amount) throws Throwable;
+    }
+}
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+
@@ -0,0 +1,239 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.DisabledJournal;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+class ShardedTransferEngineTest {
+
+    private static final int ACCOUNT_COUNT = 32;
+    private static final long INITIAL_BALANCE = 1_000L;
+
+    @Spy
+    private AssetAccountRepository accountRepository = new AssetAccountRepository();
+
+    @Spy
+    private TransactionRepository transactionRepository = new TransactionRepository();
+
+    @Spy
+    private Journal journal = new DisabledJournal();
+
+    @Spy
+    private AccountHistoryIndex historyIndex = new AccountHistoryIndex();
+
+    @Mock
+    private TransactionTimeIndex timeIndex;
+
+    @Mock
+    private LedgerMetrics metrics;
+
+    @Mock
+    private InvariantChecker invariantChecker;
+
+    @Mock
+    private TransactionFeed transactionFeed;
+
+    @InjectMocks
+    private ShardedTransferEngine tested = new ShardedTransferEngine(4, 16);
+
+    @AfterEach
+    void closeEngine() {
+        tested.close();
+    }
+
+    @Test
+    void transferShouldSucceedWithinAndAcrossShards() {
+        final List<AssetAccount> accounts = createAccounts(ACCOUNT_COUNT);
+        final AssetAccount first = accounts.get(0);
+        final AssetAccount sameShard = findAccount(accounts, a -> tested.shardOf(a.getId()) == tested.shardOf(first.getId()));
+        final AssetAccount otherShard = findAccount(accounts, a -> tested.shardOf(a.getId()) != tested.shardOf(first.getId()));
+
+        final Transaction local = tested.transfer(first.getId(), sameShard.getId(), 100L);
+        final Transaction crossShard = tested.transfer(first.getId(), otherShard.getId(), 200L);
+
+        assertEquals(100L, local.getAmount());
+        assertEquals(200L, crossShard.getAmount());
+        assertEquals(INITIAL_BALANCE - 300L, first.getBalance());
+        assertEquals(INITIAL_BALANCE + 100L, sameShard.getBalance());
+        assertEquals(INITIAL_BALANCE + 200L, otherShard.getBalance());
+    }
+
+    @Test
+    void failuresShouldBeThrownToTheCaller() {
+        final List<AssetAccount> accounts = createAccounts(2);
+
+        assertThrows(InsufficientBalanceException.class, () ->
+                tested.transfer(accounts.get(0).getId(), accounts.get(1).getId(), INITIAL_BALANCE + 1));
+        assertThrows(AccountNotFoundException.class, () ->
+                tested.validate(accounts.get(0).getId(), 999L, 1L));
+    }
+
+    @Test
+    void atomicBatchAcrossShardsShouldBeRevertedOnFailure() {
+        final List<AssetAccount> accounts = createAccounts(ACCOUNT_COUNT);
+
+        final List<TransferRequest> transfers = new ArrayList<>();
+        for (int i = 0; i < accounts.size() - 1; i++) {
+            transfers.add(new TransferRequest(accounts.get(i).getId(), accounts.get(i + 1).getId(), INITIAL_BALANCE));
+        }
+        transfers.add(new TransferRequest(accounts.get(0).getId(), accounts.get(1).getId(), 1L));
+
+        assertThrows(InsufficientBalanceException.class, () -> tested.transferAll(transfers, true));
+
+        for (final AssetAccount account : accounts) {
+            assertEquals(INITIAL_BALANCE, account.getBalance());
+        }
+    }
+
+    @Test
+    void concurrentTransfersShouldKeepTheTotalBalance() throws Exception {
+        final List<AssetAccount> accounts = createAccounts(ACCOUNT_COUNT);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2_000; i++) {
+                    final long from = accounts.get(random.nextInt(ACCOUNT_COUNT)).getId();
+                    final long to = accounts.get(random.nextInt(ACCOUNT_COUNT)).getId();
+                    try {
+                        if (i % 100 == 0) {
+                            tested.transferAll(Arrays.asList(
+                                    new TransferRequest(from, to, 5L),
+                                    new TransferRequest(to, accounts.get(random.nextInt(ACCOUNT_COUNT)).getId(), 5L)), true);
+                        } else {
+                            tested.transfer(from, to, 1L + random.nextInt(50));
+                        }
+                    } catch (InsufficientBalanceException ignored) {
+                    }
+                }
+            }));
+        }
+
+        for (final Future<?> future : futures) {
+            future.get(30L, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (final AssetAccount account : accounts) {
+            assertFalse(account.getBalance() < 0);
+            total += account.getBalance();
+        }
+        assertEquals(INITIAL_BALANCE * ACCOUNT_COUNT, total);
+    }
+
+    @Test
+    void accountsShouldBeSpreadOverShards() {
+        final List<AssetAccount> accounts = createAccounts(ACCOUNT_COUNT);
+
+        final int firstShard = tested.shardOf(accounts.get(0).getId());
+        assertTrue(accounts.stream().anyMatch(a -> tested.shardOf(a.getId()) != firstShard));
+        assertNotEquals(0, tested.getShardCount());
+    }
+
+    @Test
+    void heldAmountShouldOnlyBeTransferredByCapturingTheHold() {
+        final List<AssetAccount> accounts = createAccounts(ACCOUNT_COUNT);
+        final AssetAccount holder = accounts.get(0);
+        final AssetAccount otherShard = findAccount(accounts, a -> tested.shardOf(a.getId()) != tested.shardOf(holder.getId()));
+        final Hold hold = new Hold(1L, holder.getId(), 800L, Long.MAX_VALUE);
+
+        assertTrue(tested.tryPlaceHold(hold).isSuccess());
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, tested.tryTransfer(holder.getId(), otherShard.getId(), 300L, null).getRejection());
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, tested.tryPlaceHold(new Hold(2L, holder.getId(), 300L, Long.MAX_VALUE)).getRejection());
+        tested.transfer(holder.getId(), otherShard.getId(), 200L);
+
+        final TransferResult captured = tested.tryCaptureHold(hold, otherShard.getId(), 500L);
+
+        assertTrue(captured.isSuccess());
+        assertEquals(500L, captured.getTransaction().getAmount());
+        assertEquals(Hold.State.CAPTURED, hold.getState());
+        assertEquals(INITIAL_BALANCE - 700L, holder.getBalance());
+        assertEquals(0L, holder.getHeld());
+        assertEquals(INITIAL_BALANCE + 700L, otherShard.getBalance());
+        assertEquals(Rejection.HOLD_NOT_FOUND, tested.tryCaptureHold(hold, otherShard.getId(), 100L).getRejection());
+    }
+
+    @Test
+    void endedHoldShouldReturnTheAmountToTheAvailableBalance() {
+        final List<AssetAccount> accounts = createAccounts(2);
+        final Hold hold = new Hold(1L, accounts.get(0).getId(), 1_000L, Long.MAX_VALUE);
+        tested.tryPlaceHold(hold);
+
+        assertEquals(Rejection.INVALID_REQUEST, tested.tryCaptureHold(hold, accounts.get(1).getId(), 1_001L).getRejection());
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, tested.tryCaptureHold(hold, -1L, 1L).getRejection());
+        assertTrue(tested.endHold(hold, Hold.State.EXPIRED));
+        assertFalse(tested.endHold(hold, Hold.State.RELEASED));
+
+        assertEquals(Hold.State.EXPIRED, hold.getState());
+        assertEquals(INITIAL_BALANCE, accounts.get(0).getAvailableBalance());
+        assertTrue(tested.tryTransfer(accounts.get(0).getId(), accounts.get(1).getId(), 1_000L, null).isSuccess());
+    }
+
+    @Test
+    void accountsCreatedInABatchShouldHaveConsecutiveIds() {
+        final AssetAccount before = tested.createAccount(INITIAL_BALANCE);
+        final long[] balances = new long[ACCOUNT_COUNT];
+        for (int i = 0; i < balances.length; i++) {
+            balances[i] = i;
+        }
+
+        final List<AssetAccount> accounts = tested.createAccounts(balances);
+
+        assertEquals(ACCOUNT_COUNT, accounts.size());
+        for (int i = 0; i < accounts.size(); i++) {
+            assertEquals(Long.valueOf(before.getId() + 1 + i), accounts.get(i).getId());
+            assertEquals(i, accounts.get(i).getBalance());
+            assertEquals(accounts.get(i), accountRepository.findById(accounts.get(i).getId()));
+        }
+        assertTrue(accounts.stream().anyMatch(a -> tested.shardOf(a.getId()) != tested.shardOf(before.getId())));
+        assertEquals(Long.valueOf(before.getId() + ACCOUNT_COUNT + 1), tested.createAccount(INITIAL_BALANCE).getId());
+    }
+
+    private List<AssetAccount> createAccounts(final int count) {
+        final List<AssetAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            accounts.add(tested.createAccount(INITIAL_BALANCE));
+        }
+        return accounts;
+    }
+
+    private static AssetAccount findAccount(final List<AssetAccount> accounts, final Predicate<AssetAccount> predicate) {
+        return accounts.stream().skip(1).filter(predicate).findFirst().orElseThrow(IllegalStateException::new);
+    }
+}
@@ -0,0 +1,79 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private final TimingWheel<String> tested = new TimingWheel<>(10L, 8, 1_000L);
+
+    @Test
+    void timeoutsShouldExpireAtTheFirstTickAfterTheirDeadlines() {
+        tested.schedule("a", 1_025L);
+        tested.schedule("b", 1_030L);
+        tested.schedule("c", 1_031L);
+
+        assertEquals(Collections.emptyList(), advance(1_029L));
+        assertEquals(Arrays.asList("a", "b"), sorted(advance(1_030L)));
+        assertEquals(Collections.emptyList(), advance(1_039L));
+        assertEquals(Collections.singletonList("c"), advance(1_040L));
+        assertEquals(0, tested.size());
+    }
+
+    @Test
+    void timeoutsFurtherThanATurnShouldWaitForTheirTurn() {
+        tested.schedule("late", 1_000L + 8 * 10L * 3 + 5L);
+
+        assertEquals(Collections.emptyList(), advance(1_100L));
+        assertEquals(Collections.emptyList(), advance(1_200L));
+        assertEquals(Collections.emptyList(), advance(1_249L));
+        assertEquals(Collections.singletonList("late"), advance(1_250L));
+    }
+
+    @Test
+    void skippingTurnsShouldExpireEverythingDue() {
+        for (int i = 0; i < 100; i++) {
+            tested.schedule("t" + i, 1_000L + i * 7L);
+        }
+
+        assertEquals(100, advance(10_000L).size());
+        assertEquals(0, tested.size());
+    }
+
+    @Test
+    void cancelledTimeoutsShouldNotExpire() {
+        final TimingWheel.Timeout<String> cancelled = tested.schedule("a", 1_010L);
+        tested.schedule("b", 1_010L);
+
+        assertTrue(tested.cancel(cancelled));
+        assertFalse(tested.cancel(cancelled));
+        assertEquals(Collections.singletonList("b"), advance(1_010L));
+    }
+
+    @Test
+    void passedDeadlinesShouldExpireOnTheNextAdvance() {
+        advance(1_100L);
+        tested.schedule("past", 1_000L);
+
+        assertEquals(Collections.singletonList("past"), advance(1_110L));
+    }
+
+    private List<String> advance(final long now) {
+        final List<String> expired = new ArrayList<>();
+        tested.advance(now, expired);
+        return expired;
+    }
+
+    private static List<String> sorted(final List<String> items) {
+        Collections.sort(items);
+        return items;
+    }
+}
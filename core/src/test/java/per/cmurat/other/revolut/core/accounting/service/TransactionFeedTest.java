@@ -0,0 +1,176 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+import per.cmurat.other.revolut.core.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionFeedTest {
+
+    private AssetAccount credit;
+    private AssetAccount debit;
+    private TransactionRepository transactionRepository;
+    private TransactionFeed tested;
+
+    @BeforeEach
+    void before() {
+        final AssetAccountRepository accountRepository = new AssetAccountRepository();
+        credit = accountRepository.store(new AssetAccount());
+        debit = accountRepository.store(new AssetAccount());
+        transactionRepository = new TransactionRepository();
+        final LedgerMetrics metrics = new LedgerMetrics(new MetricsRegistry(), accountRepository, transactionRepository);
+        tested = new TransactionFeed(transactionRepository, metrics, 4);
+    }
+
+    @Test
+    void transactionsShouldBeReadInTheOrderOfTheirIds() {
+        tested.start();
+        for (int i = 0; i < 3; i++) {
+            commit();
+        }
+
+        final TransactionPage page = tested.read(0L, 10, 0L);
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(page));
+        assertEquals(3L, page.getNextCursor().longValue());
+
+        final TransactionPage next = tested.read(1L, 1, 0L);
+        assertEquals(Collections.singletonList(2L), ids(next));
+        assertEquals(2L, next.getNextCursor().longValue());
+
+        final TransactionPage empty = tested.read(3L, 10, 0L);
+        assertTrue(empty.getTransactions().isEmpty());
+        assertEquals(3L, empty.getNextCursor().longValue());
+    }
+
+    @Test
+    void lappedConsumersShouldReadFromTheRepository() {
+        tested.start();
+        for (int i = 0; i < 10; i++) {
+            commit();
+        }
+
+        final TransactionPage page = tested.read(0L, 100, 0L);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), ids(page));
+        assertEquals(10L, page.getNextCursor().longValue());
+    }
+
+    @Test
+    void transactionsRecoveredBeforeTheStartShouldBeRead() {
+        transactionRepository.store(transaction());
+        transactionRepository.store(transaction());
+        tested.start();
+        commit();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(tested.read(0L, 10, 0L)));
+    }
+
+    @Test
+    void transactionsShouldNotBeReadPastOneInProgress() {
+        tested.start();
+        final Transaction inProgress = transaction();
+        transactionRepository.assignId(inProgress);
+        commit();
+
+        final TransactionPage page = tested.read(0L, 10, 0L);
+        assertTrue(page.getTransactions().isEmpty());
+        assertEquals(0L, page.getNextCursor().longValue());
+
+        transactionRepository.store(inProgress);
+        tested.publish(inProgress);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(tested.read(0L, 10, 0L)));
+    }
+
+    @Test
+    void abandonedIdsShouldBeSkipped() {
+        tested.start();
+        final Transaction failed = transaction();
+        transactionRepository.assignId(failed);
+        tested.abandon(failed.getId());
+        commit();
+
+        final TransactionPage page = tested.read(0L, 10, 0L);
+        assertEquals(Collections.singletonList(2L), ids(page));
+        assertEquals(2L, page.getNextCursor().longValue());
+    }
+
+    @Test
+    void abandonedIdsShouldBeForgottenOnceReadPast() {
+        tested.start();
+        final Transaction failed = transaction();
+        transactionRepository.assignId(failed);
+        tested.abandon(failed.getId());
+        commit();
+        assertEquals(1, tested.getAbandonedCount());
+
+        assertEquals(Collections.singletonList(2L), ids(tested.read(0L, 10, 0L)));
+        assertEquals(0, tested.getAbandonedCount());
+
+        //Still skipped, also after its slot is taken by a later transaction.
+        assertEquals(Collections.singletonList(2L), ids(tested.read(0L, 10, 0L)));
+        for (int i = 0; i < 8; i++) {
+            commit();
+        }
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), ids(tested.read(0L, 100, 0L)));
+    }
+
+    @Test
+    void readShouldWaitForTheNextTransaction() throws Exception {
+        tested.start();
+
+        final CompletableFuture<TransactionPage> page = CompletableFuture.supplyAsync(() -> tested.read(0L, 10, 10_000L));
+        Thread.sleep(50);
+        commit();
+
+        assertEquals(Collections.singletonList(1L), ids(page.get()));
+    }
+
+    @Test
+    void readShouldReturnNothingAfterTheTimeout() {
+        tested.start();
+
+        final long start = System.nanoTime();
+        final TransactionPage page = tested.read(0L, 10, 20L);
+
+        assertTrue(page.getTransactions().isEmpty());
+        assertEquals(0L, page.getNextCursor().longValue());
+        assertTrue(System.nanoTime() - start >= 20_000_000L);
+    }
+
+    @Test
+    void readShouldThrowForIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> tested.read(-1L, 10, 0L));
+        assertThrows(IllegalArgumentException.class, () -> tested.read(0L, 0, 0L));
+        assertThrows(IllegalArgumentException.class, () -> tested.read(0L, 10, -1L));
+    }
+
+    private void commit() {
+        tested.publish(transactionRepository.store(transaction()));
+    }
+
+    private Transaction transaction() {
+        final Transaction transaction = new Transaction();
+        transaction.setCreditAccount(credit);
+        transaction.setDebitAccount(debit);
+        transaction.setAmount(10L);
+        return transaction;
+    }
+
+    private static List<Long> ids(final TransactionPage page) {
+        return page.getTransactions().stream().map(Transaction::getId).collect(Collectors.toList());
+    }
+}
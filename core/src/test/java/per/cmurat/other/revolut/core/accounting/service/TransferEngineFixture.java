@@ -0,0 +1,164 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.journal.DisabledJournal;
+import per.cmurat.other.revolut.core.journal.Journal;
+import per.cmurat.other.revolut.core.metrics.ContentionTracker;
+import per.cmurat.other.revolut.core.metrics.LedgerMetrics;
+import per.cmurat.other.revolut.core.metrics.MetricsRegistry;
+
+import javax.inject.Inject;
+import java.lang.reflect.Field;
+
+/**
+ * Wires the engines and the service with real repositories and indexes, the way the injector does, for the tests
+ * which do not mock them. The injected fields are only set here, so that a new dependency is added in one place, and
+ * one which is not set fails the wiring rather than a test.
+ *
+ * Public, since the engines are also used by the tests of the recovery.
+ */
+public class TransferEngineFixture implements AutoCloseable {
+    private final AssetAccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final Journal journal;
+    private final AccountHistoryIndex historyIndex = new AccountHistoryIndex();
+    private final TransactionTimeIndex timeIndex;
+    private final LedgerMetrics metrics;
+    private final InvariantChecker invariantChecker;
+    private final TransactionFeed transactionFeed;
+    private final ContentionTracker contentionTracker = new ContentionTracker(16);
+
+    public TransferEngineFixture() {
+        this(new DisabledJournal());
+    }
+
+    public TransferEngineFixture(final Journal journal) {
+        this(new AssetAccountRepository(), new TransactionRepository(), journal);
+    }
+
+    public TransferEngineFixture(final AssetAccountRepository accountRepository,
+                                 final TransactionRepository transactionRepository, final Journal journal) {
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.journal = journal;
+        this.timeIndex = new TransactionTimeIndex(1000, transactionRepository, historyIndex);
+        this.metrics = new LedgerMetrics(new MetricsRegistry(), accountRepository, transactionRepository);
+        this.invariantChecker = new InvariantChecker(accountRepository, metrics, 1_000L, 2);
+        this.transactionFeed = new TransactionFeed(transactionRepository, metrics, 16);
+    }
+
+    /**
+     * @param hotAccounts Accounts split into sub-balances
+     */
+    LockingTransferEngine lockingEngine(final HotAccounts hotAccounts) {
+        final LockingTransferEngine engine = new LockingTransferEngine();
+        injectShared(engine);
+        inject(engine, LockingTransferEngine.class, "lockService", new AccountingLockService());
+        inject(engine, LockingTransferEngine.class, "contentionTracker", contentionTracker);
+        inject(engine, LockingTransferEngine.class, "hotAccounts", hotAccounts);
+        return checkInjected(engine);
+    }
+
+    public LockingTransferEngine lockingEngine() {
+        return lockingEngine(new HotAccounts(new long[0], 1));
+    }
+
+    public ShardedTransferEngine shardedEngine(final AppConfig config) {
+        final ShardedTransferEngine engine = new ShardedTransferEngine(config);
+        injectShared(engine);
+        return checkInjected(engine);
+    }
+
+    public AccountingService accountingService(final TransferEngine engine) {
+        final AccountingService service = new AccountingService();
+        inject(service, AccountingService.class, "accountRepository", accountRepository);
+        inject(service, AccountingService.class, "transactionRepository", transactionRepository);
+        inject(service, AccountingService.class, "historyIndex", historyIndex);
+        inject(service, AccountingService.class, "timeIndex", timeIndex);
+        inject(service, AccountingService.class, "engine", engine);
+        inject(service, AccountingService.class, "journal", journal);
+        inject(service, AccountingService.class, "contentionTracker", contentionTracker);
+        inject(service, AccountingService.class, "idempotencyCache", new IdempotencyCache(AppConfig.defaults()));
+        inject(service, AccountingService.class, "holdService", new HoldService(AppConfig.defaults(), engine));
+        inject(service, AccountingService.class, "transactionFeed", transactionFeed);
+        return checkInjected(service);
+    }
+
+    public AssetAccountRepository getAccountRepository() {
+        return accountRepository;
+    }
+
+    public TransactionRepository getTransactionRepository() {
+        return transactionRepository;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public AccountHistoryIndex getHistoryIndex() {
+        return historyIndex;
+    }
+
+    public TransactionTimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    public InvariantChecker getInvariantChecker() {
+        return invariantChecker;
+    }
+
+    /**
+     * Stops the threads of the invariant checker. The engines and the journal are closed by the tests.
+     */
+    @Override
+    public void close() {
+        invariantChecker.close();
+    }
+
+    private void injectShared(final AbstractTransferEngine engine) {
+        inject(engine, AbstractTransferEngine.class, "accountRepository", accountRepository);
+        inject(engine, AbstractTransferEngine.class, "transactionRepository", transactionRepository);
+        inject(engine, AbstractTransferEngine.class, "journal", journal);
+        inject(engine, AbstractTransferEngine.class, "historyIndex", historyIndex);
+        inject(engine, AbstractTransferEngine.class, "timeIndex", timeIndex);
+        inject(engine, AbstractTransferEngine.class, "metrics", metrics);
+        inject(engine, AbstractTransferEngine.class, "invariantChecker", invariantChecker);
+        inject(engine, AbstractTransferEngine.class, "transactionFeed", transactionFeed);
+    }
+
+    private static <T> T checkInjected(final T target) {
+        for (Class<?> type = target.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (final Field field : type.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Inject.class) && get(target, field) == null) {
+                    throw new IllegalStateException("Not injected: " + type.getSimpleName() + "." + field.getName());
+                }
+            }
+        }
+        return target;
+    }
+
+    private static Object get(final Object target, final Field field) {
+        try {
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void inject(final Object target, final Class<?> declaringClass, final String fieldName,
+                               final Object value) {
+        try {
+            final Field field = declaringClass.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot inject " + declaringClass.getSimpleName() + "." + fieldName, e);
+        }
+    }
+}
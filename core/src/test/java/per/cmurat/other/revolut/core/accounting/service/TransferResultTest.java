@@ -0,0 +1,50 @@
+package per.cmurat.other.revolut.core.accounting.service;
+
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferResultTest {
+
+    @Test
+    void rejectionsShouldBeThrownOnlyWhenAsked() {
+        final TransferResult result = TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE, "No money");
+
+        assertFalse(result.isSuccess());
+        final InsufficientBalanceException exception = assertThrows(InsufficientBalanceException.class, result::orThrow);
+        assertEquals("No money", exception.getMessage());
+        assertEquals(Rejection.INSUFFICIENT_BALANCE, exception.getRejection());
+    }
+
+    @Test
+    void successfulResultsShouldReturnTheirTransactions() {
+        final Transaction transaction = new Transaction();
+
+        assertTrue(TransferResult.VALID.isSuccess());
+        assertSame(transaction, TransferResult.success(transaction).orThrow());
+    }
+
+    @Test
+    void exceptionsShouldBeReturnedOnlyIfTheyAreRejections() {
+        assertEquals(Rejection.ACCOUNT_NOT_FOUND, TransferResult.rejected(new AccountNotFoundException("Missing")).getRejection());
+        assertEquals(Rejection.AMOUNT_OVERFLOW, TransferResult.rejected(new ArithmeticException("Overflow")).getRejection());
+        assertEquals(Rejection.INVALID_REQUEST, TransferResult.rejected(new IllegalArgumentException("Invalid")).getRejection());
+
+        final IllegalStateException bug = new IllegalStateException("Broken");
+        assertSame(bug, assertThrows(IllegalStateException.class, () -> TransferResult.rejected(bug)));
+    }
+
+    @Test
+    void rejectionExceptionsShouldNotCaptureStackTraces() {
+        assertEquals(0, new InsufficientBalanceException("No money").getStackTrace().length);
+        assertEquals(0, new AccountNotFoundException("Missing").getStackTrace().length);
+    }
+}
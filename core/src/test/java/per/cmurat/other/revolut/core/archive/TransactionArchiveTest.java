@@ -0,0 +1,342 @@
+package per.cmurat.other.revolut.core.archive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionArchiveTest {
+
+    private Path directory;
+    private AssetAccountRepository accountRepository;
+    private TransactionArchive archive;
+    private TransactionRepository tested;
+    private final List<AssetAccount> accounts = new ArrayList<>();
+
+    @BeforeEach
+    void before() throws IOException {
+        directory = Files.createTempDirectory("archive");
+        accountRepository = new AssetAccountRepository();
+        for (int i = 0; i < 5; i++) {
+            accounts.add(accountRepository.store(new AssetAccount()));
+        }
+        archive = new TransactionArchive(directory, accountRepository);
+        tested = new TransactionRepository(archive);
+    }
+
+    @AfterEach
+    void after() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void archivedTransactionsShouldBeReadLikeTheOnesOnTheHeap() {
+        final List<Transaction> stored = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            stored.add(store(i % 5, (i + 1) % 5, 1_000L + i * 37L, i % 7 == 0 ? "key-\u00e9-" + i : null));
+        }
+
+        assertEquals(80L, tested.archive(10, 16, Long.MAX_VALUE));
+
+        assertEquals(80L, archive.getLastId());
+        assertEquals(80L, tested.getArchivedCount());
+        assertEquals(100, tested.size());
+        for (final Transaction expected : stored) {
+            final Transaction actual = tested.findById(expected.getId());
+            assertSameTransaction(expected, actual);
+            if (expected.getId() <= 80L) {
+                assertNotSame(expected, actual);
+            } else {
+                assertSame(expected, actual);
+            }
+        }
+        assertNull(tested.findById(101L));
+    }
+
+    @Test
+    void archivingShouldKeepTheLatestTransactionsOnTheHeap() {
+        for (int i = 0; i < 40; i++) {
+            store(0, 1, 10L, null);
+        }
+
+        assertEquals(0L, tested.archive(30, 16, Long.MAX_VALUE));
+        assertEquals(0L, archive.getLastId());
+
+        for (int i = 0; i < 6; i++) {
+            store(0, 1, 10L, null);
+        }
+
+        assertEquals(16L, tested.archive(30, 16, Long.MAX_VALUE));
+        assertEquals(0L, tested.archive(30, 16, Long.MAX_VALUE));
+    }
+
+    @Test
+    void valuesOfAnyWidthShouldBeKept() {
+        final long[] amounts = {1L, Long.MAX_VALUE, 0L, 1L << 56, (1L << 56) - 1, 12_345L, Long.MAX_VALUE - 1, 3L};
+        final List<Transaction> stored = new ArrayList<>();
+        for (final long amount : amounts) {
+            final Transaction transaction = store(2, 3, amount, null);
+            transaction.setTimestamp(amount % 1_000L == 0 ? 0L : 1_600_000_000_000L + amount % 1_000_000L);
+            transaction.setSequence(amount);
+            stored.add(transaction);
+        }
+
+        tested.archive(0, amounts.length, Long.MAX_VALUE);
+
+        for (final Transaction expected : stored) {
+            assertSameTransaction(expected, tested.findById(expected.getId()));
+        }
+    }
+
+    @Test
+    void idsWithoutTransactionsShouldStayEmpty() {
+        store(0, 1, 10L, null);
+        final Transaction late = transaction(1, 2, 20L, "late");
+        tested.assignId(late);
+        store(2, 3, 30L, null);
+        final Transaction never = transaction(1, 2, 20L, null);
+        tested.assignId(never);
+
+        tested.archive(0, 4, Long.MAX_VALUE);
+        assertNull(tested.findById(late.getId()));
+        assertNull(tested.findById(never.getId()));
+        assertEquals(2L, tested.getArchivedCount());
+
+        //Stored after its id was archived, like a commit in progress while archiving.
+        tested.store(late);
+        assertSame(late, tested.findById(late.getId()));
+
+        final Map<Long, Integer> visits = new HashMap<>();
+        tested.forEach(transaction -> visits.merge(transaction.getId(), 1, Integer::sum));
+        assertEquals(3, visits.size());
+        assertTrue(visits.values().stream().allMatch(count -> count == 1));
+    }
+
+    @Test
+    void onlyRecentArchivedTransactionsWithKeysShouldBeVisited() {
+        for (int i = 0; i < 40; i++) {
+            final Transaction transaction = i % 3 == 0 ? transaction(0, 1, i, "key-" + i) : transaction(0, 1, i, null);
+            if (i == 20) {
+                tested.assignId(transaction);
+            } else {
+                tested.store(transaction);
+            }
+        }
+        tested.archive(8, 16, Long.MAX_VALUE);
+        assertEquals(32L, archive.getLastId());
+
+        final List<Long> visited = new ArrayList<>();
+        tested.forEachArchivedWithKey(1_600_000_000_000L + 14L, transaction -> {
+            assertEquals("key-" + transaction.getAmount(), transaction.getIdempotencyKey());
+            visited.add(transaction.getId());
+        });
+        assertEquals(Arrays.asList(16L, 19L, 22L, 25L, 28L, 31L), visited);
+
+        visited.clear();
+        tested.forEachArchivedWithKey(1_600_000_000_000L + 40L, transaction -> visited.add(transaction.getId()));
+        assertTrue(visited.isEmpty());
+    }
+
+    @Test
+    void forEachShouldVisitBothTiersOnce() {
+        for (int i = 0; i < 50; i++) {
+            store(i % 5, 4 - i % 5, 5L, null);
+        }
+        tested.archive(5, 8, Long.MAX_VALUE);
+
+        final Map<Long, Integer> visits = new HashMap<>();
+        tested.forEach(transaction -> visits.merge(transaction.getId(), 1, Integer::sum));
+
+        assertEquals(50, visits.size());
+        assertTrue(visits.values().stream().allMatch(count -> count == 1));
+    }
+
+    @Test
+    void segmentsOfEarlierRunsShouldBeKept() {
+        final List<Transaction> stored = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            stored.add(store(i % 5, (i + 1) % 5, 5L + i, null));
+        }
+        tested.archive(4, 8, Long.MAX_VALUE);
+
+        final TransactionArchive reopened = new TransactionArchive(directory, accountRepository);
+        final TransactionRepository repository = new TransactionRepository(reopened);
+
+        assertEquals(16L, reopened.getLastId());
+        assertEquals(16L, repository.getArchivedCount());
+        for (final Transaction expected : stored.subList(0, 16)) {
+            assertSameTransaction(expected, repository.findById(expected.getId()));
+        }
+        //Ids continue after the archived ones.
+        assertEquals(17L, repository.store(transaction(0, 1, 5L, null)).getId().longValue());
+    }
+
+    @Test
+    void segmentsShouldBeDeletedIfNothingIsRecovered() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            store(0, 1, 5L, null);
+        }
+        tested.archive(0, 8, Long.MAX_VALUE);
+        assertEquals(1L, fileCount());
+
+        final TransactionArchive reopened = new TransactionArchive(directory, false, accountRepository);
+
+        assertEquals(0L, fileCount());
+        assertEquals(0L, reopened.getLastId());
+        assertFalse(reopened.contains(1L));
+    }
+
+    @Test
+    void corruptedSegmentShouldFailTheStart() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            store(0, 1, 5L, null);
+        }
+        tested.archive(0, 8, Long.MAX_VALUE);
+        final Path segment = directory.resolve(ArchiveFormat.segmentName(1L));
+        final byte[] bytes = Files.readAllBytes(segment);
+        bytes[ArchiveFormat.HEADER_SIZE] ^= 1;
+        Files.write(segment, bytes);
+
+        assertThrows(IllegalStateException.class, () -> new TransactionArchive(directory, accountRepository));
+    }
+
+    @Test
+    void missingSegmentShouldFailTheStart() throws IOException {
+        for (int i = 0; i < 16; i++) {
+            store(0, 1, 5L, null);
+        }
+        tested.archive(0, 8, Long.MAX_VALUE);
+        Files.delete(directory.resolve(ArchiveFormat.segmentName(1L)));
+
+        assertThrows(IllegalStateException.class, () -> new TransactionArchive(directory, accountRepository));
+    }
+
+    @Test
+    void transactionsWhichAreNotDurableShouldStayOnTheHeap() {
+        final List<Transaction> stored = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            stored.add(store(0, 1, 5L + i, null));
+        }
+
+        //Sequences are twice the amounts, so the last three are not durable.
+        tested.archive(0, 8, 18L);
+
+        assertEquals(5L, tested.getArchivedCount());
+        for (final Transaction expected : stored) {
+            final boolean durable = expected.getSequence() <= 18L;
+            assertEquals(durable, tested.isArchived(expected.getId()));
+            if (!durable) {
+                assertSame(expected, tested.findById(expected.getId()));
+            }
+        }
+
+        final List<Long> onHeap = new ArrayList<>();
+        assertEquals(8L, tested.forEachOnHeap(transaction -> onHeap.add(transaction.getId())));
+        assertEquals(Arrays.asList(6L, 7L, 8L), onHeap);
+    }
+
+    @Test
+    void disabledArchiveShouldKeepEverythingOnTheHeap() {
+        final TransactionRepository repository = new TransactionRepository();
+        final Transaction transaction = transaction(0, 1, 5L, null);
+        repository.store(transaction);
+
+        assertEquals(0L, repository.archive(0, 1, Long.MAX_VALUE));
+        assertSame(transaction, repository.findById(transaction.getId()));
+    }
+
+    @Test
+    void transactionsShouldBeFoundWhileTheyAreArchived() throws Exception {
+        final int count = 20_000;
+        for (int i = 0; i < count; i++) {
+            store(i % 5, (i + 2) % 5, i + 1L, null);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(executor.submit(() -> {
+                    while (running.get()) {
+                        for (long id = 1; id <= count; id += 7) {
+                            final Transaction transaction = tested.findById(id);
+                            assertNotNull(transaction, "Transaction not found: " + id);
+                            assertEquals(id, transaction.getAmount());
+                        }
+                    }
+                }));
+            }
+
+            assertEquals(74 * 256L, tested.archive(1_000, 256, Long.MAX_VALUE));
+            running.set(false);
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private Transaction store(final int creditAccount, final int debitAccount, final long amount, final String key) {
+        return tested.store(transaction(creditAccount, debitAccount, amount, key));
+    }
+
+    private Transaction transaction(final int creditAccount, final int debitAccount, final long amount,
+                                    final String key) {
+        final Transaction transaction = new Transaction();
+        transaction.setCreditAccount(accounts.get(creditAccount));
+        transaction.setDebitAccount(accounts.get(debitAccount));
+        transaction.setAmount(amount);
+        transaction.setTimestamp(1_600_000_000_000L + amount);
+        transaction.setSequence(amount * 2);
+        transaction.setIdempotencyKey(key);
+        return transaction;
+    }
+
+    private static void assertSameTransaction(final Transaction expected, final Transaction actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertSame(expected.getCreditAccount(), actual.getCreditAccount());
+        assertSame(expected.getDebitAccount(), actual.getDebitAccount());
+        assertEquals(expected.getAmount(), actual.getAmount());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getIdempotencyKey(), actual.getIdempotencyKey());
+    }
+}
@@ -0,0 +1,194 @@
+package per.cmurat.other.revolut.core.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import per.cmurat.other.revolut.core.accounting.exception.AccountNotFoundException;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BinaryServerTest {
+
+    @Mock
+    private AccountingService accountingService;
+
+    private BinaryServer server;
+    private BinaryClient client;
+
+    @AfterEach
+    void stop() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    void createAndGetAccountShouldSucceed() throws Exception {
+        start(4, 16);
+        when(accountingService.createAccount(500L)).thenReturn(account(7L, 500L));
+        when(accountingService.getAccount(7L)).thenReturn(account(7L, 450L));
+
+        final BinaryClient.Account created = get(client.createAccount(500L));
+        final BinaryClient.Account read = get(client.getAccount(7L));
+
+        assertEquals(7L, created.getId());
+        assertEquals(500L, created.getBalance());
+        assertEquals(7L, read.getId());
+        assertEquals(450L, read.getBalance());
+    }
+
+    @Test
+    void validateAndTransferShouldSucceed() throws Exception {
+        start(4, 16);
+        when(accountingService.tryValidate(1L, 2L, 30L)).thenReturn(TransferResult.VALID);
+        when(accountingService.tryTransfer(1L, 2L, 30L)).thenReturn(TransferResult.success(transaction(11L, 123_456L)));
+
+        assertNull(get(client.validate(1L, 2L, 30L)));
+        final BinaryClient.Transfer transfer = get(client.transfer(1L, 2L, 30L));
+
+        verify(accountingService).tryValidate(1L, 2L, 30L);
+        assertEquals(11L, transfer.getTransactionId());
+        assertEquals(123_456L, transfer.getTimestamp());
+    }
+
+    @Test
+    void failuresShouldBeReportedWithTheirStatuses() throws Exception {
+        start(4, 16);
+        when(accountingService.getAccount(1L)).thenThrow(new AccountNotFoundException("Account not found. Account id: 1"));
+        when(accountingService.tryTransfer(1L, 2L, 30L))
+                .thenReturn(TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE, "No money"));
+        doReturn(TransferResult.rejected(Rejection.AMOUNT_OVERFLOW, "Too much"))
+                .when(accountingService).tryTransfer(1L, 2L, 40L);
+        when(accountingService.createAccount(-1L)).thenThrow(new IllegalArgumentException("Balance must be non-negative"));
+        when(accountingService.tryValidate(1L, 2L, 30L)).thenThrow(new IllegalStateException("Broken"));
+
+        assertStatus(BinaryProtocol.ACCOUNT_NOT_FOUND, client.getAccount(1L));
+        assertStatus(BinaryProtocol.INSUFFICIENT_BALANCE, client.transfer(1L, 2L, 30L));
+        assertStatus(BinaryProtocol.BAD_REQUEST, client.transfer(1L, 2L, 40L));
+        assertStatus(BinaryProtocol.BAD_REQUEST, client.createAccount(-1L));
+        assertStatus(BinaryProtocol.INTERNAL_ERROR, client.validate(1L, 2L, 30L));
+
+        //The connection is still usable
+        when(accountingService.getAccount(2L)).thenReturn(account(2L, 0L));
+        assertEquals(2L, get(client.getAccount(2L)).getId());
+    }
+
+    @Test
+    void pipelinedRequestsShouldBeMatchedByCorrelationIds() throws Exception {
+        start(8, 64);
+        when(accountingService.tryTransfer(eq(1L), eq(2L), anyLong()))
+                .thenAnswer(invocation -> TransferResult.success(transaction(invocation.getArgument(2), 0L)));
+
+        final List<CompletableFuture<BinaryClient.Transfer>> transfers = new ArrayList<>();
+        for (long amount = 1; amount <= 5_000; amount++) {
+            transfers.add(client.transfer(1L, 2L, amount));
+        }
+
+        for (int i = 0; i < transfers.size(); i++) {
+            assertEquals(i + 1, get(transfers.get(i)).getTransactionId());
+        }
+    }
+
+    @Test
+    void readingShouldPauseWhileTooManyRequestsArePending() throws Exception {
+        start(8, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        when(accountingService.tryTransfer(eq(1L), eq(2L), anyLong())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            release.await(5, TimeUnit.SECONDS);
+            running.decrementAndGet();
+            return TransferResult.success(transaction(invocation.getArgument(2), 0L));
+        });
+
+        final List<CompletableFuture<BinaryClient.Transfer>> transfers = new ArrayList<>();
+        for (long amount = 1; amount <= 20; amount++) {
+            transfers.add(client.transfer(1L, 2L, amount));
+        }
+        Thread.sleep(200);
+        assertEquals(2, maxRunning.get());
+        assertFalse(transfers.get(2).isDone());
+
+        release.countDown();
+        for (int i = 0; i < transfers.size(); i++) {
+            assertEquals(i + 1, get(transfers.get(i)).getTransactionId());
+        }
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    void requestsWithUnknownOpcodesShouldBeRejected() throws Exception {
+        start(1, 16);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            final ByteBuffer request = ByteBuffer.allocate(4 + BinaryProtocol.HEADER_SIZE + 8);
+            request.putInt(BinaryProtocol.HEADER_SIZE + 8).putLong(42L).put((byte) 99).putLong(1L).flip();
+            channel.write(request);
+
+            final ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.MAX_RESPONSE_LENGTH);
+            while (response.position() < 4 + BinaryProtocol.HEADER_SIZE) {
+                channel.read(response);
+            }
+            response.flip();
+            response.getInt();
+            assertEquals(42L, response.getLong());
+            assertEquals(BinaryProtocol.BAD_REQUEST, response.get());
+        }
+    }
+
+    private void start(final int workers, final int maxPending) throws IOException {
+        server = new BinaryServer(0, workers, maxPending, accountingService);
+        server.start();
+        client = new BinaryClient("localhost", server.getPort());
+    }
+
+    private static <T> T get(final CompletableFuture<T> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void assertStatus(final byte status, final CompletableFuture<?> future) {
+        final ExecutionException exception = assertThrows(ExecutionException.class, () -> get(future));
+        assertEquals(status, ((BinaryProtocolException) exception.getCause()).getStatus());
+    }
+
+    private static AccountSnapshot account(final long id, final long balance) {
+        return new AccountSnapshot(id, balance, 0L, 1L);
+    }
+
+    private static Transaction transaction(final long id, final long timestamp) {
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setTimestamp(timestamp);
+        return transaction;
+    }
+}
@@ -0,0 +1,220 @@
+package per.cmurat.other.revolut.core.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntityStoreTest {
+
+    private static final List<Supplier<EntityStore<String>>> STORES = Arrays.asList(
+            MapEntityStore::new, HashEntityStore::new, ArrayEntityStore::new);
+
+    @Test
+    void putAndGetShouldSucceed() {
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+
+            for (long id = 1; id <= 100_000; id++) {
+                tested.put(id, "e" + id);
+            }
+
+            assertEquals(100_000, tested.size());
+            assertEquals("e1", tested.get(1L));
+            assertEquals("e77777", tested.get(77_777L));
+            assertNull(tested.get(100_001L));
+            assertNull(tested.get(0L));
+        }
+    }
+
+    @Test
+    void putShouldReplaceExistingEntity() {
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+
+            tested.put(5L, "first");
+            tested.put(5L, "second");
+
+            assertEquals("second", tested.get(5L));
+            assertEquals(1, tested.size());
+        }
+    }
+
+    @Test
+    void sparseIdsShouldBeStored() {
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+
+            tested.put(3L, "a");
+            tested.put(1_000_003L, "b");
+
+            assertEquals("a", tested.get(3L));
+            assertEquals("b", tested.get(1_000_003L));
+            assertNull(tested.get(500_000L));
+            assertEquals(2, tested.size());
+        }
+    }
+
+    @Test
+    void removeShouldOnlyRemoveTheGivenEntity() {
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+            final List<String> entities = new ArrayList<>();
+            for (long id = 1; id <= 10_000; id++) {
+                entities.add("e" + id);
+                tested.put(id, entities.get((int) id - 1));
+            }
+
+            for (long id = 1; id <= 10_000; id += 2) {
+                assertTrue(tested.remove(id, entities.get((int) id - 1)));
+            }
+            assertFalse(tested.remove(2L, "e2 copy"));
+            assertFalse(tested.remove(1L, entities.get(0)));
+            assertFalse(tested.remove(10_001L, "e10001"));
+
+            assertEquals(5_000, tested.size());
+            for (long id = 1; id <= 10_000; id++) {
+                if (id % 2 == 1) {
+                    assertNull(tested.get(id));
+                } else {
+                    assertSame(entities.get((int) id - 1), tested.get(id));
+                }
+            }
+        }
+    }
+
+    @Test
+    void arrayStoreShouldOnlyAllocateTheChunksOfTheStoredIds() throws ReflectiveOperationException {
+        final ArrayEntityStore<String> tested = new ArrayEntityStore<>();
+        final int chunkSize = ArrayEntityStore.CHUNK_SIZE;
+        for (long id = 1; id <= 2 * chunkSize + 1; id++) {
+            tested.put(id, "e");
+        }
+        tested.put(5L * chunkSize, "e");
+
+        final Object[] chunks = (Object[]) chunksField().get(tested);
+        int allocated = 0;
+        for (final Object chunk : chunks) {
+            if (chunk != null) {
+                assertEquals(chunkSize, ((AtomicReferenceArray<?>) chunk).length());
+                allocated++;
+            }
+        }
+        assertEquals(4, allocated);
+        assertNull(chunks[3]);
+        assertEquals(2 * chunkSize + 2, tested.size());
+    }
+
+    @Test
+    void compactShouldReleaseEmptyChunksOnly() throws ReflectiveOperationException {
+        final ArrayEntityStore<String> tested = new ArrayEntityStore<>();
+        final int chunkSize = ArrayEntityStore.CHUNK_SIZE;
+        final List<String> entities = new ArrayList<>();
+        for (long id = 1; id <= 3 * chunkSize; id++) {
+            entities.add("e" + id);
+            tested.put(id, entities.get((int) id - 1));
+        }
+        for (long id = 1; id <= 2 * chunkSize; id++) {
+            if (id != chunkSize + 7) {
+                assertTrue(tested.remove(id, entities.get((int) id - 1)));
+            }
+        }
+
+        tested.compact(3 * chunkSize - 1);
+
+        final Object[] chunks = (Object[]) chunksField().get(tested);
+        assertNull(chunks[0]);
+        assertNotNull(chunks[1]);
+        assertNotNull(chunks[2]);
+        assertEquals(chunkSize + 1, tested.size());
+        assertSame(entities.get(chunkSize + 6), tested.get(chunkSize + 7));
+        assertNull(tested.get(1L));
+        final List<String> visited = new ArrayList<>();
+        tested.forEach(visited::add);
+        assertEquals(chunkSize + 1, visited.size());
+
+        //Ids of a released chunk can still be stored.
+        tested.put(5L, "late");
+        assertEquals("late", tested.get(5L));
+        assertEquals(chunkSize + 2, tested.size());
+    }
+
+    @Test
+    void forEachShouldVisitAllEntities() {
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+            for (long id = 1; id <= 1000; id++) {
+                tested.put(id, "e" + id);
+            }
+
+            final Set<String> visited = new HashSet<>();
+            tested.forEach(visited::add);
+
+            assertEquals(1000, visited.size());
+        }
+    }
+
+    @Test
+    void nonPositiveIdsShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HashEntityStore<String>().put(0L, "a"));
+        assertThrows(IllegalArgumentException.class, () -> new ArrayEntityStore<String>().put(-1L, "a"));
+    }
+
+    @Test
+    void concurrentPutsShouldBeVisibleToReaders() throws Exception {
+        final int threads = 4;
+        final int perThread = 50_000;
+
+        for (final Supplier<EntityStore<String>> supplier : STORES) {
+            final EntityStore<String> tested = supplier.get();
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int thread = t;
+                    futures.add(executor.submit(() -> {
+                        for (long i = 0; i < perThread; i++) {
+                            final long id = i * threads + thread + 1;
+                            final String entity = "e" + id;
+                            tested.put(id, entity);
+                            assertSame(entity, tested.get(id));
+                        }
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertEquals(threads * perThread, tested.size());
+            for (long id = 1; id <= threads * perThread; id++) {
+                assertEquals("e" + id, tested.get(id));
+            }
+        }
+    }
+
+    private static Field chunksField() throws NoSuchFieldException {
+        final Field field = ArrayEntityStore.class.getDeclaredField("chunks");
+        field.setAccessible(true);
+        return field;
+    }
+}
@@ -6,6 +6,14 @@ import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
 import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -46,4 +54,57 @@ class RepositoryTest {
         assertTrue(assetAccount1.getId() < assetAccount2.getId());
         assertTrue(assetAccount2.getId() < assetAccount3.getId());
     }
+
+    @Test
+    void concurrentlyStoredObjectsShouldGetUniqueIds() throws Exception {
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        ids.add(tested.store(new AssetAccount()).getId());
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(40_000, ids.size());
+        assertEquals(40_000, tested.size());
+    }
+
+    @Test
+    void restoredObjectsShouldBeFoundAndIdsShouldContinueAfterThem() {
+        final AssetAccount restored = new AssetAccount();
+        restored.setId(42L);
+        tested.restore(restored);
+
+        final AssetAccount stored = tested.store(new AssetAccount());
+
+        assertEquals(restored, tested.findById(42L));
+        assertEquals(Long.valueOf(43L), stored.getId());
+
+        final Set<AssetAccount> visited = new HashSet<>();
+        tested.forEach(visited::add);
+        assertEquals(2, visited.size());
+    }
+
+    @Test
+    void reservedIdsShouldNotBeAssignedAgain() {
+        final AssetAccount before = tested.store(new AssetAccount());
+
+        final long firstId = tested.reserveIds(3);
+        final AssetAccount after = tested.store(new AssetAccount());
+
+        assertEquals(before.getId() + 1, firstId);
+        assertEquals(Long.valueOf(firstId + 3), after.getId());
+        assertEquals(firstId + 3, tested.getLastId());
+        assertThrows(IllegalArgumentException.class, () -> tested.reserveIds(0));
+    }
 }
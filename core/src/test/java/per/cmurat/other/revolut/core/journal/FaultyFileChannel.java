@@ -0,0 +1,133 @@
+package per.cmurat.other.revolut.core.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * File channel which fails writes, truncation or forcing on demand, like a full or failing disk.
+ */
+class FaultyFileChannel extends FileChannel {
+    private final FileChannel delegate;
+
+    /**
+     * Number of bytes written before writes fail, or negative for no limit.
+     */
+    volatile long writeLimit = -1;
+    volatile boolean failTruncate;
+    volatile boolean failForce;
+
+    FaultyFileChannel(final FileChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final long limit = writeLimit;
+        if (limit < 0) {
+            return delegate.write(src);
+        }
+        if (limit == 0) {
+            throw new IOException("No space left on device");
+        }
+
+        final ByteBuffer part = src.duplicate();
+        part.limit(part.position() + (int) Math.min(part.remaining(), limit));
+        final int written = delegate.write(part);
+        src.position(src.position() + written);
+        writeLimit = limit - written;
+        return written;
+    }
+
+    @Override
+    public FileChannel truncate(final long size) throws IOException {
+        if (failTruncate) {
+            throw new IOException("Input/output error");
+        }
+        delegate.truncate(size);
+        return this;
+    }
+
+    @Override
+    public void force(final boolean metaData) throws IOException {
+        if (failForce) {
+            throw new IOException("Input/output error");
+        }
+        delegate.force(metaData);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        return delegate.read(dst);
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+        return delegate.read(dsts, offset, length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        return delegate.position();
+    }
+
+    @Override
+    public FileChannel position(final long newPosition) throws IOException {
+        delegate.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return delegate.size();
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        return delegate.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(final ReadableByteChannel src, final long position, final long count) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        return delegate.read(dst, position);
+    }
+
+    @Override
+    public int write(final ByteBuffer src, final long position) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        return delegate.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+        return delegate.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+        return delegate.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        delegate.close();
+    }
+}
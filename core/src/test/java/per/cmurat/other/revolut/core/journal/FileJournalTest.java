@@ -0,0 +1,344 @@
+package per.cmurat.other.revolut.core.journal;
+
+import com.jayway.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileJournalTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void before() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    void after() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void recordsShouldBeReadBackInOrder() {
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            assertEquals(1L, journal.appendAccountCreated(1L, 500L));
+            assertEquals(2L, journal.appendAccountCreated(2L, 0L));
+            assertEquals(3L, journal.appendTransfer(transaction(10L, 1L, 2L, 200L)));
+            assertEquals(4L, journal.appendTransfers(Arrays.asList(transaction(11L, 2L, 1L, 50L), transaction(12L, 1L, 2L, 25L))));
+            assertEquals(4L, journal.getDurableSequence());
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(4L, JournalReader.read(directory, 1L, visitor));
+        assertEquals(Arrays.asList(
+                "1 created 1 500",
+                "2 created 2 0",
+                "3 transfer 10 1 2 200",
+                "4 transfer 11 2 1 50",
+                "4 transfer 12 1 2 25"), visitor.records);
+
+        final RecordingVisitor tail = new RecordingVisitor();
+        JournalReader.read(directory, 3L, tail);
+        assertEquals(3, tail.records.size());
+    }
+
+    @Test
+    void idempotencyKeysShouldBeReadBackWithTheirTransfers() {
+        final Transaction keyed = transaction(10L, 1L, 2L, 200L);
+        keyed.setIdempotencyKey("retry-\u00e9-1");
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            journal.appendTransfer(keyed);
+            journal.appendTransfer(transaction(11L, 2L, 1L, 50L));
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(2L, JournalReader.read(directory, 1L, visitor));
+        assertEquals(Arrays.asList("1 transfer 10 1 2 200 key retry-\u00e9-1", "2 transfer 11 2 1 50"), visitor.records);
+    }
+
+    @Test
+    void groupCommitShouldMakeAllConcurrentRecordsDurable() throws Exception {
+        final int threads = 8;
+        final int perThread = 200;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileJournal journal = open(AppConfig.Durability.GROUP)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long base = t * perThread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        final long sequence = journal.appendTransfer(transaction(base + i, 1L, 2L, 1L));
+                        journal.awaitDurable(sequence);
+                        assertTrue(journal.getDurableSequence() >= sequence);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+
+            assertEquals(threads * perThread, journal.getDurableSequence());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(threads * perThread, JournalReader.read(directory, 1L, visitor));
+        assertEquals(threads * perThread, visitor.records.size());
+    }
+
+    @Test
+    void asyncJournalShouldBeFlushedOnClose() {
+        try (FileJournal journal = open(AppConfig.Durability.ASYNC)) {
+            journal.awaitDurable(journal.appendAccountCreated(1L, 100L));
+        }
+
+        assertEquals(1L, JournalReader.read(directory, 1L, new RecordingVisitor()));
+    }
+
+    @Test
+    void journalShouldRollOverToNewSegments() {
+        try (FileJournal journal = new FileJournal(directory, AppConfig.Durability.GROUP, 100L, 10L, AppConfig.DEFAULT_LEDGER_SCALE)) {
+            for (long i = 1; i <= 10; i++) {
+                journal.appendTransfer(transaction(i, 1L, 2L, i));
+            }
+        }
+
+        assertEquals(10, JournalFormat.segments(directory).size());
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(10L, JournalReader.read(directory, 1L, visitor));
+        assertEquals("10 transfer 10 1 2 10", visitor.records.get(9));
+    }
+
+    @Test
+    void tornTailShouldBeCutOffOnReopen() throws IOException {
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            journal.appendAccountCreated(1L, 100L);
+            journal.appendAccountCreated(2L, 200L);
+        }
+
+        //Simulates a crash in the middle of writing the second record.
+        final Path segment = JournalFormat.segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertEquals(1L, JournalReader.read(directory, 1L, new RecordingVisitor()));
+
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            assertEquals(2L, journal.appendAccountCreated(3L, 300L));
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        JournalReader.read(directory, 1L, visitor);
+        assertEquals(Arrays.asList("1 created 1 100", "2 created 3 300"), visitor.records);
+    }
+
+    @Test
+    void corruptedRecordInEarlierSegmentShouldFailReading() throws IOException {
+        try (FileJournal journal = new FileJournal(directory, AppConfig.Durability.SYNC, 40L, 10L, AppConfig.DEFAULT_LEDGER_SCALE)) {
+            journal.appendAccountCreated(1L, 100L);
+            journal.appendAccountCreated(2L, 200L);
+        }
+        assertEquals(2, JournalFormat.segments(directory).size());
+
+        final Path first = JournalFormat.segments(directory).get(0);
+        final byte[] bytes = Files.readAllBytes(first);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(first, bytes);
+
+        assertThrows(IllegalStateException.class, () -> JournalReader.read(directory, 1L, new RecordingVisitor()));
+    }
+
+    @Test
+    void journalOfAnotherLedgerScaleShouldNotBeContinued() {
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            journal.appendAccountCreated(1L, 100L);
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        JournalReader.read(directory, 1L, visitor);
+        assertEquals(Collections.singletonList(AppConfig.DEFAULT_LEDGER_SCALE), visitor.scales);
+
+        assertThrows(IllegalStateException.class, () -> new FileJournal(directory, AppConfig.Durability.SYNC,
+                AppConfig.DEFAULT_JOURNAL_SEGMENT_SIZE, 10L, AppConfig.DEFAULT_LEDGER_SCALE + 1));
+    }
+
+    @Test
+    void segmentWithoutHeaderShouldBeReadAndContinued() throws IOException {
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            journal.appendAccountCreated(1L, 100L);
+        }
+
+        //Like a segment written before the segments had a header.
+        final Path segment = JournalFormat.segments(directory).get(0);
+        final byte[] bytes = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOfRange(bytes, JournalFormat.SEGMENT_HEADER_SIZE, bytes.length));
+
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            assertEquals(2L, journal.appendAccountCreated(2L, 200L));
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(2L, JournalReader.read(directory, 1L, visitor));
+        assertEquals(Arrays.asList("1 created 1 100", "2 created 2 200"), visitor.records);
+        assertTrue(visitor.scales.isEmpty());
+    }
+
+    @Test
+    void appendingToClosedJournalShouldFail() {
+        final FileJournal journal = open(AppConfig.Durability.GROUP);
+        journal.close();
+
+        assertThrows(IllegalStateException.class, () -> journal.appendAccountCreated(1L, 1L));
+    }
+
+    @Test
+    void partiallyWrittenRecordShouldBeCutOff() throws ReflectiveOperationException {
+        try (FileJournal journal = open(AppConfig.Durability.GROUP)) {
+            journal.appendAccountCreated(1L, 100L);
+            final FaultyFileChannel channel = makeFaulty(journal);
+            channel.writeLimit = 5;
+
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(2L, 200L));
+
+            channel.writeLimit = -1;
+            journal.awaitDurable(journal.appendAccountCreated(3L, 300L));
+        }
+
+        final RecordingVisitor visitor = new RecordingVisitor();
+        assertEquals(2L, JournalReader.read(directory, 1L, visitor));
+        assertEquals(Arrays.asList("1 created 1 100", "2 created 3 300"), visitor.records);
+    }
+
+    @Test
+    void journalShouldFailIfPartiallyWrittenRecordCanNotBeCutOff() throws ReflectiveOperationException {
+        try (FileJournal journal = open(AppConfig.Durability.GROUP)) {
+            journal.appendAccountCreated(1L, 100L);
+            final FaultyFileChannel channel = makeFaulty(journal);
+            channel.writeLimit = 5;
+            channel.failTruncate = true;
+
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(2L, 200L));
+
+            channel.writeLimit = -1;
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(3L, 300L));
+            assertThrows(UncheckedIOException.class, () -> journal.awaitDurable(2L));
+        }
+
+        assertEquals(1L, JournalReader.read(directory, 1L, new RecordingVisitor()));
+    }
+
+    @Test
+    void failedForceShouldFailAsyncJournal() throws ReflectiveOperationException {
+        try (FileJournal journal = open(AppConfig.Durability.ASYNC)) {
+            makeFaulty(journal).failForce = true;
+            final long sequence = journal.appendAccountCreated(1L, 100L);
+
+            Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> failsDurability(journal, sequence));
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(2L, 200L));
+        }
+    }
+
+    @Test
+    void failedForceShouldFailSyncAppend() throws ReflectiveOperationException {
+        try (FileJournal journal = open(AppConfig.Durability.SYNC)) {
+            journal.appendAccountCreated(1L, 100L);
+            makeFaulty(journal).failForce = true;
+
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(2L, 200L));
+            assertThrows(UncheckedIOException.class, () -> journal.appendAccountCreated(3L, 300L));
+        }
+
+        assertEquals(1L, JournalReader.read(directory, 1L, new RecordingVisitor()));
+    }
+
+    private static boolean failsDurability(final FileJournal journal, final long sequence) {
+        try {
+            journal.awaitDurable(sequence);
+            return false;
+        } catch (UncheckedIOException e) {
+            return true;
+        }
+    }
+
+    private static FaultyFileChannel makeFaulty(final FileJournal journal) throws ReflectiveOperationException {
+        final Field field = FileJournal.class.getDeclaredField("channel");
+        field.setAccessible(true);
+        final FaultyFileChannel faulty = new FaultyFileChannel((FileChannel) field.get(journal));
+        field.set(journal, faulty);
+        return faulty;
+    }
+
+    private FileJournal open(final AppConfig.Durability durability) {
+        return new FileJournal(directory, durability, AppConfig.DEFAULT_JOURNAL_SEGMENT_SIZE, 10L,
+                AppConfig.DEFAULT_LEDGER_SCALE);
+    }
+
+    private static Transaction transaction(final long id, final long creditAccountId, final long debitAccountId, final long amount) {
+        final AssetAccount creditAccount = new AssetAccount();
+        creditAccount.setId(creditAccountId);
+        final AssetAccount debitAccount = new AssetAccount();
+        debitAccount.setId(debitAccountId);
+
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setCreditAccount(creditAccount);
+        transaction.setDebitAccount(debitAccount);
+        transaction.setAmount(amount);
+        transaction.setTimestamp(1000L + id);
+        return transaction;
+    }
+
+    private static class RecordingVisitor implements JournalReader.Visitor {
+        private final List<String> records = new ArrayList<>();
+        private final List<Integer> scales = new ArrayList<>();
+
+        @Override
+        public void onLedgerScale(final int scale) {
+            scales.add(scale);
+        }
+
+        @Override
+        public void onAccountCreated(final long sequence, final long accountId, final long balance) {
+            records.add(sequence + " created " + accountId + " " + balance);
+        }
+
+        @Override
+        public void onTransfer(final long sequence, final long transactionId, final long creditAccountId, final long debitAccountId, final long amount, final long timestamp,
+                               final String idempotencyKey) {
+            assertEquals(1000L + transactionId, timestamp);
+            records.add(sequence + " transfer " + transactionId + " " + creditAccountId + " " + debitAccountId + " " + amount
+                    + (idempotencyKey == null ? "" : " key " + idempotencyKey));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentionTrackerTest {
+
+    @Test
+    void reportShouldListAccountsByContentions() {
+        final ContentionTracker tested = new ContentionTracker(4);
+        record(tested, 1L, 2);
+        record(tested, 2L, 5);
+        record(tested, 3L, 1);
+        tested.record(2L, 7, 1_000);
+
+        final ContentionReport report = tested.getReport(2);
+
+        assertEquals(9, report.getSampledContentions());
+        assertEquals(0, report.getDroppedSamples());
+        assertEquals(asList(2L, 1L), accountIds(report));
+
+        final ContendedAccount hottest = report.getAccounts().get(0);
+        assertEquals(6, hottest.getContentions());
+        assertEquals(0, hottest.getMaxError());
+        assertEquals(7, hottest.getMaxQueueLength());
+        assertEquals(6_000, hottest.getWaitNanos());
+    }
+
+    @Test
+    void heavyHittersShouldSurviveEvictions() {
+        //Accounts contended more than 1500 / 8 times are guaranteed to be tracked.
+        final ContentionTracker tested = new ContentionTracker(8);
+        for (long id = 100; id < 1_000; id++) {
+            //Two hot accounts between a stream of accounts contended once each.
+            tested.record(id, 1, 1);
+            if (id % 3 == 0) {
+                tested.record(7L, 1, 1);
+                tested.record(8L, 1, 1);
+            }
+        }
+
+        final ContentionReport report = tested.getReport(2);
+
+        assertTrue(accountIds(report).containsAll(asList(7L, 8L)));
+        for (final ContendedAccount account : report.getAccounts()) {
+            assertTrue(account.getContentions() - account.getMaxError() <= 300);
+            assertTrue(account.getContentions() >= 300);
+        }
+    }
+
+    @Test
+    void evictedSlotShouldInheritCountAsError() {
+        final ContentionTracker tested = new ContentionTracker(1);
+        record(tested, 1L, 3);
+        tested.record(2L, 1, 1);
+
+        final ContendedAccount account = tested.getReport(10).getAccounts().get(0);
+
+        assertEquals(2L, account.getAccountId());
+        assertEquals(4, account.getContentions());
+        assertEquals(3, account.getMaxError());
+        assertEquals(1, account.getWaitNanos());
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ContentionTracker(0));
+    }
+
+    private static void record(final ContentionTracker tracker, final long accountId, final int times) {
+        for (int i = 0; i < times; i++) {
+            tracker.record(accountId, 1, 1_000);
+        }
+    }
+
+    private static List<Long> accountIds(final ContentionReport report) {
+        return report.getAccounts().stream().map(ContendedAccount::getAccountId).collect(Collectors.toList());
+    }
+}
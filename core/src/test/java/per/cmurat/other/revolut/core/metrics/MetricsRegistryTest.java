@@ -0,0 +1,85 @@
+package per.cmurat.other.revolut.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsRegistryTest {
+
+    private final MetricsRegistry tested = new MetricsRegistry();
+
+    @Test
+    void scrapeShouldWriteCountersAndGauges() {
+        tested.counter("requests_total", "Requests.", "result", "success").add(3);
+        tested.counter("requests_total", "Requests.", "result", "rejected").increment();
+        final AtomicLong size = new AtomicLong(7);
+        tested.gauge("size", "Size.", size::get);
+        size.set(8);
+
+        assertEquals("# HELP requests_total Requests.\n"
+                        + "# TYPE requests_total counter\n"
+                        + "requests_total{result=\"success\"} 3\n"
+                        + "requests_total{result=\"rejected\"} 1\n"
+                        + "# HELP size Size.\n"
+                        + "# TYPE size gauge\n"
+                        + "size 8\n",
+                tested.scrape());
+    }
+
+    @Test
+    void scrapeShouldWriteCumulativeHistogramBuckets() {
+        final LatencyHistogram histogram = tested.histogram("latency_seconds", "Latency.", "route", "GET /a");
+        histogram.record(500);
+        histogram.record(3_000);
+        histogram.record(3_500);
+        histogram.record(60_000_000_000L);
+
+        final String scrape = tested.scrape();
+
+        assertTrue(scrape.contains("# TYPE latency_seconds histogram\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{route=\"GET /a\",le=\"0.000001\"} 1\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{route=\"GET /a\",le=\"0.000002\"} 1\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{route=\"GET /a\",le=\"0.000004\"} 3\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{route=\"GET /a\",le=\"33.554432\"} 3\n"));
+        assertTrue(scrape.contains("latency_seconds_bucket{route=\"GET /a\",le=\"+Inf\"} 4\n"));
+        assertTrue(scrape.contains("latency_seconds_sum{route=\"GET /a\"} 60.000007000\n"));
+        assertTrue(scrape.contains("latency_seconds_count{route=\"GET /a\"} 4\n"));
+    }
+
+    @Test
+    void registeringAgainShouldReturnTheSameMetric() {
+        assertSame(tested.counter("a_total", "A.", "x", "1"), tested.counter("a_total", "A.", "x", "1"));
+        assertSame(tested.histogram("b_seconds", "B."), tested.histogram("b_seconds", "B."));
+    }
+
+    @Test
+    void registeringShouldRejectConflictingTypesAndOddLabels() {
+        tested.counter("a_total", "A.");
+
+        assertThrows(IllegalArgumentException.class, () -> tested.histogram("a_total", "A."));
+        assertThrows(IllegalArgumentException.class, () -> tested.counter("b_total", "B.", "label"));
+    }
+
+    @Test
+    void labelValuesShouldBeEscaped() {
+        tested.counter("a_total", "A.", "path", "a\"b\\c\nd").increment();
+
+        assertTrue(tested.scrape().contains("a_total{path=\"a\\\"b\\\\c\\nd\"} 1\n"));
+    }
+
+    @Test
+    void histogramShouldRoundUpToPowersOfTwoMicros() {
+        assertEquals(0, LatencyHistogram.indexOf(0));
+        assertEquals(0, LatencyHistogram.indexOf(1_000));
+        assertEquals(1, LatencyHistogram.indexOf(1_001));
+        assertEquals(1, LatencyHistogram.indexOf(2_000));
+        assertEquals(2, LatencyHistogram.indexOf(2_001));
+        assertEquals(10, LatencyHistogram.indexOf(1_024_000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+}
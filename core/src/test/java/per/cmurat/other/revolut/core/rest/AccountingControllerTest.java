@@ -2,17 +2,35 @@ package per.cmurat.other.revolut.core.rest;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
 import per.cmurat.other.revolut.core.accounting.model.Transaction;
 import per.cmurat.other.revolut.core.accounting.service.AccountingService;
+import per.cmurat.other.revolut.core.accounting.service.TransactionPage;
+import per.cmurat.other.revolut.core.accounting.service.TransferRequest;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+import per.cmurat.other.revolut.core.metrics.ContentionReport;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -23,6 +41,12 @@ class AccountingControllerTest {
     @Mock
     private AccountingService accountingService;
 
+    @Spy
+    private MoneyConverter moneyConverter = new MoneyConverter(AppConfig.defaults());
+
+    @Captor
+    private ArgumentCaptor<List<TransferRequest>> transfersCaptor;
+
     @InjectMocks
     private AccountingController tested;
 
@@ -30,13 +54,11 @@ class AccountingControllerTest {
     void createAccountShouldSucceed() {
         final long accountId = 1L;
         final BigDecimal balance = new BigDecimal("123.124");
-        final AssetAccount expected = new AssetAccount();
-        expected.setId(accountId);
-        expected.setBalance(balance);
+        final AccountSnapshot expected = new AccountSnapshot(accountId, 1231240L, 0L, 1L);
 
-        when(accountingService.createAccount(balance)).thenReturn(expected);
+        when(accountingService.createAccount(1231240L)).thenReturn(expected);
 
-        final AssetAccount actual = tested.createAccount(balance);
+        final AccountSnapshot actual = tested.createAccount(balance);
 
         assertEquals(expected, actual);
     }
@@ -50,15 +72,27 @@ class AccountingControllerTest {
         assertThrows(IllegalArgumentException.class, () -> tested.createAccount(negativeBalance));
     }
 
+    @Test
+    void createAccountsShouldConvertTheBalances() {
+        final List<AccountSnapshot> expected = Collections.singletonList(new AccountSnapshot(1L, 1231240L, 0L, 1L));
+        when(accountingService.createAccounts(aryEq(new long[]{1231240L, 0L}))).thenReturn(expected);
+
+        assertEquals(expected, tested.createAccounts(Arrays.asList(new BigDecimal("123.124"), BigDecimal.ZERO)));
+        assertThrows(IllegalArgumentException.class, () -> tested.createAccounts(Collections.emptyList()));
+        assertThrows(IllegalArgumentException.class,
+                () -> tested.createAccounts(Arrays.asList(BigDecimal.ONE, new BigDecimal("-1"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> tested.getAccounts(new long[AccountingController.MAX_BATCH_SIZE + 1]));
+    }
+
     @Test
     void getAccountShouldSucceed() {
         final long accountId = 1L;
-        final AssetAccount expected = new AssetAccount();
-        expected.setId(accountId);
+        final AccountSnapshot expected = new AccountSnapshot(accountId, 0L, 0L, 1L);
 
         when(accountingService.getAccount(accountId)).thenReturn(expected);
 
-        final AssetAccount actual = tested.getAccount(String.valueOf(accountId));
+        final AccountSnapshot actual = tested.getAccount(String.valueOf(accountId));
 
         assertEquals(expected, actual);
     }
@@ -74,15 +108,69 @@ class AccountingControllerTest {
         assertThrows(IllegalArgumentException.class, () -> tested.getAccount(nonLongId));
     }
 
+    @Test
+    void getTransactionsShouldUseDefaultsForMissingCursorAndLimit() {
+        final TransactionPage expected = new TransactionPage(Collections.emptyList(), null);
+        when(accountingService.getTransactions(1L, 0L, AccountingController.DEFAULT_PAGE_SIZE)).thenReturn(expected);
+
+        assertEquals(expected, tested.getTransactions("1", null, ""));
+    }
+
+    @Test
+    void getTransactionsShouldPassCursorAndLimit() {
+        final TransactionPage expected = new TransactionPage(Collections.emptyList(), null);
+        when(accountingService.getTransactions(1L, 200L, 50)).thenReturn(expected);
+
+        assertEquals(expected, tested.getTransactions("1", "200", "50"));
+    }
+
+    @Test
+    void getTransactionsShouldThrowForIllegalParameters() {
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions("1", "abc", null));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions("1", null, "0"));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions("1", null, String.valueOf(AccountingController.MAX_PAGE_SIZE + 1)));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactions("x", null, null));
+    }
+
+    @Test
+    void getTransactionsInRangeShouldConvertLocalDateTimes() {
+        final TransactionPage expected = new TransactionPage(Collections.emptyList(), null);
+        final LocalDateTime from = LocalDateTime.of(2019, 1, 1, 0, 0);
+        final LocalDateTime to = LocalDateTime.of(2019, 2, 1, 0, 0);
+        when(accountingService.getTransactions(
+                null, epochMillis(from), epochMillis(to), 0L, AccountingController.DEFAULT_PAGE_SIZE)).thenReturn(expected);
+
+        assertEquals(expected, tested.getTransactionsInRange(from.toString(), to.toString(), null, null, null));
+    }
+
+    @Test
+    void getTransactionsInRangeShouldPassAccountCursorAndLimit() {
+        final TransactionPage expected = new TransactionPage(Collections.emptyList(), null);
+        final LocalDateTime from = LocalDateTime.of(2019, 1, 1, 0, 0);
+        final LocalDateTime to = LocalDateTime.of(2019, 2, 1, 0, 0);
+        when(accountingService.getTransactions(3L, epochMillis(from), epochMillis(to), 17L, 20)).thenReturn(expected);
+
+        assertEquals(expected, tested.getTransactionsInRange(from.toString(), to.toString(), "3", "17", "20"));
+    }
+
+    @Test
+    void getTransactionsInRangeShouldThrowForIllegalParameters() {
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactionsInRange(null, "2019-02-01T00:00:00", null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactionsInRange("2019-01-01", "2019-02-01T00:00:00", null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> tested.getTransactionsInRange("2019-01-01T00:00:00", "2019-02-01T00:00:00", "x", null, null));
+    }
+
     @Test
     void validateTransferShouldSucceed() throws Throwable {
         final long sendingAccountId = 1L;
         final long receivingAccountId = 2L;
         final BigDecimal amount = new BigDecimal("123.124");
 
-        tested.validateTransfer(sendingAccountId, receivingAccountId, amount);
+        when(accountingService.tryValidate(sendingAccountId, receivingAccountId, 1231240L)).thenReturn(TransferResult.VALID);
+
+        assertTrue(tested.validateTransfer(sendingAccountId, receivingAccountId, amount).isSuccess());
 
-        verify(accountingService, times(1)).validate(sendingAccountId, receivingAccountId, amount);
+        verify(accountingService, times(1)).tryValidate(sendingAccountId, receivingAccountId, 1231240L);
     }
 
     @Test
@@ -107,13 +195,23 @@ class AccountingControllerTest {
 
         final Transaction expected = new Transaction();
 
-        when(accountingService.transfer(sendingAccountId, receivingAccountId, amount)).thenReturn(expected);
+        when(accountingService.tryTransfer(sendingAccountId, receivingAccountId, 1231240L, null))
+                .thenReturn(TransferResult.success(expected));
 
-        final Transaction actual = tested.processTransfer(sendingAccountId, receivingAccountId, amount);
+        final TransferResult actual = tested.processTransfer(sendingAccountId, receivingAccountId, amount);
 
-        assertEquals(expected, actual);
+        assertEquals(expected, actual.getTransaction());
 
-        verify(accountingService, times(1)).transfer(sendingAccountId, receivingAccountId, amount);
+        verify(accountingService, times(1)).tryTransfer(sendingAccountId, receivingAccountId, 1231240L, null);
+    }
+
+    @Test
+    void processTransferShouldPassIdempotencyKey() {
+        final Transaction expected = new Transaction();
+
+        when(accountingService.tryTransfer(1L, 2L, 1231240L, "key")).thenReturn(TransferResult.success(expected));
+
+        assertEquals(expected, tested.processTransfer(1L, 2L, new BigDecimal("123.124"), "key").getTransaction());
     }
 
     @Test
@@ -129,4 +227,55 @@ class AccountingControllerTest {
         assertThrows(IllegalArgumentException.class, () ->
                 tested.processTransfer(1L, 2L, negativeAmount));
     }
+
+    @Test
+    void processTransferShouldThrowForAmountBeyondLedgerScale() {
+        final BigDecimal tooPreciseAmount = new BigDecimal("0.00001");
+
+        assertThrows(IllegalArgumentException.class, () ->
+                tested.processTransfer(1L, 2L, tooPreciseAmount));
+    }
+
+    @Test
+    void processTransfersShouldConvertAmounts() {
+        final TransactionDto transfer = new TransactionDto();
+        transfer.setSendingAccountId(1L);
+        transfer.setReceivingAccountId(2L);
+        transfer.setAmount(new BigDecimal("123.124"));
+
+        final List<TransferResult> expected = Collections.singletonList(TransferResult.success(new Transaction()));
+        when(accountingService.transferAll(anyList(), eq(true))).thenReturn(expected);
+
+        final List<TransferResult> actual = tested.processTransfers(Collections.singletonList(transfer), true);
+
+        assertEquals(expected, actual);
+
+        verify(accountingService, times(1)).transferAll(transfersCaptor.capture(), eq(true));
+        assertEquals(1231240L, transfersCaptor.getValue().get(0).getAmount());
+    }
+
+    @Test
+    void processTransfersShouldThrowForEmptyBatchOrIllegalAmount() {
+        final TransactionDto transfer = new TransactionDto();
+        transfer.setSendingAccountId(1L);
+        transfer.setReceivingAccountId(2L);
+        transfer.setAmount(new BigDecimal("-1"));
+
+        assertThrows(IllegalArgumentException.class, () -> tested.processTransfers(null, true));
+        assertThrows(IllegalArgumentException.class, () -> tested.processTransfers(Collections.emptyList(), true));
+        assertThrows(IllegalArgumentException.class, () -> tested.processTransfers(Collections.singletonList(transfer), false));
+    }
+
+    private static long epochMillis(final LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void getContendedAccountsShouldDefaultToTenAccounts() {
+        final ContentionReport expected = new ContentionReport(0, 0, Collections.emptyList());
+        when(accountingService.getContendedAccounts(AccountingController.DEFAULT_CONTENDED_ACCOUNTS)).thenReturn(expected);
+
+        assertEquals(expected, tested.getContendedAccounts(null));
+        assertThrows(IllegalArgumentException.class, () -> tested.getContendedAccounts("0"));
+    }
 }
@@ -0,0 +1,199 @@
+package per.cmurat.other.revolut.core.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.exception.Rejection;
+import per.cmurat.other.revolut.core.accounting.model.AccountSnapshot;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.service.TransactionPage;
+import per.cmurat.other.revolut.core.accounting.service.TransferResult;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonCodecTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MoneyConverter moneyConverter = new MoneyConverter(AppConfig.defaults());
+    private final JsonCodec tested = new JsonCodec(moneyConverter);
+
+    @Test
+    void readTransferShouldReadNumbersAndStrings() throws IOException {
+        final TransactionDto numbers = tested.readTransfer(bytes("{\"sendingAccountId\":1,\"receivingAccountId\":2,\"amount\":12.50}"));
+        assertEquals(1L, numbers.getSendingAccountId());
+        assertEquals(2L, numbers.getReceivingAccountId());
+        assertEquals(new BigDecimal("12.50"), numbers.getAmount());
+
+        final TransactionDto strings = tested.readTransfer(bytes("{\"amount\":\"3\",\"receivingAccountId\":\"4\",\"sendingAccountId\":\"5\"}"));
+        assertEquals(5L, strings.getSendingAccountId());
+        assertEquals(4L, strings.getReceivingAccountId());
+        assertEquals(new BigDecimal("3"), strings.getAmount());
+    }
+
+    @Test
+    void readTransferShouldIgnoreTransactionIdAndDateTime() throws IOException {
+        final TransactionDto transfer = tested.readTransfer(bytes(
+                "{\"id\":7,\"sendingAccountId\":1,\"receivingAccountId\":2,\"amount\":1,\"dateTime\":\"2019-01-01T00:00:00\"}"));
+
+        assertNull(transfer.getId());
+        assertNull(transfer.getDateTime());
+        assertEquals(1L, transfer.getSendingAccountId());
+    }
+
+    @Test
+    void invalidTransfersShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransfer(bytes("[1, 2]")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransfer(bytes("{\"sendingAccountId\":1,")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransfer(bytes("{\"sender\":1}")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransfer(bytes("{\"sendingAccountId\":\"one\"}")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransfer(bytes("{\"amount\":{}}")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readAccount(bytes("{\"balance\":")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readTransferBatch(bytes("{\"transfers\":1}")));
+    }
+
+    @Test
+    void transactionsShouldBeWrittenAsDtos() throws IOException {
+        final Random random = new Random(42);
+        final long[] amounts = {0L, 1L, 10L, 10_000L, 12_345L, 100_000_000L, 5_000_050L, Long.MAX_VALUE};
+        for (final long amount : amounts) {
+            final Transaction transaction = transaction(random.nextInt(1000), amount, random.nextLong() % 4_000_000_000_000L);
+            assertEquals(mapper.readTree(mapper.writeValueAsString(toDto(transaction))), write(transaction));
+        }
+        for (int i = 0; i < 1000; i++) {
+            final Transaction transaction = transaction(i, random.nextLong() & Long.MAX_VALUE, random.nextLong() % 300_000_000_000_000L);
+            assertEquals(mapper.readTree(mapper.writeValueAsString(toDto(transaction))), write(transaction));
+        }
+    }
+
+    @Test
+    void amountsShouldBeWrittenAsTheyWereSent() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(AppConfig.LEDGER_SCALE, "2");
+        final MoneyConverter converter = new MoneyConverter(new AppConfig(properties));
+        final char[] buffer = new char[MoneyConverter.MAX_CHARS];
+
+        for (final String amount : Arrays.asList("0", "0.01", "0.1", "1", "10", "10.5", "1234567.89", "-3.2", "-0.05")) {
+            final long minorUnits = converter.toMinorUnits(new BigDecimal(amount));
+            assertEquals(amount, new String(buffer, 0, converter.toChars(minorUnits, buffer)));
+        }
+        assertEquals(converter.toDecimal(Long.MIN_VALUE).toPlainString(),
+                new String(buffer, 0, converter.toChars(Long.MIN_VALUE, buffer)));
+    }
+
+    @Test
+    void pagesAndResultsShouldBeWrittenWithNulls() throws IOException {
+        final Transaction transaction = transaction(1L, 25_000L, 1_546_300_800_000L);
+
+        final ByteArrayOutputStream page = new ByteArrayOutputStream();
+        tested.writeTransactionPage(new TransactionPage(Collections.singletonList(transaction), null), page);
+        final JsonNode pageNode = mapper.readTree(page.toByteArray());
+        assertEquals(1, pageNode.get("transactions").size());
+        assertTrue(pageNode.get("nextCursor").isNull());
+
+        final ByteArrayOutputStream results = new ByteArrayOutputStream();
+        tested.writeTransferResults(Arrays.asList(TransferResult.success(transaction),
+                TransferResult.rejected(Rejection.INSUFFICIENT_BALANCE, "No money")), results);
+        final JsonNode resultsNode = mapper.readTree(results.toByteArray());
+        assertEquals(1L, resultsNode.get(0).get("transaction").get("id").asLong());
+        assertTrue(resultsNode.get(0).get("code").isNull());
+        assertTrue(resultsNode.get(0).get("error").isNull());
+        assertTrue(resultsNode.get(1).get("transaction").isNull());
+        assertEquals("INSUFFICIENT_BALANCE", resultsNode.get(1).get("code").asText());
+        assertEquals("No money", resultsNode.get(1).get("error").asText());
+    }
+
+    @Test
+    void errorsShouldBeWrittenWithTheirCodes() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tested.writeError("ACCOUNT_NOT_FOUND", "Account not found. Account id: 5", out);
+
+        assertEquals("{\"code\":\"ACCOUNT_NOT_FOUND\",\"message\":\"Account not found. Account id: 5\"}",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("{\"code\":\"INTERNAL_ERROR\",\"message\":\"java.lang.IllegalStateException: \\\"Broken\\\"\"}",
+                tested.errorToString("INTERNAL_ERROR", "java.lang.IllegalStateException: \"Broken\""));
+    }
+
+    @Test
+    void accountsShouldBeWrittenWithReadableBalances() throws IOException {
+        final AccountSnapshot account = new AccountSnapshot(3L, 1_234_567L, 0L, 2L);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tested.writeAccount(account, out);
+
+        assertEquals("{\"id\":3,\"balance\":123.45,\"version\":2}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void accountBatchesShouldBeReadAndWritten() throws IOException {
+        assertEquals(Arrays.asList(new BigDecimal("100"), new BigDecimal("25.50")),
+                tested.readBalances(bytes("{\"balances\":[100,\"25.50\"]}")));
+        final long[] ids = new long[40];
+        final StringBuilder json = new StringBuilder("{\"ids\":[\"1\"");
+        ids[0] = 1L;
+        for (int i = 1; i < ids.length; i++) {
+            ids[i] = i + 1;
+            json.append(',').append(i + 1);
+        }
+        assertTrue(Arrays.equals(ids, tested.readAccountIds(bytes(json.append("]}").toString()))));
+        assertThrows(IllegalArgumentException.class, () -> tested.readAccountIds(bytes("[1, 2]")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readAccountIds(bytes("{\"balances\":[1]}")));
+        assertThrows(IllegalArgumentException.class, () -> tested.readBalances(bytes("{\"balances\":[1],\"ids\":[]}")));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tested.writeAccounts(Arrays.asList(new AccountSnapshot(3L, 1_234_567L, 0L, 2L), null), out);
+
+        assertEquals("[{\"id\":3,\"balance\":123.45,\"version\":2},null]",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private JsonNode write(final Transaction transaction) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tested.writeTransaction(transaction, out);
+        return mapper.readTree(out.toByteArray());
+    }
+
+    private TransactionDto toDto(final Transaction transaction) {
+        final TransactionDto dto = new TransactionDto();
+        dto.setId(transaction.getId());
+        dto.setSendingAccountId(transaction.getCreditAccount().getId());
+        dto.setReceivingAccountId(transaction.getDebitAccount().getId());
+        dto.setAmount(moneyConverter.toDecimal(transaction.getAmount()));
+        dto.setDateTime(Instant.ofEpochMilli(transaction.getTimestamp()).atZone(ZoneId.systemDefault()).toLocalDateTime());
+        return dto;
+    }
+
+    private static Transaction transaction(final long id, final long amount, final long timestamp) {
+        final AssetAccount creditAccount = new AssetAccount();
+        creditAccount.setId(id + 1);
+        final AssetAccount debitAccount = new AssetAccount();
+        debitAccount.setId(id + 2);
+
+        final Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setCreditAccount(creditAccount);
+        transaction.setDebitAccount(debitAccount);
+        transaction.setAmount(amount);
+        transaction.setTimestamp(timestamp);
+        return transaction;
+    }
+
+    private static byte[] bytes(final String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
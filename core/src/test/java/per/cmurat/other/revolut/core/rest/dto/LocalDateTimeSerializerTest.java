@@ -0,0 +1,39 @@
+package per.cmurat.other.revolut.core.rest.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LocalDateTimeSerializerTest {
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addSerializer(LocalDateTime.class, new LocalDateTimeSerializer()));
+
+    @Test
+    void dateTimesShouldBeWrittenAsIsoLocalDateTimes() throws IOException {
+        final Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            final int nano;
+            switch (i % 4) {
+                case 0:
+                    nano = 0;
+                    break;
+                case 1:
+                    nano = random.nextInt(1000) * 1_000_000;
+                    break;
+                default:
+                    nano = random.nextInt(1_000_000_000);
+            }
+            final LocalDateTime value = LocalDateTime.of(random.nextInt(12_000) - 1000, 1 + random.nextInt(12),
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60), nano);
+
+            assertEquals("\"" + value.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "\"", mapper.writeValueAsString(value));
+        }
+    }
+}
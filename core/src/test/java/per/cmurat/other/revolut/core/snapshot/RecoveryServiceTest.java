@@ -0,0 +1,331 @@
+package per.cmurat.other.revolut.core.snapshot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.accounting.exception.InsufficientBalanceException;
+import per.cmurat.other.revolut.core.accounting.index.AccountHistoryIndex;
+import per.cmurat.other.revolut.core.accounting.index.TransactionTimeIndex;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccount;
+import per.cmurat.other.revolut.core.accounting.model.AssetAccountRepository;
+import per.cmurat.other.revolut.core.accounting.model.Transaction;
+import per.cmurat.other.revolut.core.accounting.model.TransactionRepository;
+import per.cmurat.other.revolut.core.accounting.service.IdempotencyCache;
+import per.cmurat.other.revolut.core.accounting.service.ShardedTransferEngine;
+import per.cmurat.other.revolut.core.accounting.service.TransferEngineFixture;
+import per.cmurat.other.revolut.core.accounting.service.TransferRequest;
+import per.cmurat.other.revolut.core.archive.ArchiveService;
+import per.cmurat.other.revolut.core.archive.TransactionArchive;
+import per.cmurat.other.revolut.core.journal.FileJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecoveryServiceTest {
+    private static final int ACCOUNT_COUNT = 40;
+    private static final long INITIAL_BALANCE = 1_000L;
+
+    private Path directory;
+    private Properties properties;
+    private AppConfig config;
+
+    private AssetAccountRepository accountRepository;
+    private TransactionRepository transactionRepository;
+    private AccountHistoryIndex historyIndex;
+    private TransactionTimeIndex timeIndex;
+    private IdempotencyCache idempotencyCache;
+    private FileJournal journal;
+    private TransferEngineFixture fixture;
+    private ShardedTransferEngine engine;
+    private SnapshotService snapshotService;
+    private ArchiveService archiveService;
+
+    @BeforeEach
+    void before() throws Exception {
+        directory = Files.createTempDirectory("ledger");
+
+        properties = new Properties();
+        properties.setProperty(AppConfig.JOURNAL_DIR, directory.resolve("journal").toString());
+        properties.setProperty(AppConfig.SNAPSHOT_SEGMENT_ENTRIES, "16");
+        properties.setProperty(AppConfig.RECOVERY_THREADS, "4");
+        properties.setProperty(AppConfig.ENGINE_SHARDS, "4");
+        properties.setProperty(AppConfig.ARCHIVE_LIVE_TRANSACTIONS, "8");
+        properties.setProperty(AppConfig.ARCHIVE_SEGMENT_TRANSACTIONS, "16");
+        config = new AppConfig(properties);
+
+        openLedger();
+    }
+
+    @AfterEach
+    void after() throws IOException {
+        engine.close();
+        journal.close();
+        fixture.close();
+        SnapshotWriter.deleteRecursively(directory);
+    }
+
+    @Test
+    void recoverShouldReplayWholeJournalWithoutSnapshot() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+        engine.transfer(accounts.get(0).getId(), accounts.get(1).getId(), 300L);
+        engine.transferAll(Arrays.asList(
+                new TransferRequest(accounts.get(1).getId(), accounts.get(2).getId(), 1_200L),
+                new TransferRequest(accounts.get(2).getId(), accounts.get(1).getId(), 100L)), true);
+
+        final Map<Long, Long> expected = balances(accountRepository);
+        final RecoveryReport report = restart();
+
+        assertEquals(0L, report.getSnapshotSequence());
+        assertEquals(ACCOUNT_COUNT + 2, report.getLastSequence());
+        assertEquals(Arrays.asList("journal replay", "history index", "time index", "idempotency keys"), phaseNames(report));
+        assertEquals(expected, balances(accountRepository));
+        assertEquals(3, transactionRepository.size());
+        assertEquals(3, historyIndex.size(accounts.get(1).getId()));
+        assertEquals(2, historyIndex.size(accounts.get(2).getId()));
+        assertEquals(0, historyIndex.size(accounts.get(3).getId()));
+
+        final List<Transaction> recovered = new ArrayList<>();
+        timeIndex.scan(null, 0, Long.MAX_VALUE, 0, recovered::add);
+        assertEquals(3, recovered.size());
+    }
+
+    @Test
+    void recoverShouldLoadSnapshotAndReplayTail() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+        for (int i = 0; i < ACCOUNT_COUNT - 1; i++) {
+            engine.transfer(accounts.get(i).getId(), accounts.get(i + 1).getId(), 10L);
+        }
+
+        final SnapshotInfo snapshot = snapshotService.takeSnapshot();
+        assertEquals(ACCOUNT_COUNT, snapshot.getAccountCount());
+        assertEquals(ACCOUNT_COUNT - 1, snapshot.getTransactionCount());
+
+        final AssetAccount created = engine.createAccount(50L);
+        engine.transfer(accounts.get(0).getId(), created.getId(), 25L);
+        engine.transferAll(Arrays.asList(
+                new TransferRequest(created.getId(), accounts.get(3).getId(), 75L),
+                new TransferRequest(accounts.get(3).getId(), created.getId(), 5L)), true);
+
+        final Map<Long, Long> expected = balances(accountRepository);
+        final RecoveryReport report = restart();
+
+        assertEquals(snapshot.getSequence(), report.getSnapshotSequence());
+        assertEquals(Arrays.asList("snapshot accounts", "snapshot transactions", "snapshot idempotency keys", "journal replay", "history index", "time index", "idempotency keys"), phaseNames(report));
+        assertEquals(4L, report.getPhases().get(3).getCount());
+        assertEquals(expected, balances(accountRepository));
+        assertEquals(ACCOUNT_COUNT + 2, transactionRepository.size());
+
+        //Ids continue after the recovered ones.
+        assertTrue(engine.createAccount(1L).getId() > created.getId());
+    }
+
+    @Test
+    void idempotencyKeysShouldSurviveSnapshotAndReplay() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+        final Transaction snapshotted = engine.transfer(accounts.get(0).getId(), accounts.get(1).getId(), 10L, "first");
+        engine.transfer(accounts.get(1).getId(), accounts.get(2).getId(), 5L);
+        snapshotService.takeSnapshot();
+        final Transaction replayed = engine.transfer(accounts.get(2).getId(), accounts.get(3).getId(), 20L, "second");
+
+        final RecoveryReport report = restart();
+
+        assertEquals(1L, report.getPhases().get(2).getCount());
+        assertEquals(2, idempotencyCache.size());
+        assertEquals("first", transactionRepository.findById(snapshotted.getId()).getIdempotencyKey());
+        assertEquals("second", transactionRepository.findById(replayed.getId()).getIdempotencyKey());
+
+        //A retry after the restart gets the original transaction.
+        final Transaction retried = idempotencyCache.execute("first", accounts.get(0).getId(), accounts.get(1).getId(), 10L,
+                () -> {
+                    throw new AssertionError("Transfer should not be made again");
+                });
+        assertEquals(snapshotted.getId(), retried.getId());
+    }
+
+    @Test
+    void snapshotTakenDuringTransfersShouldRecoverExactState() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    final long first = accounts.get(random.nextInt(ACCOUNT_COUNT)).getId();
+                    final long second = accounts.get(random.nextInt(ACCOUNT_COUNT)).getId();
+                    try {
+                        if (random.nextBoolean()) {
+                            engine.transfer(first, second, random.nextInt(1, 50));
+                        } else {
+                            engine.transferAll(Arrays.asList(
+                                    new TransferRequest(first, second, random.nextInt(1, 50)),
+                                    new TransferRequest(second, first, random.nextInt(1, 50))), true);
+                        }
+                    } catch (InsufficientBalanceException e) {
+                        //Expected now and then.
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(20);
+                assertNotNull(snapshotService.takeSnapshot());
+            }
+        } finally {
+            running.set(false);
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        final Map<Long, Long> expected = balances(accountRepository);
+        final int expectedTransactions = transactionRepository.size();
+        final RecoveryReport report = restart();
+
+        assertTrue(report.getSnapshotSequence() > 0);
+        assertEquals(expected, balances(accountRepository));
+        assertEquals(expectedTransactions, transactionRepository.size());
+        assertEquals(ACCOUNT_COUNT * INITIAL_BALANCE, balances(accountRepository).values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void snapshotWithoutValidManifestShouldBeSkipped() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+        final SnapshotInfo first = snapshotService.takeSnapshot();
+        engine.transfer(accounts.get(0).getId(), accounts.get(1).getId(), 10L);
+        final SnapshotInfo second = snapshotService.takeSnapshot();
+        Files.write(second.getPath().resolve(SnapshotFormat.MANIFEST), new byte[]{1, 2, 3});
+
+        final Map<Long, Long> expected = balances(accountRepository);
+        final RecoveryReport report = restart();
+
+        assertEquals(first.getSequence(), report.getSnapshotSequence());
+        assertEquals(expected, balances(accountRepository));
+    }
+
+    @Test
+    void archivedTransactionsShouldBeLeftInTheArchive() throws Exception {
+        final List<AssetAccount> accounts = createAccounts();
+        final List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            transactions.add(engine.transfer(accounts.get(i % ACCOUNT_COUNT).getId(),
+                    accounts.get((i + 1) % ACCOUNT_COUNT).getId(), 10L));
+        }
+        assertEquals(32L, archiveService.archive());
+
+        final SnapshotInfo snapshot = snapshotService.takeSnapshot();
+        assertEquals(18, snapshot.getTransactionCount());
+        transactions.add(engine.transfer(accounts.get(3).getId(), accounts.get(4).getId(), 5L));
+
+        final Map<Long, Long> expected = balances(accountRepository);
+        final int expectedHistory = historyIndex.size(accounts.get(4).getId());
+        final RecoveryReport report = restart();
+
+        assertEquals(snapshot.getSequence(), report.getSnapshotSequence());
+        assertEquals(18L, report.getPhases().get(1).getCount());
+        assertEquals(expected, balances(accountRepository));
+        assertEquals(32L, transactionRepository.getArchivedCount());
+        assertEquals(51, transactionRepository.size());
+        assertEquals(expectedHistory, historyIndex.size(accounts.get(4).getId()));
+        for (final Transaction transaction : transactions) {
+            assertEquals(transaction.getAmount(), transactionRepository.findById(transaction.getId()).getAmount());
+        }
+        assertTrue(engine.transfer(accounts.get(0).getId(), accounts.get(1).getId(), 1L).getId()
+                > transactions.get(50).getId());
+    }
+
+    @Test
+    void recoveryInAnotherLedgerScaleShouldFail() {
+        final List<AssetAccount> accounts = createAccounts();
+        engine.transfer(accounts.get(0).getId(), accounts.get(1).getId(), 10L);
+        final Properties rescaled = new Properties();
+        rescaled.putAll(properties);
+        rescaled.setProperty(AppConfig.LEDGER_SCALE, String.valueOf(AppConfig.DEFAULT_LEDGER_SCALE - 2));
+        final AppConfig rescaledConfig = new AppConfig(rescaled);
+
+        //Rejected by the journal, and then by the snapshot.
+        final IllegalStateException journalScale = assertThrows(IllegalStateException.class,
+                () -> recoverInto(rescaledConfig));
+        assertTrue(journalScale.getMessage().contains(directory.resolve("journal").toString()));
+
+        final SnapshotInfo snapshot = snapshotService.takeSnapshot();
+        final IllegalStateException snapshotScale = assertThrows(IllegalStateException.class,
+                () -> recoverInto(rescaledConfig));
+        assertTrue(snapshotScale.getMessage().contains(snapshot.getPath().toString()));
+    }
+
+    private RecoveryReport recoverInto(final AppConfig config) {
+        final AssetAccountRepository accounts = new AssetAccountRepository();
+        final TransactionRepository transactions = new TransactionRepository();
+        final AccountHistoryIndex history = new AccountHistoryIndex();
+        return new RecoveryService(config, accounts, transactions, history,
+                new TransactionTimeIndex(config, transactions, history), new IdempotencyCache(config)).recover();
+    }
+
+    private RecoveryReport restart() throws Exception {
+        engine.close();
+        journal.close();
+        fixture.close();
+        openLedger();
+        idempotencyCache = new IdempotencyCache(config);
+        return new RecoveryService(config, accountRepository, transactionRepository, historyIndex, timeIndex,
+                idempotencyCache).recover();
+    }
+
+    private void openLedger() {
+        accountRepository = new AssetAccountRepository();
+        final TransactionArchive archive = new TransactionArchive(config, accountRepository);
+        transactionRepository = new TransactionRepository(archive);
+        journal = new FileJournal(config);
+
+        fixture = new TransferEngineFixture(accountRepository, transactionRepository, journal);
+        historyIndex = fixture.getHistoryIndex();
+        timeIndex = fixture.getTimeIndex();
+        engine = fixture.shardedEngine(config);
+
+        snapshotService = new SnapshotService(config, accountRepository, transactionRepository, journal);
+        archiveService = new ArchiveService(config, transactionRepository, archive, journal);
+    }
+
+    private List<AssetAccount> createAccounts() {
+        final List<AssetAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            accounts.add(engine.createAccount(INITIAL_BALANCE));
+        }
+        return accounts;
+    }
+
+    private static Map<Long, Long> balances(final AssetAccountRepository repository) {
+        final Map<Long, Long> balances = new HashMap<>();
+        repository.forEach(account -> balances.put(account.getId(), account.getBalance()));
+        return balances;
+    }
+
+    private static List<String> phaseNames(final RecoveryReport report) {
+        return report.getPhases().stream().map(RecoveryReport.Phase::getName).collect(Collectors.toList());
+    }
+}
@@ -1,19 +1,32 @@
 package per.cmurat.other.revolut.functest;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
+import per.cmurat.other.revolut.core.rest.RestMapper;
 import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.CaptureHoldDto;
+import per.cmurat.other.revolut.core.rest.dto.ErrorDto;
+import per.cmurat.other.revolut.core.rest.dto.HoldDto;
 import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+import per.cmurat.other.revolut.core.rest.dto.TransactionPageDto;
+import per.cmurat.other.revolut.core.rest.dto.TransferBatchDto;
+import per.cmurat.other.revolut.core.rest.dto.TransferResultDto;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
 
 public class AccountingClient {
     private static final String BASE_URL = "http://localhost:4567";
@@ -35,6 +48,60 @@ public class AccountingClient {
         }
     }
 
+    public Response<TransactionPageDto> getTransactions(final long accountId, final Long cursor, final int limit) throws IOException {
+        final String query = "?limit=" + limit + (cursor == null ? "" : "&cursor=" + cursor);
+        final HttpGet getTransactions = new HttpGet(BASE_URL + "/accounting/account/" + accountId + "/transactions" + query);
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(getTransactions);
+            final TransactionPageDto dto;
+            if (response.getStatusLine().getStatusCode() == 200) {
+                String result = EntityUtils.toString(response.getEntity());
+                dto = om.readValue(result, TransactionPageDto.class);
+            } else {
+                dto = null;
+            }
+
+            return new Response<>(dto, response);
+        }
+    }
+
+    public Response<TransactionPageDto> getTransactionsInRange(final LocalDateTime from, final LocalDateTime to, final Long accountId,
+                                                               final Long cursor, final int limit) throws IOException {
+        final String query = "?from=" + from + "&to=" + to + "&limit=" + limit
+                + (accountId == null ? "" : "&accountId=" + accountId)
+                + (cursor == null ? "" : "&cursor=" + cursor);
+        final HttpGet getTransactions = new HttpGet(BASE_URL + "/accounting/transactions" + query);
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(getTransactions);
+            final TransactionPageDto dto;
+            if (response.getStatusLine().getStatusCode() == 200) {
+                String result = EntityUtils.toString(response.getEntity());
+                dto = om.readValue(result, TransactionPageDto.class);
+            } else {
+                dto = null;
+            }
+
+            return new Response<>(dto, response);
+        }
+    }
+
+    public Response<TransactionPageDto> getFeed(final long cursor, final int limit, final long timeoutMs) throws IOException {
+        final HttpGet getFeed = new HttpGet(BASE_URL + "/accounting/feed?cursor=" + cursor + "&limit=" + limit
+                + "&timeoutMs=" + timeoutMs);
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(getFeed);
+            final TransactionPageDto dto;
+            if (response.getStatusLine().getStatusCode() == 200) {
+                String result = EntityUtils.toString(response.getEntity());
+                dto = om.readValue(result, TransactionPageDto.class);
+            } else {
+                dto = null;
+            }
+
+            return new Response<>(dto, response);
+        }
+    }
+
     public Response<AssetAccountDto> createAccount(final BigDecimal balance) throws IOException {
         final HttpPut createAccount = new HttpPut(BASE_URL + "/accounting/account");
 
@@ -56,6 +123,20 @@ public class AccountingClient {
         }
     }
 
+    public Response<List<AssetAccountDto>> createAccounts(final List<BigDecimal> balances) throws IOException {
+        final HttpPut createAccounts = new HttpPut(BASE_URL + "/accounting/accounts");
+
+        createAccounts.setEntity(new StringEntity(om.writeValueAsString(Collections.singletonMap("balances", balances))));
+        return readAccounts(createAccounts);
+    }
+
+    public Response<List<AssetAccountDto>> getAccounts(final List<Long> accountIds) throws IOException {
+        final HttpPost getAccounts = new HttpPost(BASE_URL + "/accounting/accounts/query");
+
+        getAccounts.setEntity(new StringEntity(om.writeValueAsString(Collections.singletonMap("ids", accountIds))));
+        return readAccounts(getAccounts);
+    }
+
     public Response<Void> validateTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) throws IOException {
         final HttpPost validateTransfer = new HttpPost(BASE_URL + "/accounting/validateTransfer");
 
@@ -67,12 +148,20 @@ public class AccountingClient {
         validateTransfer.setEntity(new StringEntity(om.writeValueAsString(requestDto)));
         try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
             final CloseableHttpResponse response = httpClient.execute(validateTransfer);
-            return new Response<>(null, response);
+            return new Response<>(null, readError(response), response);
         }
     }
 
     public Response<TransactionDto> processTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) throws IOException {
+        return processTransfer(sendingAccountId, receivingAccountId, amount, null);
+    }
+
+    public Response<TransactionDto> processTransfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount,
+                                                    final String idempotencyKey) throws IOException {
         final HttpPost processTransfer = new HttpPost(BASE_URL + "/accounting/processTransfer");
+        if (idempotencyKey != null) {
+            processTransfer.setHeader(RestMapper.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
 
         final TransactionDto requestDto = new TransactionDto();
         requestDto.setSendingAccountId(sendingAccountId);
@@ -87,19 +176,131 @@ public class AccountingClient {
                 String result = EntityUtils.toString(response.getEntity());
                 dto = om.readValue(result, TransactionDto.class);
             } else {
-                dto = null;
+                return new Response<>(null, readError(response), response);
             }
 
             return new Response<>(dto, response);
         }
     }
 
+    public Response<List<TransferResultDto>> processTransfers(final List<TransactionDto> transfers, final boolean atomic) throws IOException {
+        final HttpPost processTransfers = new HttpPost(BASE_URL + "/accounting/processTransfers");
+
+        final TransferBatchDto requestDto = new TransferBatchDto();
+        requestDto.setAtomic(atomic);
+        requestDto.setTransfers(transfers);
+
+        processTransfers.setEntity(new StringEntity(om.writeValueAsString(requestDto)));
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(processTransfers);
+            final List<TransferResultDto> dtos;
+            if (response.getStatusLine().getStatusCode() == 200) {
+                String result = EntityUtils.toString(response.getEntity());
+                dtos = om.readValue(result, new TypeReference<List<TransferResultDto>>() {});
+            } else {
+                return new Response<>(null, readError(response), response);
+            }
+
+            return new Response<>(dtos, response);
+        }
+    }
+
+    public Response<HoldDto> placeHold(final long accountId, final BigDecimal amount, final Long ttlMs) throws IOException {
+        final HttpPost placeHold = new HttpPost(BASE_URL + "/accounting/holds");
+
+        final HoldDto requestDto = new HoldDto();
+        requestDto.setAccountId(accountId);
+        requestDto.setAmount(amount);
+        requestDto.setTtlMs(ttlMs);
+
+        placeHold.setEntity(new StringEntity(om.writeValueAsString(requestDto)));
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(placeHold);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                return new Response<>(null, readError(response), response);
+            }
+            return new Response<>(om.readValue(EntityUtils.toString(response.getEntity()), HoldDto.class), response);
+        }
+    }
+
+    public Response<HoldDto> getHold(final long holdId) throws IOException {
+        final HttpGet getHold = new HttpGet(BASE_URL + "/accounting/holds/" + holdId);
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(getHold);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                return new Response<>(null, readError(response), response);
+            }
+            return new Response<>(om.readValue(EntityUtils.toString(response.getEntity()), HoldDto.class), response);
+        }
+    }
+
+    /**
+     * @param amount Amount to transfer, or null for the whole hold
+     */
+    public Response<TransactionDto> captureHold(final long holdId, final long receivingAccountId, final BigDecimal amount) throws IOException {
+        final HttpPost captureHold = new HttpPost(BASE_URL + "/accounting/holds/" + holdId + "/capture");
+
+        final CaptureHoldDto requestDto = new CaptureHoldDto();
+        requestDto.setReceivingAccountId(receivingAccountId);
+        requestDto.setAmount(amount);
+
+        captureHold.setEntity(new StringEntity(om.writeValueAsString(requestDto)));
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(captureHold);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                return new Response<>(null, readError(response), response);
+            }
+            return new Response<>(om.readValue(EntityUtils.toString(response.getEntity()), TransactionDto.class), response);
+        }
+    }
+
+    public Response<Void> releaseHold(final long holdId) throws IOException {
+        final HttpDelete releaseHold = new HttpDelete(BASE_URL + "/accounting/holds/" + holdId);
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(releaseHold);
+            return new Response<>(null, readError(response), response);
+        }
+    }
+
+    public Response<String> getMetrics() throws IOException {
+        final HttpGet getMetrics = new HttpGet(BASE_URL + "/metrics");
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(getMetrics);
+            return new Response<>(EntityUtils.toString(response.getEntity()), response);
+        }
+    }
+
+    private static Response<List<AssetAccountDto>> readAccounts(final HttpUriRequest request) throws IOException {
+        try (final CloseableHttpClient httpClient = HttpClientBuilder.create().build()){
+            final CloseableHttpResponse response = httpClient.execute(request);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                return new Response<>(null, readError(response), response);
+            }
+
+            String result = EntityUtils.toString(response.getEntity());
+            return new Response<>(om.readValue(result, new TypeReference<List<AssetAccountDto>>() {}), response);
+        }
+    }
+
+    private static ErrorDto readError(final CloseableHttpResponse response) throws IOException {
+        if (response.getStatusLine().getStatusCode() == 200) {
+            return null;
+        }
+        return om.readValue(EntityUtils.toString(response.getEntity()), ErrorDto.class);
+    }
+
     static class Response<T> {
         private final T parsedObject;
+        private final ErrorDto error;
         private final CloseableHttpResponse response;
 
         Response(final T parsedObject, final CloseableHttpResponse response) {
+            this(parsedObject, null, response);
+        }
+
+        Response(final T parsedObject, final ErrorDto error, final CloseableHttpResponse response) {
             this.parsedObject = parsedObject;
+            this.error = error;
             this.response = response;
         }
 
@@ -107,6 +308,13 @@ public class AccountingClient {
             return parsedObject;
         }
 
+        /**
+         * @return Body of a failed request, if it was read
+         */
+        public ErrorDto getError() {
+            return error;
+        }
+
         public CloseableHttpResponse getResponse() {
             return response;
         }
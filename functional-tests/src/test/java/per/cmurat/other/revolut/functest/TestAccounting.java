@@ -5,14 +5,23 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import per.cmurat.other.revolut.core.App;
 import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.HoldDto;
 import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+import per.cmurat.other.revolut.core.rest.dto.TransactionPageDto;
+import per.cmurat.other.revolut.core.rest.dto.TransferResultDto;
 import per.cmurat.other.revolut.functest.AccountingClient.Response;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static per.cmurat.other.revolut.core.rest.RestMapper.STATUS_BAD_REQUEST;
 import static per.cmurat.other.revolut.core.rest.RestMapper.STATUS_OK;
 
@@ -40,6 +49,7 @@ class TestAccounting {
 
         assertEquals(createAccountResponseDto.getId(), getAccountResponseDto.getId());
         assertEquals(createAccountResponseDto.getBalance(), getAccountResponseDto.getBalance());
+        assertEquals(createAccountResponseDto.getVersion(), getAccountResponseDto.getVersion());
     }
 
     @Test
@@ -87,6 +97,24 @@ class TestAccounting {
         assertEquals(receivingAccountAfterTransfer.getBalance(), sendingAccountDto.getBalance().add(amount));
     }
 
+    @Test
+    void retriedTransferWithIdempotencyKeyShouldBeMadeOnce() throws IOException {
+        final AssetAccountDto sendingAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto receivingAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final BigDecimal amount = new BigDecimal("10");
+
+        final TransactionDto first = client.processTransfer(sendingAccountDto.getId(), receivingAccountDto.getId(), amount, "retry-1")
+                .getParsedObject();
+        final TransactionDto retried = client.processTransfer(sendingAccountDto.getId(), receivingAccountDto.getId(), amount, "retry-1")
+                .getParsedObject();
+
+        assertEquals(first.getId(), retried.getId());
+        assertEquals(0, new BigDecimal("90").compareTo(client.getAccount(sendingAccountDto.getId()).getParsedObject().getBalance()));
+
+        final Response reused = client.processTransfer(sendingAccountDto.getId(), receivingAccountDto.getId(), new BigDecimal("20"), "retry-1");
+        assertEquals(STATUS_BAD_REQUEST, reused.getResponse().getStatusLine().getStatusCode());
+    }
+
     @Test
     void validateAndProcessTransferShouldFailWithIllegalArguments() throws IOException {
         final AssetAccountDto sendingAccountDto = client.createAccount(new BigDecimal("123.124")).getParsedObject();
@@ -108,6 +136,7 @@ class TestAccounting {
                 amount);
 
         assertEquals(STATUS_BAD_REQUEST, processTransferWithWrongAccountIdResponse.getResponse().getStatusLine().getStatusCode());
+        assertEquals("ACCOUNT_NOT_FOUND", processTransferWithWrongAccountIdResponse.getError().getCode());
 
 
         final BigDecimal illegalAmount = new BigDecimal("-10.1");
@@ -124,5 +153,205 @@ class TestAccounting {
                 illegalAmount);
 
         assertEquals(STATUS_BAD_REQUEST, processTransferResponse.getResponse().getStatusLine().getStatusCode());
+        assertEquals("INVALID_REQUEST", processTransferResponse.getError().getCode());
+    }
+
+    @Test
+    void rejectedTransfersShouldBeReportedWithErrorCodes() throws IOException {
+        final AssetAccountDto sendingAccountDto = client.createAccount(new BigDecimal("10")).getParsedObject();
+        final AssetAccountDto receivingAccountDto = client.createAccount(new BigDecimal("0")).getParsedObject();
+
+        final Response<Void> validateResponse = client.validateTransfer(
+                sendingAccountDto.getId(), receivingAccountDto.getId(), new BigDecimal("10.01"));
+        final Response<TransactionDto> processResponse = client.processTransfer(
+                sendingAccountDto.getId(), receivingAccountDto.getId(), new BigDecimal("10.01"));
+
+        assertEquals(STATUS_BAD_REQUEST, validateResponse.getResponse().getStatusLine().getStatusCode());
+        assertEquals("INSUFFICIENT_BALANCE", validateResponse.getError().getCode());
+        assertEquals(STATUS_BAD_REQUEST, processResponse.getResponse().getStatusLine().getStatusCode());
+        assertEquals("INSUFFICIENT_BALANCE", processResponse.getError().getCode());
+        assertEquals("Asset account doesn't have sufficient balance. Account id: " + sendingAccountDto.getId(),
+                processResponse.getError().getMessage());
+    }
+
+    @Test
+    void heldAmountShouldBeCapturedOrReleased() throws IOException {
+        final AssetAccountDto sendingAccountDto = client.createAccount(new BigDecimal("10")).getParsedObject();
+        final AssetAccountDto receivingAccountDto = client.createAccount(new BigDecimal("0")).getParsedObject();
+
+        final HoldDto hold = client.placeHold(sendingAccountDto.getId(), new BigDecimal("8"), null).getParsedObject();
+        assertEquals("ACTIVE", client.getHold(hold.getId()).getParsedObject().getState());
+        assertEquals(0, new BigDecimal("8").compareTo(hold.getAmount()));
+        assertTrue(hold.getExpiresAt().isAfter(LocalDateTime.now()));
+
+        final Response<TransactionDto> spendHeld = client.processTransfer(
+                sendingAccountDto.getId(), receivingAccountDto.getId(), new BigDecimal("3"));
+        assertEquals("INSUFFICIENT_BALANCE", spendHeld.getError().getCode());
+
+        final TransactionDto captured = client.captureHold(hold.getId(), receivingAccountDto.getId(), new BigDecimal("5"))
+                .getParsedObject();
+        assertEquals(0, new BigDecimal("5").compareTo(captured.getAmount()));
+        assertEquals("HOLD_NOT_FOUND", client.getHold(hold.getId()).getError().getCode());
+        assertEquals("HOLD_NOT_FOUND", client.captureHold(hold.getId(), receivingAccountDto.getId(), null).getError().getCode());
+
+        final HoldDto released = client.placeHold(sendingAccountDto.getId(), new BigDecimal("5"), 60_000L).getParsedObject();
+        assertEquals(STATUS_OK, client.releaseHold(released.getId()).getResponse().getStatusLine().getStatusCode());
+        assertEquals("HOLD_NOT_FOUND", client.releaseHold(released.getId()).getError().getCode());
+        assertEquals("INSUFFICIENT_BALANCE",
+                client.placeHold(sendingAccountDto.getId(), new BigDecimal("5.01"), null).getError().getCode());
+
+        assertEquals(0, new BigDecimal("5").compareTo(client.getAccount(sendingAccountDto.getId()).getParsedObject().getBalance()));
+        assertEquals(0, new BigDecimal("5").compareTo(client.getAccount(receivingAccountDto.getId()).getParsedObject().getBalance()));
+    }
+
+    @Test
+    void accountsShouldBeCreatedAndReadInBatches() throws IOException {
+        final List<AssetAccountDto> created = client.createAccounts(
+                Arrays.asList(new BigDecimal("10"), new BigDecimal("0"), new BigDecimal("2.50"))).getParsedObject();
+
+        assertEquals(3, created.size());
+        assertEquals(created.get(0).getId() + 1, (long) created.get(1).getId());
+        assertEquals(created.get(1).getId() + 1, (long) created.get(2).getId());
+        assertEquals(0, new BigDecimal("2.50").compareTo(created.get(2).getBalance()));
+
+        final List<AssetAccountDto> found = client.getAccounts(
+                Arrays.asList(created.get(2).getId(), -1L, created.get(0).getId())).getParsedObject();
+        assertEquals(3, found.size());
+        assertEquals(created.get(2).getId(), found.get(0).getId());
+        assertNull(found.get(1));
+        assertEquals(0, new BigDecimal("10").compareTo(found.get(2).getBalance()));
+
+        assertEquals("INVALID_REQUEST", client.createAccounts(Collections.emptyList()).getError().getCode());
+        assertEquals("INVALID_REQUEST",
+                client.createAccounts(Collections.singletonList(new BigDecimal("-1"))).getError().getCode());
+    }
+
+    @Test
+    void processTransfersShouldApplyBatch() throws IOException {
+        final AssetAccountDto firstAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto secondAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+
+        final List<TransferResultDto> results = client.processTransfers(Arrays.asList(
+                transfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("30")),
+                transfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("1000")),
+                transfer(secondAccountDto.getId(), firstAccountDto.getId(), new BigDecimal("10"))), false)
+                .getParsedObject();
+
+        assertEquals(3, results.size());
+        assertNotNull(results.get(0).getTransaction());
+        assertNotNull(results.get(1).getError());
+        assertEquals("INSUFFICIENT_BALANCE", results.get(1).getCode());
+        assertNotNull(results.get(2).getTransaction());
+
+        assertEquals(new BigDecimal("80.00"), client.getAccount(firstAccountDto.getId()).getParsedObject().getBalance());
+        assertEquals(new BigDecimal("120.00"), client.getAccount(secondAccountDto.getId()).getParsedObject().getBalance());
+
+        final Response atomicResponse = client.processTransfers(Arrays.asList(
+                transfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("30")),
+                transfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("1000"))), true);
+
+        assertEquals(STATUS_BAD_REQUEST, atomicResponse.getResponse().getStatusLine().getStatusCode());
+        assertEquals("INSUFFICIENT_BALANCE", atomicResponse.getError().getCode());
+        assertEquals(new BigDecimal("80.00"), client.getAccount(firstAccountDto.getId()).getParsedObject().getBalance());
+    }
+
+    private TransactionDto transfer(final long sendingAccountId, final long receivingAccountId, final BigDecimal amount) {
+        final TransactionDto dto = new TransactionDto();
+        dto.setSendingAccountId(sendingAccountId);
+        dto.setReceivingAccountId(receivingAccountId);
+        dto.setAmount(amount);
+        return dto;
+    }
+
+    @Test
+    void getTransactionsShouldPageThroughHistory() throws IOException {
+        final AssetAccountDto firstAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto secondAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final TransactionDto firstTransfer = client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), BigDecimal.ONE).getParsedObject();
+        final TransactionDto secondTransfer = client.processTransfer(secondAccountDto.getId(), firstAccountDto.getId(), BigDecimal.TEN).getParsedObject();
+        final TransactionDto thirdTransfer = client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), BigDecimal.ONE).getParsedObject();
+
+        final TransactionPageDto firstPage = client.getTransactions(firstAccountDto.getId(), null, 2).getParsedObject();
+        assertEquals(2, firstPage.getTransactions().size());
+        assertEquals(firstTransfer.getId(), firstPage.getTransactions().get(0).getId());
+        assertEquals(secondTransfer.getId(), firstPage.getTransactions().get(1).getId());
+        assertNotNull(firstPage.getNextCursor());
+
+        final TransactionPageDto secondPage = client.getTransactions(firstAccountDto.getId(), firstPage.getNextCursor(), 2).getParsedObject();
+        assertEquals(1, secondPage.getTransactions().size());
+        assertEquals(thirdTransfer.getId(), secondPage.getTransactions().get(0).getId());
+        assertNull(secondPage.getNextCursor());
+
+        final Response response = client.getTransactions(firstAccountDto.getId(), null, 0);
+        assertEquals(STATUS_BAD_REQUEST, response.getResponse().getStatusLine().getStatusCode());
+    }
+
+    @Test
+    void getTransactionsInRangeShouldFilterByTimeAndAccount() throws IOException {
+        final LocalDateTime from = LocalDateTime.now().minusMinutes(1);
+        final AssetAccountDto firstAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto secondAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto thirdAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final TransactionDto firstTransfer = client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), BigDecimal.ONE).getParsedObject();
+        final TransactionDto secondTransfer = client.processTransfer(secondAccountDto.getId(), thirdAccountDto.getId(), BigDecimal.ONE).getParsedObject();
+        final LocalDateTime to = LocalDateTime.now().plusMinutes(1);
+
+        final TransactionPageDto firstPage = client.getTransactionsInRange(from, to, null, null, 1).getParsedObject();
+        assertEquals(1, firstPage.getTransactions().size());
+        assertEquals(firstTransfer.getId(), firstPage.getTransactions().get(0).getId());
+
+        final TransactionPageDto secondPage = client.getTransactionsInRange(from, to, null, firstPage.getNextCursor(), 1).getParsedObject();
+        assertEquals(1, secondPage.getTransactions().size());
+        assertEquals(secondTransfer.getId(), secondPage.getTransactions().get(0).getId());
+        assertNull(secondPage.getNextCursor());
+
+        final TransactionPageDto thirdAccountPage = client.getTransactionsInRange(from, to, thirdAccountDto.getId(), null, 10).getParsedObject();
+        assertEquals(1, thirdAccountPage.getTransactions().size());
+        assertEquals(secondTransfer.getId(), thirdAccountPage.getTransactions().get(0).getId());
+
+        final TransactionPageDto earlierPage = client.getTransactionsInRange(from.minusHours(1), from, null, null, 10).getParsedObject();
+        assertEquals(0, earlierPage.getTransactions().size());
+    }
+
+    @Test
+    void feedShouldStreamCommittedTransfers() throws IOException {
+        final AssetAccountDto firstAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto secondAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final TransactionDto firstTransfer = client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), BigDecimal.ONE).getParsedObject();
+        final TransactionDto secondTransfer = client.processTransfer(secondAccountDto.getId(), firstAccountDto.getId(), BigDecimal.TEN).getParsedObject();
+
+        final TransactionPageDto firstPage = client.getFeed(firstTransfer.getId() - 1, 1, 0).getParsedObject();
+        assertEquals(1, firstPage.getTransactions().size());
+        assertEquals(firstTransfer.getId(), firstPage.getTransactions().get(0).getId());
+        assertEquals(firstTransfer.getId(), firstPage.getNextCursor());
+
+        final TransactionPageDto secondPage = client.getFeed(firstPage.getNextCursor(), 10, 0).getParsedObject();
+        assertEquals(1, secondPage.getTransactions().size());
+        assertEquals(secondTransfer.getId(), secondPage.getTransactions().get(0).getId());
+
+        final TransactionPageDto emptyPage = client.getFeed(secondPage.getNextCursor(), 10, 50).getParsedObject();
+        assertEquals(0, emptyPage.getTransactions().size());
+        assertEquals(secondTransfer.getId(), emptyPage.getNextCursor());
+
+        final Response response = client.getFeed(0, 10, -1);
+        assertEquals(STATUS_BAD_REQUEST, response.getResponse().getStatusLine().getStatusCode());
+    }
+
+    @Test
+    void metricsShouldCountTransfersAndRequests() throws IOException {
+        final AssetAccountDto firstAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        final AssetAccountDto secondAccountDto = client.createAccount(new BigDecimal("100")).getParsedObject();
+        client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("10"));
+        client.processTransfer(firstAccountDto.getId(), secondAccountDto.getId(), new BigDecimal("1000"));
+
+        final Response<String> response = client.getMetrics();
+        final String metrics = response.getParsedObject();
+
+        assertEquals(STATUS_OK, response.getResponse().getStatusLine().getStatusCode());
+        assertTrue(metrics.contains("ledger_transfers_total{result=\"success\"} 1\n"));
+        assertTrue(metrics.contains("ledger_transfers_total{result=\"rejected\",reason=\"insufficient_balance\"} 1\n"));
+        assertTrue(metrics.contains("ledger_accounts 2\n"));
+        assertTrue(metrics.contains("ledger_http_request_duration_seconds_count{route=\"POST /accounting/processTransfer\"} 2\n"));
+        assertTrue(metrics.contains("ledger_lock_wait_seconds_count 4\n"));
     }
 }
@@ -0,0 +1,78 @@
+package per.cmurat.other.revolut.functest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import per.cmurat.other.revolut.core.App;
+import per.cmurat.other.revolut.core.AppConfig;
+import per.cmurat.other.revolut.core.binary.BinaryClient;
+import per.cmurat.other.revolut.core.binary.BinaryProtocol;
+import per.cmurat.other.revolut.core.binary.BinaryProtocolException;
+import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestBinaryProtocol {
+    private static final int BINARY_PORT = 4568;
+
+    private AccountingClient restClient = new AccountingClient();
+
+    private App app;
+    private BinaryClient client;
+
+    @BeforeEach
+    void startApp() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(AppConfig.BINARY_PORT, String.valueOf(BINARY_PORT));
+        app = new App(new AppConfig(properties));
+        app.start();
+        client = new BinaryClient("localhost", BINARY_PORT);
+    }
+
+    @AfterEach
+    void stopApp() throws IOException {
+        client.close();
+        app.stop();
+    }
+
+    @Test
+    void binaryTransfersShouldBeSeenByTheRestApi() throws Exception {
+        final long sender = client.createAccount(1_000_000L).get(5, TimeUnit.SECONDS).getId();
+        final long receiver = restClient.createAccount(new BigDecimal("0")).getParsedObject().getId();
+
+        final List<CompletableFuture<BinaryClient.Transfer>> transfers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            transfers.add(client.transfer(sender, receiver, 2_500L));
+        }
+        for (final CompletableFuture<BinaryClient.Transfer> transfer : transfers) {
+            transfer.get(5, TimeUnit.SECONDS);
+        }
+
+        final AssetAccountDto restSender = restClient.getAccount(sender).getParsedObject();
+        final AssetAccountDto restReceiver = restClient.getAccount(receiver).getParsedObject();
+        assertEquals(0, new BigDecimal("75").compareTo(restSender.getBalance()));
+        assertEquals(0, new BigDecimal("25").compareTo(restReceiver.getBalance()));
+        assertEquals(250_000L, client.getAccount(receiver).get(5, TimeUnit.SECONDS).getBalance());
+    }
+
+    @Test
+    void binaryTransferShouldFailWithInsufficientBalance() throws IOException {
+        final long sender = restClient.createAccount(new BigDecimal("1")).getParsedObject().getId();
+        final long receiver = restClient.createAccount(new BigDecimal("0")).getParsedObject().getId();
+
+        final ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> client.transfer(sender, receiver, 10_001L).get(5, TimeUnit.SECONDS));
+
+        assertEquals(BinaryProtocol.INSUFFICIENT_BALANCE, ((BinaryProtocolException) exception.getCause()).getStatus());
+    }
+}
@@ -0,0 +1,229 @@
+package per.cmurat.other.revolut.functest.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import per.cmurat.other.revolut.core.rest.dto.AssetAccountDto;
+import per.cmurat.other.revolut.core.rest.dto.TransactionDto;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the REST endpoints with an open-loop load: requests are started at a fixed rate whether or not the earlier
+ * ones have completed, as independent clients would do.
+ *
+ * Latency is measured from the time a request was due to start, not from the time it was sent, so that the time
+ * spent waiting for a connection when the server falls behind is counted. Otherwise a stalled server would delay the
+ * requests that would observe the stall, and hide it from the histograms (coordinated omission).
+ */
+public class LoadGenerator implements AutoCloseable {
+    private static final String BASE_URL = "http://localhost:4567";
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final LoadTestConfig config;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CloseableHttpClient httpClient;
+    private final Operation[] operations;
+
+    private long[] accountIds;
+
+    public LoadGenerator(final LoadTestConfig config) {
+        this.config = config;
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getConnections());
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+        this.operations = weightedOperations(config.getMix());
+    }
+
+    /**
+     * Creates the accounts used by the load, so that the load doesn't start with an empty ledger.
+     */
+    public void createAccounts() throws IOException {
+        accountIds = new long[config.getAccounts()];
+        for (int i = 0; i < accountIds.length; i++) {
+            final AssetAccountDto request = new AssetAccountDto();
+            request.setBalance(INITIAL_BALANCE);
+            final String body = send(put("/accounting/account", request));
+            accountIds[i] = mapper.readValue(body, AssetAccountDto.class).getId();
+        }
+    }
+
+    /**
+     * Runs the warm-up and then the measured load.
+     */
+    public LoadReport run() throws InterruptedException {
+        drive(config.getWarmupSeconds(), new Recorders());
+
+        final Recorders recorders = new Recorders();
+        final long start = System.nanoTime();
+        final long lastCompletion = drive(config.getDurationSeconds(), recorders);
+
+        final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            histograms.put(operation, recorders.latencies.get(operation).getIntervalHistogram());
+        }
+        final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            errors.put(operation, recorders.errors.get(operation).get());
+        }
+        return new LoadReport(config.getRate(), histograms, errors, lastCompletion - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * Starts the requests at the configured rate for the given time, and waits for them to complete.
+     *
+     * @return Time of the last completion
+     */
+    private long drive(final int seconds, final Recorders recorders) throws InterruptedException {
+        final long interval = TimeUnit.SECONDS.toNanos(1) / config.getRate();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final AtomicLong lastCompletion = new AtomicLong(start);
+        //Requests wait in the queue of the workers while all of the connections are busy.
+        final ExecutorService workers = Executors.newFixedThreadPool(config.getConnections());
+
+        for (long due = start; due < end; due += interval) {
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            final Operation operation = operations[ThreadLocalRandom.current().nextInt(operations.length)];
+            final long dueTime = due;
+            workers.execute(() -> {
+                execute(operation, dueTime, recorders);
+                lastCompletion.accumulateAndGet(System.nanoTime(), Math::max);
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return lastCompletion.get();
+    }
+
+    private void execute(final Operation operation, final long due, final Recorders recorders) {
+        boolean success;
+        try {
+            send(request(operation));
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            success = false;
+        }
+
+        final long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due);
+        recorders.latencies.get(operation).recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+        if (!success) {
+            recorders.errors.get(operation).incrementAndGet();
+        }
+    }
+
+    private HttpUriRequest request(final Operation operation) throws IOException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long sendingAccountId = accountIds[random.nextInt(accountIds.length)];
+        switch (operation) {
+            case GET:
+                return new HttpGet(BASE_URL + "/accounting/account/" + sendingAccountId);
+            case CREATE:
+                final AssetAccountDto account = new AssetAccountDto();
+                account.setBalance(INITIAL_BALANCE);
+                return put("/accounting/account", account);
+            case VALIDATE:
+                return post("/accounting/validateTransfer", transfer(sendingAccountId, random));
+            case TRANSFER:
+                return post("/accounting/processTransfer", transfer(sendingAccountId, random));
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    private TransactionDto transfer(final long sendingAccountId, final ThreadLocalRandom random) {
+        final TransactionDto transfer = new TransactionDto();
+        transfer.setSendingAccountId(sendingAccountId);
+        transfer.setReceivingAccountId(accountIds[random.nextInt(accountIds.length)]);
+        transfer.setAmount(AMOUNT);
+        return transfer;
+    }
+
+    private HttpPut put(final String path, final Object body) throws IOException {
+        final HttpPut request = new HttpPut(BASE_URL + path);
+        request.setEntity(new StringEntity(mapper.writeValueAsString(body), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    private HttpPost post(final String path, final Object body) throws IOException {
+        final HttpPost request = new HttpPost(BASE_URL + path);
+        request.setEntity(new StringEntity(mapper.writeValueAsString(body), ContentType.APPLICATION_JSON));
+        return request;
+    }
+
+    /**
+     * @return Body of the response
+     * @throws IOException If the request fails or the response is not successful
+     */
+    private String send(final HttpUriRequest request) throws IOException {
+        try (final CloseableHttpResponse response = httpClient.execute(request)) {
+            final String body = EntityUtils.toString(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Request failed with status " + response.getStatusLine().getStatusCode());
+            }
+            return body;
+        }
+    }
+
+    private static Operation[] weightedOperations(final Map<Operation, Integer> mix) {
+        final int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (total < 1) {
+            throw new IllegalArgumentException("Weights of the operations must add up to a positive number");
+        }
+
+        final Operation[] operations = new Operation[total];
+        int index = 0;
+        for (final Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                operations[index++] = entry.getKey();
+            }
+        }
+        return operations;
+    }
+
+    private static final class Recorders {
+        private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+
+        private Recorders() {
+            for (final Operation operation : Operation.values()) {
+                latencies.put(operation, new Recorder(3));
+                errors.put(operation, new AtomicLong());
+            }
+        }
+    }
+}
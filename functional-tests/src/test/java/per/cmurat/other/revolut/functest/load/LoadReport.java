@@ -0,0 +1,118 @@
+package per.cmurat.other.revolut.functest.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms in microseconds and error counts of each operation of a load test, and the sustained
+ * throughput.
+ */
+public class LoadReport {
+    private final int targetRate;
+    private final Map<Operation, Histogram> histograms;
+    private final Map<Operation, Long> errors;
+    private final Histogram total;
+    private final long totalErrors;
+    private final double throughput;
+
+    LoadReport(final int targetRate, final Map<Operation, Histogram> histograms, final Map<Operation, Long> errors,
+               final long elapsedNanos) {
+        this.targetRate = targetRate;
+        this.histograms = histograms;
+        this.errors = errors;
+
+        this.total = new Histogram(3);
+        for (final Histogram histogram : histograms.values()) {
+            total.add(histogram);
+        }
+        this.totalErrors = errors.values().stream().mapToLong(Long::longValue).sum();
+        this.throughput = total.getTotalCount() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @return Completed requests per second, from the start of the measurement until the last response
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public Histogram getTotal() {
+        return total;
+    }
+
+    public double getErrorRate() {
+        return total.getTotalCount() == 0 ? 0 : totalErrors / (double) total.getTotalCount();
+    }
+
+    /**
+     * @return Descriptions of the objectives that were not met, empty if all were met
+     */
+    public List<String> findBreaches(final LoadTestConfig config) {
+        final List<String> breaches = new ArrayList<>();
+        if (total.getTotalCount() == 0) {
+            breaches.add("No requests completed");
+            return breaches;
+        }
+
+        checkLimit(breaches, "p99", millis(total.getValueAtPercentile(99)), config.getP99MillisLimit());
+        checkLimit(breaches, "p99.9", millis(total.getValueAtPercentile(99.9)), config.getP999MillisLimit());
+        if (config.getMaxMillisLimit() > 0) {
+            checkLimit(breaches, "max", millis(total.getMaxValue()), config.getMaxMillisLimit());
+        }
+        if (throughput < targetRate * config.getMinThroughputRatio()) {
+            breaches.add(String.format("Throughput %.1f/s is below %.0f%% of the rate %d/s",
+                    throughput, config.getMinThroughputRatio() * 100, targetRate));
+        }
+        if (getErrorRate() > config.getMaxErrorRate()) {
+            breaches.add(String.format("Error rate %.4f is above %.4f", getErrorRate(), config.getMaxErrorRate()));
+        }
+        return breaches;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %10s %8s %10s %10s %10s %10s%n",
+                "Operation", "Count", "Errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long reads = 0;
+        long writes = 0;
+        for (final Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            final Histogram histogram = entry.getValue();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            if (entry.getKey().isWrite()) {
+                writes += histogram.getTotalCount();
+            } else {
+                reads += histogram.getTotalCount();
+            }
+            appendRow(report, entry.getKey().name(), histogram, errors.get(entry.getKey()));
+        }
+        appendRow(report, "TOTAL", total, totalErrors);
+        report.append(String.format("Throughput: %.1f/s of %d/s, reads: %d, writes: %d%n",
+                throughput, targetRate, reads, writes));
+        return report.toString();
+    }
+
+    private static void appendRow(final StringBuilder report, final String name, final Histogram histogram,
+                                  final long errors) {
+        report.append(String.format("%-10s %10d %8d %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getTotalCount(),
+                errors, millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue())));
+    }
+
+    private static void checkLimit(final List<String> breaches, final String name, final double millis,
+                                   final double limit) {
+        if (millis > limit) {
+            breaches.add(String.format("%s latency %.2f ms is above %.2f ms", name, millis, limit));
+        }
+    }
+
+    private static double millis(final long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,113 @@
+package per.cmurat.other.revolut.functest.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Settings of a load test, read from system properties with the "load." prefix.
+ */
+public class LoadTestConfig {
+    /**
+     * Requests started per second, regardless of how fast the responses come.
+     */
+    public static final String RATE = "load.rate";
+    public static final String WARMUP_SECONDS = "load.warmupSeconds";
+    public static final String DURATION_SECONDS = "load.durationSeconds";
+    /**
+     * Maximum number of concurrent connections, and of requests in flight.
+     */
+    public static final String CONNECTIONS = "load.connections";
+    public static final String ACCOUNTS = "load.accounts";
+    /**
+     * Weights of the operations, e.g. "get:40,validate:10,transfer:45,create:5".
+     */
+    public static final String MIX = "load.mix";
+
+    public static final String SLO_P99_MILLIS = "load.slo.p99Millis";
+    public static final String SLO_P999_MILLIS = "load.slo.p999Millis";
+    public static final String SLO_MAX_MILLIS = "load.slo.maxMillis";
+    /**
+     * Minimum ratio of the sustained throughput to the configured rate.
+     */
+    public static final String SLO_MIN_THROUGHPUT_RATIO = "load.slo.minThroughputRatio";
+    public static final String SLO_MAX_ERROR_RATE = "load.slo.maxErrorRate";
+
+    private final Properties properties;
+
+    public LoadTestConfig(final Properties properties) {
+        this.properties = properties;
+    }
+
+    public static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(System.getProperties());
+    }
+
+    public int getRate() {
+        return getInt(RATE, 500);
+    }
+
+    public int getWarmupSeconds() {
+        return getInt(WARMUP_SECONDS, 5);
+    }
+
+    public int getDurationSeconds() {
+        return getInt(DURATION_SECONDS, 30);
+    }
+
+    public int getConnections() {
+        return getInt(CONNECTIONS, 64);
+    }
+
+    public int getAccounts() {
+        return getInt(ACCOUNTS, 1000);
+    }
+
+    public Map<Operation, Integer> getMix() {
+        final String value = properties.getProperty(MIX, "get:40,validate:10,transfer:45,create:5");
+        final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (final String entry : value.split(",")) {
+            final String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(MIX + " must be a list of <operation>:<weight>");
+            }
+            mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return mix;
+    }
+
+    public double getP99MillisLimit() {
+        return getDouble(SLO_P99_MILLIS, 50);
+    }
+
+    public double getP999MillisLimit() {
+        return getDouble(SLO_P999_MILLIS, 200);
+    }
+
+    /**
+     * @return Limit of the maximum latency, or 0 if there is none
+     */
+    public double getMaxMillisLimit() {
+        return getDouble(SLO_MAX_MILLIS, 0);
+    }
+
+    public double getMinThroughputRatio() {
+        return getDouble(SLO_MIN_THROUGHPUT_RATIO, 0.95);
+    }
+
+    public double getMaxErrorRate() {
+        return getDouble(SLO_MAX_ERROR_RATE, 0.001);
+    }
+
+    private int getInt(final String key, final int defaultValue) {
+        final int value = Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be positive");
+        }
+        return value;
+    }
+
+    private double getDouble(final String key, final double defaultValue) {
+        return Double.parseDouble(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+    }
+}
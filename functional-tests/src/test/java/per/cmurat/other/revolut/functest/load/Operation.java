@@ -0,0 +1,21 @@
+package per.cmurat.other.revolut.functest.load;
+
+/**
+ * Requests sent by the load generator, one for each endpoint.
+ */
+public enum Operation {
+    GET(false),
+    VALIDATE(false),
+    TRANSFER(true),
+    CREATE(true);
+
+    private final boolean write;
+
+    Operation(final boolean write) {
+        this.write = write;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+}
@@ -0,0 +1,57 @@
+package per.cmurat.other.revolut.functest.load;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import per.cmurat.other.revolut.core.App;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs only when enabled, e.g. with {@code mvn test -pl functional-tests -Dload.enabled=true -Dtest=TestLoad}, since
+ * it takes a while and its results depend on the machine. See {@link LoadTestConfig} for the settings. The report is
+ * written to {@code target/load-report.txt}.
+ */
+@EnabledIfSystemProperty(named = "load.enabled", matches = "true")
+class TestLoad {
+    private static final Logger LOGGER = Logger.getLogger(TestLoad.class.getName());
+    private static final Path REPORT_FILE = Paths.get("target", "load-report.txt");
+
+    private App app;
+
+    @BeforeEach
+    void startApp() {
+        app = new App();
+        app.start();
+    }
+
+    @AfterEach
+    void stopApp() {
+        app.stop();
+    }
+
+    @Test
+    void loadShouldMeetServiceLevelObjectives() throws Exception {
+        final LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+
+        final LoadReport report;
+        try (final LoadGenerator generator = new LoadGenerator(config)) {
+            generator.createAccounts();
+            report = generator.run();
+        }
+
+        Files.createDirectories(REPORT_FILE.getParent());
+        Files.write(REPORT_FILE, report.toString().getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Load report written to " + REPORT_FILE.toAbsolutePath() + System.lineSeparator() + report);
+        final List<String> breaches = report.findBreaches(config);
+        assertTrue(breaches.isEmpty(), "Service level objectives are not met: " + breaches);
+    }
+}